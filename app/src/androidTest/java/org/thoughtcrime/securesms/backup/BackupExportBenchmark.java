@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.Conversions;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Writes a set of local attachments into a backup file through the export pipeline, and through a
+ * serial reference that decrypts, re-encrypts and writes one attachment at a time on the calling
+ * thread, the way the exporter used to. Results are logged, along with the most ciphertext the
+ * pipeline held in memory at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class BackupExportBenchmark {
+
+  private static final String TAG = BackupExportBenchmark.class.getSimpleName();
+
+  private static final int    MB          = 1024 * 1024;
+  private static final int    ATTACHMENTS = 32;
+  private static final String PASSPHRASE  = "123451234512345123451234512345";
+
+  private Context          context;
+  private AttachmentSecret attachmentSecret;
+  private File[]           parts;
+  private byte[][]         randoms;
+  private File             backupFile;
+
+  @Before
+  public void setUp() throws Exception {
+    context          = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+    backupFile       = new File(context.getCacheDir(), "benchmark-backup.tmp");
+    parts            = new File[ATTACHMENTS];
+    randoms          = new byte[ATTACHMENTS][];
+  }
+
+  @After
+  public void tearDown() {
+    backupFile.delete();
+
+    for (File part : parts) {
+      if (part != null) {
+        part.delete();
+      }
+    }
+  }
+
+  @Test
+  public void export_256kb_attachments() throws Exception {
+    runBenchmark(MB / 4);
+  }
+
+  @Test
+  public void export_4mb_attachments() throws Exception {
+    runBenchmark(4 * MB);
+  }
+
+  private void runBenchmark(int size) throws Exception {
+    writeParts(size);
+
+    long serialMs = timeSerial();
+
+    BackupFrameOutputStream stream    = new BackupFrameOutputStream(new FileOutputStream(backupFile), PASSPHRASE);
+    long                    startTime = System.currentTimeMillis();
+
+    try {
+      for (int i = 0; i < ATTACHMENTS; i++) {
+        stream.write(new AttachmentId(i, i), ModernDecryptingPartInputStream.createFor(attachmentSecret, randoms[i], parts[i], 0), size);
+      }
+      stream.writeEnd();
+    } finally {
+      stream.stop();
+      stream.close();
+    }
+
+    long pipelinedMs = System.currentTimeMillis() - startTime;
+
+    Log.i(TAG, String.format(Locale.US, "%d x %,d KB: serial %d ms, pipelined %d ms, peak buffered %,d KB",
+                                        ATTACHMENTS, size / 1024, serialMs, pipelinedMs, stream.getPeakBufferedBytes() / 1024));
+  }
+
+  private long timeSerial() throws Exception {
+    byte[] cipherKey = Util.getSecretBytes(32);
+    byte[] macKey    = Util.getSecretBytes(32);
+    byte[] iv        = Util.getSecretBytes(16);
+    Cipher cipher    = Cipher.getInstance("AES/CTR/NoPadding");
+    Mac    mac       = Mac.getInstance("HmacSHA256");
+    byte[] buffer    = new byte[8192];
+    long   startTime = System.currentTimeMillis();
+
+    mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+
+    try (OutputStream out = new FileOutputStream(backupFile)) {
+      for (int i = 0; i < ATTACHMENTS; i++) {
+        Conversions.intToByteArray(iv, 0, i);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        mac.update(iv);
+
+        try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, randoms[i], parts[i], 0)) {
+          int read;
+
+          while ((read = in.read(buffer)) != -1) {
+            byte[] ciphertext = cipher.update(buffer, 0, read);
+            mac.update(ciphertext);
+            out.write(ciphertext);
+          }
+        }
+
+        byte[] remainder = cipher.doFinal();
+        mac.update(remainder);
+        out.write(remainder);
+        out.write(mac.doFinal(), 0, 10);
+      }
+    }
+
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private void writeParts(int size) throws Exception {
+    byte[] data = Util.getSecretBytes(size);
+
+    for (int i = 0; i < ATTACHMENTS; i++) {
+      parts[i] = new File(context.getCacheDir(), "benchmark-part-" + i + ".tmp");
+
+      Pair<byte[], OutputStream> part = ModernEncryptingPartOutputStream.createFor(attachmentSecret, parts[i], false);
+
+      randoms[i] = part.first;
+
+      try (OutputStream out = part.second) {
+        out.write(data);
+      }
+    }
+  }
+}
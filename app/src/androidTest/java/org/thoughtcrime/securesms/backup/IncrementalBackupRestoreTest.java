@@ -0,0 +1,339 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes chains of incremental backups containing a small attachment table and restores them with
+ * {@link FullBackupImporter#importChain}.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class IncrementalBackupRestoreTest {
+
+  private static final String PASSPHRASE = "123451234512345123451234512345";
+  private static final String CHAIN      = "2021-03-01-02-30-00";
+
+  private static final String CREATE_PART = "CREATE TABLE " + AttachmentDatabase.TABLE_NAME + " (" + AttachmentDatabase.ROW_ID + " INTEGER PRIMARY KEY, " +
+                                                                                                     AttachmentDatabase.UNIQUE_ID + " INTEGER NOT NULL, " +
+                                                                                                     AttachmentDatabase.DATA + " TEXT, " +
+                                                                                                     AttachmentDatabase.DATA_RANDOM + " BLOB)";
+
+  private Context          context;
+  private AttachmentSecret attachmentSecret;
+  private File             partsDirectory;
+  private Set<String>      existingParts;
+  private List<File>       backupFiles;
+  private SQLiteDatabase   output;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    attachmentSecret = new AttachmentSecret(Util.getSecretBytes(32), Util.getSecretBytes(32), Util.getSecretBytes(32));
+    partsDirectory   = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
+    existingParts    = new HashSet<>(Arrays.asList(partsDirectory.list()));
+    backupFiles      = new LinkedList<>();
+    output           = SQLiteDatabase.create(null, "test");
+
+    output.setVersion(1);
+    output.execSQL("CREATE TABLE sentinel (_id INTEGER PRIMARY KEY)");
+  }
+
+  @After
+  public void tearDown() {
+    output.close();
+
+    for (File part : getRestoredParts()) {
+      part.delete();
+    }
+
+    for (File backup : backupFiles) {
+      backup.delete();
+    }
+  }
+
+  @Test
+  public void importChain_attachmentFromBase_reattached() throws IOException {
+    byte[] first  = Util.getSecretBytes(1000);
+    byte[] second = Util.getSecretBytes(2000);
+
+    File base  = writeBackup(0, rows(1, 2), blobs(1, first));
+    File delta = writeBackup(1, rows(1, 2), blobs(2, second));
+
+    importChain(base, delta);
+
+    assertArrayEquals(first, readAttachment(1));
+    assertArrayEquals(second, readAttachment(2));
+    assertEquals(2, getRestoredParts().size());
+  }
+
+  @Test
+  public void importChain_attachmentCarriedThroughSeveralDeltas() throws IOException {
+    byte[] first  = Util.getSecretBytes(1000);
+    byte[] second = Util.getSecretBytes(2000);
+    byte[] third  = Util.getSecretBytes(3000);
+
+    File base   = writeBackup(0, rows(1), blobs(1, first));
+    File delta1 = writeBackup(1, rows(1, 2), blobs(2, second));
+    File delta2 = writeBackup(2, rows(1, 2, 3), blobs(3, third));
+
+    importChain(base, delta1, delta2);
+
+    assertArrayEquals(first, readAttachment(1));
+    assertArrayEquals(second, readAttachment(2));
+    assertArrayEquals(third, readAttachment(3));
+    assertEquals(3, getRestoredParts().size());
+  }
+
+  @Test
+  public void importChain_newerCopyInDelta_replacesEarlierFile() throws IOException {
+    byte[] original = Util.getSecretBytes(1000);
+    byte[] updated  = Util.getSecretBytes(1500);
+
+    File base  = writeBackup(0, rows(1), blobs(1, original));
+    File delta = writeBackup(1, rows(1), blobs(1, updated));
+
+    importChain(base, delta);
+
+    assertArrayEquals(updated, readAttachment(1));
+    assertEquals(1, getRestoredParts().size());
+  }
+
+  @Test
+  public void importChain_rowDeletedInDelta_fileDeleted() throws IOException {
+    byte[] first  = Util.getSecretBytes(1000);
+    byte[] second = Util.getSecretBytes(2000);
+
+    File base  = writeBackup(0, rows(1, 2), blobs(1, first, 2, second));
+    File delta = writeBackup(1, rows(1), blobs());
+
+    importChain(base, delta);
+
+    assertArrayEquals(first, readAttachment(1));
+    assertEquals(1, getRestoredParts().size());
+    assertEquals(1, count("SELECT COUNT(*) FROM " + AttachmentDatabase.TABLE_NAME));
+  }
+
+  @Test
+  public void importChain_deltasOutOfOrder_throws() throws IOException {
+    File base   = writeBackup(0, rows(1), blobs(1, Util.getSecretBytes(100)));
+    File delta1 = writeBackup(1, rows(1), blobs());
+    File delta2 = writeBackup(2, rows(1), blobs());
+
+    assertImportFails(base, delta2, delta1);
+  }
+
+  @Test
+  public void importChain_deltaFromAnotherChain_throws() throws IOException {
+    File base  = writeBackup(0, rows(1), blobs(1, Util.getSecretBytes(100)));
+    File delta = writeBackup("2021-03-08-02-30-00", 1, rows(1), blobs());
+
+    assertImportFails(base, delta);
+  }
+
+  @Test
+  public void importChain_deltaMissing_throws() throws IOException {
+    File base = writeBackup(0, rows(1), blobs(1, Util.getSecretBytes(100)));
+
+    writeBackup(1, rows(1), blobs());
+    File delta2 = writeBackup(2, rows(1), blobs());
+
+    assertImportFails(base, delta2);
+  }
+
+  @Test
+  public void importChain_deltaFileGone_throws() throws IOException {
+    File base  = writeBackup(0, rows(1), blobs(1, Util.getSecretBytes(100)));
+    File delta = writeBackup(1, rows(1), blobs());
+
+    assertTrue(delta.delete());
+
+    assertImportFails(base, delta);
+  }
+
+  @Test
+  public void importChain_deltaCorrupt_throws() throws IOException {
+    File base  = writeBackup(0, rows(1), blobs(1, Util.getSecretBytes(100)));
+    File delta = writeBackup(1, rows(1), blobs());
+
+    try (RandomAccessFile file = new RandomAccessFile(delta, "rw")) {
+      file.seek(file.length() - 1);
+      int last = file.read();
+      file.seek(file.length() - 1);
+      file.write(last ^ 0x01);
+    }
+
+    assertImportFails(base, delta);
+  }
+
+  @Test
+  public void importChain_baseNotIncremental_throws() throws IOException {
+    File base  = writeBackup(null, 0, rows(1), blobs(1, Util.getSecretBytes(100)));
+    File delta = writeBackup(1, rows(1), blobs());
+
+    assertImportFails(base, delta);
+  }
+
+  private void importChain(@NonNull File base, @NonNull File... deltas) throws IOException {
+    Uri[] deltaUris = new Uri[deltas.length];
+
+    for (int i = 0; i < deltas.length; i++) {
+      deltaUris[i] = Uri.fromFile(deltas[i]);
+    }
+
+    FullBackupImporter.importChain(context, attachmentSecret, output, Uri.fromFile(base), Arrays.asList(deltaUris), PASSPHRASE);
+  }
+
+  /**
+   * The whole restore happens in one transaction, so a failure anywhere in the chain should leave
+   * the database as it was.
+   */
+  private void assertImportFails(@NonNull File base, @NonNull File... deltas) {
+    try {
+      importChain(base, deltas);
+      fail();
+    } catch (IOException e) {
+      assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '" + AttachmentDatabase.TABLE_NAME + "'"));
+      assertEquals(1, count("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'sentinel'"));
+    }
+  }
+
+  private @NonNull File writeBackup(int sequence, @NonNull long[] rows, @NonNull Map<Long, byte[]> blobs) throws IOException {
+    return writeBackup(CHAIN, sequence, rows, blobs);
+  }
+
+  private @NonNull File writeBackup(@Nullable String chainId, int sequence, @NonNull long[] rows, @NonNull Map<Long, byte[]> blobs) throws IOException {
+    File                    file   = File.createTempFile("incremental-backup", ".tmp", context.getCacheDir());
+    BackupFrameOutputStream stream = new BackupFrameOutputStream(new FileOutputStream(file), PASSPHRASE);
+
+    backupFiles.add(file);
+
+    try {
+      if (chainId != null) {
+        stream.write(BackupProtos.Incremental.newBuilder().setChainId(chainId).setSequence(sequence).build());
+      }
+
+      stream.writeDatabaseVersion(1);
+      stream.write(statement(CREATE_PART));
+
+      for (long row : rows) {
+        stream.write(statement("INSERT INTO " + AttachmentDatabase.TABLE_NAME + " (" + AttachmentDatabase.ROW_ID + ", " + AttachmentDatabase.UNIQUE_ID + ") " +
+                               "VALUES (" + row + ", " + uniqueId(row) + ")"));
+      }
+
+      for (Map.Entry<Long, byte[]> blob : blobs.entrySet()) {
+        stream.write(new AttachmentId(blob.getKey(), uniqueId(blob.getKey())), new ByteArrayInputStream(blob.getValue()), blob.getValue().length);
+      }
+
+      stream.writeEnd();
+    } finally {
+      stream.stop();
+      stream.close();
+    }
+
+    return file;
+  }
+
+  private @NonNull byte[] readAttachment(long rowId) throws IOException {
+    try (Cursor cursor = output.rawQuery("SELECT " + AttachmentDatabase.DATA + ", " + AttachmentDatabase.DATA_RANDOM + " FROM " + AttachmentDatabase.TABLE_NAME + " WHERE " + AttachmentDatabase.ROW_ID + " = ?",
+                                         new String[] { String.valueOf(rowId) }))
+    {
+      assertTrue(cursor.moveToFirst());
+      assertFalse(cursor.isNull(0));
+
+      File data = new File(cursor.getString(0));
+
+      try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, cursor.getBlob(1), data, 0)) {
+        return StreamUtil.readFully(in);
+      }
+    }
+  }
+
+  private @NonNull Set<File> getRestoredParts() {
+    Set<File> restored = new HashSet<>();
+
+    for (File part : partsDirectory.listFiles()) {
+      if (!existingParts.contains(part.getName())) {
+        restored.add(part);
+      }
+    }
+
+    return restored;
+  }
+
+  private int count(@NonNull String query) {
+    try (Cursor cursor = output.rawQuery(query, null)) {
+      cursor.moveToFirst();
+      return cursor.getInt(0);
+    }
+  }
+
+  private static long uniqueId(long rowId) {
+    return 1000 + rowId;
+  }
+
+  private static @NonNull BackupProtos.SqlStatement statement(@NonNull String sql) {
+    return BackupProtos.SqlStatement.newBuilder().setStatement(sql).build();
+  }
+
+  private static @NonNull long[] rows(long... rows) {
+    return rows;
+  }
+
+  private static @NonNull Map<Long, byte[]> blobs() {
+    return Collections.emptyMap();
+  }
+
+  private static @NonNull Map<Long, byte[]> blobs(long rowId, @NonNull byte[] data) {
+    return Collections.singletonMap(rowId, data);
+  }
+
+  private static @NonNull Map<Long, byte[]> blobs(long rowId1, @NonNull byte[] data1, long rowId2, @NonNull byte[] data2) {
+    Map<Long, byte[]> blobs = new LinkedHashMap<>();
+    blobs.put(rowId1, data1);
+    blobs.put(rowId2, data2);
+    return blobs;
+  }
+}
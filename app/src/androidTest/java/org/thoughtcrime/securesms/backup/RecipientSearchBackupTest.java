@@ -0,0 +1,151 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.protobuf.ByteString;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the recipient table and its search index through the same schema and row filtering a
+ * backup does, and restores them with {@link FullBackupImporter}.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RecipientSearchBackupTest {
+
+  private File           inputFile;
+  private File           outputFile;
+  private SQLiteDatabase input;
+  private SQLiteDatabase output;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    inputFile  = new File(context.getCacheDir(), "recipient-backup-input.db");
+    outputFile = new File(context.getCacheDir(), "recipient-backup-output.db");
+    inputFile.delete();
+    outputFile.delete();
+
+    input  = SQLiteDatabase.openOrCreateDatabase(inputFile, "test", null, new SqlCipherDatabaseHook());
+    output = SQLiteDatabase.openOrCreateDatabase(outputFile, "test", null, new SqlCipherDatabaseHook());
+
+    input.execSQL(RecipientDatabase.CREATE_TABLE);
+
+    for (String statement : RecipientDatabase.CREATE_FTS) {
+      input.execSQL(statement);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    input.close();
+    output.close();
+    inputFile.delete();
+    outputFile.delete();
+  }
+
+  @Test
+  public void restore_recipientSearchIndexRebuiltOnce() {
+    input.insert("recipient", null, newRecipient("+15550100001", "Alice Smith"));
+    input.insert("recipient", null, newRecipient("+15550100002", "Bob Jones"));
+
+    for (BackupProtos.SqlStatement statement : export()) {
+      FullBackupImporter.processStatement(output, statement);
+    }
+
+    assertEquals(2, count("SELECT COUNT(*) FROM " + RecipientDatabase.FTS_TABLE_NAME));
+    assertEquals(1, count("SELECT COUNT(*) FROM " + RecipientDatabase.FTS_TABLE_NAME + " WHERE " + RecipientDatabase.FTS_TABLE_NAME + " MATCH 'smi*'"));
+
+    output.execSQL("UPDATE recipient SET system_display_name = 'Alice Brown' WHERE phone = '+15550100001'");
+
+    assertEquals(0, count("SELECT COUNT(*) FROM " + RecipientDatabase.FTS_TABLE_NAME + " WHERE " + RecipientDatabase.FTS_TABLE_NAME + " MATCH 'smi*'"));
+    assertEquals(1, count("SELECT COUNT(*) FROM " + RecipientDatabase.FTS_TABLE_NAME + " WHERE " + RecipientDatabase.FTS_TABLE_NAME + " MATCH 'bro*'"));
+  }
+
+  /**
+   * The statements {@link FullBackupExporter} writes for this database, skipping the same tables.
+   */
+  private List<BackupProtos.SqlStatement> export() {
+    List<BackupProtos.SqlStatement> statements = new LinkedList<>();
+    List<String>                    tables     = new LinkedList<>();
+
+    try (Cursor cursor = input.rawQuery("SELECT sql, name, type FROM sqlite_master", null)) {
+      while (cursor.moveToNext()) {
+        String sql  = cursor.getString(0);
+        String name = cursor.getString(1);
+        String type = cursor.getString(2);
+
+        if (sql != null && !FullBackupExporter.isRecipientFtsSecretTable(name, type)) {
+          if ("table".equals(type)) {
+            tables.add(name);
+          }
+
+          statements.add(BackupProtos.SqlStatement.newBuilder().setStatement(sql).build());
+        }
+      }
+    }
+
+    for (String table : tables) {
+      if (!FullBackupExporter.isTableExported(table)) {
+        continue;
+      }
+
+      try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+        while (cursor.moveToNext()) {
+          StringBuilder                     sql       = new StringBuilder("INSERT INTO " + table + " VALUES (");
+          BackupProtos.SqlStatement.Builder statement = BackupProtos.SqlStatement.newBuilder();
+
+          for (int i = 0; i < cursor.getColumnCount(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+
+            switch (cursor.getType(i)) {
+              case Cursor.FIELD_TYPE_STRING:  statement.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));                 break;
+              case Cursor.FIELD_TYPE_FLOAT:   statement.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));                break;
+              case Cursor.FIELD_TYPE_INTEGER: statement.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));                 break;
+              case Cursor.FIELD_TYPE_BLOB:    statement.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i)))); break;
+              default:                        statement.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));                                  break;
+            }
+          }
+
+          statements.add(statement.setStatement(sql.append(")").toString()).build());
+        }
+      }
+    }
+
+    return statements;
+  }
+
+  private int count(String sql) {
+    try (Cursor cursor = output.rawQuery(sql, null)) {
+      cursor.moveToFirst();
+      return cursor.getInt(0);
+    }
+  }
+
+  private static ContentValues newRecipient(String phone, String name) {
+    ContentValues values = new ContentValues(2);
+    values.put("phone", phone);
+    values.put("system_display_name", name);
+    return values;
+  }
+}
@@ -0,0 +1,254 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.max;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
+
+/**
+ * Times decoding placeholders at the size {@link BlurHashResourceDecoder} uses, and encoding an
+ * image at the size attachment uploads encode from, with the per-pixel evaluation the decoder and
+ * encoder used before the cosine tables and with {@link BlurHashDecoder} and {@link BlurHashEncoder}.
+ * Also times {@link BlurHashResourceDecoder} when every decode hits its cache. Time and bytes
+ * allocated per call are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class BlurHashBenchmark {
+
+  private static final String TAG = BlurHashBenchmark.class.getSimpleName();
+
+  private static final String[] HASHES = {
+      "LEHV6nWB2yk8pyo0adR*.7kCMdnj",
+      "LGF5]+Yk^6#M@-5c,1J5@[or[Q6.",
+      "L6PZfSi_.AyE_3t7t7R**0o#DgR4",
+      "LKO2?U%2Tw=w]~RBVZRi};RPxuwH"
+  };
+
+  private static final int DECODE_ITERATIONS = 20_000;
+  private static final int ENCODE_ITERATIONS = 20;
+  private static final int WARMUPS           = 1;
+
+  @Test
+  public void decode() {
+    BlurHashResourceDecoder cached = new BlurHashResourceDecoder();
+
+    Result reference = null;
+    Result table     = null;
+    Result cache     = null;
+
+    for (int run = 0; run <= WARMUPS; run++) {
+      reference = measure(DECODE_ITERATIONS, i -> referenceDecode(HASHES[i % HASHES.length], 20, 15, 1));
+      table     = measure(DECODE_ITERATIONS, i -> BlurHashDecoder.decodePixels(HASHES[i % HASHES.length], 20, 15, 1));
+      cache     = measure(DECODE_ITERATIONS, i -> cached.getPixels(HASHES[i % HASHES.length], 20, 15));
+    }
+
+    log("Decode 20x15, per pixel", reference, DECODE_ITERATIONS);
+    log("Decode 20x15, table", table, DECODE_ITERATIONS);
+    log("Decode 20x15, cached", cache, DECODE_ITERATIONS);
+  }
+
+  @Test
+  public void encode() {
+    int   width  = 252;
+    int   height = 189;
+    int[] pixels = gradientImage(new Random(7), width, height);
+
+    assertEquals(referenceEncode(pixels, width, height, 4, 3), BlurHashEncoder.encode(pixels, width, height, 4, 3));
+
+    Result reference = null;
+    Result table     = null;
+
+    for (int run = 0; run <= WARMUPS; run++) {
+      reference = measure(ENCODE_ITERATIONS, i -> referenceEncode(pixels, width, height, 4, 3));
+      table     = measure(ENCODE_ITERATIONS, i -> BlurHashEncoder.encode(pixels, width, height, 4, 3));
+    }
+
+    log("Encode 252x189 at 4x3, per pixel", reference, ENCODE_ITERATIONS);
+    log("Encode 252x189 at 4x3, table", table, ENCODE_ITERATIONS);
+  }
+
+  /**
+   * Allocation counts come from {@link Debug#getThreadAllocSize()}, which is only kept while
+   * counting is enabled.
+   */
+  @SuppressWarnings("deprecation")
+  private static @NonNull Result measure(int iterations, @NonNull Iteration iteration) {
+    Debug.resetThreadAllocSize();
+    Debug.startAllocCounting();
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      iteration.run(i);
+    }
+
+    long nanos = System.nanoTime() - start;
+
+    Debug.stopAllocCounting();
+
+    return new Result(nanos, Debug.getThreadAllocSize());
+  }
+
+  private static void log(@NonNull String name, @NonNull Result result, int iterations) {
+    Log.i(TAG, String.format(Locale.US, "%s: %.1f us, %,d bytes per call", name, result.nanos / 1000.0 / iterations, result.bytes / iterations));
+  }
+
+  private interface Iteration {
+    void run(int i);
+  }
+
+  private static final class Result {
+    private final long nanos;
+    private final long bytes;
+
+    private Result(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Smooth gradients with some noise, which is what a downsampled photo looks like.
+   */
+  private static int[] gradientImage(Random random, int width, int height) {
+    int[] pixels = new int[width * height];
+    int   r0     = random.nextInt(256);
+    int   g0     = random.nextInt(256);
+    int   b0     = random.nextInt(256);
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int r = clamp(r0 + (x * 128 / width) - (y * 64 / height) + random.nextInt(16));
+        int g = clamp(g0 - (x * 64 / width) + (y * 128 / height) + random.nextInt(16));
+        int b = clamp(b0 + ((x + y) * 96 / (width + height)) + random.nextInt(16));
+
+        pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+      }
+    }
+
+    return pixels;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  /**
+   * The decoder as it was before the cosine tables, with the bitmap replaced by an array.
+   */
+  private static int[] referenceDecode(String blurHash, int width, int height, double punch) {
+    int numCompEnc = Base83.decode(blurHash, 0, 1);
+    int numCompX   = (numCompEnc % 9) + 1;
+    int numCompY   = (numCompEnc / 9) + 1;
+
+    int        maxAcEnc = Base83.decode(blurHash, 1, 2);
+    double     maxAc    = (maxAcEnc + 1) / 166f;
+    double[][] colors   = new double[numCompX * numCompY][];
+
+    for (int i = 0; i < colors.length; i++) {
+      if (i == 0) {
+        int colorEnc = Base83.decode(blurHash, 2, 6);
+        colors[i] = new double[] { sRGBToLinear(colorEnc >> 16), sRGBToLinear((colorEnc >> 8) & 255), sRGBToLinear(colorEnc & 255) };
+      } else {
+        int from     = 4 + i * 2;
+        int colorEnc = Base83.decode(blurHash, from, from + 2);
+        int r        = colorEnc / (19 * 19);
+        int g        = (colorEnc / 19) % 19;
+        int b        = colorEnc % 19;
+        colors[i] = new double[] { signPow((r - 9) / 9.0f, 2f) * maxAc * punch,
+                                   signPow((g - 9) / 9.0f, 2f) * maxAc * punch,
+                                   signPow((b - 9) / 9.0f, 2f) * maxAc * punch };
+      }
+    }
+
+    int[] pixels = new int[width * height];
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double r = 0f;
+        double g = 0f;
+        double b = 0f;
+
+        for (int j = 0; j < numCompY; j++) {
+          for (int i = 0; i < numCompX; i++) {
+            double   basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+            double[] color = colors[j * numCompX + i];
+            r += color[0] * basis;
+            g += color[1] * basis;
+            b += color[2] * basis;
+          }
+        }
+
+        pixels[y * width + x] = 0xff000000 | ((int) linearTosRGB(r) << 16) | ((int) linearTosRGB(g) << 8) | (int) linearTosRGB(b);
+      }
+    }
+
+    return pixels;
+  }
+
+  /**
+   * The encoder as it was before the cosine tables.
+   */
+  private static String referenceEncode(int[] pixels, int width, int height, int componentX, int componentY) {
+    double[][] factors = new double[componentX * componentY][3];
+
+    for (int j = 0; j < componentY; j++) {
+      for (int i = 0; i < componentX; i++) {
+        double normalisation = i == 0 && j == 0 ? 1 : 2;
+        double r = 0, g = 0, b = 0;
+
+        for (int x = 0; x < width; x++) {
+          for (int y = 0; y < height; y++) {
+            double basis = normalisation
+                         * Math.cos((Math.PI * i * x) / width)
+                         * Math.cos((Math.PI * j * y) / height);
+            int pixel = pixels[y * width + x];
+            r += basis * sRGBToLinear((pixel >> 16) & 0xff);
+            g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
+            b += basis * sRGBToLinear( pixel        & 0xff);
+          }
+        }
+
+        double scale = 1.0 / (width * height);
+        factors[j * componentX + i][0] = r * scale;
+        factors[j * componentX + i][1] = g * scale;
+        factors[j * componentX + i][2] = b * scale;
+      }
+    }
+
+    char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)];
+
+    Base83.encode(componentX - 1 + (componentY - 1) * 9, 1, hash, 0);
+
+    double actualMaximumValue    = max(factors, 1, factors.length);
+    double quantisedMaximumValue = Math.floor(Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5))));
+    double maximumValue          = (quantisedMaximumValue + 1) / 166;
+    Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1);
+
+    double[] dc = factors[0];
+    Base83.encode((linearTosRGB(dc[0]) << 16) + (linearTosRGB(dc[1]) << 8) + linearTosRGB(dc[2]), 4, hash, 2);
+
+    for (int i = 1; i < factors.length; i++) {
+      double[] value  = factors[i];
+      double   quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[0] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[1] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[2] / maximumValue, 0.5) * 9 + 9.5))));
+      Base83.encode(Math.round(quantR * 19 * 19 + quantG * 19 + quantB), 2, hash, 6 + 2 * (i - 1));
+    }
+
+    return new String(hash);
+  }
+}
@@ -0,0 +1,107 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.emoji.EmojiSource;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link EmojiParser#findCandidates(CharSequence)} against the old approach of asking
+ * {@link EmojiTree#isEmoji(CharSequence, int, int)} about every end position from every start
+ * position, over the real emoji data. Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class EmojiParserBenchmark {
+
+  private static final String TAG = EmojiParserBenchmark.class.getSimpleName();
+
+  private static final int ITERATIONS = 200;
+
+  private static final String LONG_MESSAGE = repeat("The quick brown fox jumps over the lazy dog, then does it again for good measure. ", 50);
+  private static final String EMOJI_HEAVY  = repeat("\uD83D\uDE00\uD83D\uDC4D\uD83C\uDFFF\u2764\uFE0F \uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67\u200D\uD83D\uDC66 \uD83E\uDD37\uD83C\uDFFF\u200D\u2642\uFE0F ok ", 100);
+
+  private EmojiTree emojiTree;
+
+  @Before
+  public void setUp() {
+    emojiTree = EmojiSource.getLatest().getEmojiTree();
+  }
+
+  @Test
+  public void longMessage() {
+    runBenchmark("long message", LONG_MESSAGE);
+  }
+
+  @Test
+  public void emojiHeavy() {
+    runBenchmark("emoji heavy", EMOJI_HEAVY);
+  }
+
+  private void runBenchmark(String name, String text) {
+    EmojiParser parser = new EmojiParser(emojiTree);
+
+    assertEquals(legacyCandidateCount(text), parser.findCandidates(text).size());
+
+    long legacyStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      legacyCandidateCount(text);
+    }
+    long legacy = (System.nanoTime() - legacyStart) / ITERATIONS / 1000;
+
+    long parserStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      parser.findCandidates(text);
+    }
+    long current = (System.nanoTime() - parserStart) / ITERATIONS / 1000;
+
+    Log.i(TAG, name + " (" + text.length() + " chars): per end position " + legacy + " us, single walk " + current + " us");
+  }
+
+  /**
+   * The matching loop as it was before the tree could be walked directly.
+   */
+  private int legacyCandidateCount(String text) {
+    int count = 0;
+
+    for (int i = 0; i < text.length(); i++) {
+      int best = -1;
+
+      for (int j = i + 1; j <= text.length(); j++) {
+        EmojiTree.Matches status = emojiTree.isEmoji(text, i, j);
+
+        if (status.exactMatch()) {
+          best = j;
+        } else if (status.impossibleMatch()) {
+          break;
+        }
+      }
+
+      if (best != -1) {
+        if (best + 2 <= text.length() && Fitzpatrick.fitzpatrickFromUnicode(text, best) != null) {
+          best += 2;
+        }
+
+        count++;
+        i = best - 1;
+      }
+    }
+
+    return count;
+  }
+
+  private static String repeat(String value, int times) {
+    StringBuilder builder = new StringBuilder(value.length() * times);
+
+    for (int i = 0; i < times; i++) {
+      builder.append(value);
+    }
+
+    return builder.toString();
+  }
+}
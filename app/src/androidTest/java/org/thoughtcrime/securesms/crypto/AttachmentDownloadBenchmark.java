@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.signalservice.api.crypto.AttachmentCipherInputStream;
+import org.whispersystems.signalservice.api.crypto.AttachmentCipherOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares taking a downloaded attachment from the transfer file into local storage by verifying
+ * the MAC in a separate pass first, against verifying it while decrypting. Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class AttachmentDownloadBenchmark {
+
+  private static final String TAG = AttachmentDownloadBenchmark.class.getSimpleName();
+
+  private static final int MB = 1024 * 1024;
+
+  private Context          context;
+  private AttachmentSecret attachmentSecret;
+  private File             transferFile;
+  private File             partFile;
+
+  @Before
+  public void setUp() throws Exception {
+    context          = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+    transferFile     = new File(context.getCacheDir(), "benchmark-transfer.tmp");
+    partFile         = new File(context.getCacheDir(), "benchmark-part.tmp");
+  }
+
+  @After
+  public void tearDown() {
+    transferFile.delete();
+    partFile.delete();
+  }
+
+  @Test
+  public void download_1mb() throws Exception {
+    runBenchmark(MB);
+  }
+
+  @Test
+  public void download_25mb() throws Exception {
+    runBenchmark(25 * MB);
+  }
+
+  @Test
+  public void download_100mb() throws Exception {
+    runBenchmark(100 * MB);
+  }
+
+  private void runBenchmark(int size) throws Exception {
+    byte[] key    = Util.getSecretBytes(64);
+    byte[] digest = writeTransferFile(key, size);
+
+    long twoPass = time(() -> AttachmentCipherInputStream.createForAttachment(transferFile, size, key, digest), size);
+    long onePass = time(() -> AttachmentCipherInputStream.createStreamingForAttachment(transferFile, size, key, digest), size);
+
+    Log.i(TAG, (size / MB) + " MB: separate MAC pass " + twoPass + " ms, streaming verification " + onePass + " ms");
+  }
+
+  private long time(StreamFactory factory, int expectedLength) throws Exception {
+    long startTime = System.currentTimeMillis();
+
+    InputStream                in  = factory.create();
+    Pair<byte[], OutputStream> out = ModernEncryptingPartOutputStream.createFor(attachmentSecret, partFile, false);
+
+    assertEquals(expectedLength, StreamUtil.copy(in, out.second));
+
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private byte[] writeTransferFile(byte[] key, int size) throws Exception {
+    byte[]                       chunk = Util.getSecretBytes(MB);
+    AttachmentCipherOutputStream out   = new AttachmentCipherOutputStream(key, null, new FileOutputStream(transferFile));
+
+    for (int written = 0; written < size; written += chunk.length) {
+      out.write(chunk, 0, Math.min(chunk.length, size - written));
+    }
+
+    out.flush();
+    out.close();
+
+    return out.getTransmittedDigest();
+  }
+
+  private interface StreamFactory {
+    InputStream create() throws Exception;
+  }
+}
@@ -0,0 +1,163 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads pages from deep in a 50,000 message conversation with the offset query behind
+ * {@link MmsSmsDatabase#getConversation(long, long, long)} and with the seek query behind
+ * {@link MmsSmsDatabase#getConversationAfter(long, long, boolean, long, int)}. Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class ConversationPagingBenchmark {
+
+  private static final String TAG = ConversationPagingBenchmark.class.getSimpleName();
+
+  private static final long  THREAD    = 1;
+  private static final int   MESSAGES  = 50_000;
+  private static final int   PAGE_SIZE = 50;
+  private static final int   RUNS      = 10;
+  private static final int[] OFFSETS   = { 100, 5_000, 25_000, 49_000 };
+
+  private File           file;
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    file = new File(context.getCacheDir(), "conversation-paging-benchmark.db");
+    file.delete();
+
+    db = SQLiteDatabase.openOrCreateDatabase(file, "benchmark", null, new SqlCipherDatabaseHook());
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+
+    for (String statement : SmsDatabase.CREATE_INDEXS) {
+      db.execSQL(statement);
+    }
+
+    for (String statement : MmsDatabase.CREATE_INDEXS) {
+      db.execSQL(statement);
+    }
+
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < MESSAGES; i++) {
+        ContentValues values = new ContentValues(4);
+        values.put(MmsSmsColumns.THREAD_ID, THREAD);
+        values.put(MmsSmsColumns.BODY, "Message " + i);
+
+        if (i % 2 == 0) {
+          values.put(SmsDatabase.DATE_RECEIVED, 1_600_000_000_000L + i / 3);
+          values.put(SmsDatabase.DATE_SENT, 1_600_000_000_000L + i / 3);
+          db.insert(SmsDatabase.TABLE_NAME, null, values);
+        } else {
+          values.put(MmsDatabase.DATE_RECEIVED, 1_600_000_000_000L + i / 3);
+          values.put(MmsDatabase.DATE_SENT, 1_600_000_000_000L + i / 3);
+          db.insert(MmsDatabase.TABLE_NAME, null, values);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+    file.delete();
+  }
+
+  @Test
+  public void deepPages() {
+    for (int offset : OFFSETS) {
+      List<Object> anchorArgs = new ArrayList<>();
+      Row          anchor     = read(MmsSmsDatabase.buildConversationQuery(THREAD, offset - 1, 1, anchorArgs), anchorArgs).get(0);
+
+      List<Object> offsetArgs  = new ArrayList<>();
+      String       offsetQuery = MmsSmsDatabase.buildConversationQuery(THREAD, offset, PAGE_SIZE, offsetArgs);
+      List<Object> seekArgs    = new ArrayList<>();
+      String       seekQuery   = MmsSmsDatabase.buildConversationRelativeToQuery(THREAD, anchor.date, anchor.mms, anchor.id, PAGE_SIZE, true, seekArgs);
+
+      assertEquals(read(offsetQuery, offsetArgs), read(seekQuery, seekArgs));
+
+      long offsetNanos = time(offsetQuery, offsetArgs);
+      long seekNanos   = time(seekQuery, seekArgs);
+
+      Log.i(TAG, String.format(Locale.US, "Page of %d at %,d of %,d: offset %.2f ms, seek %.2f ms",
+                                          PAGE_SIZE, offset, MESSAGES, offsetNanos / 1_000_000.0 / RUNS, seekNanos / 1_000_000.0 / RUNS));
+    }
+  }
+
+  private long time(@NonNull String query, @NonNull List<Object> args) {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < RUNS; i++) {
+      assertEquals(PAGE_SIZE, read(query, args).size());
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  private @NonNull List<Row> read(@NonNull String query, @NonNull List<Object> args) {
+    List<Row> rows = new ArrayList<>(PAGE_SIZE);
+
+    try (Cursor cursor = db.rawQuery(query, args.toArray())) {
+      while (cursor.moveToNext()) {
+        rows.add(new Row(cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)),
+                         MmsSmsDatabase.MMS_TRANSPORT.equals(cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT))),
+                         cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID))));
+      }
+    }
+
+    return rows;
+  }
+
+  private static final class Row {
+    private final long    date;
+    private final boolean mms;
+    private final long    id;
+
+    private Row(long date, boolean mms, long id) {
+      this.date = date;
+      this.mms  = mms;
+      this.id   = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Row)) return false;
+      Row other = (Row) o;
+      return date == other.date && mms == other.mms && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (date * 31 + id) * (mms ? 2 : 1);
+    }
+  }
+}
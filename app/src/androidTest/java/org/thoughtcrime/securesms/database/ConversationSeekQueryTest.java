@@ -0,0 +1,217 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the seek queries built by {@link MmsSmsDatabase#buildConversationRelativeToQuery} against
+ * sms and mms tables where many messages share a date_received, and compares every page with the
+ * conversation order returned by the offset query.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class ConversationSeekQueryTest {
+
+  private static final long THREAD       = 1;
+  private static final long OTHER_THREAD = 2;
+
+  private SQLiteDatabase db;
+  private List<String>   expected;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    db = SQLiteDatabase.create(null, "test");
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+
+    for (String statement : SmsDatabase.CREATE_INDEXS) {
+      db.execSQL(statement);
+    }
+
+    for (String statement : MmsDatabase.CREATE_INDEXS) {
+      db.execSQL(statement);
+    }
+
+    for (int i = 0; i < 30; i++) {
+      long date = 1000 + i / 4;
+
+      insertSms(THREAD, date);
+      insertMms(THREAD, date);
+
+      if (i % 3 == 0) {
+        insertSms(OTHER_THREAD, date);
+        insertMms(OTHER_THREAD, date);
+      }
+    }
+
+    expected = getConversation();
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void getConversation_orderedByDateThenTransportThenId() {
+    List<String> sorted = new ArrayList<>(expected);
+    Collections.sort(sorted, (a, b) -> {
+      String[] left  = a.split(":");
+      String[] right = b.split(":");
+
+      int result = Long.compare(Long.parseLong(right[0]), Long.parseLong(left[0]));
+      if (result == 0) result = right[1].compareTo(left[1]);
+      if (result == 0) result = Long.compare(Long.parseLong(right[2]), Long.parseLong(left[2]));
+      return result;
+    });
+
+    assertEquals(60, expected.size());
+    assertEquals(sorted, expected);
+  }
+
+  @Test
+  public void after_everyAnchor_nextMessage() {
+    for (int i = 0; i < expected.size(); i++) {
+      List<String> page = seek(expected.get(i), 1, true);
+
+      if (i == expected.size() - 1) {
+        assertEquals(Collections.emptyList(), page);
+      } else {
+        assertEquals("Anchor " + expected.get(i), expected.subList(i + 1, i + 2), page);
+      }
+    }
+  }
+
+  @Test
+  public void before_everyAnchor_previousMessage() {
+    for (int i = 0; i < expected.size(); i++) {
+      List<String> page = seek(expected.get(i), 1, false);
+
+      if (i == 0) {
+        assertEquals(Collections.emptyList(), page);
+      } else {
+        assertEquals("Anchor " + expected.get(i), expected.subList(i - 1, i), page);
+      }
+    }
+  }
+
+  @Test
+  public void after_pagesMatchOffsetQuery() {
+    List<String> seen   = new ArrayList<>();
+    String       anchor = expected.get(0);
+
+    seen.add(anchor);
+
+    while (true) {
+      List<String> page = seek(anchor, 7, true);
+
+      if (page.isEmpty()) {
+        break;
+      }
+
+      assertEquals(getConversation(seen.size(), 7), page);
+
+      seen.addAll(page);
+      anchor = page.get(page.size() - 1);
+    }
+
+    assertEquals(expected, seen);
+  }
+
+  @Test
+  public void before_pagesInConversationOrder() {
+    List<String> seen   = new ArrayList<>();
+    String       anchor = expected.get(expected.size() - 1);
+
+    seen.add(anchor);
+
+    while (true) {
+      List<String> page = seek(anchor, 7, false);
+
+      if (page.isEmpty()) {
+        break;
+      }
+
+      int end = expected.size() - seen.size();
+      assertEquals(expected.subList(Math.max(0, end - 7), end), page);
+
+      seen.addAll(0, page);
+      anchor = page.get(0);
+    }
+
+    assertEquals(expected, seen);
+  }
+
+  private @NonNull List<String> seek(@NonNull String anchor, int limit, boolean after) {
+    String[]     parts = anchor.split(":");
+    List<Object> args  = new ArrayList<>();
+    String       query = MmsSmsDatabase.buildConversationRelativeToQuery(THREAD, Long.parseLong(parts[0]), MmsSmsDatabase.MMS_TRANSPORT.equals(parts[1]), Long.parseLong(parts[2]), limit, after, args);
+
+    return read(query, args);
+  }
+
+  private @NonNull List<String> getConversation() {
+    return getConversation(0, 0);
+  }
+
+  private @NonNull List<String> getConversation(long offset, long limit) {
+    List<Object> args  = new ArrayList<>();
+    String       query = MmsSmsDatabase.buildConversationQuery(THREAD, offset, limit, args);
+
+    return read(query, args);
+  }
+
+  private @NonNull List<String> read(@NonNull String query, @NonNull List<Object> args) {
+    List<String> rows = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery(query, args.toArray())) {
+      while (cursor.moveToNext()) {
+        assertEquals(THREAD, cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.THREAD_ID)));
+
+        rows.add(cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)) + ":" +
+                 cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)) + ":" +
+                 cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID)));
+      }
+    }
+
+    return rows;
+  }
+
+  private void insertSms(long threadId, long date) {
+    ContentValues values = new ContentValues(3);
+    values.put(MmsSmsColumns.THREAD_ID, threadId);
+    values.put(SmsDatabase.DATE_RECEIVED, date);
+    values.put(SmsDatabase.DATE_SENT, date);
+
+    db.insert(SmsDatabase.TABLE_NAME, null, values);
+  }
+
+  private void insertMms(long threadId, long date) {
+    ContentValues values = new ContentValues(3);
+    values.put(MmsSmsColumns.THREAD_ID, threadId);
+    values.put(MmsDatabase.DATE_RECEIVED, date);
+    values.put(MmsDatabase.DATE_SENT, date);
+
+    db.insert(MmsDatabase.TABLE_NAME, null, values);
+  }
+}
@@ -0,0 +1,163 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long paged reads take while another thread is constantly writing, with a single
+ * connection and with WAL plus a {@link SqlCipherReaderPool}. Results are logged rather than
+ * asserted on, since they depend entirely on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class DatabaseContentionBenchmark {
+
+  private static final String TAG = DatabaseContentionBenchmark.class.getSimpleName();
+
+  private static final String PASSWORD  = "benchmark";
+  private static final int    ROWS      = 5_000;
+  private static final int    PAGE_SIZE = 50;
+  private static final int    READS     = 500;
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    file = new File(context.getCacheDir(), "contention-benchmark.db");
+    deleteDatabase();
+  }
+
+  @After
+  public void tearDown() {
+    deleteDatabase();
+  }
+
+  @Test
+  public void pagedReadsDuringWrites_singleConnection() throws Exception {
+    SQLiteDatabase writer = open(false);
+
+    try {
+      runBenchmark("single connection", writer, writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void pagedReadsDuringWrites_walWithReaderPool() throws Exception {
+    SQLiteDatabase      writer = open(true);
+    SqlCipherReaderPool pool   = new SqlCipherReaderPool(file, PASSWORD, 2);
+
+    try {
+      runBenchmark("wal + reader pool", writer, pool.getConnection());
+    } finally {
+      pool.close();
+      writer.close();
+    }
+  }
+
+  private void runBenchmark(String name, SQLiteDatabase writer, SQLiteDatabase reader) throws Exception {
+    AtomicBoolean running     = new AtomicBoolean(true);
+    Thread        writeThread = new Thread(() -> {
+      while (running.get()) {
+        writer.beginTransaction();
+        try {
+          for (int i = 0; i < 100; i++) {
+            writer.insert("message", null, newRow(i));
+          }
+          writer.setTransactionSuccessful();
+        } finally {
+          writer.endTransaction();
+        }
+      }
+    }, "benchmark-writer");
+
+    writeThread.start();
+
+    List<Long> latencies = new ArrayList<>(READS);
+
+    try {
+      for (int i = 0; i < READS; i++) {
+        int  offset    = (i * PAGE_SIZE) % ROWS;
+        long startTime = System.nanoTime();
+
+        try (Cursor cursor = reader.rawQuery("SELECT * FROM message ORDER BY date DESC LIMIT " + PAGE_SIZE + " OFFSET " + offset, (String[]) null)) {
+          while (cursor.moveToNext()) {
+            cursor.getString(2);
+          }
+        }
+
+        latencies.add(System.nanoTime() - startTime);
+      }
+    } finally {
+      running.set(false);
+      writeThread.join();
+    }
+
+    Collections.sort(latencies);
+
+    long p50 = latencies.get(latencies.size() / 2) / 1000;
+    long p99 = latencies.get((int) (latencies.size() * 0.99)) / 1000;
+
+    Log.i(TAG, name + ": p50 " + p50 + " us, p99 " + p99 + " us");
+    assertTrue(p50 > 0);
+  }
+
+  private SQLiteDatabase open(boolean wal) {
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, PASSWORD, null, new SqlCipherDatabaseHook());
+
+    if (wal) {
+      assertTrue(db.enableWriteAheadLogging());
+    }
+
+    db.execSQL("CREATE TABLE message (_id INTEGER PRIMARY KEY, date INTEGER, body TEXT)");
+    db.execSQL("CREATE INDEX message_date_index ON message (date)");
+
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < ROWS; i++) {
+        db.insert("message", null, newRow(i));
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return db;
+  }
+
+  private static ContentValues newRow(int i) {
+    ContentValues values = new ContentValues();
+    values.put("date", System.currentTimeMillis() + i);
+    values.put("body", "Message body number " + i + " with a bit of padding to make it realistic");
+    return values;
+  }
+
+  private void deleteDatabase() {
+    for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+      new File(file.getPath() + suffix).delete();
+    }
+  }
+}
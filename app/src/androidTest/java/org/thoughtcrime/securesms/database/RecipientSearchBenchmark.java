@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Types contact searches one character at a time against a recipient table, matching each prefix
+ * with the case-insensitive GLOBs contact search used to do and with {@link RecipientDatabase#FTS_TABLE_NAME}.
+ * Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RecipientSearchBenchmark {
+
+  private static final String TAG = RecipientSearchBenchmark.class.getSimpleName();
+
+  private static final int RECIPIENTS = 20_000;
+
+  private static final String[] QUERIES     = { "alexander smi", "maría", "+1555012", "zzz" };
+  private static final String[] GIVEN_NAMES = { "Alexander", "María", "Sam", "Chen", "Priya", "Olu", "Zoë", "Tomás", "Hannah", "Kenji" };
+  private static final String[] SURNAMES    = { "Smith", "García", "Nguyen", "Okafor", "Müller", "Kowalski", "Haddad", "Tanaka", "Silva", "Jones" };
+
+  private static final String GLOB_QUERY = "SELECT _id FROM recipient WHERE phone GLOB ? OR system_display_name GLOB ? OR profile_joined_name GLOB ? OR username GLOB ?";
+  private static final String FTS_QUERY  = "SELECT _id FROM recipient WHERE _id IN (SELECT rowid FROM " + RecipientDatabase.FTS_TABLE_NAME + " WHERE " + RecipientDatabase.FTS_TABLE_NAME + " MATCH ?)";
+
+  private static final String[] FTS_COLUMNS = { "system_name", "profile_name", "username", "phone" };
+
+  private File           file;
+  private SQLiteDatabase connection;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    file = new File(context.getCacheDir(), "recipient-search-benchmark.db");
+    file.delete();
+
+    connection = SQLiteDatabase.openOrCreateDatabase(file, "benchmark", null, new SqlCipherDatabaseHook());
+    connection.execSQL(RecipientDatabase.CREATE_TABLE);
+
+    for (String statement : RecipientDatabase.CREATE_FTS) {
+      connection.execSQL(statement);
+    }
+
+    Random random    = new Random(42);
+    long   startTime = System.currentTimeMillis();
+
+    connection.beginTransaction();
+    try {
+      for (int i = 0; i < RECIPIENTS; i++) {
+        connection.insert("recipient", null, newRecipient(random, i));
+      }
+      connection.setTransactionSuccessful();
+    } finally {
+      connection.endTransaction();
+    }
+
+    Log.i(TAG, "Inserted and indexed " + RECIPIENTS + " recipients in " + (System.currentTimeMillis() - startTime) + " ms");
+  }
+
+  @After
+  public void tearDown() {
+    connection.close();
+    file.delete();
+  }
+
+  @Test
+  public void keystrokes() {
+    for (String query : QUERIES) {
+      long globTotal = 0;
+      long globMax   = 0;
+      long ftsTotal  = 0;
+      long ftsMax    = 0;
+
+      for (int length = 1; length <= query.length(); length++) {
+        String prefix = query.substring(0, length);
+
+        if (Character.isWhitespace(prefix.charAt(length - 1))) {
+          continue;
+        }
+
+        String pattern = RecipientDatabase.buildCaseInsensitiveGlobPattern(prefix);
+        String match   = RecipientDatabase.buildFtsMatchExpression(prefix, FTS_COLUMNS);
+
+        assertNotNull(match);
+
+        long globStart = System.nanoTime();
+        count(GLOB_QUERY, pattern, pattern, pattern, pattern);
+        long globTime  = System.nanoTime() - globStart;
+
+        long ftsStart = System.nanoTime();
+        count(FTS_QUERY, match);
+        long ftsTime  = System.nanoTime() - ftsStart;
+
+        globTotal += globTime;
+        globMax    = Math.max(globMax, globTime);
+        ftsTotal  += ftsTime;
+        ftsMax     = Math.max(ftsMax, ftsTime);
+      }
+
+      Log.i(TAG, String.format(Locale.US, "\"%s\" x%d keystrokes: GLOB %.1f ms (max %.1f ms), FTS %.1f ms (max %.1f ms)",
+                                          query, query.length(), globTotal / 1_000_000.0, globMax / 1_000_000.0, ftsTotal / 1_000_000.0, ftsMax / 1_000_000.0));
+    }
+  }
+
+  private int count(String sql, String... args) {
+    try (Cursor cursor = connection.rawQuery(sql, args)) {
+      int count = 0;
+      while (cursor.moveToNext()) {
+        count++;
+      }
+      return count;
+    }
+  }
+
+  private static ContentValues newRecipient(Random random, int i) {
+    String given   = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+    String surname = SURNAMES[random.nextInt(SURNAMES.length)];
+
+    ContentValues values = new ContentValues(7);
+    values.put("phone", String.format(Locale.US, "+1555%07d", i));
+
+    if (random.nextBoolean()) {
+      values.put("system_display_name", given + " " + surname);
+      values.put("system_given_name", given);
+    } else {
+      values.put("profile_joined_name", given + " " + surname);
+      values.put("signal_profile_name", given);
+    }
+
+    if (i % 10 == 0) {
+      values.put("username", given.toLowerCase(Locale.US) + "." + i);
+    }
+
+    return values;
+  }
+}
@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs contact searches built by {@link RecipientDatabase#buildSearchQuery} against an in-memory
+ * recipient table and its search index.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RecipientSearchQueryTest {
+
+  private static final String[] FTS_COLUMNS  = { "system_name", "profile_name", "username", "phone" };
+  private static final String[] GLOB_COLUMNS = { RecipientDatabase.PHONE, RecipientDatabase.SYSTEM_JOINED_NAME, "profile_joined_name", "username" };
+
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    db = SQLiteDatabase.create(null, "test");
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+
+    for (String statement : RecipientDatabase.CREATE_FTS) {
+      db.execSQL(statement);
+    }
+
+    insert("+15551234567", "Alice Smith", null);
+    insert("+15559876543", null, "María García");
+    insert("+447700900123", "王健", null);
+    insert("+15550001111", "สมชาย ใจดี", null);
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void search_wordPrefixes() {
+    assertEquals(phones("+15551234567"), search("ali"));
+    assertEquals(phones("+15551234567"), search("al smi"));
+    assertEquals(phones("+15559876543"), search("maria"));
+    assertEquals(phones(), search("lice"));
+  }
+
+  @Test
+  public void search_unspacedScript_matchesAnywhereInName() {
+    assertEquals(phones("+447700900123"), search("王"));
+    assertEquals(phones("+447700900123"), search("健"));
+    assertEquals(phones("+15550001111"), search("ชาย"));
+  }
+
+  @Test
+  public void search_digits_matchAnywhereInPhoneNumber() {
+    assertEquals(phones("+15551234567"), search("4567"));
+    assertEquals(phones("+15551234567"), search("555123"));
+    assertEquals(phones("+15551234567", "+15559876543", "+15550001111"), search("+1555"));
+    assertEquals(phones("+447700900123"), search("900123"));
+  }
+
+  @Test
+  public void search_formattedPhoneNumber() {
+    assertEquals(phones("+15551234567"), search("(555) 123-4567"));
+    assertEquals(phones("+15551234567"), search("123-4567"));
+  }
+
+  private @NonNull Set<String> search(@NonNull String query) {
+    SqlUtil.Query search = RecipientDatabase.buildSearchQuery(query, FTS_COLUMNS, GLOB_COLUMNS);
+    Set<String>   phones = new TreeSet<>();
+
+    try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, new String[] { RecipientDatabase.PHONE }, search.getWhere(), search.getWhereArgs(), null, null, null)) {
+      while (cursor.moveToNext()) {
+        phones.add(cursor.getString(0));
+      }
+    }
+
+    return phones;
+  }
+
+  private void insert(@NonNull String phone, String systemName, String profileName) {
+    ContentValues values = new ContentValues(3);
+    values.put(RecipientDatabase.PHONE, phone);
+    values.put(RecipientDatabase.SYSTEM_JOINED_NAME, systemName);
+    values.put("profile_joined_name", profileName);
+
+    db.insert(RecipientDatabase.TABLE_NAME, null, values);
+  }
+
+  private static @NonNull Set<String> phones(@NonNull String... phones) {
+    return new TreeSet<>(Arrays.asList(phones));
+  }
+}
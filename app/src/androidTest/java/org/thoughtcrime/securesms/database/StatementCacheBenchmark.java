@@ -0,0 +1,126 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the ContentValues-based insert/update paths against the cached compiled statements
+ * used by {@link org.thoughtcrime.securesms.database.SQLiteDatabase#insertCached} and
+ * {@link org.thoughtcrime.securesms.database.SQLiteDatabase#executeUpdateDelete}. Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class StatementCacheBenchmark {
+
+  private static final String TAG = StatementCacheBenchmark.class.getSimpleName();
+
+  private static final int ROWS = 5_000;
+
+  private File                                              file;
+  private SQLiteDatabase                                    connection;
+  private org.thoughtcrime.securesms.database.SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    file = new File(context.getCacheDir(), "statement-benchmark.db");
+    file.delete();
+
+    connection = SQLiteDatabase.openOrCreateDatabase(file, "benchmark", null, new SqlCipherDatabaseHook());
+    connection.execSQL("CREATE TABLE receipt (_id INTEGER PRIMARY KEY, mms_id INTEGER, address INTEGER, status INTEGER, timestamp INTEGER)");
+    connection.execSQL("CREATE INDEX receipt_mms_id_index ON receipt (mms_id)");
+
+    db = new org.thoughtcrime.securesms.database.SQLiteDatabase(null, connection, new StatementCache(connection));
+  }
+
+  @After
+  public void tearDown() {
+    connection.close();
+    file.delete();
+  }
+
+  @Test
+  public void insert() {
+    long contentValues = time(() -> {
+      for (int i = 0; i < ROWS; i++) {
+        db.insert("receipt", null, newRow(i));
+      }
+    });
+
+    long cached = time(() -> {
+      for (int i = 0; i < ROWS; i++) {
+        db.insertCached("receipt", newRow(i));
+      }
+    });
+
+    Log.i(TAG, "insert x" + ROWS + ": ContentValues " + contentValues + " ms, cached " + cached + " ms");
+  }
+
+  @Test
+  public void update() {
+    time(() -> {
+      for (int i = 0; i < ROWS; i++) {
+        db.insert("receipt", null, newRow(i));
+      }
+    });
+
+    long contentValues = time(() -> {
+      for (int i = 0; i < ROWS; i++) {
+        ContentValues values = new ContentValues(2);
+        values.put("status", 1);
+        values.put("timestamp", i);
+
+        db.update("receipt", values, "mms_id = ? AND address = ? AND status < ?", new String[] { String.valueOf(i), String.valueOf(i), "1" });
+      }
+    });
+
+    long cached = time(() -> {
+      for (int i = 0; i < ROWS; i++) {
+        db.executeUpdateDelete("UPDATE receipt SET status = ?, timestamp = ? WHERE mms_id = ? AND address = ? AND status < ?", 2, i, i, i, 2);
+      }
+    });
+
+    assertEquals(ROWS, db.executeUpdateDelete("UPDATE receipt SET status = ? WHERE status = ?", 3, 2));
+
+    Log.i(TAG, "update x" + ROWS + ": ContentValues " + contentValues + " ms, cached " + cached + " ms");
+  }
+
+  private long time(Runnable runnable) {
+    long startTime = System.currentTimeMillis();
+
+    db.beginTransaction();
+    try {
+      runnable.run();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private static ContentValues newRow(int i) {
+    ContentValues values = new ContentValues(4);
+    values.put("mms_id", i);
+    values.put("address", i);
+    values.put("status", 0);
+    values.put("timestamp", System.currentTimeMillis());
+    return values;
+  }
+}
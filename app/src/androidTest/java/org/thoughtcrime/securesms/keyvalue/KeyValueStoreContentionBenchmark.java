@@ -0,0 +1,186 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Eight threads read as fast as they can while another applies a write every millisecond, once
+ * against a store that locks around every access and writes each change in its own transaction,
+ * the way {@link KeyValueStore} used to, and once against {@link KeyValueStore}. Both are backed by
+ * in-memory storage where every transaction takes a millisecond. Results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class KeyValueStoreContentionBenchmark {
+
+  private static final String TAG = KeyValueStoreContentionBenchmark.class.getSimpleName();
+
+  private static final int  READERS  = 8;
+  private static final int  KEYS     = 512;
+  private static final long DURATION = TimeUnit.SECONDS.toMillis(2);
+
+  @Test
+  public void contention() throws InterruptedException {
+    InMemoryStorage lockingStorage = new InMemoryStorage();
+    LockingStore    locking        = new LockingStore(lockingStorage);
+
+    Result lockingResult = runContention(locking::getLong, locking::putLong);
+    locking.shutdown();
+
+    InMemoryStorage snapshotStorage = new InMemoryStorage();
+    KeyValueStore   snapshot        = new KeyValueStore(snapshotStorage);
+
+    Result snapshotResult = runContention(snapshot::getLong, (key, value) -> snapshot.beginWrite().putLong(key, value).apply());
+    snapshot.blockUntilAllWritesFinished();
+
+    Log.i(TAG, String.format(Locale.US, "Locking:  %,d reads/s, %,d writes, %,d transactions", lockingResult.readsPerSecond, lockingResult.writes, lockingStorage.getTransactionCount()));
+    Log.i(TAG, String.format(Locale.US, "Snapshot: %,d reads/s, %,d writes, %,d transactions", snapshotResult.readsPerSecond, snapshotResult.writes, snapshotStorage.getTransactionCount()));
+  }
+
+  private static @NonNull Result runContention(@NonNull LongReader reader, @NonNull LongWriter writer) throws InterruptedException {
+    AtomicBoolean running = new AtomicBoolean(true);
+    AtomicLong    reads   = new AtomicLong();
+    AtomicLong    writes  = new AtomicLong();
+    List<Thread>  threads = new ArrayList<>();
+
+    for (int i = 0; i < KEYS; i++) {
+      writer.putLong("key" + i, i);
+    }
+
+    for (int i = 0; i < READERS; i++) {
+      threads.add(new Thread(() -> {
+        long count = 0;
+        long sum   = 0;
+
+        while (running.get()) {
+          sum += reader.getLong("key" + (count % KEYS), 0);
+          count++;
+        }
+
+        reads.addAndGet(count);
+        assertTrue(sum >= 0);
+      }));
+    }
+
+    threads.add(new Thread(() -> {
+      while (running.get()) {
+        writer.putLong("key" + (writes.get() % KEYS), writes.incrementAndGet());
+
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }));
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    Thread.sleep(DURATION);
+    running.set(false);
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    return new Result(reads.get() * 1000 / DURATION, writes.get());
+  }
+
+  private interface LongReader {
+    long getLong(@NonNull String key, long defaultValue);
+  }
+
+  private interface LongWriter {
+    void putLong(@NonNull String key, long value);
+  }
+
+  private static final class Result {
+    private final long readsPerSecond;
+    private final long writes;
+
+    private Result(long readsPerSecond, long writes) {
+      this.readsPerSecond = readsPerSecond;
+      this.writes         = writes;
+    }
+  }
+
+  /**
+   * Reads and writes under one monitor, with a transaction for every write.
+   */
+  private static final class LockingStore {
+
+    private final KeyValuePersistentStorage storage;
+    private final KeyValueDataSet           dataSet  = new KeyValueDataSet();
+    private final ExecutorService           executor = Executors.newSingleThreadExecutor();
+
+    private LockingStore(@NonNull KeyValuePersistentStorage storage) {
+      this.storage = storage;
+    }
+
+    synchronized long getLong(@NonNull String key, long defaultValue) {
+      return dataSet.getLong(key, defaultValue);
+    }
+
+    synchronized void putLong(@NonNull String key, long value) {
+      KeyValueDataSet write = new KeyValueDataSet();
+      write.putLong(key, value);
+
+      dataSet.putAll(write);
+      executor.execute(() -> storage.writeDataSet(write, new ArrayList<>()));
+    }
+
+    void shutdown() throws InterruptedException {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private static final class InMemoryStorage implements KeyValuePersistentStorage {
+
+    private final KeyValueDataSet dataSet = new KeyValueDataSet();
+
+    private int transactionCount;
+
+    @Override
+    public synchronized void writeDataSet(@NonNull KeyValueDataSet dataSet, @NonNull Collection<String> removes) {
+      this.dataSet.putAll(dataSet);
+      this.dataSet.removeAll(removes);
+      transactionCount++;
+
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public synchronized @NonNull KeyValueDataSet getDataSet() {
+      KeyValueDataSet copy = new KeyValueDataSet();
+      copy.putAll(dataSet);
+      return copy;
+    }
+
+    synchronized int getTransactionCount() {
+      return transactionCount;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.thoughtcrime.securesms.messages;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
+import org.thoughtcrime.securesms.jobmanager.CompactDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
+import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Persists a backlog of 10,000 envelopes the way {@link IncomingMessageProcessor} hands them to
+ * the JobManager: one {@link PushDecryptMessageJob} and one transaction per envelope, as
+ * {@link IncomingMessageProcessor.Processor#processEnvelope} does, and one job and one transaction
+ * per websocket read of up to {@link PushDecryptMessageJob#MAX_BATCH_SIZE} envelopes, as
+ * {@link IncomingMessageProcessor.Processor#processEnvelopes} does. Results are logged.
+ * <p>
+ * Rows go into a scratch copy of the job table rather than the app's job database. Decryption is
+ * not part of the measurement.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class EnvelopePersistenceBenchmark {
+
+  private static final String TAG = EnvelopePersistenceBenchmark.class.getSimpleName();
+
+  private static final int ENVELOPES    = 10_000;
+  private static final int CONTENT_SIZE = 512;
+
+  private Context                     context;
+  private File                        file;
+  private SQLiteDatabase              db;
+  private Data.Serializer             serializer;
+  private List<SignalServiceEnvelope> envelopes;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    SQLiteDatabase.loadLibs(context);
+
+    file = new File(context.getCacheDir(), "envelope-benchmark.db");
+    file.delete();
+
+    db = SQLiteDatabase.openOrCreateDatabase(file, "benchmark", null, new SqlCipherDatabaseHook());
+    db.execSQL("CREATE TABLE job_spec (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                      "job_spec_id TEXT UNIQUE, " +
+                                      "factory_key TEXT, " +
+                                      "queue_key TEXT, " +
+                                      "create_time INTEGER, " +
+                                      "next_run_attempt_time INTEGER, " +
+                                      "run_attempt INTEGER, " +
+                                      "max_attempts INTEGER, " +
+                                      "lifespan INTEGER, " +
+                                      "serialized_data TEXT, " +
+                                      "serialized_input_data TEXT DEFAULT NULL, " +
+                                      "is_running INTEGER)");
+
+    serializer = new CompactDataSerializer();
+    envelopes  = new ArrayList<>(ENVELOPES);
+
+    SignalServiceAddress sender = new SignalServiceAddress(UUID.randomUUID(), "+15555550101");
+
+    for (int i = 0; i < ENVELOPES; i++) {
+      envelopes.add(new SignalServiceEnvelope(Envelope.Type.CIPHERTEXT_VALUE, Optional.of(sender), 1, i, null, Util.getSecretBytes(CONTENT_SIZE), i, i, UUID.randomUUID().toString()));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+    file.delete();
+  }
+
+  @Test
+  public void persistBacklog() {
+    long start = System.nanoTime();
+
+    for (SignalServiceEnvelope envelope : envelopes) {
+      List<Job> jobs = new ArrayList<>(1);
+      jobs.add(new PushDecryptMessageJob(context, envelope));
+      persist(jobs);
+    }
+
+    long singleNanos = System.nanoTime() - start;
+    int  singleRows  = countAndClear();
+
+    start = System.nanoTime();
+
+    for (int i = 0; i < ENVELOPES; i += PushDecryptMessageJob.MAX_BATCH_SIZE) {
+      List<Job> jobs = new ArrayList<>(1);
+      jobs.add(new PushDecryptMessageJob(context, envelopes.subList(i, Math.min(i + PushDecryptMessageJob.MAX_BATCH_SIZE, ENVELOPES))));
+      persist(jobs);
+    }
+
+    long batchedNanos = System.nanoTime() - start;
+    int  batchedRows  = countAndClear();
+
+    assertEquals(ENVELOPES, singleRows);
+    assertEquals(ENVELOPES / PushDecryptMessageJob.MAX_BATCH_SIZE, batchedRows);
+
+    Log.i(TAG, String.format(Locale.US, "%,d envelopes: one job each %.1f ms (%,.0f/s), batches of %d %.1f ms (%,.0f/s)",
+                                        ENVELOPES,
+                                        singleNanos / 1_000_000.0, ENVELOPES / (singleNanos / 1_000_000_000.0),
+                                        PushDecryptMessageJob.MAX_BATCH_SIZE,
+                                        batchedNanos / 1_000_000.0, ENVELOPES / (batchedNanos / 1_000_000_000.0)));
+  }
+
+  /**
+   * Writes the jobs in a single transaction, the way the job storage does for each new chain.
+   */
+  private void persist(@NonNull List<Job> jobs) {
+    db.beginTransaction();
+
+    try {
+      for (Job job : jobs) {
+        ContentValues values = new ContentValues();
+        values.put("job_spec_id", job.getId());
+        values.put("factory_key", job.getFactoryKey());
+        values.put("queue_key", PushDecryptMessageJob.QUEUE);
+        values.put("create_time", System.currentTimeMillis());
+        values.put("next_run_attempt_time", 0);
+        values.put("run_attempt", 0);
+        values.put("max_attempts", Job.Parameters.UNLIMITED);
+        values.put("lifespan", Job.Parameters.IMMORTAL);
+        values.put("serialized_data", serializer.serialize(job.serialize()));
+        values.put("is_running", 0);
+
+        db.insertWithOnConflict("job_spec", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private int countAndClear() {
+    int count;
+
+    try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM job_spec", null)) {
+      cursor.moveToFirst();
+      count = cursor.getInt(0);
+    }
+
+    db.delete("job_spec", null, null);
+
+    return count;
+  }
+}
@@ -0,0 +1,284 @@
+package org.thoughtcrime.securesms.payments.reconciliation;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.payments.Direction;
+import org.thoughtcrime.securesms.payments.FailureReason;
+import org.thoughtcrime.securesms.payments.MobileCoinLedgerWrapper;
+import org.thoughtcrime.securesms.payments.Payee;
+import org.thoughtcrime.securesms.payments.Payment;
+import org.thoughtcrime.securesms.payments.State;
+import org.thoughtcrime.securesms.payments.proto.MobileCoinLedger;
+import org.thoughtcrime.securesms.payments.proto.PaymentMetaData;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.util.ByteUtil;
+import org.whispersystems.signalservice.api.payments.Money;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reconciles a made up history of 12,000 TXOs, the way a ledger refresh does:
+ * <ul>
+ *   <li>from scratch, which is what every refresh used to do</li>
+ *   <li>from a checkpoint ten blocks behind, as a refresh while the app is running does</li>
+ *   <li>from the same checkpoint read back from its serialized form, as the first refresh after a
+ *       cold start does</li>
+ * </ul>
+ * Results, and the size of the serialized checkpoint, are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class LedgerReconcileBenchmark {
+
+  private static final String TAG = LedgerReconcileBenchmark.class.getSimpleName();
+
+  private static final int TXOS       = 12_000;
+  private static final int BEHIND     = 10;
+  private static final int ITERATIONS = 10;
+  private static final int WARMUPS    = 5;
+
+  @Test
+  public void reconcile() {
+    History                 history  = new History(new Random(6), TXOS);
+    List<Payment>           previous = history.localPayments(history.lastBlock - BEHIND);
+    List<Payment>           local    = history.localPayments(history.lastBlock);
+    MobileCoinLedgerWrapper before   = history.ledger(history.lastBlock - BEHIND);
+    MobileCoinLedgerWrapper ledger   = history.ledger(history.lastBlock);
+
+    long fullNanos        = 0;
+    long incrementalNanos = 0;
+    long coldNanos        = 0;
+    int  checkpointBytes  = 0;
+
+    for (int i = 0; i < WARMUPS + ITERATIONS; i++) {
+      LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+      LedgerReconcile.reconcile(previous, before, checkpoint);
+
+      byte[] serialized = checkpoint.serialize();
+
+      long start = System.nanoTime();
+      LedgerReconcile.reconcile(local, ledger, checkpoint);
+      long incremental = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      LedgerReconcile.Checkpoint restored = LedgerReconcile.Checkpoint.deserialize(serialized);
+      LedgerReconcile.reconcile(local, ledger, restored);
+      long cold = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint());
+      long full = System.nanoTime() - start;
+
+      assertEquals(1, checkpoint.getFullRebuilds());
+      assertEquals(0, restored.getFullRebuilds());
+
+      if (i >= WARMUPS) {
+        fullNanos        += full;
+        incrementalNanos += incremental;
+        coldNanos        += cold;
+        checkpointBytes   = serialized.length;
+      }
+    }
+
+    Log.i(TAG, String.format(Locale.US, "%,d TXOs, %d blocks behind: full rebuild %.2f ms, incremental %.2f ms, from stored checkpoint %.2f ms, checkpoint %,d bytes",
+                                        TXOS,
+                                        BEHIND,
+                                        fullNanos / 1_000_000.0 / ITERATIONS,
+                                        incrementalNanos / 1_000_000.0 / ITERATIONS,
+                                        coldNanos / 1_000_000.0 / ITERATIONS,
+                                        checkpointBytes));
+  }
+
+  /**
+   * Three TXOs are received a block and most are spent within the next fifty blocks. About half of
+   * the receipts and spends have a local payment, which shows up a few blocks before the ledger has
+   * the TXO.
+   */
+  private static final class History {
+    private final long[]        amounts;
+    private final long[]        receivedInBlock;
+    private final long[]        spentInBlock;
+    private final List<Payment> payments      = new ArrayList<>();
+    private final List<Long>    paymentBlocks = new ArrayList<>();
+    private final long          lastBlock;
+
+    private History(@NonNull Random random, int txoCount) {
+      amounts         = new long[txoCount];
+      receivedInBlock = new long[txoCount];
+      spentInBlock    = new long[txoCount];
+
+      long last = 0;
+
+      for (int i = 0; i < txoCount; i++) {
+        amounts[i]         = 1_000_000L * (1 + random.nextInt(10_000));
+        receivedInBlock[i] = 1 + i / 3;
+        spentInBlock[i]    = random.nextInt(10) < 7 ? receivedInBlock[i] + 1 + random.nextInt(50) : 0;
+        last               = Math.max(last, Math.max(receivedInBlock[i], spentInBlock[i]));
+
+        if (random.nextBoolean()) {
+          payments.add(new LocalPayment(Direction.RECEIVED, amounts[i], ByteString.EMPTY, publicKey(i)));
+          paymentBlocks.add(receivedInBlock[i]);
+        }
+
+        if (spentInBlock[i] != 0 && random.nextBoolean()) {
+          payments.add(new LocalPayment(Direction.SENT, amounts[i], keyImage(i), ByteString.EMPTY));
+          paymentBlocks.add(spentInBlock[i]);
+        }
+      }
+
+      lastBlock = last;
+    }
+
+    @NonNull List<Payment> localPayments(long block) {
+      List<Payment> local = new ArrayList<>();
+
+      for (int i = payments.size() - 1; i >= 0; i--) {
+        if (paymentBlocks.get(i) <= block + 5) {
+          local.add(payments.get(i));
+        }
+      }
+
+      return local;
+    }
+
+    @NonNull MobileCoinLedgerWrapper ledger(long block) {
+      MobileCoinLedger.Builder builder = MobileCoinLedger.newBuilder();
+
+      for (int i = 0; i < amounts.length; i++) {
+        if (receivedInBlock[i] > block) {
+          continue;
+        }
+
+        MobileCoinLedger.OwnedTXO.Builder txo = MobileCoinLedger.OwnedTXO.newBuilder()
+                                                                         .setAmount(amounts[i])
+                                                                         .setKeyImage(keyImage(i))
+                                                                         .setPublicKey(publicKey(i))
+                                                                         .setReceivedInBlock(block(receivedInBlock[i]));
+
+        if (spentInBlock[i] != 0 && spentInBlock[i] <= block) {
+          builder.addSpentTxos(txo.setSpentInBlock(block(spentInBlock[i])));
+        } else {
+          builder.addUnspentTxos(txo);
+        }
+      }
+
+      return new MobileCoinLedgerWrapper(builder.build());
+    }
+
+    private static @NonNull MobileCoinLedger.Block block(long blockIndex) {
+      return MobileCoinLedger.Block.newBuilder()
+                                   .setBlockNumber(blockIndex)
+                                   .setTimestamp(1_600_000_000_000L + blockIndex * 5_000)
+                                   .build();
+    }
+
+    private static @NonNull ByteString keyImage(long id) {
+      return ByteString.copyFrom(ByteUtil.longToByteArray(0x7f00000000000000L | id));
+    }
+
+    private static @NonNull ByteString publicKey(long id) {
+      return ByteString.copyFrom(ByteUtil.longToByteArray(0x0f00000000000000L | id));
+    }
+  }
+
+  private static final class LocalPayment implements Payment {
+    private final UUID            uuid = UUID.randomUUID();
+    private final Direction       direction;
+    private final Money           amount;
+    private final PaymentMetaData paymentMetaData;
+
+    private LocalPayment(@NonNull Direction direction, long picoMob, @NonNull ByteString keyImage, @NonNull ByteString publicKey) {
+      PaymentMetaData.MobileCoinTxoIdentification.Builder txoIdentification = PaymentMetaData.MobileCoinTxoIdentification.newBuilder();
+
+      if (!keyImage.isEmpty()) {
+        txoIdentification.addKeyImages(keyImage);
+      }
+
+      if (!publicKey.isEmpty()) {
+        txoIdentification.addPublicKey(publicKey);
+      }
+
+      this.direction       = direction;
+      this.amount          = Money.picoMobileCoin(picoMob);
+      this.paymentMetaData = PaymentMetaData.newBuilder().setMobileCoinTxoIdentification(txoIdentification).build();
+    }
+
+    @Override
+    public @NonNull UUID getUuid() {
+      return uuid;
+    }
+
+    @Override
+    public @NonNull Payee getPayee() {
+      return new Payee(RecipientId.from(1));
+    }
+
+    @Override
+    public long getBlockIndex() {
+      return 0;
+    }
+
+    @Override
+    public long getBlockTimestamp() {
+      return 0;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return 0;
+    }
+
+    @Override
+    public @NonNull Direction getDirection() {
+      return direction;
+    }
+
+    @Override
+    public @NonNull State getState() {
+      return State.SUCCESSFUL;
+    }
+
+    @Override
+    public @Nullable FailureReason getFailureReason() {
+      return null;
+    }
+
+    @Override
+    public @NonNull String getNote() {
+      return "";
+    }
+
+    @Override
+    public @NonNull Money getAmount() {
+      return amount;
+    }
+
+    @Override
+    public @NonNull Money getFee() {
+      return amount.toZero();
+    }
+
+    @Override
+    public @NonNull PaymentMetaData getPaymentMetaData() {
+      return paymentMetaData;
+    }
+
+    @Override
+    public boolean isSeen() {
+      return true;
+    }
+  }
+}
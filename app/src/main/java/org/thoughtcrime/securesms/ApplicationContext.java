@@ -83,7 +83,10 @@ import org.webrtc.voiceengine.WebRtcAudioManager;
 import org.webrtc.voiceengine.WebRtcAudioUtils;
 import org.whispersystems.libsignal.logging.SignalProtocolLoggerProvider;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -123,29 +126,29 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
                                 Log.i(TAG, "onCreate()");
                             })
                             .addBlocking("crash-handling", this::initializeCrashHandling)
-                            .addBlocking("eat-db", () -> DatabaseFactory.getInstance(this))
-                            .addBlocking("app-dependencies", this::initializeAppDependencies)
-                            .addBlocking("notification-channels", () -> NotificationChannels.create(this))
-                            .addBlocking("first-launch", this::initializeFirstEverAppLaunch)
-                            .addBlocking("app-migrations", this::initializeApplicationMigrations)
-                            .addBlocking("ring-rtc", this::initializeRingRtc)
-                            .addBlocking("mark-registration", () -> RegistrationUtil.maybeMarkRegistrationComplete(this))
-                            .addBlocking("lifecycle-observer", () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
-                            .addBlocking("message-retriever", this::initializeMessageRetrieval)
-                            .addBlocking("dynamic-theme", () -> DynamicTheme.setDefaultDayNightMode(this))
-                            .addBlocking("vector-compat", () -> {
+                            .addBlockingInBackground("eat-db", Arrays.asList("crash-handling"), () -> DatabaseFactory.getInstance(this))
+                            .addBlockingInBackground("ring-rtc", Arrays.asList("crash-handling"), this::initializeRingRtc)
+                            .addBlockingInBackground("blob-provider", Arrays.asList("crash-handling"), this::initializeBlobProvider)
+                            .addBlocking("app-dependencies", Arrays.asList("crash-handling"), this::initializeAppDependencies)
+                            .addBlocking("vector-compat", Arrays.asList("crash-handling"), () -> {
                               if (Build.VERSION.SDK_INT < 21) {
                                 AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
                               }
                             })
-                            .addBlocking("proxy-init", () -> {
+                            .addBlocking("lifecycle-observer", Arrays.asList("app-dependencies"), () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
+                            .addBlocking("first-launch", Arrays.asList("app-dependencies", "eat-db"), this::initializeFirstEverAppLaunch)
+                            .addBlocking("feature-flags", Arrays.asList("first-launch"), FeatureFlags::init)
+                            .addBlockingInBackground("notification-channels", Arrays.asList("feature-flags"), () -> NotificationChannels.create(this))
+                            .addBlocking("app-migrations", Arrays.asList("feature-flags"), this::initializeApplicationMigrations)
+                            .addBlockingInBackground("message-retriever", Arrays.asList("app-migrations", "lifecycle-observer"), this::initializeMessageRetrieval)
+                            .addBlockingInBackground("proxy-init", Arrays.asList("feature-flags"), () -> {
                               if (SignalStore.proxy().isProxyEnabled()) {
                                 Log.w(TAG, "Proxy detected. Enabling Conscrypt.setUseEngineSocketByDefault()");
                                 Conscrypt.setUseEngineSocketByDefault(true);
                               }
                             })
-                            .addBlocking("blob-provider", this::initializeBlobProvider)
-                            .addBlocking("feature-flags", FeatureFlags::init)
+                            .addBlocking("dynamic-theme", Arrays.asList("feature-flags"), () -> DynamicTheme.setDefaultDayNightMode(this))
+                            .addBlockingInBackground("mark-registration", Arrays.asList("app-migrations"), () -> RegistrationUtil.maybeMarkRegistrationComplete(this))
                             .addNonBlocking(this::initializeRevealableMessageManager)
                             .addNonBlocking(this::initializePendingRetryReceiptManager)
                             .addNonBlocking(this::initializeGcmCheck)
@@ -200,6 +203,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
     ApplicationDependencies.getMessageNotifier().clearVisibleThread();
     ApplicationDependencies.getFrameRateTracker().end();
     ApplicationDependencies.getShakeToReport().disable();
+    SignalExecutors.BOUNDED.execute(() -> DatabaseFactory.checkpoint(this));
   }
 
   public PersistentLogger getPersistentLogger() {
@@ -238,10 +242,20 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
   }
 
   private void initializeLogging() {
-    persistentLogger = new PersistentLogger(this, LogSecretProvider.getOrCreateAttachmentSecret(this), BuildConfig.VERSION_NAME, FeatureFlags.internalUser() ? 15 : 7, ByteUnit.KILOBYTES.toBytes(300));
+    byte[] secret = LogSecretProvider.getOrCreateAttachmentSecret(this);
+
+    persistentLogger = new PersistentLogger(this, secret, BuildConfig.VERSION_NAME, FeatureFlags.internalUser() ? 15 : 7, ByteUnit.KILOBYTES.toBytes(300));
     org.signal.core.util.logging.Log.initialize(FeatureFlags::internalUser, new AndroidLogger(), persistentLogger);
 
     SignalProtocolLoggerProvider.setProvider(new CustomSignalProtocolLogger());
+
+    if (FeatureFlags.internalUser()) {
+      try {
+        Tracer.getInstance().startStreaming(new File(getCacheDir(), "trace"), secret, ByteUnit.MEGABYTES.toBytes(10));
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to start streaming trace.", e);
+      }
+    }
   }
 
   private void initializeCrashHandling() {
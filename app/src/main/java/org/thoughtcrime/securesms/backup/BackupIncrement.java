@@ -0,0 +1,74 @@
+package org.thoughtcrime.securesms.backup;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Describes one file in a chain of incremental backups.
+ *
+ * Every file in a chain contains the complete database, preferences and avatars -- those are small
+ * and we have no way to tell which rows changed or were deleted. What makes a file incremental is
+ * that it only contains the attachment and sticker blobs that weren't already in an earlier file
+ * of the chain: anything with a row id past the previous file's watermark, or whose data changed
+ * since the previous file was written (e.g. an attachment that finished downloading).
+ *
+ * Restoring a chain means importing the base, followed by every delta in order.
+ */
+public final class BackupIncrement {
+
+  private final String chainId;
+  private final int    sequence;
+  private final long   attachmentWatermark;
+  private final long   stickerWatermark;
+  private final long   modifiedAfter;
+
+  private BackupIncrement(@NonNull String chainId, int sequence, long attachmentWatermark, long stickerWatermark, long modifiedAfter) {
+    this.chainId             = chainId;
+    this.sequence            = sequence;
+    this.attachmentWatermark = attachmentWatermark;
+    this.stickerWatermark    = stickerWatermark;
+    this.modifiedAfter       = modifiedAfter;
+  }
+
+  /**
+   * The first file in a chain, which contains every blob.
+   */
+  public static @NonNull BackupIncrement base(@NonNull String chainId) {
+    return new BackupIncrement(chainId, 0, -1, -1, 0);
+  }
+
+  /**
+   * @param sequence            The position of this file in the chain. The base is 0.
+   * @param attachmentWatermark The highest attachment row id included in the chain so far.
+   * @param stickerWatermark    The highest sticker row id included in the chain so far.
+   * @param modifiedAfter       When the previous file in the chain was started.
+   */
+  public static @NonNull BackupIncrement delta(@NonNull String chainId, int sequence, long attachmentWatermark, long stickerWatermark, long modifiedAfter) {
+    if (sequence <= 0) {
+      throw new IllegalArgumentException("Deltas must come after a base! Sequence: " + sequence);
+    }
+
+    return new BackupIncrement(chainId, sequence, attachmentWatermark, stickerWatermark, modifiedAfter);
+  }
+
+  public @NonNull String getChainId() {
+    return chainId;
+  }
+
+  public int getSequence() {
+    return sequence;
+  }
+
+  public boolean isBase() {
+    return sequence == 0;
+  }
+
+  boolean shouldIncludeAttachment(long rowId, @NonNull File data) {
+    return isBase() || rowId > attachmentWatermark || data.lastModified() > modifiedAfter;
+  }
+
+  boolean shouldIncludeSticker(long rowId, @NonNull File data) {
+    return isBase() || rowId > stickerWatermark || data.lastModified() > modifiedAfter;
+  }
+}
@@ -8,6 +8,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.annimon.stream.function.Predicate;
@@ -17,6 +18,8 @@ import net.sqlcipher.database.SQLiteDatabase;
 
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.Conversions;
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
@@ -31,6 +34,7 @@ import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
 import org.thoughtcrime.securesms.database.PendingRetryReceiptDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.SenderKeyDatabase;
 import org.thoughtcrime.securesms.database.SenderKeySharedDatabase;
@@ -62,6 +66,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -81,6 +94,7 @@ public class FullBackupExporter extends FullBackupBase {
     SessionDatabase.TABLE_NAME,
     SearchDatabase.SMS_FTS_TABLE_NAME,
     SearchDatabase.MMS_FTS_TABLE_NAME,
+    RecipientDatabase.FTS_TABLE_NAME,
     EmojiSearchDatabase.TABLE_NAME,
     SenderKeyDatabase.TABLE_NAME,
     SenderKeySharedDatabase.TABLE_NAME,
@@ -96,7 +110,24 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     try (OutputStream outputStream = new FileOutputStream(output)) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase, true, cancellationSignal);
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, true, null, cancellationSignal);
+    }
+  }
+
+  /**
+   * Writes a single file of an incremental backup chain. See {@link BackupIncrement}.
+   */
+  public static void export(@NonNull Context context,
+                            @NonNull AttachmentSecret attachmentSecret,
+                            @NonNull SQLiteDatabase input,
+                            @NonNull File output,
+                            @NonNull String passphrase,
+                            @NonNull BackupIncrement increment,
+                            @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
+  {
+    try (OutputStream outputStream = new FileOutputStream(output)) {
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, true, increment, cancellationSignal);
     }
   }
 
@@ -110,7 +141,7 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     try (OutputStream outputStream = Objects.requireNonNull(context.getContentResolver().openOutputStream(output.getUri()))) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase, true, cancellationSignal);
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, true, null, cancellationSignal);
     }
   }
 
@@ -121,7 +152,7 @@ public class FullBackupExporter extends FullBackupBase {
                               @NonNull String passphrase)
       throws IOException
   {
-    internalExport(context, attachmentSecret, input, outputStream, passphrase, false, () -> false);
+    internalExport(context, attachmentSecret, input, outputStream, passphrase, false, null, () -> false);
   }
 
   private static void internalExport(@NonNull Context context,
@@ -130,6 +161,7 @@ public class FullBackupExporter extends FullBackupBase {
                                      @NonNull OutputStream fileOutputStream,
                                      @NonNull String passphrase,
                                      boolean closeOutputStream,
+                                     @Nullable BackupIncrement increment,
                                      @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
   {
@@ -137,6 +169,13 @@ public class FullBackupExporter extends FullBackupBase {
     int                     count        = 0;
 
     try {
+      if (increment != null) {
+        outputStream.write(BackupProtos.Incremental.newBuilder()
+                                                   .setChainId(increment.getChainId())
+                                                   .setSequence(increment.getSequence())
+                                                   .build());
+      }
+
       outputStream.writeDatabaseVersion(input.getVersion());
       count++;
 
@@ -154,10 +193,10 @@ public class FullBackupExporter extends FullBackupBase {
         } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count, cancellationSignal);
         } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount), count, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, increment), count, cancellationSignal);
         } else if (table.equals(StickerDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount), count, cancellationSignal);
-        } else if (!BLACKLISTED_TABLES.contains(table) && !table.startsWith("sqlite_")) {
+          count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, increment), count, cancellationSignal);
+        } else if (isTableExported(table)) {
           count = exportTable(table, input, outputStream, null, null, count, cancellationSignal);
         }
         stopwatch.split("table::" + table);
@@ -190,10 +229,13 @@ public class FullBackupExporter extends FullBackupBase {
       }
 
       stopwatch.split("avatars");
-      stopwatch.stop(TAG);
 
       outputStream.writeEnd();
+
+      stopwatch.split("flush");
+      stopwatch.stop(TAG);
     } finally {
+      outputStream.stop();
       if (closeOutputStream) {
         outputStream.close();
       }
@@ -223,7 +265,7 @@ public class FullBackupExporter extends FullBackupBase {
           boolean isMmsFtsSecretTable   = name != null && !name.equals(SearchDatabase.MMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME);
           boolean isEmojiFtsSecretTable = name != null && !name.equals(EmojiSearchDatabase.TABLE_NAME) && name.startsWith(EmojiSearchDatabase.TABLE_NAME);
 
-          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isEmojiFtsSecretTable) {
+          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isEmojiFtsSecretTable && !isRecipientFtsSecretTable(name, type)) {
             if ("table".equals(type)) {
               tables.add(name);
             }
@@ -237,6 +279,20 @@ public class FullBackupExporter extends FullBackupBase {
     return tables;
   }
 
+  /**
+   * The recipient search index's triggers share its name as a prefix, so only its shadow tables
+   * are matched here. Those get recreated by its CREATE VIRTUAL TABLE statement.
+   */
+  @VisibleForTesting
+  static boolean isRecipientFtsSecretTable(@Nullable String name, @Nullable String type) {
+    return "table".equals(type) && name != null && name.startsWith(RecipientDatabase.FTS_TABLE_NAME + "_");
+  }
+
+  @VisibleForTesting
+  static boolean isTableExported(@NonNull String table) {
+    return !BLACKLISTED_TABLES.contains(table) && !table.startsWith("sqlite_");
+  }
+
   private static int exportTable(@NonNull String table,
                                  @NonNull SQLiteDatabase input,
                                  @NonNull BackupFrameOutputStream outputStream,
@@ -295,58 +351,81 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static int exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, int count) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
-      long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+  /**
+   * An attachment we can't read from disk is logged and left out, but a failure writing it to the
+   * backup fails the export.
+   */
+  private static int exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, int count, @Nullable BackupIncrement increment)
+      throws IOException
+  {
+    long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
 
-      if (!TextUtils.isEmpty(data)) {
-        long fileLength = new File(data).length();
-        long dbLength   = size;
+    if (TextUtils.isEmpty(data) || (increment != null && !increment.shouldIncludeAttachment(rowId, new File(data)))) {
+      return count;
+    }
 
-        if (size <= 0 || fileLength != dbLength) {
-          size = calculateVeryOldStreamLength(attachmentSecret, random, data);
-          Log.w(TAG, "Needed size calculation! Manual: " + size + " File: " + fileLength + "  DB: " + dbLength + " ID: " + new AttachmentId(rowId, uniqueId));
-        }
-      }
+    InputStream inputStream;
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream;
+    try {
+      long fileLength = new File(data).length();
+      long dbLength   = size;
 
-        if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
+      if (size <= 0 || fileLength != dbLength) {
+        size = calculateVeryOldStreamLength(attachmentSecret, random, data);
+        Log.w(TAG, "Needed size calculation! Manual: " + size + " File: " + fileLength + "  DB: " + dbLength + " ID: " + new AttachmentId(rowId, uniqueId));
+      }
 
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+      if (size <= 0) {
+        return count;
       }
+
+      if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
+      else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
     } catch (IOException e) {
       Log.w(TAG, e);
+      return count;
     }
 
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+    outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+
     return count;
   }
 
-  private static int exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, int count) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+  /**
+   * Like {@link #exportAttachment}, a sticker we can't read is left out but a failure writing it
+   * fails the export.
+   */
+  private static int exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, int count, @Nullable BackupIncrement increment)
+      throws IOException
+  {
+    long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
+    long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-        InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        outputStream.writeSticker(rowId, inputStream, size);
-      }
+    if (TextUtils.isEmpty(data) || size <= 0 || (increment != null && !increment.shouldIncludeSticker(rowId, new File(data)))) {
+      return count;
+    }
+
+    InputStream inputStream;
+
+    try {
+      inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
     } catch (IOException e) {
       Log.w(TAG, e);
+      return count;
     }
 
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+    outputStream.writeSticker(rowId, inputStream, size);
+
     return count;
   }
 
@@ -432,19 +511,53 @@ public class FullBackupExporter extends FullBackupBase {
   }
 
 
-  private static class BackupFrameOutputStream extends BackupStream {
-
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+  /**
+   * Writes backup frames using a pipeline. Every frame and blob is assigned its IV counter on the
+   * calling thread, in the order it's written. Blobs are then decrypted from disk and re-encrypted
+   * in fixed-size chunks on a pool of worker threads, ahead of the single writer thread, which
+   * emits everything to the output stream in the original order.
+   *
+   * Every frame and blob has its own IV and MAC, so none of them depend on each other and the file
+   * is byte-for-byte the same format as if it were written serially.
+   *
+   * The ciphertext waiting for the writer shares a budget of {@link #MAX_BUFFERED_BYTES}. The only
+   * thing allowed past it is the segment the writer is draining, which is still held to
+   * {@link #MAX_SEGMENT_CHUNKS} queued chunks. Otherwise later segments could use up the budget
+   * while the writer waits on an earlier one.
+   */
+  @VisibleForTesting
+  static class BackupFrameOutputStream extends BackupStream {
+
+    @VisibleForTesting static final int CHUNK_SIZE         = 64 * 1024;
+    @VisibleForTesting static final int MAX_SEGMENT_CHUNKS = 4;
+    @VisibleForTesting static final int MAX_BUFFERED_BYTES = 2 * 1024 * 1024;
+
+    private static final int MAX_PENDING_SEGMENTS = 64;
+
+    private static final byte[]  END_OF_SEGMENT = new byte[0];
+    private static final Segment END_OF_STREAM  = new Segment(-1);
+
+    private final OutputStream           outputStream;
+    private final Cipher                 cipher;
+    private final Mac                    mac;
+    private final BlockingQueue<Segment> segments;
+    private final ExecutorService        encryptors;
+    private final ExecutorService        writer;
+    private final Future<Void>           writerResult;
 
     private final byte[]       cipherKey;
     private final byte[]       macKey;
 
+    private final Object  bufferLock = new Object();
+    private       long    bufferedBytes;
+    private       long    peakBufferedBytes;
+    private       Segment draining;
+
     private byte[] iv;
     private int    counter;
 
-    private BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
+    @VisibleForTesting
+    BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
       try {
         byte[]   salt    = Util.getSecretBytes(32);
         byte[]   key     = getBackupKey(passphrase, salt);
@@ -472,12 +585,21 @@ public class FullBackupExporter extends FullBackupBase {
       } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
         throw new AssertionError(e);
       }
+
+      this.segments     = new ArrayBlockingQueue<>(MAX_PENDING_SEGMENTS);
+      this.encryptors   = Executors.newFixedThreadPool(SignalExecutors.getIdealThreadCount(), new NamedThreadFactory("signal-BackupEncryptor"));
+      this.writer       = Executors.newSingleThreadExecutor(new NamedThreadFactory("signal-BackupWriter"));
+      this.writerResult = writer.submit(this::writeSegments);
     }
 
     public void write(BackupProtos.SharedPreference preference) throws IOException {
       write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
     }
 
+    public void write(BackupProtos.Incremental incremental) throws IOException {
+      write(outputStream, BackupProtos.BackupFrame.newBuilder().setIncremental(incremental).build());
+    }
+
     public void write(BackupProtos.KeyValue keyValue) throws IOException {
       write(outputStream, BackupProtos.BackupFrame.newBuilder().setKeyValue(keyValue).build());
     }
@@ -494,9 +616,7 @@ public class FullBackupExporter extends FullBackupBase {
                                                                                 .build())
                                                   .build());
 
-      if (writeStream(in) != size) {
-        throw new IOException("Size mismatch!");
-      }
+      writeStream(in, size);
     }
 
     public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
@@ -508,9 +628,7 @@ public class FullBackupExporter extends FullBackupBase {
                                                                                         .build())
                                                   .build());
 
-      if (writeStream(in) != size) {
-        throw new IOException("Size mismatch!");
-      }
+      writeStream(in, size);
     }
 
     public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
@@ -521,9 +639,7 @@ public class FullBackupExporter extends FullBackupBase {
                                                                                   .build())
                                                   .build());
 
-      if (writeStream(in) != size) {
-        throw new IOException("Size mismatch!");
-      }
+      writeStream(in, size);
     }
 
     void writeDatabaseVersion(int version) throws IOException {
@@ -532,73 +648,284 @@ public class FullBackupExporter extends FullBackupBase {
                                                   .build());
     }
 
+    /**
+     * Writes the end frame and blocks until everything has been written out.
+     */
     void writeEnd() throws IOException {
       write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      enqueue(END_OF_STREAM);
+
+      try {
+        writerResult.get();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw toIOException(e);
+      }
     }
 
     /**
-     * @return The amount of data written from the provided InputStream.
+     * Queues a blob to be encrypted on a worker thread. The stream is closed once it's been read.
      */
-    private long writeStream(@NonNull InputStream inputStream) throws IOException {
+    private void writeStream(@NonNull InputStream inputStream, long size) throws IOException {
+      Segment segment = new Segment(size);
+      byte[]  blobIv  = iv.clone();
+
+      Conversions.intToByteArray(blobIv, 0, counter++);
+
+      try {
+        enqueue(segment);
+      } catch (IOException e) {
+        StreamUtil.close(inputStream);
+        throw e;
+      }
+
+      encryptors.execute(() -> {
+        try {
+          encryptStream(inputStream, blobIv, segment);
+        } catch (InterruptedException e) {
+          Log.w(TAG, "Interrupted while encrypting a blob.");
+        } finally {
+          StreamUtil.close(inputStream);
+        }
+      });
+    }
+
+    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
         cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
-        mac.update(iv);
 
-        byte[] buffer = new byte[8192];
-        long   total  = 0;
+        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
+        byte[] frameMac        = mac.doFinal(frameCiphertext);
+        byte[] encoded         = new byte[4 + frameCiphertext.length + 10];
 
-        int read;
+        Conversions.intToByteArray(encoded, 0, frameCiphertext.length + 10);
+        System.arraycopy(frameCiphertext, 0, encoded, 4, frameCiphertext.length);
+        System.arraycopy(frameMac, 0, encoded, 4 + frameCiphertext.length, 10);
 
-        while ((read = inputStream.read(buffer)) != -1) {
-          byte[] ciphertext = cipher.update(buffer, 0, read);
+        Segment segment = new Segment(-1);
+        segment.chunks.add(encoded);
+        segment.chunks.add(END_OF_SEGMENT);
 
-          if (ciphertext != null) {
-            outputStream.write(ciphertext);
+        reserve(null, encoded.length);
+        enqueue(segment);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * Runs on an encryptor. Reads the blob in fixed-size chunks, and encrypts and MACs each one into
+     * the segment as it goes, blocking if the writer falls too far behind.
+     */
+    private void encryptStream(@NonNull InputStream inputStream, @NonNull byte[] blobIv, @NonNull Segment segment) throws InterruptedException {
+      try {
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        Mac    mac    = Mac.getInstance("HmacSHA256");
+
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(blobIv));
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        mac.update(blobIv);
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int    filled = 0;
+        int    read;
+
+        while ((read = inputStream.read(buffer, filled, buffer.length - filled)) != -1) {
+          filled += read;
+
+          if (filled == buffer.length) {
+            byte[] ciphertext = cipher.update(buffer, 0, filled);
             mac.update(ciphertext);
+            reserve(segment, ciphertext.length);
+            segment.chunks.put(ciphertext);
+            segment.length += filled;
+            filled = 0;
           }
-
-          total += read;
         }
 
-        byte[] remainder = cipher.doFinal();
-        outputStream.write(remainder);
+        byte[] remainder = cipher.doFinal(buffer, 0, filled);
         mac.update(remainder);
+        segment.length += filled;
 
-        byte[] attachmentDigest = mac.doFinal();
-        outputStream.write(attachmentDigest, 0, 10);
+        byte[] last = new byte[remainder.length + 10];
+        System.arraycopy(remainder, 0, last, 0, remainder.length);
+        System.arraycopy(mac.doFinal(), 0, last, remainder.length, 10);
 
-        return total;
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+        reserve(segment, last.length);
+        segment.chunks.put(last);
+      } catch (IOException e) {
+        segment.error = e;
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
         throw new AssertionError(e);
       }
+
+      segment.chunks.put(END_OF_SEGMENT);
     }
 
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
+    /**
+     * Runs on the writer. Emits every segment, in order, until the end of the stream.
+     */
+    private Void writeSegments() throws IOException, InterruptedException {
+      Segment segment;
+
+      while ((segment = segments.take()) != END_OF_STREAM) {
+        byte[] chunk;
+
+        startDraining(segment);
+
+        while ((chunk = segment.chunks.take()) != END_OF_SEGMENT) {
+          outputStream.write(chunk);
+          release(chunk.length);
+        }
+
+        if (segment.error != null) {
+          throw segment.error;
+        }
+
+        if (segment.expectedLength >= 0 && segment.length != segment.expectedLength) {
+          throw new IOException("Size mismatch!");
+        }
+      }
+
+      outputStream.flush();
+
+      return null;
+    }
+
+    /**
+     * Blocks until there's room in the budget for {@code size} more bytes of ciphertext, unless the
+     * segment is the one being drained. Something bigger than the whole budget only waits for it to
+     * empty. Frames are reserved by the exporting thread, before their segment is queued.
+     */
+    private void reserve(@Nullable Segment segment, int size) throws IOException, InterruptedException {
+      synchronized (bufferLock) {
+        while (bufferedBytes > 0 && bufferedBytes + size > MAX_BUFFERED_BYTES && (segment == null || segment != draining)) {
+          bufferLock.wait(100);
+          throwIfWriterFailed();
+        }
+
+        bufferedBytes    += size;
+        peakBufferedBytes = Math.max(peakBufferedBytes, bufferedBytes);
+      }
+    }
+
+    private void release(int size) {
+      synchronized (bufferLock) {
+        bufferedBytes -= size;
+        bufferLock.notifyAll();
+      }
+    }
+
+    private void startDraining(@NonNull Segment segment) {
+      synchronized (bufferLock) {
+        draining = segment;
+        bufferLock.notifyAll();
+      }
+    }
+
+    /**
+     * The most ciphertext that was ever waiting for the writer at once.
+     */
+    @VisibleForTesting
+    long getPeakBufferedBytes() {
+      synchronized (bufferLock) {
+        return peakBufferedBytes;
+      }
+    }
+
+    private void enqueue(@NonNull Segment segment) throws IOException {
       try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        while (!segments.offer(segment, 100, TimeUnit.MILLISECONDS)) {
+          throwIfWriterFailed();
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
 
-        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
-        byte[] frameMac        = mac.doFinal(frameCiphertext);
-        byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
+      throwIfWriterFailed();
+    }
 
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-        throw new AssertionError(e);
+    private void throwIfWriterFailed() throws IOException {
+      if (!writerResult.isDone()) {
+        return;
+      }
+
+      try {
+        writerResult.get();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw toIOException(e);
       }
     }
 
+    private static @NonNull IOException toIOException(@NonNull ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        return (IOException) e.getCause();
+      } else {
+        return new IOException(e.getCause());
+      }
+    }
+
+    /**
+     * Stops the pipeline, abandoning anything that hasn't been written yet. Must be called once
+     * the export is over, whether or not it succeeded.
+     */
+    void stop() {
+      encryptors.shutdownNow();
+      writer.shutdownNow();
+
+      try {
+        if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+          Log.w(TAG, "Writer did not stop in time.");
+        }
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while stopping the writer.", e);
+      }
+    }
 
     public void close() throws IOException {
       outputStream.close();
     }
+
+    /**
+     * A single frame or blob, as a series of ciphertext chunks. Only the encryptor working on the
+     * segment writes to it, and only the writer reads from it.
+     */
+    private static final class Segment {
+      private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_SEGMENT_CHUNKS);
+      private final long                  expectedLength;
+
+      private volatile long        length;
+      private volatile IOException error;
+
+      private Segment(long expectedLength) {
+        this.expectedLength = expectedLength;
+      }
+    }
+  }
+
+  private static final class NamedThreadFactory implements ThreadFactory {
+
+    private final String        name;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private NamedThreadFactory(@NonNull String name) {
+      this.name = name;
+    }
+
+    @Override
+    public @NonNull Thread newThread(@NonNull Runnable runnable) {
+      return new Thread(runnable, name + "-" + counter.getAndIncrement());
+    }
   }
 
   public interface PostProcessor {
-    int postProcess(@NonNull Cursor cursor, int count);
+    int postProcess(@NonNull Cursor cursor, int count) throws IOException;
   }
 
   public interface BackupCancellationSignal {
@@ -10,6 +10,8 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -17,9 +19,11 @@ import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
 import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
 import org.thoughtcrime.securesms.backup.BackupProtos.BackupFrame;
 import org.thoughtcrime.securesms.backup.BackupProtos.DatabaseVersion;
+import org.thoughtcrime.securesms.backup.BackupProtos.Incremental;
 import org.thoughtcrime.securesms.backup.BackupProtos.SharedPreference;
 import org.thoughtcrime.securesms.backup.BackupProtos.SqlStatement;
 import org.thoughtcrime.securesms.backup.BackupProtos.Sticker;
@@ -28,6 +32,7 @@ import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.EmojiSearchDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -50,10 +55,14 @@ import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -68,6 +77,12 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = Log.tag(FullBackupImporter.class);
 
+  /**
+   * Creates one of the recipient search index's shadow tables. Its triggers share the same prefix,
+   * so this can't just look for the name like the other search indexes do.
+   */
+  private static final Pattern RECIPIENT_FTS_SECRET_TABLE = Pattern.compile("CREATE TABLE ['\"`]?" + RecipientDatabase.FTS_TABLE_NAME + "_", Pattern.CASE_INSENSITIVE);
+
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull String passphrase)
       throws IOException
@@ -85,27 +100,67 @@ public class FullBackupImporter extends FullBackupBase {
 
     SQLiteDatabase keyValueDatabase = KeyValueDatabase.getInstance(ApplicationDependencies.getApplication()).getSqlCipherDatabase();
     try {
-      BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
+      db.beginTransaction();
+      keyValueDatabase.beginTransaction();
 
+      count = importFrames(context, attachmentSecret, db, is, passphrase, null, 0, count).count;
+
+      db.setTransactionSuccessful();
+      keyValueDatabase.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      keyValueDatabase.endTransaction();
+    }
+
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
+  }
+
+  /**
+   * Restores a chain of incremental backups -- a base followed by each of its deltas, in order. See
+   * {@link BackupIncrement}.
+   *
+   * Every file replaces the whole database, but a delta only carries the attachments and stickers
+   * that weren't in an earlier file. After each delta, anything restored from an earlier file is
+   * reattached to its row, and anything whose row no longer exists is deleted.
+   */
+  public static void importChain(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase db, @NonNull Uri base, @NonNull List<Uri> deltas,
+                                 @NonNull String passphrase)
+      throws IOException
+  {
+    int count = 0;
+
+    SQLiteDatabase keyValueDatabase = KeyValueDatabase.getInstance(ApplicationDependencies.getApplication()).getSqlCipherDatabase();
+    try {
       db.beginTransaction();
       keyValueDatabase.beginTransaction();
 
-      dropAllTables(db);
+      ImportResult result;
+
+      try (InputStream is = getInputStream(context, base)) {
+        result = importFrames(context, attachmentSecret, db, is, passphrase, null, 0, count);
+      }
+
+      if (!deltas.isEmpty() && (result.incremental == null || result.incremental.getSequence() != 0)) {
+        throw new IOException("Backup is not the base of an incremental chain!");
+      }
 
-      BackupFrame frame;
+      Map<AttachmentId, RestoredFile> attachments = new HashMap<>(result.attachments);
+      Map<Long, RestoredFile>         stickers    = new HashMap<>(result.stickers);
+
+      count = result.count;
+
+      for (int i = 0; i < deltas.size(); i++) {
+        Log.i(TAG, "Restoring delta " + (i + 1) + " of " + deltas.size());
+
+        try (InputStream is = getInputStream(context, deltas.get(i))) {
+          result = importFrames(context, attachmentSecret, db, is, passphrase, result.incremental.getChainId(), i + 1, count);
+        }
 
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
-        count++;
+        count = result.count;
 
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
-        else if (frame.hasKeyValue())   processKeyValue(frame.getKeyValue());
-        else                            count--;
+        reattachAttachments(db, attachments, result.attachments);
+        reattachStickers(db, stickers, result.stickers);
       }
 
       db.setTransactionSuccessful();
@@ -118,6 +173,45 @@ public class FullBackupImporter extends FullBackupBase {
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
   }
 
+  /**
+   * Replaces the contents of the database with a single backup file.
+   *
+   * @param chainId  If set, the file must be the delta at the given sequence in this chain.
+   */
+  private static @NonNull ImportResult importFrames(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                                    @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase,
+                                                    @Nullable String chainId, int sequence, int count)
+      throws IOException
+  {
+    BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
+    BackupFrame             frame       = inputStream.readFrame();
+    ImportResult            result      = new ImportResult(frame.hasIncremental() ? frame.getIncremental() : null);
+
+    if (chainId != null && (result.incremental == null || !chainId.equals(result.incremental.getChainId()) || result.incremental.getSequence() != sequence)) {
+      throw new IOException("Backup is not delta " + sequence + " of chain " + chainId + "!");
+    }
+
+    dropAllTables(db);
+
+    for (; !frame.getEnd(); frame = inputStream.readFrame()) {
+      if (count % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+      count++;
+
+      if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+      else if (frame.hasStatement())  processStatement(db, frame.getStatement());
+      else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+      else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream, result);
+      else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream, result);
+      else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+      else if (frame.hasKeyValue())   processKeyValue(frame.getKeyValue());
+      else                            count--;
+    }
+
+    result.count = count;
+
+    return result;
+  }
+
   private static @NonNull InputStream getInputStream(@NonNull Context context, @NonNull Uri uri) throws IOException{
     if (BackupUtil.isUserSelectionRequired(context) || uri.getScheme().equals("content")) {
       return Objects.requireNonNull(context.getContentResolver().openInputStream(uri));
@@ -134,13 +228,15 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  @VisibleForTesting
+  static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
     boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
     boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
     boolean isForEmojiSecretTable  = statement.getStatement().contains(EmojiSearchDatabase.TABLE_NAME + "_");
     boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
+    boolean isForRecipientFtsTable = RECIPIENT_FTS_SECRET_TABLE.matcher(statement.getStatement()).lookingAt();
 
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForEmojiSecretTable || isForSqliteSecretTable) {
+    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForEmojiSecretTable || isForSqliteSecretTable || isForRecipientFtsTable) {
       Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
       return;
     }
@@ -159,7 +255,7 @@ public class FullBackupImporter extends FullBackupBase {
     else                       db.execSQL(statement.getStatement());
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
+  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream, @NonNull ImportResult result)
       throws IOException
   {
     File                       partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
@@ -173,6 +269,8 @@ public class FullBackupImporter extends FullBackupBase {
 
       contentValues.put(AttachmentDatabase.DATA, dataFile.getAbsolutePath());
       contentValues.put(AttachmentDatabase.DATA_RANDOM, output.first);
+
+      result.attachments.put(new AttachmentId(attachment.getRowId(), attachment.getAttachmentId()), new RestoredFile(dataFile, output.first, attachment.getLength()));
     } catch (BadMacException e) {
       Log.w(TAG, "Bad MAC for attachment " + attachment.getAttachmentId() + "! Can't restore it.", e);
       dataFile.delete();
@@ -185,7 +283,7 @@ public class FullBackupImporter extends FullBackupBase {
               new String[] {String.valueOf(attachment.getRowId()), String.valueOf(attachment.getAttachmentId())});
   }
 
-  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
+  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream, @NonNull ImportResult result)
       throws IOException
   {
     File stickerDirectory = context.getDir(StickerDatabase.DIRECTORY, Context.MODE_PRIVATE);
@@ -203,6 +301,74 @@ public class FullBackupImporter extends FullBackupBase {
     db.update(StickerDatabase.TABLE_NAME, contentValues,
               StickerDatabase._ID + " = ?",
               new String[] {String.valueOf(sticker.getRowId())});
+
+    result.stickers.put(sticker.getRowId(), new RestoredFile(dataFile, output.first, sticker.getLength()));
+  }
+
+  /**
+   * Points attachment rows at the files that were restored for them by earlier files in the chain,
+   * unless the latest file restored a newer copy. Files whose row no longer exists are deleted.
+   */
+  private static void reattachAttachments(@NonNull SQLiteDatabase db, @NonNull Map<AttachmentId, RestoredFile> restored, @NonNull Map<AttachmentId, RestoredFile> latest) {
+    Iterator<Map.Entry<AttachmentId, RestoredFile>> iterator = restored.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      Map.Entry<AttachmentId, RestoredFile> entry = iterator.next();
+      RestoredFile                          file  = entry.getValue();
+
+      if (latest.containsKey(entry.getKey())) {
+        file.delete();
+        iterator.remove();
+        continue;
+      }
+
+      ContentValues values = new ContentValues(2);
+      values.put(AttachmentDatabase.DATA, file.file.getAbsolutePath());
+      values.put(AttachmentDatabase.DATA_RANDOM, file.random);
+
+      int updated = db.update(AttachmentDatabase.TABLE_NAME, values,
+                              AttachmentDatabase.ROW_ID + " = ? AND " + AttachmentDatabase.UNIQUE_ID + " = ?",
+                              entry.getKey().toStrings());
+
+      if (updated == 0) {
+        file.delete();
+        iterator.remove();
+      }
+    }
+
+    restored.putAll(latest);
+  }
+
+  /**
+   * Same as {@link #reattachAttachments(SQLiteDatabase, Map, Map)}, but for stickers.
+   */
+  private static void reattachStickers(@NonNull SQLiteDatabase db, @NonNull Map<Long, RestoredFile> restored, @NonNull Map<Long, RestoredFile> latest) {
+    Iterator<Map.Entry<Long, RestoredFile>> iterator = restored.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      Map.Entry<Long, RestoredFile> entry = iterator.next();
+      RestoredFile                  file  = entry.getValue();
+
+      if (latest.containsKey(entry.getKey())) {
+        file.delete();
+        iterator.remove();
+        continue;
+      }
+
+      ContentValues values = new ContentValues(3);
+      values.put(StickerDatabase.FILE_PATH, file.file.getAbsolutePath());
+      values.put(StickerDatabase.FILE_LENGTH, file.length);
+      values.put(StickerDatabase.FILE_RANDOM, file.random);
+
+      int updated = db.update(StickerDatabase.TABLE_NAME, values, StickerDatabase._ID + " = ?", SqlUtil.buildArgs(entry.getKey()));
+
+      if (updated == 0) {
+        file.delete();
+        iterator.remove();
+      }
+    }
+
+    restored.putAll(latest);
   }
 
   private static void processAvatar(@NonNull Context context, @NonNull SQLiteDatabase db, @NonNull BackupProtos.Avatar avatar, @NonNull BackupRecordInputStream inputStream) throws IOException {
@@ -273,7 +439,8 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
-  private static class BackupRecordInputStream extends BackupStream {
+  @VisibleForTesting
+  static class BackupRecordInputStream extends BackupStream {
 
     private final InputStream in;
     private final Cipher      cipher;
@@ -285,7 +452,8 @@ public class FullBackupImporter extends FullBackupBase {
     private byte[] iv;
     private int    counter;
 
-    private BackupRecordInputStream(@NonNull InputStream in, @NonNull String passphrase) throws IOException {
+    @VisibleForTesting
+    BackupRecordInputStream(@NonNull InputStream in, @NonNull String passphrase) throws IOException {
       try {
         this.in = in;
 
@@ -409,6 +577,36 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  private static class ImportResult {
+    private final Incremental                     incremental;
+    private final Map<AttachmentId, RestoredFile> attachments = new HashMap<>();
+    private final Map<Long, RestoredFile>         stickers    = new HashMap<>();
+
+    private int count;
+
+    private ImportResult(@Nullable Incremental incremental) {
+      this.incremental = incremental;
+    }
+  }
+
+  private static class RestoredFile {
+    private final File   file;
+    private final byte[] random;
+    private final long   length;
+
+    private RestoredFile(@NonNull File file, @NonNull byte[] random, long length) {
+      this.file   = file;
+      this.random = random;
+      this.length = length;
+    }
+
+    private void delete() {
+      if (!file.delete()) {
+        Log.w(TAG, "Failed to delete superseded file.");
+      }
+    }
+  }
+
   private static class BadMacException extends IOException {}
 
   public static class DatabaseDowngradeException extends IOException {
@@ -4,17 +4,38 @@ import android.graphics.Bitmap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
 import com.bumptech.glide.load.resource.SimpleResource;
 
+import org.thoughtcrime.securesms.util.LRUCache;
+
 import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
 
 public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap> {
 
-  private static final int MAX_DIMEN = 20;
+  private static final int MAX_DIMEN  = 20;
+  private static final int CACHE_SIZE = 100;
+
+  /**
+   * Decoded pixels rather than bitmaps, so every caller still gets a bitmap of its own. At no more
+   * than 20x20 pixels an entry is at most 1.6 kB.
+   */
+  private final Map<Key, int[]> cache;
+
+  public BlurHashResourceDecoder() {
+    this(CACHE_SIZE);
+  }
+
+  @VisibleForTesting
+  BlurHashResourceDecoder(int cacheSize) {
+    this.cache = new LRUCache<>(cacheSize);
+  }
 
   @Override
   public boolean handles(@NonNull BlurHash source, @NonNull Options options) throws IOException {
@@ -34,6 +55,68 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
       finalWidth  = (int) (finalHeight * width / (float) height);
     }
 
-    return new SimpleResource<>(BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight));
+    int[] pixels = getPixels(source.getHash(), finalWidth, finalHeight);
+
+    if (pixels == null) {
+      return null;
+    }
+
+    return new SimpleResource<>(BlurHashDecoder.toBitmap(pixels, finalWidth, finalHeight));
+  }
+
+  /**
+   * Returns the cached pixels for the hash at this size, decoding and caching them on a miss. The
+   * array is shared between callers and must not be modified.
+   */
+  @VisibleForTesting
+  @Nullable int[] getPixels(@NonNull String hash, int width, int height) {
+    Key   key = new Key(hash, width, height);
+    int[] pixels;
+
+    synchronized (cache) {
+      pixels = cache.remove(key);
+      if (pixels != null) {
+        cache.put(key, pixels);
+      }
+    }
+
+    if (pixels == null) {
+      pixels = BlurHashDecoder.decodePixels(hash, width, height, 1f);
+
+      if (pixels == null) {
+        return null;
+      }
+
+      synchronized (cache) {
+        cache.put(key, pixels);
+      }
+    }
+
+    return pixels;
+  }
+
+  private static final class Key {
+    private final String hash;
+    private final int    width;
+    private final int    height;
+
+    private Key(@NonNull String hash, int width, int height) {
+      this.hash   = hash;
+      this.width  = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return width == key.width && height == key.height && hash.equals(key.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(hash, width, height);
+    }
   }
 }
\ No newline at end of file
@@ -22,7 +22,24 @@ package org.thoughtcrime.securesms.blurhash;
 
 final class BlurHashUtil {
 
+  /** Every input is an 8-bit channel, so the conversion only ever has 256 distinct results. */
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = computeSRGBToLinear(i);
+    }
+  }
+
   static double sRGBToLinear(long value) {
+    if (value >= 0 && value < SRGB_TO_LINEAR.length) {
+      return SRGB_TO_LINEAR[(int) value];
+    } else {
+      return computeSRGBToLinear(value);
+    }
+  }
+
+  private static double computeSRGBToLinear(long value) {
     double v = value / 255.0;
     if (v <= 0.04045) {
       return v / 12.92;
@@ -44,6 +61,20 @@ final class BlurHashUtil {
     return Math.copySign(Math.pow(Math.abs(val), exp), val);
   }
 
+  /**
+   * @return cos(PI * position * component / size) for every component and position, indexed by
+   *         component * size + position.
+   */
+  static double[] cosines(int size, int components) {
+    double[] cosines = new double[size * components];
+    for (int component = 0; component < components; component++) {
+      for (int position = 0; position < size; position++) {
+        cosines[component * size + position] = Math.cos(Math.PI * position * component / size);
+      }
+    }
+    return cosines;
+  }
+
   static double max(double[][] values, int from, int endExclusive) {
     double result = Double.NEGATIVE_INFINITY;
     for (int i = from; i < endExclusive; i++) {
@@ -24,8 +24,8 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -39,25 +39,45 @@ public class EmojiParser {
     this.emojiTree = emojiTree;
   }
 
+  /**
+   * Finds the longest emoji starting at each position, left to right, skipping past each one found.
+   * Each position is matched by walking the tree once, and most text fails on its very first char.
+   */
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    List<Candidate> results = new ArrayList<>();
 
     if (text == null) {
       return new CandidateList(results, false);
     }
 
-    boolean allEmojis = text.length() > 0;
+    int     length    = text.length();
+    boolean allEmojis = length > 0;
 
-    for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+    for (int i = 0; i < length; i++) {
+      EmojiDrawInfo drawInfo = null;
+      int           emojiEnd = -1;
+      int           node     = EmojiTree.ROOT;
 
-      if (emojiEnd != -1) {
-        EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
+      for (int j = i; j < length; j++) {
+        char c = text.charAt(j);
+
+        node = emojiTree.getChild(node, c);
+
+        if (node == EmojiTree.NO_NODE) {
+          break;
+        }
+
+        EmojiDrawInfo match = emojiTree.getEmojiForMatch(node, c);
+
+        if (match != null) {
+          drawInfo = match;
+          emojiEnd = j + 1;
+        }
+      }
 
-        if (emojiEnd + 2 <= text.length()) {
-          if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
-            emojiEnd += 2;
-          }
+      if (emojiEnd != -1) {
+        if (emojiEnd + 2 <= length && Fitzpatrick.isFitzpatrickModifier(text, emojiEnd)) {
+          emojiEnd += 2;
         }
 
         results.add(new Candidate(i, emojiEnd, drawInfo));
@@ -73,22 +93,6 @@ public class EmojiParser {
     return new CandidateList(results, allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
-    }
-
-    return best;
-  }
-
   public static class Candidate {
 
     private final int           startIndex;
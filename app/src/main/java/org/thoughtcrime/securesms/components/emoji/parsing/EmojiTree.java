@@ -22,30 +22,47 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * A trie of every emoji's chars. Rather than an object per node with a map of boxed children, nodes
+ * are just indexes into a handful of arrays, and each node's children are kept as a sorted char
+ * array that's binary searched. {@link EmojiParser} walks it directly via {@link #getChild(int, char)},
+ * so a text can be matched in a single pass without allocating.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
+  static final int ROOT    = 0;
+  static final int NO_NODE = -1;
+
+  static final char TERMINATOR = '\ufe0f';
 
-  private static final char TERMINATOR = '\ufe0f';
+  private static final int INITIAL_NODE_CAPACITY  = 1024;
+  private static final int INITIAL_CHILD_CAPACITY = 2;
+
+  private char[][]        childKeys   = new char[INITIAL_NODE_CAPACITY][];
+  private int[][]         childNodes  = new int[INITIAL_NODE_CAPACITY][];
+  private int[]           childCounts = new int[INITIAL_NODE_CAPACITY];
+  private EmojiDrawInfo[] emoji       = new EmojiDrawInfo[INITIAL_NODE_CAPACITY];
+  private int             nodeCount   = 1;
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+    int node = ROOT;
+
+    for (int i = 0; i < emojiEncoding.length(); i++) {
+      char c     = emojiEncoding.charAt(i);
+      int  child = getChild(node, c);
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      if (child == NO_NODE) {
+        child = addChild(node, c);
       }
 
-      tree = tree.getChild(c);
+      node = child;
     }
 
-    tree.setEmoji(emoji);
+    this.emoji[node] = emoji;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,21 +70,11 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
-
-      tree = tree.getChild(character);
-    }
+    int node = walk(sequence, startPosition, endPosition);
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    if (node == NO_NODE) {
+      return Matches.IMPOSSIBLE;
+    } else if (getEmojiForMatch(node, sequence.charAt(endPosition - 1)) != null) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
@@ -75,52 +82,93 @@ public class EmojiTree {
   }
 
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+    int node = walk(unicode, startPosition, endPostiion);
 
-      if (!tree.hasChild(character)) {
-        return null;
-      }
-
-      tree = tree.getChild(character);
+    if (node == NO_NODE) {
+      return null;
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return getEmojiForMatch(node, unicode.charAt(endPostiion - 1));
   }
 
+  /**
+   * @return The child of the node for the char, or {@link #NO_NODE} if there isn't one.
+   */
+  int getChild(int node, char c) {
+    int count = childCounts[node];
 
-  private static class EmojiTreeNode {
+    if (count == 0) {
+      return NO_NODE;
+    }
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    int index = Arrays.binarySearch(childKeys[node], 0, count, c);
+    return index >= 0 ? childNodes[node][index] : NO_NODE;
+  }
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
+  /**
+   * The emoji that a match ending at this node stands for, if any. Emoji data includes the
+   * variation selector {@link #TERMINATOR} on some emoji, but it's often left off in real text, so
+   * a match missing just that last char still counts.
+   *
+   * @param lastChar The last char matched to get to this node.
+   */
+  @Nullable EmojiDrawInfo getEmojiForMatch(int node, char lastChar) {
+    if (emoji[node] != null) {
+      return emoji[node];
     }
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+    if (lastChar != TERMINATOR) {
+      int terminator = getChild(node, TERMINATOR);
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
+      if (terminator != NO_NODE) {
+        return emoji[terminator];
+      }
     }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+    return null;
+  }
+
+  private int walk(CharSequence sequence, int startPosition, int endPosition) {
+    int node = ROOT;
+
+    for (int i = startPosition; i < endPosition && node != NO_NODE; i++) {
+      node = getChild(node, sequence.charAt(i));
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    return node;
+  }
+
+  private int addChild(int node, char c) {
+    if (nodeCount == emoji.length) {
+      int capacity = emoji.length * 2;
+
+      childKeys   = Arrays.copyOf(childKeys, capacity);
+      childNodes  = Arrays.copyOf(childNodes, capacity);
+      childCounts = Arrays.copyOf(childCounts, capacity);
+      emoji       = Arrays.copyOf(emoji, capacity);
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    int child = nodeCount++;
+    int count = childCounts[node];
+
+    if (childKeys[node] == null) {
+      childKeys[node]  = new char[INITIAL_CHILD_CAPACITY];
+      childNodes[node] = new int[INITIAL_CHILD_CAPACITY];
+    } else if (count == childKeys[node].length) {
+      childKeys[node]  = Arrays.copyOf(childKeys[node], count * 2);
+      childNodes[node] = Arrays.copyOf(childNodes[node], count * 2);
     }
+
+    int insertAt = -(Arrays.binarySearch(childKeys[node], 0, count, c) + 1);
+
+    System.arraycopy(childKeys[node], insertAt, childKeys[node], insertAt + 1, count - insertAt);
+    System.arraycopy(childNodes[node], insertAt, childNodes[node], insertAt + 1, count - insertAt);
+
+    childKeys[node][insertAt]  = c;
+    childNodes[node][insertAt] = child;
+    childCounts[node]          = count + 1;
+
+    return child;
   }
 
   public enum Matches {
@@ -27,6 +27,10 @@ public enum Fitzpatrick {
    */
   TYPE_6("\uD83C\uDFFF");
 
+  private static final char MODIFIER_HIGH_SURROGATE    = '\uD83C';
+  private static final char MODIFIER_LOW_SURROGATE_MIN = '\uDFFB';
+  private static final char MODIFIER_LOW_SURROGATE_MAX = '\uDFFF';
+
   /**
    * The unicode representation of the Fitzpatrick modifier
    */
@@ -38,21 +42,31 @@ public enum Fitzpatrick {
 
 
   public static Fitzpatrick fitzpatrickFromUnicode(CharSequence unicode, int index) {
-    for (Fitzpatrick v : values()) {
-      boolean match = true;
+    if (!isFitzpatrickModifier(unicode, index)) {
+      return null;
+    }
 
-      for (int i=0;i<v.unicode.toCharArray().length;i++) {
-        if (v.unicode.toCharArray()[i] != unicode.charAt(index + i)) {
-          match = false;
-        }
+    for (Fitzpatrick v : values()) {
+      if (v.unicode.charAt(1) == unicode.charAt(index + 1)) {
+        return v;
       }
-
-      if (match) return v;
     }
 
     return null;
   }
 
+  /**
+   * All of the modifiers are the same high surrogate followed by a low surrogate in a small range,
+   * so this can be checked without looking at each one. Assumes there are two chars at the index.
+   */
+  public static boolean isFitzpatrickModifier(CharSequence unicode, int index) {
+    char low = unicode.charAt(index + 1);
+
+    return unicode.charAt(index) == MODIFIER_HIGH_SURROGATE &&
+           low >= MODIFIER_LOW_SURROGATE_MIN               &&
+           low <= MODIFIER_LOW_SURROGATE_MAX;
+  }
+
   public static Fitzpatrick fitzpatrickFromType(String type) {
     try {
       return Fitzpatrick.valueOf(type.toUpperCase());
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.conversation;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -8,7 +9,7 @@ import androidx.annotation.Nullable;
 import com.annimon.stream.Stream;
 
 import org.signal.core.util.logging.Log;
-import org.signal.paging.PagedDataSource;
+import org.signal.paging.SeekablePagedDataSource;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.conversation.ConversationData.MessageRequestData;
 import org.thoughtcrime.securesms.conversation.ConversationMessage.ConversationMessageFactory;
@@ -32,7 +33,7 @@ import java.util.stream.Collectors;
 /**
  * Core data source for loading an individual conversation.
  */
-class ConversationDataSource implements PagedDataSource<ConversationMessage> {
+class ConversationDataSource implements SeekablePagedDataSource<ConversationDataSource.MessageKey, ConversationMessage> {
 
   private static final String TAG = Log.tag(ConversationDataSource.class);
 
@@ -62,13 +63,40 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
 
   @Override
   public @NonNull List<ConversationMessage> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
-    Stopwatch           stopwatch        = new Stopwatch("load(" + start + ", " + length + "), thread " + threadId);
-    MmsSmsDatabase      db               = DatabaseFactory.getMmsSmsDatabase(context);
+    Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, start, length);
+    return buildMessages(cursor, "load(" + start + ", " + length + ")", start, length, cancellationSignal);
+  }
+
+  @Override
+  public @Nullable MessageKey getKey(@NonNull ConversationMessage item) {
+    MessageRecord record = item.getMessageRecord();
+
+    if (record instanceof InMemoryMessageRecord) {
+      return null;
+    }
+
+    return new MessageKey(record.getDateReceived(), record.isMms(), record.getId());
+  }
+
+  @Override
+  public @NonNull List<ConversationMessage> loadAfter(@NonNull MessageKey key, int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversationAfter(threadId, key.dateReceived, key.mms, key.id, length);
+    return buildMessages(cursor, "loadAfter(" + start + ", " + length + ")", start, length, cancellationSignal);
+  }
+
+  @Override
+  public @NonNull List<ConversationMessage> loadBefore(@NonNull MessageKey key, int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversationBefore(threadId, key.dateReceived, key.mms, key.id, length);
+    return buildMessages(cursor, "loadBefore(" + start + ", " + length + ")", start, length, cancellationSignal);
+  }
+
+  private @NonNull List<ConversationMessage> buildMessages(@NonNull Cursor cursor, @NonNull String description, int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    Stopwatch           stopwatch        = new Stopwatch(description + ", thread " + threadId);
     List<MessageRecord> records          = new ArrayList<>(length);
     MentionHelper       mentionHelper    = new MentionHelper();
     AttachmentHelper    attachmentHelper = new AttachmentHelper();
 
-    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(db.getConversation(threadId, start, length))) {
+    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(cursor)) {
       MessageRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
         records.add(record);
@@ -109,6 +137,21 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
     return messages;
   }
 
+  /**
+   * Identifies a message's position in the conversation, so pages can be loaded relative to it.
+   */
+  static final class MessageKey {
+    private final long    dateReceived;
+    private final boolean mms;
+    private final long    id;
+
+    MessageKey(long dateReceived, boolean mms, long id) {
+      this.dateReceived = dateReceived;
+      this.mms          = mms;
+      this.id           = id;
+    }
+  }
+
   private static class MentionHelper {
 
     private Collection<Long>         messageIds          = new LinkedList<>();
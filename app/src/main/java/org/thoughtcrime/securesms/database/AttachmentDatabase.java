@@ -1053,12 +1053,24 @@ public class AttachmentDatabase extends Database {
                                               @Nullable AttachmentId attachmentId)
       throws MmsException
   {
+    File dataFile;
+
     try {
-      File dataFile = newFile();
-      return setAttachmentData(dataFile, in, attachmentId);
+      dataFile = newFile();
     } catch (IOException e) {
       throw new MmsException(e);
     }
+
+    try {
+      return setAttachmentData(dataFile, in, attachmentId);
+    } catch (MmsException e) {
+      // The input may not be authenticated until it has been read to the end (see
+      // SignalServiceMessageReceiver#retrieveAttachmentStreaming), so never keep a partial file.
+      if (dataFile.exists() && !dataFile.delete()) {
+        Log.w(TAG, "[setAttachmentData] Failed to delete partial file " + dataFile.getAbsolutePath());
+      }
+      throw e;
+    }
   }
 
   public File newFile() throws IOException {
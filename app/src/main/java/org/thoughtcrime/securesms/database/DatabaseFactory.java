@@ -220,6 +220,10 @@ public class DatabaseFactory {
     }
   }
 
+  public static void checkpoint(Context context) {
+    getInstance(context).databaseHelper.checkpoint();
+  }
+
   public static boolean inTransaction(Context context) {
     return getInstance(context).databaseHelper.getWritableDatabase().inTransaction();
   }
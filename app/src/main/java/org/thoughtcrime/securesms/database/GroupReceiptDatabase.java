@@ -59,7 +59,7 @@ public class GroupReceiptDatabase extends Database {
         values.put(STATUS, status);
         values.put(TIMESTAMP, timestamp);
 
-        db.insert(TABLE_NAME, null, values);
+        db.insertCached(TABLE_NAME, values);
       }
       db.setTransactionSuccessful();
     } finally {
@@ -68,13 +68,11 @@ public class GroupReceiptDatabase extends Database {
   }
 
   public void update(@NonNull RecipientId recipientId, long mmsId, int status, long timestamp) {
-    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
-    ContentValues  values = new ContentValues(2);
-    values.put(STATUS, status);
-    values.put(TIMESTAMP, timestamp);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-    db.update(TABLE_NAME, values, MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?",
-              new String[] {String.valueOf(mmsId), recipientId.serialize(), String.valueOf(status)});
+    db.executeUpdateDelete("UPDATE " + TABLE_NAME + " SET " + STATUS + " = ?, " + TIMESTAMP + " = ? " +
+                           "WHERE " + MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?",
+                           status, timestamp, mmsId, recipientId.toLong(), status);
   }
 
   public void setUnidentified(Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
@@ -82,13 +80,10 @@ public class GroupReceiptDatabase extends Database {
 
     db.beginTransaction();
     try {
-      String query = MMS_ID + " = ? AND " + RECIPIENT_ID + " = ?";
+      String query = "UPDATE " + TABLE_NAME + " SET " + UNIDENTIFIED + " = ? WHERE " + MMS_ID + " = ? AND " + RECIPIENT_ID + " = ?";
 
       for (Pair<RecipientId, Boolean> result : results) {
-        ContentValues values = new ContentValues(1);
-        values.put(UNIDENTIFIED, result.second() ? 1 : 0);
-
-        db.update(TABLE_NAME, values, query, new String[]{ String.valueOf(mmsId), result.first().serialize()});
+        db.executeUpdateDelete(query, result.second(), mmsId, result.first().toLong());
       }
 
       db.setTransactionSuccessful();
@@ -47,6 +47,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -80,7 +81,6 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract boolean hasMeaningfulMessage(long threadId);
   public abstract Optional<MmsNotificationInfo> getNotification(long messageId);
 
-  public abstract Cursor getExpirationStartedMessages();
   public abstract SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException;
   public abstract Reader getMessages(Collection<Long> messageIds);
   public abstract Cursor getMessageCursor(long messageId);
@@ -170,6 +170,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract boolean deleteMessage(long messageId);
   abstract void deleteThread(long threadId);
   abstract void deleteMessagesInThreadBeforeDate(long threadId, long date);
+  abstract @NonNull Set<Long> deleteMessagesWithoutUpdatingThreads(@NonNull Collection<Long> messageIds);
   abstract void deleteThreads(@NonNull Set<Long> threadIds);
   abstract void deleteAllThreads();
   abstract void deleteAbandonedMessages();
@@ -647,6 +648,44 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     }
   }
 
+  /**
+   * @return Up to {@code limit} messages whose expiration timer has started and that will expire
+   *         at or after {@code expiresAtOrAfter}, in the order they will expire.
+   */
+  public @NonNull List<ExpirationInfo> getExpirationStartedMessages(long expiresAtOrAfter, int limit) {
+    SQLiteDatabase       db        = databaseHelper.getReadableDatabase();
+    String               expiresAt = EXPIRE_STARTED + " + " + EXPIRES_IN;
+    String[]             columns   = new String[] { ID, EXPIRES_IN, EXPIRE_STARTED };
+    String               where     = EXPIRE_STARTED + " > 0 AND " + expiresAt + " >= ?";
+    boolean              mms       = MmsDatabase.TABLE_NAME.equals(getTableName());
+    List<ExpirationInfo> results   = new ArrayList<>();
+
+    try (Cursor cursor = db.query(getTableName(), columns, where, SqlUtil.buildArgs(expiresAtOrAfter), null, null, expiresAt + " ASC", String.valueOf(limit))) {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(new ExpirationInfo(CursorUtil.requireLong(cursor, ID),
+                                       CursorUtil.requireLong(cursor, EXPIRES_IN),
+                                       CursorUtil.requireLong(cursor, EXPIRE_STARTED),
+                                       mms));
+      }
+    }
+
+    return results;
+  }
+
+  protected @NonNull Set<Long> getThreadIdsForMessages(@NonNull Collection<Long> messageIds) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    SqlUtil.Query  query     = SqlUtil.buildCollectionQuery(ID, messageIds);
+    Set<Long>      threadIds = new HashSet<>();
+
+    try (Cursor cursor = db.query(true, getTableName(), new String[] { THREAD_ID }, query.getWhere(), query.getWhereArgs(), null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(CursorUtil.requireLong(cursor, THREAD_ID));
+      }
+    }
+
+    return threadIds;
+  }
+
   public static class ExpirationInfo {
 
     private final long    id;
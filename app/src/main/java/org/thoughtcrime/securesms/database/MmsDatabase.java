@@ -284,12 +284,6 @@ public class MmsDatabase extends MessageDatabase {
     return getMessageCountForThread(threadId);
   }
 
-  @Override
-  public Cursor getExpirationStartedMessages() {
-    String where = EXPIRE_STARTED + " > 0";
-    return rawQuery(where, null);
-  }
-
   @Override
   public SmsMessageRecord getSmsMessage(long messageId) {
     throw new UnsupportedOperationException();
@@ -671,9 +665,9 @@ public class MmsDatabase extends MessageDatabase {
             int     status           = receiptType.getGroupStatus();
             boolean isFirstIncrement = cursor.getLong(cursor.getColumnIndexOrThrow(columnName)) == 0;
 
-            database.execSQL("UPDATE " + TABLE_NAME + " SET " +
-                             columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
-                             new String[] {String.valueOf(id)});
+            database.executeUpdateDelete("UPDATE " + TABLE_NAME + " SET " +
+                                         columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
+                                         id);
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
 
@@ -1455,7 +1449,7 @@ public class MmsDatabase extends MessageDatabase {
     if (!contentValues.containsKey(DATE_SENT))
       contentValues.put(DATE_SENT, contentValues.getAsLong(DATE_RECEIVED));
 
-    long messageId = db.insert(TABLE_NAME, null, contentValues);
+    long messageId = db.insertCached(TABLE_NAME, contentValues);
 
     return new Pair<>(messageId, threadId);
   }
@@ -1615,7 +1609,7 @@ public class MmsDatabase extends MessageDatabase {
 
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      long messageId = db.insertCached(TABLE_NAME, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1685,6 +1679,28 @@ public class MmsDatabase extends MessageDatabase {
     return threadDeleted;
   }
 
+  @Override
+  @NonNull Set<Long> deleteMessagesWithoutUpdatingThreads(@NonNull Collection<Long> messageIds) {
+    Log.d(TAG, "deleteMessagesWithoutUpdatingThreads(count: " + messageIds.size() + ")");
+
+    SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+    Set<Long>            threadIds            = getThreadIdsForMessages(messageIds);
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+      mentionDatabase.deleteMentionsForMessage(messageId);
+    }
+
+    SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, messageIds);
+    db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+
+    return threadIds;
+  }
+
   @Override
   public void deleteThread(long threadId) {
     Log.d(TAG, "deleteThread(" + threadId + ")");
@@ -21,6 +21,7 @@ import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 
@@ -31,6 +32,7 @@ import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MessageDatabase.ThreadUpdate;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.notifications.v2.MessageNotifierV2;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -183,22 +185,129 @@ public class MmsSmsDatabase extends Database {
 
 
   public Cursor getConversation(long threadId, long offset, long limit) {
-    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
-    String         order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String         selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
-    String         limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
-    String         query     = buildQuery(PROJECTION, selection, order, limitStr, false);
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    List<Object>   args  = new ArrayList<>(4);
+    String         query = buildConversationQuery(threadId, offset, limit, args);
 
-    Cursor cursor = db.rawQuery(query, null);
+    Cursor cursor = db.rawQuery(query, args.toArray());
     setNotifyConversationListeners(cursor, threadId);
 
     return cursor;
   }
 
+  @VisibleForTesting
+  static @NonNull String buildConversationQuery(long threadId, long offset, long limit, @NonNull List<Object> args) {
+    String  order     = buildConversationOrder("DESC");
+    String  selection = MmsSmsColumns.THREAD_ID + " = ?";
+    boolean paged     = limit > 0 || offset > 0;
+
+    args.add(threadId);
+    args.add(threadId);
+
+    if (paged) {
+      args.add(offset);
+      args.add(limit);
+    }
+
+    return buildQuery(PROJECTION, selection, order, paged ? "?, ?" : null, false);
+  }
+
   public Cursor getConversation(long threadId) {
     return getConversation(threadId, 0, 0);
   }
 
+  /**
+   * Seek-based alternative to {@link #getConversation(long, long, long)}. Returns up to
+   * {@code limit} messages that come directly after the anchor message in conversation order (that
+   * is, older messages), without walking any of the rows that come before the anchor.
+   */
+  public Cursor getConversationAfter(long threadId, long anchorDateReceived, boolean anchorIsMms, long anchorId, int limit) {
+    return getConversationRelativeTo(threadId, anchorDateReceived, anchorIsMms, anchorId, limit, true);
+  }
+
+  /**
+   * Like {@link #getConversationAfter(long, long, boolean, long, int)}, but returns up to
+   * {@code limit} messages that come directly before the anchor message in conversation order (that
+   * is, newer messages). Results are still returned in conversation order.
+   */
+  public Cursor getConversationBefore(long threadId, long anchorDateReceived, boolean anchorIsMms, long anchorId, int limit) {
+    return getConversationRelativeTo(threadId, anchorDateReceived, anchorIsMms, anchorId, limit, false);
+  }
+
+  private Cursor getConversationRelativeTo(long threadId, long anchorDateReceived, boolean anchorIsMms, long anchorId, int limit, boolean after) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    List<Object>   args  = new ArrayList<>(11);
+    String         query = buildConversationRelativeToQuery(threadId, anchorDateReceived, anchorIsMms, anchorId, limit, after, args);
+
+    Cursor cursor = db.rawQuery(query, args.toArray());
+    setNotifyConversationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Builds the query behind {@link #getConversationAfter(long, long, boolean, long, int)} and
+   * {@link #getConversationBefore(long, long, boolean, long, int)}. The arguments are added to
+   * {@code args} in the order their placeholders appear.
+   */
+  @VisibleForTesting
+  static @NonNull String buildConversationRelativeToQuery(long threadId, long anchorDateReceived, boolean anchorIsMms, long anchorId, int limit, boolean after, @NonNull List<Object> args) {
+    String       anchorTransport = anchorIsMms ? MMS_TRANSPORT : SMS_TRANSPORT;
+    String       direction       = after ? "DESC" : "ASC";
+    List<Object> smsArgs         = new ArrayList<>(3);
+    List<Object> mmsArgs         = new ArrayList<>(3);
+    String       smsSelection    = MmsSmsColumns.THREAD_ID + " = ? AND " + buildSeekClause(SmsDatabase.DATE_RECEIVED, SMS_TRANSPORT, anchorDateReceived, anchorTransport, anchorId, after, smsArgs);
+    String       mmsSelection    = MmsSmsColumns.THREAD_ID + " = ? AND " + buildSeekClause(MmsDatabase.DATE_RECEIVED, MMS_TRANSPORT, anchorDateReceived, anchorTransport, anchorId, after, mmsArgs);
+    String       outerOrder      = after ? null : buildConversationOrder("DESC");
+
+    args.add(threadId);
+    args.addAll(smsArgs);
+    args.add(limit);
+    args.add(threadId);
+    args.addAll(mmsArgs);
+    args.add(limit);
+    args.add(limit);
+
+    return buildQuery(PROJECTION, smsSelection, mmsSelection, buildConversationOrder(direction), "?", false, true, outerOrder);
+  }
+
+  /**
+   * Conversations are ordered by (date_received, transport, id) descending. The date alone isn't
+   * unique, and seeking needs a total order to pick up exactly where the last page left off.
+   */
+  @VisibleForTesting
+  static @NonNull String buildConversationOrder(@NonNull String direction) {
+    return MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " " + direction + ", " + TRANSPORT + " " + direction + ", " + MmsSmsColumns.ID + " " + direction;
+  }
+
+  /**
+   * Builds a selection for a single table that only matches rows strictly after (or before) the
+   * anchor in conversation order. Since each table has a fixed transport, the transport part of the
+   * ordering can be resolved here, which keeps the clause simple enough to use the
+   * (thread_id, date_received) index.
+   *
+   * The anchor values are added to {@code args} in the order their placeholders appear.
+   */
+  @VisibleForTesting
+  static @NonNull String buildSeekClause(@NonNull String dateColumn, @NonNull String tableTransport, long anchorDate, @NonNull String anchorTransport, long anchorId, boolean after, @NonNull List<Object> args) {
+    int    transportCompare = tableTransport.compareTo(anchorTransport);
+    String strict           = after ? " < ?" : " > ?";
+    String inclusive        = after ? " <= ?" : " >= ?";
+
+    if (transportCompare == 0) {
+      args.add(anchorDate);
+      args.add(anchorDate);
+      args.add(anchorId);
+      return "(" + dateColumn + strict + " OR (" + dateColumn + " = ? AND " + MmsSmsColumns.ID + strict + "))";
+    } else if ((transportCompare < 0) == after) {
+      args.add(anchorDate);
+      return dateColumn + inclusive;
+    } else {
+      args.add(anchorDate);
+      return dateColumn + strict;
+    }
+  }
+
   public Cursor getIdentityConflictMessagesForThread(long threadId) {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
     String selection       = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.MISMATCHED_IDENTITIES + " IS NOT NULL";
@@ -356,7 +465,15 @@ public class MmsSmsDatabase extends Database {
   }
 
   public void incrementDeliveryReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.DELIVERY);
+    incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.DELIVERY, null);
+  }
+
+  /**
+   * Same as {@link #incrementDeliveryReceiptCounts(List, long)}, but also runs {@code inTransaction}
+   * as part of the same transaction, before any listeners are notified.
+   */
+  public void incrementDeliveryReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp, @NonNull Runnable inTransaction) {
+    incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.DELIVERY, inTransaction);
   }
 
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
@@ -367,7 +484,7 @@ public class MmsSmsDatabase extends Database {
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementReadReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.READ);
+    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.READ, null);
   }
 
   public boolean incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
@@ -378,7 +495,7 @@ public class MmsSmsDatabase extends Database {
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementViewedReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.VIEWED);
+    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.VIEWED, null);
   }
 
   public boolean incrementViewedReceiptCount(SyncMessageId syncMessageId, long timestamp) {
@@ -420,14 +537,20 @@ public class MmsSmsDatabase extends Database {
   }
 
   /**
-   * Wraps multiple receipt updates in a transaction and triggers the proper updates.
+   * Wraps multiple receipt updates in a transaction and triggers the proper updates. Each thread
+   * that was touched is only updated and notified once, no matter how many receipts it got.
    *
    * @return All of the messages that didn't result in updates.
    */
-  private @NonNull Collection<SyncMessageId> incrementReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+  private @NonNull Collection<SyncMessageId> incrementReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds,
+                                                                    long timestamp,
+                                                                    @NonNull MessageDatabase.ReceiptType receiptType,
+                                                                    @Nullable Runnable inTransaction)
+  {
     SQLiteDatabase            db             = databaseHelper.getWritableDatabase();
     ThreadDatabase            threadDatabase = DatabaseFactory.getThreadDatabase(context);
-    Set<ThreadUpdate>         threadUpdates  = new HashSet<>();
+    Set<Long>                 threadIds      = new HashSet<>();
+    Set<Long>                 verboseOnly    = new HashSet<>();
     Collection<SyncMessageId> unhandled      = new HashSet<>();
 
     db.beginTransaction();
@@ -436,26 +559,42 @@ public class MmsSmsDatabase extends Database {
         Set<ThreadUpdate> updates = incrementReceiptCountInternal(id, timestamp, receiptType);
 
         if (updates.size() > 0) {
-          threadUpdates.addAll(updates);
+          for (ThreadUpdate update : updates) {
+            if (update.isVerbose()) {
+              verboseOnly.add(update.getThreadId());
+            } else {
+              threadIds.add(update.getThreadId());
+            }
+          }
         } else {
           unhandled.add(id);
         }
       }
 
-      for (ThreadUpdate update : threadUpdates) {
-        threadDatabase.update(update.getThreadId(), false);
+      verboseOnly.removeAll(threadIds);
+
+      for (long threadId : threadIds) {
+        threadDatabase.update(threadId, false);
+      }
+
+      for (long threadId : verboseOnly) {
+        threadDatabase.update(threadId, false);
+      }
+
+      if (inTransaction != null) {
+        inTransaction.run();
       }
 
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
 
-      for (ThreadUpdate threadUpdate : threadUpdates) {
-        if (threadUpdate.isVerbose()) {
-          notifyVerboseConversationListeners(threadUpdate.getThreadId());
-        } else {
-          notifyConversationListeners(threadUpdate.getThreadId());
-        }
+      if (!threadIds.isEmpty()) {
+        ApplicationDependencies.getDatabaseObserver().notifyConversationListeners(threadIds);
+      }
+
+      if (!verboseOnly.isEmpty()) {
+        ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(verboseOnly);
       }
     }
 
@@ -571,6 +710,41 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
   }
 
+  /**
+   * Deletes all of the provided messages in a single transaction. Each affected thread is updated
+   * once, and listeners are notified once at the end, rather than once per message.
+   */
+  public void deleteMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    Log.d(TAG, "deleteMessages(sms: " + smsIds.size() + ", mms: " + mmsIds.size() + ")");
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    db.beginTransaction();
+    try {
+      if (!smsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getSmsDatabase(context).deleteMessagesWithoutUpdatingThreads(smsIds));
+      }
+
+      if (!mmsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getMmsDatabase(context).deleteMessagesWithoutUpdatingThreads(mmsIds));
+      }
+
+      DatabaseFactory.getThreadDatabase(context).update(threadIds, false);
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListeners(threadIds);
+
+    if (!mmsIds.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
+    }
+  }
+
   public void deleteAbandonedMessages() {
     Log.d(TAG, "deleteAbandonedMessages()");
     DatabaseFactory.getSmsDatabase(context).deleteAbandonedMessages();
@@ -588,6 +762,25 @@ public class MmsSmsDatabase extends Database {
   }
 
   private static @NonNull String buildQuery(String[] projection, String selection, String order, String limit, boolean includeAttachments) {
+    return buildQuery(projection, selection, selection, order, limit, includeAttachments, false, null);
+  }
+
+  /**
+   * @param limitSubQueries If true, each of the sms and mms subqueries is sorted and limited on its
+   *                        own before the union. This lets SQLite stop walking each table's index
+   *                        once it has enough rows, instead of materializing the entire union.
+   * @param outerOrder      An optional order to apply to the final result, after the union has been
+   *                        ordered and limited.
+   */
+  private static @NonNull String buildQuery(String[] projection,
+                                            String smsSelection,
+                                            String mmsSelection,
+                                            String order,
+                                            String limit,
+                                            boolean includeAttachments,
+                                            boolean limitSubQueries,
+                                            @Nullable String outerOrder)
+  {
     String attachmentJsonJoin;
     if (includeAttachments) {
       attachmentJsonJoin = "json_group_array(json_object(" + "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
@@ -779,8 +972,13 @@ public class MmsSmsDatabase extends Database {
 
     String mmsGroupBy = includeAttachments ? MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID : null;
 
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, mmsGroupBy, null);
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, mmsSelection, null, mmsGroupBy, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, smsSelection, null, null, null);
+
+    if (limitSubQueries) {
+      mmsSubQuery = "SELECT * FROM (" + mmsSubQuery + " ORDER BY " + order + " LIMIT " + limit + ")";
+      smsSubQuery = "SELECT * FROM (" + smsSubQuery + " ORDER BY " + order + " LIMIT " + limit + ")";
+    }
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String             unionQuery        = unionQueryBuilder.buildUnionQuery(new String[] { smsSubQuery, mmsSubQuery }, order, limit);
@@ -788,7 +986,7 @@ public class MmsSmsDatabase extends Database {
     SQLiteQueryBuilder outerQueryBuilder = new SQLiteQueryBuilder();
     outerQueryBuilder.setTables("(" + unionQuery + ")");
 
-    return outerQueryBuilder.buildQuery(projection, null, null, null, null, null, null);
+    return outerQueryBuilder.buildQuery(projection, null, null, null, outerOrder, null, null);
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
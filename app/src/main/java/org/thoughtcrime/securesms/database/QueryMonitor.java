@@ -0,0 +1,525 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.sqlcipher.Cursor;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.util.FeatureFlags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps running statistics about every statement that goes through {@link SQLiteDatabase}, so we
+ * can see which queries are actually slow in the wild.
+ *
+ * Statements are grouped by their normalized SQL (literals replaced with ?, whitespace collapsed).
+ * For each one we keep a count, total and max time, rows returned or affected, and a log2
+ * histogram of latencies. The first time a query takes longer than
+ * {@link FeatureFlags#slowQueryThresholdMs()}, we capture its EXPLAIN QUERY PLAN in the background.
+ * We also track how long transactions hold the writer.
+ *
+ * Recording is a handful of atomic increments, so this is always on. Everything shows up in the
+ * debug log via {@link #getDebugInfo()}.
+ */
+public final class QueryMonitor {
+
+  private static final String TAG = Log.tag(QueryMonitor.class);
+
+  private static final QueryMonitor INSTANCE = new QueryMonitor();
+
+  private static final int  BUCKETS            = 24;
+  private static final int  MAX_STATEMENTS     = 500;
+  private static final int  MAX_SLOW_EVENTS    = 25;
+  private static final int  MAX_KEY_LENGTH     = 300;
+  private static final int  STATEMENTS_IN_LOG  = 30;
+  private static final long SLOW_CANDIDATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final String TRANSACTION_KEY = "TRANSACTION";
+  private static final String OVERFLOW_KEY    = "OTHER";
+
+  private final Map<String, StatementStats> statements   = new ConcurrentHashMap<>();
+  private final StatementStats              transactions = new StatementStats(TRANSACTION_KEY);
+  private final List<String>                slowEvents   = new LinkedList<>();
+  private final ThreadLocal<long[]>         transaction  = new ThreadLocal<>();
+
+  public static @NonNull QueryMonitor getInstance() {
+    return INSTANCE;
+  }
+
+  private QueryMonitor() {}
+
+  /**
+   * Wraps a cursor so that the query is recorded when it's actually run. SQLCipher doesn't execute
+   * a query until the cursor is first moved or counted, so timing the call to query() alone would
+   * only measure compiling the statement.
+   */
+  @Nullable Cursor onQuery(@Nullable Cursor cursor, @NonNull net.sqlcipher.database.SQLiteDatabase db, @NonNull String sql, @Nullable Object[] args, long compileNanos) {
+    if (cursor == null) {
+      return null;
+    }
+
+    return new MonitoredCursor(cursor, db, sql, args, compileNanos);
+  }
+
+  void onQueryExecuted(@NonNull net.sqlcipher.database.SQLiteDatabase db, @NonNull String sql, @Nullable Object[] args, long durationNanos, int rows) {
+    StatementStats stats = getStats(sql);
+    stats.record(durationNanos, rows);
+
+    if (isSlow(durationNanos)) {
+      onSlowEvent(String.format(Locale.US, "[%d ms, %d rows] %s", TimeUnit.NANOSECONDS.toMillis(durationNanos), rows, stats.key));
+
+      if (stats.planRequested.compareAndSet(false, true)) {
+        captureQueryPlan(db, sql, args, stats);
+      }
+    }
+  }
+
+  void onStatement(@NonNull String sql, long durationNanos, long rows) {
+    getStats(sql).record(durationNanos, rows);
+
+    if (isSlow(durationNanos)) {
+      onSlowEvent(String.format(Locale.US, "[%d ms, %d rows] %s", TimeUnit.NANOSECONDS.toMillis(durationNanos), rows, normalize(sql)));
+    }
+  }
+
+  void onTransactionStarted() {
+    long[] state = transaction.get();
+
+    if (state == null) {
+      state = new long[2];
+      transaction.set(state);
+    }
+
+    if (state[0]++ == 0) {
+      state[1] = System.nanoTime();
+    }
+  }
+
+  void onTransactionEnded() {
+    long[] state = transaction.get();
+
+    if (state == null || state[0] == 0 || --state[0] > 0) {
+      return;
+    }
+
+    long durationNanos = System.nanoTime() - state[1];
+    transactions.record(durationNanos, -1);
+
+    if (isSlow(durationNanos)) {
+      onSlowEvent(String.format(Locale.US, "[%d ms] Transaction held on %s by %s", TimeUnit.NANOSECONDS.toMillis(durationNanos), Thread.currentThread().getName(), getCaller()));
+    }
+  }
+
+  public @NonNull String getDebugInfo() {
+    List<StatementStats> sorted = new ArrayList<>(statements.values());
+    Collections.sort(sorted, (a, b) -> Long.compare(b.totalNanos.get(), a.totalNanos.get()));
+
+    StringBuilder out = new StringBuilder();
+
+    out.append("Slow threshold: ").append(FeatureFlags.slowQueryThresholdMs()).append(" ms\n");
+    out.append("Statements tracked: ").append(sorted.size()).append("\n\n");
+
+    out.append("-- Transactions\n");
+    transactions.appendTo(out);
+    out.append("\n");
+
+    out.append("-- Statements by total time\n");
+    for (int i = 0; i < Math.min(sorted.size(), STATEMENTS_IN_LOG); i++) {
+      sorted.get(i).appendTo(out);
+      out.append("\n");
+    }
+
+    out.append("-- Recent slow statements\n");
+    synchronized (slowEvents) {
+      if (slowEvents.isEmpty()) {
+        out.append("None\n");
+      }
+
+      for (String event : slowEvents) {
+        out.append(event).append("\n");
+      }
+    }
+
+    return out.toString();
+  }
+
+  private @NonNull StatementStats getStats(@NonNull String sql) {
+    String         key   = normalize(sql);
+    StatementStats stats = statements.get(key);
+
+    if (stats == null) {
+      if (statements.size() >= MAX_STATEMENTS) {
+        key = OVERFLOW_KEY;
+      }
+
+      StatementStats created  = new StatementStats(key);
+      StatementStats existing = statements.putIfAbsent(key, created);
+
+      stats = existing != null ? existing : created;
+    }
+
+    return stats;
+  }
+
+  /**
+   * Reduces a statement to the key its stats are kept under: literals are replaced with ?, lists of
+   * arguments like (?, ?, ?) are collapsed to (?...), and whitespace is collapsed. Keys are capped at
+   * {@link #MAX_KEY_LENGTH}, and the scan stops there, so normalizing is cheap even for the
+   * multi-kilobyte union queries.
+   */
+  @VisibleForTesting
+  static @NonNull String normalize(@NonNull String sql) {
+    StringBuilder key    = new StringBuilder(Math.min(sql.length(), MAX_KEY_LENGTH) + 3);
+    int           length = sql.length();
+    int           i      = 0;
+
+    while (i < length && key.length() < MAX_KEY_LENGTH) {
+      char c = sql.charAt(i);
+
+      if (c == '\'') {
+        i = skipStringLiteral(sql, i);
+        key.append('?');
+      } else if (Character.isWhitespace(c)) {
+        while (i < length && Character.isWhitespace(sql.charAt(i))) i++;
+
+        if (key.length() > 0) {
+          key.append(' ');
+        }
+      } else if (isWordChar(c)) {
+        int end = i;
+        while (end < length && isWordChar(sql.charAt(end))) end++;
+
+        if (isNumber(sql, i, end)) {
+          key.append('?');
+        } else {
+          key.append(sql, i, end);
+        }
+
+        i = end;
+      } else if (c == '(') {
+        int listEnd = findArgumentListEnd(sql, i);
+
+        if (listEnd != -1) {
+          key.append("(?...)");
+          i = listEnd;
+        } else {
+          key.append(c);
+          i++;
+        }
+      } else {
+        key.append(c);
+        i++;
+      }
+    }
+
+    int end = key.length();
+    while (end > 0 && key.charAt(end - 1) == ' ') end--;
+    key.setLength(end);
+
+    if (i < length) {
+      key.append("...");
+    }
+
+    return key.toString();
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  private static boolean isNumber(@NonNull String sql, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isDigit(sql.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The index just past the string literal starting at {@code start}.
+   */
+  private static int skipStringLiteral(@NonNull String sql, int start) {
+    int i = start + 1;
+
+    while (i < sql.length()) {
+      if (sql.charAt(i) == '\'') {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Looks for a parenthesized list of two or more arguments or literals starting at {@code start}.
+   *
+   * @return The index just past the list, or -1 if there isn't one there.
+   */
+  private static int findArgumentListEnd(@NonNull String sql, int start) {
+    int length = sql.length();
+    int i      = start + 1;
+    int items  = 0;
+
+    while (true) {
+      while (i < length && Character.isWhitespace(sql.charAt(i))) i++;
+
+      if (i >= length) {
+        return -1;
+      }
+
+      char c = sql.charAt(i);
+
+      if (c == '?') {
+        i++;
+      } else if (c == '\'') {
+        i = skipStringLiteral(sql, i);
+      } else if (Character.isDigit(c)) {
+        int end = i;
+        while (end < length && isWordChar(sql.charAt(end))) end++;
+
+        if (!isNumber(sql, i, end)) {
+          return -1;
+        }
+
+        i = end;
+      } else {
+        return -1;
+      }
+
+      items++;
+
+      while (i < length && Character.isWhitespace(sql.charAt(i))) i++;
+
+      if (i < length && sql.charAt(i) == ',') {
+        i++;
+      } else if (i < length && sql.charAt(i) == ')' && items > 1) {
+        return i + 1;
+      } else {
+        return -1;
+      }
+    }
+  }
+
+  private static boolean isSlow(long durationNanos) {
+    return durationNanos >= SLOW_CANDIDATE_NANOS && TimeUnit.NANOSECONDS.toMillis(durationNanos) >= FeatureFlags.slowQueryThresholdMs();
+  }
+
+  private void onSlowEvent(@NonNull String event) {
+    synchronized (slowEvents) {
+      slowEvents.add(event);
+
+      if (slowEvents.size() > MAX_SLOW_EVENTS) {
+        slowEvents.remove(0);
+      }
+    }
+  }
+
+  private static void captureQueryPlan(@NonNull net.sqlcipher.database.SQLiteDatabase db, @NonNull String sql, @Nullable Object[] args, @NonNull StatementStats stats) {
+    SignalExecutors.BOUNDED.execute(() -> {
+      StringBuilder plan = new StringBuilder();
+
+      try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args != null ? args : new Object[0])) {
+        while (cursor != null && cursor.moveToNext()) {
+          plan.append("    ").append(cursor.getString(cursor.getColumnCount() - 1)).append("\n");
+        }
+      } catch (Exception e) {
+        Log.w(TAG, "Failed to capture the query plan.", e);
+        plan.append("    Failed: ").append(e.getMessage()).append("\n");
+      }
+
+      stats.queryPlan = plan.toString();
+    });
+  }
+
+  private static @NonNull String getCaller() {
+    for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+      String className = element.getClassName();
+
+      if (!className.startsWith("java.")           &&
+          !className.startsWith("dalvik.")         &&
+          !className.equals(Thread.class.getName()) &&
+          !className.equals(QueryMonitor.class.getName()) &&
+          !className.equals(SQLiteDatabase.class.getName()))
+      {
+        return element.toString();
+      }
+    }
+
+    return "unknown";
+  }
+
+  @VisibleForTesting
+  static final class StatementStats {
+    private final String          key;
+    private final AtomicLong      count         = new AtomicLong();
+    private final AtomicLong      totalNanos    = new AtomicLong();
+    private final AtomicLong      maxNanos      = new AtomicLong();
+    private final AtomicLong      totalRows     = new AtomicLong();
+    private final AtomicLongArray buckets       = new AtomicLongArray(BUCKETS);
+    private final AtomicBoolean   planRequested = new AtomicBoolean();
+
+    private volatile String queryPlan;
+
+    @VisibleForTesting
+    StatementStats(@NonNull String key) {
+      this.key = key;
+    }
+
+    void record(long durationNanos, long rows) {
+      long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+
+      count.incrementAndGet();
+      totalNanos.addAndGet(durationNanos);
+      buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+
+      if (rows > 0) {
+        totalRows.addAndGet(rows);
+      }
+
+      long max;
+      do {
+        max = maxNanos.get();
+      } while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos));
+    }
+
+    /**
+     * @return The upper bound, in microseconds, of the histogram bucket containing the percentile.
+     */
+    long getPercentileMicros(double percentile) {
+      long total  = count.get();
+      long target = (long) Math.ceil(total * percentile);
+      long seen   = 0;
+
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+
+        if (seen >= target) {
+          return 1L << i;
+        }
+      }
+
+      return 1L << (BUCKETS - 1);
+    }
+
+    void appendTo(@NonNull StringBuilder out) {
+      long count = this.count.get();
+
+      if (count == 0) {
+        out.append("None\n");
+        return;
+      }
+
+      out.append(key).append("\n")
+         .append(String.format(Locale.US, "    count: %d, total: %d ms, avg: %d us, p50: <%d us, p99: <%d us, max: %d ms, rows: %d\n",
+                                          count,
+                                          TimeUnit.NANOSECONDS.toMillis(totalNanos.get()),
+                                          TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count),
+                                          getPercentileMicros(0.5),
+                                          getPercentileMicros(0.99),
+                                          TimeUnit.NANOSECONDS.toMillis(maxNanos.get()),
+                                          totalRows.get()));
+
+      String plan = queryPlan;
+      if (plan != null) {
+        out.append("    plan:\n").append(plan);
+      }
+    }
+  }
+
+  private final class MonitoredCursor extends net.sqlcipher.CursorWrapper {
+
+    private final net.sqlcipher.database.SQLiteDatabase db;
+    private final String                                sql;
+    private final Object[]                              args;
+    private final long                                  compileNanos;
+
+    private boolean executed;
+
+    MonitoredCursor(@NonNull Cursor cursor, @NonNull net.sqlcipher.database.SQLiteDatabase db, @NonNull String sql, @Nullable Object[] args, long compileNanos) {
+      super(cursor);
+      this.db           = db;
+      this.sql          = sql;
+      this.args         = args;
+      this.compileNanos = compileNanos;
+    }
+
+    private void execute() {
+      if (executed) {
+        return;
+      }
+
+      executed = true;
+
+      long startTime = System.nanoTime();
+      int  rows      = super.getCount();
+
+      onQueryExecuted(db, sql, args, compileNanos + System.nanoTime() - startTime, rows);
+    }
+
+    @Override
+    public int getCount() {
+      execute();
+      return super.getCount();
+    }
+
+    @Override
+    public boolean move(int offset) {
+      execute();
+      return super.move(offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+      execute();
+      return super.moveToPosition(position);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+      execute();
+      return super.moveToFirst();
+    }
+
+    @Override
+    public boolean moveToLast() {
+      execute();
+      return super.moveToLast();
+    }
+
+    @Override
+    public boolean moveToNext() {
+      execute();
+      return super.moveToNext();
+    }
+
+    @Override
+    public void close() {
+      if (!executed) {
+        executed = true;
+        getStats(sql).record(compileNanos, 0);
+      }
+
+      super.close();
+    }
+  }
+}
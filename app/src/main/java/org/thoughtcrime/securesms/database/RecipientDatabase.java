@@ -8,6 +8,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.google.protobuf.ByteString;
@@ -200,6 +201,70 @@ public class RecipientDatabase extends Database {
       "CREATE INDEX IF NOT EXISTS recipient_group_type_index ON " + TABLE_NAME + " (" + GROUP_TYPE + ");",
   };
 
+  public  static final String FTS_TABLE_NAME   = "recipient_fts";
+  private static final String FTS_SYSTEM_NAME  = "system_name";
+  private static final String FTS_PROFILE_NAME = "profile_name";
+  private static final String FTS_USERNAME     = "username";
+  private static final String FTS_PHONE        = "phone";
+  private static final String FTS_EMAIL        = "email";
+  private static final String FTS_COLUMNS      = FTS_SYSTEM_NAME + ", " + FTS_PROFILE_NAME + ", " + FTS_USERNAME + ", " + FTS_PHONE + ", " + FTS_EMAIL;
+
+  /**
+   * Blocks of scripts that are written without spaces between words, which the index's tokenizer
+   * can't split up. See {@link #canSearchWithFtsIndex(String)}.
+   */
+  private static final Set<Character.UnicodeBlock> UNSPACED_BLOCKS = new HashSet<>(Arrays.asList(Character.UnicodeBlock.HIRAGANA,
+                                                                                                 Character.UnicodeBlock.KATAKANA,
+                                                                                                 Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS,
+                                                                                                 Character.UnicodeBlock.HANGUL_JAMO,
+                                                                                                 Character.UnicodeBlock.HANGUL_COMPATIBILITY_JAMO,
+                                                                                                 Character.UnicodeBlock.HANGUL_SYLLABLES,
+                                                                                                 Character.UnicodeBlock.THAI,
+                                                                                                 Character.UnicodeBlock.LAO,
+                                                                                                 Character.UnicodeBlock.KHMER,
+                                                                                                 Character.UnicodeBlock.MYANMAR,
+                                                                                                 Character.UnicodeBlock.TIBETAN));
+
+  /**
+   * A word index over everything contact search matches on, so a search doesn't have to scan the
+   * whole recipient table. Names are also indexed without their spaces. The phone column also gets
+   * the number with the first one to three digits of the country code dropped, so a number typed
+   * without it still matches on a prefix.
+   */
+  public static final String[] CREATE_FTS = {
+      "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts5(" + FTS_COLUMNS + ", tokenize = 'unicode61 remove_diacritics 2');",
+
+      "CREATE TRIGGER recipient_fts_ai AFTER INSERT ON " + TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + " (rowid, " + FTS_COLUMNS + ") VALUES (" + ftsValues("new") + ");\n" +
+          "END;",
+      "CREATE TRIGGER recipient_fts_ad AFTER DELETE ON " + TABLE_NAME + " BEGIN\n" +
+          "  DELETE FROM " + FTS_TABLE_NAME + " WHERE rowid = old." + ID + ";\n" +
+          "END;",
+      "CREATE TRIGGER recipient_fts_au AFTER UPDATE OF " + SYSTEM_JOINED_NAME + ", " + SYSTEM_GIVEN_NAME + ", " + PROFILE_JOINED_NAME + ", " + PROFILE_GIVEN_NAME + ", " + USERNAME + ", " + PHONE + ", " + EMAIL + " ON " + TABLE_NAME + " BEGIN\n" +
+          "  DELETE FROM " + FTS_TABLE_NAME + " WHERE rowid = old." + ID + ";\n" +
+          "  INSERT INTO " + FTS_TABLE_NAME + " (rowid, " + FTS_COLUMNS + ") VALUES (" + ftsValues("new") + ");\n" +
+          "END;"
+  };
+
+  private static String ftsValues(@NonNull String row) {
+    String phone = row + "." + PHONE;
+
+    return row + "." + ID + ", " +
+           ftsName(row + "." + SYSTEM_JOINED_NAME, row + "." + SYSTEM_GIVEN_NAME) + ", " +
+           ftsName(row + "." + PROFILE_JOINED_NAME, row + "." + PROFILE_GIVEN_NAME) + ", " +
+           row + "." + USERNAME + ", " +
+           "IFNULL(" + phone + ", '') || CASE WHEN " + phone + " GLOB '+*' THEN ' ' || SUBSTR(" + phone + ", 3) || ' ' || SUBSTR(" + phone + ", 4) || ' ' || SUBSTR(" + phone + ", 5) ELSE '' END, " +
+           row + "." + EMAIL;
+  }
+
+  /**
+   * The joined name is indexed a second time with its spaces removed, because a mention query
+   * can't contain a space and is matched against the name that way (see {@link #MENTION_SEARCH_PROJECTION}).
+   */
+  private static String ftsName(@NonNull String joinedName, @NonNull String givenName) {
+    return "IFNULL(" + joinedName + ", '') || ' ' || IFNULL(" + givenName + ", '') || ' ' || IFNULL(" + removeWhitespace(joinedName) + ", '')";
+  }
+
   public enum VibrateState {
     DEFAULT(0), ENABLED(1), DISABLED(2);
 
@@ -2336,24 +2401,18 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor querySignalContacts(@NonNull String query, boolean includeSelf) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, new String[] { FTS_SYSTEM_NAME, FTS_PROFILE_NAME, FTS_USERNAME, FTS_PHONE }, PHONE, SORT_NAME, USERNAME);
 
     String   selection = BLOCKED     + " = ? AND " +
                          REGISTERED  + " = ? AND " +
                          GROUP_ID    + " IS NULL AND " +
                          "(" + SYSTEM_JOINED_NAME + " NOT NULL OR " + PROFILE_SHARING + " = ?) AND " +
-                         "(" +
-                           PHONE     + " GLOB ? OR " +
-                           SORT_NAME + " GLOB ? OR " +
-                           USERNAME  + " GLOB ?" +
-                         ")";
-    String[] args;
+                         search.getWhere();
+    String[] args      = SqlUtil.appendArgs(SqlUtil.buildArgs("0", RegisteredState.REGISTERED.getId(), "1"), search.getWhereArgs());
 
-    if (includeSelf) {
-      args = new String[]{"0", String.valueOf(RegisteredState.REGISTERED.getId()), "1", query, query, query};
-    } else {
+    if (!includeSelf) {
       selection += " AND " + ID + " != ?";
-      args       = new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()), "1", query, query, query, String.valueOf(Recipient.self().getId().toLong()) };
+      args       = SqlUtil.appendArg(args, String.valueOf(Recipient.self().getId().toLong()));
     }
 
     String   orderBy   = SORT_NAME + ", " + SYSTEM_JOINED_NAME + ", " + SEARCH_PROFILE_NAME + ", " + PHONE;
@@ -2374,35 +2433,25 @@ public class RecipientDatabase extends Database {
   }
 
   public @Nullable Cursor queryNonSignalContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, new String[] { FTS_PHONE, FTS_EMAIL, FTS_SYSTEM_NAME }, PHONE, EMAIL, SYSTEM_JOINED_NAME);
 
     String   selection = BLOCKED    + " = ? AND " +
                          REGISTERED + " != ? AND " +
                          GROUP_ID   + " IS NULL AND " +
                          SYSTEM_CONTACT_URI + " NOT NULL AND " +
                          "(" + PHONE + " NOT NULL OR " + EMAIL + " NOT NULL) AND " +
-                         "(" +
-                           PHONE              + " GLOB ? OR " +
-                           EMAIL              + " GLOB ? OR " +
-                           SYSTEM_JOINED_NAME + " GLOB ?" +
-                         ")";
-    String[] args      = new String[] { "0", String.valueOf(RegisteredState.REGISTERED.getId()), query, query, query };
+                         search.getWhere();
+    String[] args      = SqlUtil.appendArgs(SqlUtil.buildArgs("0", RegisteredState.REGISTERED.getId()), search.getWhereArgs());
     String   orderBy   = SYSTEM_JOINED_NAME + ", " + PHONE;
 
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, orderBy);
   }
 
   public @Nullable Cursor queryAllContacts(@NonNull String query) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, new String[] { FTS_SYSTEM_NAME, FTS_PROFILE_NAME, FTS_USERNAME, FTS_PHONE, FTS_EMAIL }, SORT_NAME, USERNAME, PHONE, EMAIL);
 
-    String   selection = BLOCKED + " = ? AND " +
-                         "(" +
-                           SORT_NAME + " GLOB ? OR " +
-                           USERNAME  + " GLOB ? OR " +
-                           PHONE     + " GLOB ? OR " +
-                           EMAIL     + " GLOB ?" +
-                         ")";
-    String[] args      = new String[] { "0", query, query, query, query };
+    String   selection = BLOCKED + " = ? AND " + search.getWhere();
+    String[] args      = SqlUtil.appendArgs(SqlUtil.buildArgs("0"), search.getWhereArgs());
 
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, null);
   }
@@ -2412,7 +2461,7 @@ public class RecipientDatabase extends Database {
   }
 
   public @NonNull List<Recipient> queryRecipientsForMentions(@NonNull String query, @Nullable List<RecipientId> recipientIds) {
-    query = buildCaseInsensitiveGlobPattern(query);
+    SqlUtil.Query search = buildSearchQuery(query, new String[] { FTS_SYSTEM_NAME, FTS_PROFILE_NAME, FTS_USERNAME, FTS_PHONE }, SORT_NAME);
 
     String ids = null;
     if (Util.hasItems(recipientIds)) {
@@ -2421,10 +2470,10 @@ public class RecipientDatabase extends Database {
 
     String   selection = BLOCKED + " = 0 AND " +
                          (ids != null ? ID + " IN (" + ids + ") AND " : "") +
-                         SORT_NAME  + " GLOB ?";
+                         search.getWhere();
 
     List<Recipient> recipients = new ArrayList<>();
-    try (RecipientDatabase.RecipientReader reader = new RecipientReader(databaseHelper.getReadableDatabase().query(TABLE_NAME, MENTION_SEARCH_PROJECTION, selection, SqlUtil.buildArgs(query), null, null, SORT_NAME))) {
+    try (RecipientDatabase.RecipientReader reader = new RecipientReader(databaseHelper.getReadableDatabase().query(TABLE_NAME, MENTION_SEARCH_PROJECTION, selection, search.getWhereArgs(), null, null, SORT_NAME))) {
       Recipient recipient;
       while ((recipient = reader.getNext()) != null) {
         recipients.add(recipient);
@@ -2433,6 +2482,110 @@ public class RecipientDatabase extends Database {
     return recipients;
   }
 
+  /**
+   * Limits a contact search to recipients with a word starting with each word of the query in one
+   * of the given {@link #FTS_TABLE_NAME} columns. A query the index can't answer in full (see
+   * {@link #canSearchWithFtsIndex(String)}) falls back to a case-insensitive GLOB on the given
+   * recipient columns instead.
+   */
+  @VisibleForTesting
+  static @NonNull SqlUtil.Query buildSearchQuery(@NonNull String query, @NonNull String[] ftsColumns, @NonNull String... globColumns) {
+    String match = canSearchWithFtsIndex(query) ? buildFtsMatchExpression(query, ftsColumns) : null;
+
+    if (match != null) {
+      return SqlUtil.buildQuery(ID + " IN (SELECT rowid FROM " + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ?)", match);
+    }
+
+    String   digits  = stripPhoneFormatting(query);
+    String   pattern = buildCaseInsensitiveGlobPattern(isDigits(digits) ? digits : query);
+    String[] clauses = new String[globColumns.length];
+    Object[] args    = new Object[globColumns.length];
+
+    for (int i = 0; i < globColumns.length; i++) {
+      clauses[i] = globColumns[i] + " GLOB ?";
+      args[i]    = pattern;
+    }
+
+    return SqlUtil.buildQuery("(" + TextUtils.join(" OR ", clauses) + ")", args);
+  }
+
+  /**
+   * Turns each word of the query into a quoted prefix phrase limited to the given columns, so
+   * nothing typed is read as FTS syntax. A query that is only a phone number may also match the
+   * number's digits with its formatting removed.
+   *
+   * Ex:
+   *   jo smi -> {system_name profile_name} : "jo"* AND {system_name profile_name} : "smi"*
+   *
+   * @return The expression, or null if the query has no letters or digits to match on.
+   */
+  @VisibleForTesting
+  static @Nullable String buildFtsMatchExpression(@NonNull String query, @NonNull String... columns) {
+    String       filter = "{" + TextUtils.join(" ", columns) + "} : ";
+    List<String> terms  = new LinkedList<>();
+
+    for (String word : query.trim().split("\\s+")) {
+      if (hasLetterOrDigit(word)) {
+        terms.add(filter + "\"" + word.replace("\"", "\"\"") + "\"*");
+      }
+    }
+
+    if (terms.isEmpty()) {
+      return null;
+    }
+
+    String expression = TextUtils.join(" AND ", terms);
+    String digits     = stripPhoneFormatting(query);
+
+    if (Arrays.asList(columns).contains(FTS_PHONE) && isDigits(digits) && !digits.equals(query.trim())) {
+      expression = "(" + expression + ") OR " + FTS_PHONE + " : \"" + digits + "\"*";
+    }
+
+    return expression;
+  }
+
+  /**
+   * The index splits text into words on spaces and punctuation and only matches the start of a word,
+   * so it can't find everything a GLOB would for some queries:
+   *  - Scripts written without spaces, like Chinese or Thai, end up with a whole name as one word,
+   *    so part of a name that isn't at its start would never match.
+   *  - A query that's only digits may be from the middle or end of a phone number, but the index
+   *    only has the number with up to three of its leading digits dropped.
+   */
+  @VisibleForTesting
+  static boolean canSearchWithFtsIndex(@NonNull String query) {
+    if (isDigits(stripPhoneFormatting(query))) {
+      return false;
+    }
+
+    for (int i = 0; i < query.length(); i = query.offsetByCodePoints(i, 1)) {
+      int codePoint = query.codePointAt(i);
+
+      if (Character.isIdeographic(codePoint) || UNSPACED_BLOCKS.contains(Character.UnicodeBlock.of(codePoint))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static @NonNull String stripPhoneFormatting(@NonNull String query) {
+    return query.replaceAll("[\\s()+\\-.]", "");
+  }
+
+  private static boolean isDigits(@NonNull String value) {
+    return value.matches("[0-9]+");
+  }
+
+  private static boolean hasLetterOrDigit(@NonNull String word) {
+    for (int i = 0; i < word.length(); i = word.offsetByCodePoints(i, 1)) {
+      if (Character.isLetterOrDigit(word.codePointAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Builds a case-insensitive GLOB pattern for fuzzy text queries. Works with all unicode
    * characters.
@@ -2440,7 +2593,8 @@ public class RecipientDatabase extends Database {
    * Ex:
    *   cat -> [cC][aA][tT]
    */
-  private static String buildCaseInsensitiveGlobPattern(@NonNull String query) {
+  @VisibleForTesting
+  static String buildCaseInsensitiveGlobPattern(@NonNull String query) {
     if (TextUtils.isEmpty(query)) {
       return "*";
     }
@@ -5,10 +5,12 @@ import android.content.ContentValues;
 
 import net.sqlcipher.Cursor;
 import net.sqlcipher.SQLException;
+import net.sqlcipher.database.SQLiteQueryBuilder;
 import net.sqlcipher.database.SQLiteQueryStats;
 import net.sqlcipher.database.SQLiteStatement;
 import net.sqlcipher.database.SQLiteTransactionListener;
 
+import org.signal.core.util.logging.Log;
 import org.signal.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
@@ -30,17 +32,42 @@ public class SQLiteDatabase {
   public static final int CONFLICT_REPLACE  = 5;
   public static final int CONFLICT_NONE     = 0;
 
+  private static final String TAG = Log.tag(SQLiteDatabase.class);
+
   private static final String KEY_QUERY  = "query";
   private static final String KEY_TABLE  = "table";
   private static final String KEY_THREAD = "thread";
   private static final String NAME_LOCK  = "LOCK";
 
   private final net.sqlcipher.database.SQLiteDatabase wrapped;
+  private final net.sqlcipher.database.SQLiteDatabase reader;
+  private final StatementCache                        statementCache;
   private final Tracer                                tracer;
+  private final QueryMonitor                          monitor;
 
   public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase wrapped) {
-    this.wrapped = wrapped;
-    this.tracer  = Tracer.getInstance();
+    this(null, wrapped, null);
+  }
+
+  /**
+   * @param reader A read-only connection to the same database, used for queries when the database
+   *               is in write-ahead logging mode. Writes, and any query made while the current
+   *               thread is in a transaction, still go to the writer so they see uncommitted changes.
+   */
+  public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase reader, net.sqlcipher.database.SQLiteDatabase wrapped, StatementCache statementCache) {
+    this.wrapped        = wrapped;
+    this.reader         = reader;
+    this.statementCache = statementCache;
+    this.tracer         = Tracer.getInstance();
+    this.monitor        = QueryMonitor.getInstance();
+  }
+
+  private net.sqlcipher.database.SQLiteDatabase getReader() {
+    if (reader == null || wrapped.isDbLockedByCurrentThread()) {
+      return wrapped;
+    } else {
+      return reader;
+    }
   }
 
   private void traceLockStart() {
@@ -103,10 +130,73 @@ public class SQLiteDatabase {
     return wrapped;
   }
 
+  private Cursor monitorQuery(net.sqlcipher.database.SQLiteDatabase db, String sql, Object[] args, Returnable<Cursor> query) {
+    long   startTime = System.nanoTime();
+    Cursor cursor    = query.run();
+
+    return monitor.onQuery(cursor, db, sql, args, System.nanoTime() - startTime);
+  }
+
+  private long monitorInsert(String sql, Returnable<Long> insert) {
+    long startTime = System.nanoTime();
+    long rowId     = insert.run();
+
+    monitor.onStatement(sql, System.nanoTime() - startTime, rowId != -1 ? 1 : 0);
+    return rowId;
+  }
+
+  private int monitorUpdate(String sql, Returnable<Integer> update) {
+    long startTime = System.nanoTime();
+    int  rows      = update.run();
+
+    monitor.onStatement(sql, System.nanoTime() - startTime, rows);
+    return rows;
+  }
+
+  private void monitorExec(String sql, Runnable exec) {
+    long startTime = System.nanoTime();
+    exec.run();
+    monitor.onStatement(sql, System.nanoTime() - startTime, -1);
+  }
+
+  /**
+   * Runs the statement with a compiled copy from the {@link StatementCache} if the current thread
+   * holds the connection (so nobody else can be using it), otherwise compiles a fresh one.
+   */
+  private <E> E withStatement(String sql, Object[] args, StatementFunction<E> function) {
+    if (statementCache != null && wrapped.isDbLockedByCurrentThread()) {
+      SQLiteStatement statement = statementCache.get(sql);
+
+      try {
+        StatementCache.bind(statement, args);
+        return function.run(statement);
+      } finally {
+        statement.clearBindings();
+      }
+    } else {
+      SQLiteStatement statement = wrapped.compileStatement(sql);
+
+      try {
+        StatementCache.bind(statement, args);
+        return function.run(statement);
+      } finally {
+        statement.close();
+      }
+    }
+  }
+
+  private static String statementKey(String prefix, String table, String whereClause) {
+    return whereClause != null ? prefix + table + " WHERE " + whereClause : prefix + table;
+  }
+
   private interface Returnable<E> {
     E run();
   }
 
+  private interface StatementFunction<E> {
+    E run(SQLiteStatement statement);
+  }
+
 
   // =======================================================
   // Traced
@@ -115,10 +205,12 @@ public class SQLiteDatabase {
   public void beginTransaction() {
     traceLockStart();
     trace("beginTransaction()", wrapped::beginTransaction);
+    monitor.onTransactionStarted();
   }
 
   public void endTransaction() {
     trace("endTransaction()", wrapped::endTransaction);
+    monitor.onTransactionEnded();
     traceLockEnd();
   }
 
@@ -127,79 +219,156 @@ public class SQLiteDatabase {
   }
 
   public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(9)", table, selection, false, () -> wrapped.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    net.sqlcipher.database.SQLiteDatabase db  = getReader();
+    String                                sql = SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit);
+
+    return traceSql("query(9)", table, selection, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor queryWithFactory(net.sqlcipher.database.SQLiteDatabase.CursorFactory cursorFactory, boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("queryWithFactory()", table, selection, false, () -> wrapped.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    net.sqlcipher.database.SQLiteDatabase db  = getReader();
+    String                                sql = SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit);
+
+    return traceSql("queryWithFactory()", table, selection, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy) {
-    return traceSql("query(7)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy));
+    net.sqlcipher.database.SQLiteDatabase db  = getReader();
+    String                                sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having, orderBy, null);
+
+    return traceSql("query(7)", table, selection, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy)));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(8)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    net.sqlcipher.database.SQLiteDatabase db  = getReader();
+    String                                sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having, orderBy, limit);
+
+    return traceSql("query(8)", table, selection, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs) {
-    return traceSql("rawQuery(2a)", sql, false, () -> wrapped.rawQuery(sql, selectionArgs));
+    net.sqlcipher.database.SQLiteDatabase db = getReader();
+    return traceSql("rawQuery(2a)", sql, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.rawQuery(sql, selectionArgs)));
   }
 
   public Cursor rawQuery(String sql, Object[] args) {
-    return traceSql("rawQuery(2b)", sql, false,() -> wrapped.rawQuery(sql, args));
+    net.sqlcipher.database.SQLiteDatabase db = getReader();
+    return traceSql("rawQuery(2b)", sql, false,() -> monitorQuery(db, sql, args, () -> db.rawQuery(sql, args)));
   }
 
   public Cursor rawQueryWithFactory(net.sqlcipher.database.SQLiteDatabase.CursorFactory cursorFactory, String sql, String[] selectionArgs, String editTable) {
-    return traceSql("rawQueryWithFactory()", sql, false, () -> wrapped.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable));
+    net.sqlcipher.database.SQLiteDatabase db = getReader();
+    return traceSql("rawQueryWithFactory()", sql, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable)));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs, int initialRead, int maxRead) {
-    return traceSql("rawQuery(4)", sql, false, () -> rawQuery(sql, selectionArgs, initialRead, maxRead));
+    net.sqlcipher.database.SQLiteDatabase db = getReader();
+    return traceSql("rawQuery(4)", sql, false, () -> monitorQuery(db, sql, selectionArgs, () -> db.rawQuery(sql, selectionArgs, initialRead, maxRead)));
   }
 
   public long insert(String table, String nullColumnHack, ContentValues values) {
-    return traceSql("insert()", table, null, true, () -> wrapped.insert(table, nullColumnHack, values));
+    return traceSql("insert()", table, null, true, () -> monitorInsert("INSERT INTO " + table, () -> wrapped.insert(table, nullColumnHack, values)));
   }
 
   public long insertOrThrow(String table, String nullColumnHack, ContentValues values) throws SQLException {
-    return traceSql("insertOrThrow()", table, null, true, () -> wrapped.insertOrThrow(table, nullColumnHack, values));
+    return traceSql("insertOrThrow()", table, null, true, () -> monitorInsert("INSERT INTO " + table, () -> wrapped.insertOrThrow(table, nullColumnHack, values)));
   }
 
   public long replace(String table, String nullColumnHack, ContentValues initialValues) {
-    return traceSql("replace()", table, null, true,() -> wrapped.replace(table, nullColumnHack, initialValues));
+    return traceSql("replace()", table, null, true,() -> monitorInsert("REPLACE INTO " + table, () -> wrapped.replace(table, nullColumnHack, initialValues)));
   }
 
   public long replaceOrThrow(String table, String nullColumnHack, ContentValues initialValues) throws SQLException {
-    return traceSql("replaceOrThrow()", table, null, true, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues));
+    return traceSql("replaceOrThrow()", table, null, true, () -> monitorInsert("REPLACE INTO " + table, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues)));
   }
 
   public long insertWithOnConflict(String table, String nullColumnHack, ContentValues initialValues, int conflictAlgorithm) {
-    return traceSql("insertWithOnConflict()", table, null, true, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm));
+    return traceSql("insertWithOnConflict()", table, null, true, () -> monitorInsert("INSERT INTO " + table, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm)));
   }
 
   public int delete(String table, String whereClause, String[] whereArgs) {
-    return traceSql("delete()", table, whereClause, true, () -> wrapped.delete(table, whereClause, whereArgs));
+    return traceSql("delete()", table, whereClause, true, () -> monitorUpdate(statementKey("DELETE FROM ", table, whereClause), () -> wrapped.delete(table, whereClause, whereArgs)));
   }
 
   public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
-    return traceSql("update()", table, whereClause, true, () -> wrapped.update(table, values, whereClause, whereArgs));
+    return traceSql("update()", table, whereClause, true, () -> monitorUpdate(statementKey("UPDATE ", table, whereClause), () -> wrapped.update(table, values, whereClause, whereArgs)));
   }
 
   public int updateWithOnConflict(String table, ContentValues values, String whereClause, String[] whereArgs, int conflictAlgorithm) {
-    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm));
+    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> monitorUpdate(statementKey("UPDATE ", table, whereClause), () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm)));
+  }
+
+  /**
+   * Runs an UPDATE or DELETE with typed arguments. Inside a transaction, the compiled statement is
+   * cached and reused, which makes this much cheaper than {@link #update} in a loop.
+   *
+   * @return The number of rows affected.
+   */
+  public int executeUpdateDelete(String sql, Object... args) throws SQLException {
+    return traceSql("executeUpdateDelete()", sql, true, () -> monitorUpdate(sql, () -> withStatement(sql, args, SQLiteStatement::executeUpdateDelete)));
+  }
+
+  /**
+   * Equivalent to {@link #insert(String, String, ContentValues)}, but inside a transaction the
+   * compiled statement is cached and reused for any later insert of the same set of columns.
+   *
+   * @return The row id of the inserted row, or -1 if an error occurred.
+   */
+  public long insertCached(String table, ContentValues values) {
+    if (values.size() == 0) {
+      return insert(table, null, values);
+    }
+
+    StringBuilder sql  = new StringBuilder("INSERT INTO ").append(table).append(" (");
+    Object[]      args = new Object[values.size()];
+    int           i    = 0;
+
+    for (String key : values.keySet()) {
+      sql.append(i > 0 ? ", " : "").append(key);
+      args[i++] = values.get(key);
+    }
+
+    sql.append(") VALUES (?");
+    for (int j = 1; j < args.length; j++) {
+      sql.append(", ?");
+    }
+    sql.append(")");
+
+    return traceSql("insertCached()", table, null, true, () -> monitorInsert("INSERT INTO " + table, () -> {
+      try {
+        return withStatement(sql.toString(), args, SQLiteStatement::executeInsert);
+      } catch (SQLException e) {
+        Log.e(TAG, "Error inserting into " + table, e);
+        return -1L;
+      }
+    }));
   }
 
   public void execSQL(String sql) throws SQLException {
-    traceSql("execSQL(1)", sql, true, () -> wrapped.execSQL(sql));
+    traceSql("execSQL(1)", sql, true, () -> monitorExec(sql, () -> wrapped.execSQL(sql)));
   }
 
   public void rawExecSQL(String sql) {
-    traceSql("rawExecSQL()", sql, true, () -> wrapped.rawExecSQL(sql));
+    traceSql("rawExecSQL()", sql, true, () -> monitorExec(sql, () -> wrapped.rawExecSQL(sql)));
   }
 
   public void execSQL(String sql, Object[] bindArgs) throws SQLException {
-    traceSql("execSQL(2)", sql, true, () -> wrapped.execSQL(sql, bindArgs));
+    traceSql("execSQL(2)", sql, true, () -> monitorExec(sql, () -> wrapped.execSQL(sql, bindArgs)));
+  }
+
+  /**
+   * Only compiling the statement is recorded. SQLCipher's {@link SQLiteStatement} can't be wrapped,
+   * so running it is invisible to the {@link QueryMonitor}. Prefer {@link #executeUpdateDelete} or
+   * {@link #insertCached}, which are monitored and reuse compiled statements too.
+   */
+  public SQLiteStatement compileStatement(String sql) throws SQLException {
+    return traceSql("compileStatement()", sql, false, () -> {
+      long            startTime = System.nanoTime();
+      SQLiteStatement statement = wrapped.compileStatement(sql);
+
+      monitor.onStatement(sql, System.nanoTime() - startTime, -1);
+      return statement;
+    });
   }
 
 
@@ -279,9 +448,6 @@ public class SQLiteDatabase {
     wrapped.setPageSize(numBytes);
   }
 
-  public SQLiteStatement compileStatement(String sql) throws SQLException {
-    return wrapped.compileStatement(sql);
-  }
 
   public SQLiteQueryStats getQueryStats(String sql, Object[] args) {
     return wrapped.getQueryStats(sql, args);
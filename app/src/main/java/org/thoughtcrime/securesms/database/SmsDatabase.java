@@ -537,10 +537,10 @@ public class SmsDatabase extends MessageDatabase {
             String  columnName       = receiptType.getColumnName();
             boolean isFirstIncrement = cursor.getLong(cursor.getColumnIndexOrThrow(columnName)) == 0;
 
-            database.execSQL("UPDATE " + TABLE_NAME +
-                             " SET " + columnName + " = " + columnName + " + 1 WHERE " +
-                             ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+            database.executeUpdateDelete("UPDATE " + TABLE_NAME +
+                                         " SET " + columnName + " = " + columnName + " + 1 WHERE " +
+                                         ID + " = ?",
+                                         cursor.getLong(cursor.getColumnIndexOrThrow(ID)));
 
             threadUpdates.add(new ThreadUpdate(threadId, !isFirstIncrement));
           }
@@ -1139,7 +1139,7 @@ public class SmsDatabase extends MessageDatabase {
       return Optional.absent();
     } else {
       SQLiteDatabase db        = databaseHelper.getWritableDatabase();
-      long           messageId = db.insert(TABLE_NAME, null, values);
+      long           messageId = db.insertCached(TABLE_NAME, values);
 
       if (unread) {
         DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
@@ -1250,7 +1250,7 @@ public class SmsDatabase extends MessageDatabase {
     contentValues.put(DELIVERY_RECEIPT_COUNT, Stream.of(earlyDeliveryReceipts.values()).mapToLong(Long::longValue).sum());
 
     SQLiteDatabase db        = databaseHelper.getWritableDatabase();
-    long           messageId = db.insert(TABLE_NAME, null, contentValues);
+    long           messageId = db.insertCached(TABLE_NAME, contentValues);
 
     if (insertListener != null) {
       insertListener.onComplete();
@@ -1272,13 +1272,6 @@ public class SmsDatabase extends MessageDatabase {
     return messageId;
   }
 
-  @Override
-  public Cursor getExpirationStartedMessages() {
-    String         where = EXPIRE_STARTED + " > 0";
-    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
-    return db.query(TABLE_NAME, MESSAGE_PROJECTION, where, null, null, null, null);
-  }
-
   @Override
   public SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException {
     SQLiteDatabase db     = databaseHelper.getReadableDatabase();
@@ -1331,6 +1324,19 @@ public class SmsDatabase extends MessageDatabase {
     return threadDeleted;
   }
 
+  @Override
+  @NonNull Set<Long> deleteMessagesWithoutUpdatingThreads(@NonNull Collection<Long> messageIds) {
+    Log.d(TAG, "deleteMessagesWithoutUpdatingThreads(count: " + messageIds.size() + ")");
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = getThreadIdsForMessages(messageIds);
+    SqlUtil.Query  query     = SqlUtil.buildCollectionQuery(ID, messageIds);
+
+    db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+
+    return threadIds;
+  }
+
   @Override
   public void ensureMigration() {
     databaseHelper.getWritableDatabase();
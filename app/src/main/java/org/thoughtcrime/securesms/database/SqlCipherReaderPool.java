@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-size set of read-only connections to a database that's in write-ahead logging mode.
+ *
+ * In WAL mode, readers on their own connections see the last committed state of the database and
+ * never wait on the writer, so queries don't get stuck behind a long write transaction. Each
+ * connection still serializes the operations that run on it, so we hand out whichever connection
+ * looks idle, falling back to round-robin when they're all busy.
+ *
+ * Connections are opened lazily, since each one costs memory for its own page cache.
+ */
+public final class SqlCipherReaderPool {
+
+  private static final String TAG = Log.tag(SqlCipherReaderPool.class);
+
+  private final File             databaseFile;
+  private final String           password;
+  private final SQLiteDatabase[] connections;
+  private final AtomicInteger    next;
+
+  public SqlCipherReaderPool(@NonNull File databaseFile, @NonNull String password, int size) {
+    this.databaseFile = databaseFile;
+    this.password     = password;
+    this.connections  = new SQLiteDatabase[size];
+    this.next         = new AtomicInteger();
+  }
+
+  public @NonNull SQLiteDatabase getConnection() {
+    for (int i = 0; i < connections.length; i++) {
+      SQLiteDatabase connection = connections[i];
+
+      if (connection != null && !connection.isDbLockedByOtherThreads()) {
+        return connection;
+      }
+    }
+
+    return getOrOpen(Math.abs(next.getAndIncrement() % connections.length));
+  }
+
+  public synchronized void close() {
+    for (int i = 0; i < connections.length; i++) {
+      if (connections[i] != null) {
+        connections[i].close();
+        connections[i] = null;
+      }
+    }
+  }
+
+  private synchronized @NonNull SQLiteDatabase getOrOpen(int index) {
+    if (connections[index] == null) {
+      Log.i(TAG, "Opening reader connection " + index);
+      connections[index] = SQLiteDatabase.openDatabase(databaseFile.getAbsolutePath(),
+                                                       password,
+                                                       null,
+                                                       SQLiteDatabase.OPEN_READONLY,
+                                                       new SqlCipherDatabaseHook(),
+                                                       new SqlCipherErrorHandler(databaseFile.getName()));
+    }
+
+    return connections[index];
+  }
+}
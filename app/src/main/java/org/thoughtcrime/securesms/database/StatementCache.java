@@ -0,0 +1,81 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.sqlcipher.database.SQLiteStatement;
+
+/**
+ * An LRU cache of compiled statements for a single connection, so that hot write paths don't have
+ * to re-parse and re-prepare the same SQL every time they run.
+ *
+ * A compiled statement holds its bindings between calls, so two threads must never use the same
+ * one at once. Rather than adding a lock of our own (which could deadlock against the connection's
+ * lock), {@link SQLiteDatabase} only uses this cache while the current thread already holds the
+ * connection, i.e. inside a transaction. Outside of one, statements are compiled and closed per call.
+ */
+public final class StatementCache {
+
+  private static final int MAX_SIZE = 64;
+
+  private final net.sqlcipher.database.SQLiteDatabase connection;
+  private final LruCache<String, SQLiteStatement>     statements;
+
+  public StatementCache(@NonNull net.sqlcipher.database.SQLiteDatabase connection) {
+    this.connection = connection;
+    this.statements = new LruCache<String, SQLiteStatement>(MAX_SIZE) {
+      @Override
+      protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+        oldValue.close();
+      }
+    };
+  }
+
+  public boolean isFor(@NonNull net.sqlcipher.database.SQLiteDatabase connection) {
+    return this.connection == connection;
+  }
+
+  @NonNull SQLiteStatement get(@NonNull String sql) {
+    SQLiteStatement statement = statements.get(sql);
+
+    if (statement == null) {
+      statement = connection.compileStatement(sql);
+      statements.put(sql, statement);
+    }
+
+    return statement;
+  }
+
+  public void clear() {
+    statements.evictAll();
+  }
+
+  /**
+   * Binds each argument with the bind method that matches its type. Booleans are stored as 0 or 1,
+   * matching what {@link ContentValues} does.
+   */
+  static void bind(@NonNull SQLiteStatement statement, @NonNull Object[] args) {
+    for (int i = 0; i < args.length; i++) {
+      bind(statement, i + 1, args[i]);
+    }
+  }
+
+  static void bind(@NonNull SQLiteStatement statement, int index, @Nullable Object value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      statement.bindLong(index, ((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      statement.bindDouble(index, ((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      statement.bindLong(index, (Boolean) value ? 1 : 0);
+    } else if (value instanceof byte[]) {
+      statement.bindBlob(index, (byte[]) value);
+    } else {
+      statement.bindString(index, value.toString());
+    }
+  }
+}
@@ -1209,6 +1209,22 @@ public class ThreadDatabase extends Database {
   }
 
   public boolean update(long threadId, boolean unarchive, boolean allowDeletion) {
+    return update(threadId, unarchive, allowDeletion, true);
+  }
+
+  /**
+   * Updates each of the provided threads, notifying conversation list listeners once at the end
+   * rather than once per thread.
+   */
+  public void update(@NonNull Set<Long> threadIds, boolean unarchive) {
+    for (long threadId : threadIds) {
+      update(threadId, unarchive, true, false);
+    }
+
+    notifyConversationListListeners();
+  }
+
+  private boolean update(long threadId, boolean unarchive, boolean allowDeletion, boolean notifyListeners) {
     MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
     long count                    = mmsSmsDatabase.getConversationCountForThreadSummary(threadId);
 
@@ -1230,7 +1246,9 @@ public class ThreadDatabase extends Database {
                      getContentTypeFor(record), getExtrasFor(record),
                      record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
                      record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
-        notifyConversationListListeners();
+        if (notifyListeners) {
+          notifyConversationListListeners();
+        }
         return false;
       } else {
         deleteConversation(threadId);
@@ -21,6 +21,7 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteOpenHelper;
 
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.color.MaterialColor;
 import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
@@ -54,6 +55,8 @@ import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
 import org.thoughtcrime.securesms.database.SqlCipherErrorHandler;
+import org.thoughtcrime.securesms.database.SqlCipherReaderPool;
+import org.thoughtcrime.securesms.database.StatementCache;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.UnknownStorageIdDatabase;
@@ -201,18 +204,54 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int SENDER_KEY                       = 103;
   private static final int MESSAGE_DUPE_INDEX               = 104;
   private static final int MESSAGE_LOG                      = 105;
+  private static final int RECIPIENT_SEARCH                 = 106;
 
-  private static final int    DATABASE_VERSION = 105;
+  private static final int    DATABASE_VERSION = 106;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
   private final DatabaseSecret databaseSecret;
+  private final boolean        walEnabled;
+
+  private volatile SqlCipherReaderPool readerPool;
+  private volatile StatementCache      statementCache;
 
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION, new SqlCipherDatabaseHook(), new SqlCipherErrorHandler(DATABASE_NAME));
 
     this.context        = context.getApplicationContext();
     this.databaseSecret = databaseSecret;
+    this.walEnabled     = TextSecurePreferences.isDatabaseWalEnabled(context);
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    if (walEnabled) {
+      if (db.enableWriteAheadLogging() && "wal".equalsIgnoreCase(getJournalMode(db))) {
+        readerPool = new SqlCipherReaderPool(getDatabaseFile(context), databaseSecret.asString(), SignalExecutors.getIdealThreadCount());
+        Log.i(TAG, "Opened in WAL mode with " + SignalExecutors.getIdealThreadCount() + " readers.");
+      } else {
+        Log.w(TAG, "Failed to enable WAL mode! Journal mode: " + getJournalMode(db));
+      }
+    } else if ("wal".equalsIgnoreCase(getJournalMode(db))) {
+      Log.i(TAG, "WAL mode was turned off. Switching back to a rollback journal.");
+      db.disableWriteAheadLogging();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (readerPool != null) {
+      readerPool.close();
+      readerPool = null;
+    }
+
+    if (statementCache != null) {
+      statementCache.clear();
+      statementCache = null;
+    }
+
+    super.close();
   }
 
   @Override
@@ -240,6 +279,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(ChatColorsDatabase.CREATE_TABLE);
     db.execSQL(EmojiSearchDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
+    executeStatements(db, RecipientDatabase.CREATE_FTS);
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
     executeStatements(db, MessageSendLogDatabase.CREATE_TABLE);
 
@@ -1598,6 +1638,33 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         db.execSQL("CREATE INDEX message_send_log_recipients_recipient_index ON message_send_log_recipients (recipient_id, device)");
       }
 
+      if (oldVersion < RECIPIENT_SEARCH) {
+        String values = "%1$s._id, " +
+                        "IFNULL(%1$s.system_display_name, '') || ' ' || IFNULL(%1$s.system_given_name, '') || ' ' || IFNULL(REPLACE(%1$s.system_display_name, ' ', ''), ''), " +
+                        "IFNULL(%1$s.profile_joined_name, '') || ' ' || IFNULL(%1$s.signal_profile_name, '') || ' ' || IFNULL(REPLACE(%1$s.profile_joined_name, ' ', ''), ''), " +
+                        "%1$s.username, " +
+                        "IFNULL(%1$s.phone, '') || CASE WHEN %1$s.phone GLOB '+*' THEN ' ' || SUBSTR(%1$s.phone, 3) || ' ' || SUBSTR(%1$s.phone, 4) || ' ' || SUBSTR(%1$s.phone, 5) ELSE '' END, " +
+                        "%1$s.email";
+
+        db.execSQL("CREATE VIRTUAL TABLE recipient_fts USING fts5(system_name, profile_name, username, phone, email, tokenize = 'unicode61 remove_diacritics 2')");
+        db.execSQL("CREATE TRIGGER recipient_fts_ai AFTER INSERT ON recipient BEGIN\n" +
+                   "  INSERT INTO recipient_fts (rowid, system_name, profile_name, username, phone, email) VALUES (" + String.format(Locale.US, values, "new") + ");\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_fts_ad AFTER DELETE ON recipient BEGIN\n" +
+                   "  DELETE FROM recipient_fts WHERE rowid = old._id;\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER recipient_fts_au AFTER UPDATE OF system_display_name, system_given_name, profile_joined_name, signal_profile_name, username, phone, email ON recipient BEGIN\n" +
+                   "  DELETE FROM recipient_fts WHERE rowid = old._id;\n" +
+                   "  INSERT INTO recipient_fts (rowid, system_name, profile_name, username, phone, email) VALUES (" + String.format(Locale.US, values, "new") + ");\n" +
+                   "END;");
+
+        long start = SystemClock.elapsedRealtime();
+
+        db.execSQL("INSERT INTO recipient_fts (rowid, system_name, profile_name, username, phone, email) SELECT " + String.format(Locale.US, values, "recipient") + " FROM recipient");
+
+        Log.i(TAG, "Indexing recipients completed in " + (SystemClock.elapsedRealtime() - start) + " ms");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -1611,11 +1678,36 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getReadableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(getReadableDatabase(databaseSecret.asString()));
+    SQLiteDatabase      writer = getWritableDatabase(databaseSecret.asString());
+    SqlCipherReaderPool pool   = readerPool;
+
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(pool != null ? pool.getConnection() : null, writer, getStatementCache(writer));
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getWritableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(getWritableDatabase(databaseSecret.asString()));
+    SQLiteDatabase writer = getWritableDatabase(databaseSecret.asString());
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(null, writer, getStatementCache(writer));
+  }
+
+  private @NonNull StatementCache getStatementCache(@NonNull SQLiteDatabase writer) {
+    StatementCache cache = statementCache;
+
+    if (cache == null || !cache.isFor(writer)) {
+      synchronized (this) {
+        cache = statementCache;
+
+        if (cache == null || !cache.isFor(writer)) {
+          if (cache != null) {
+            cache.clear();
+          }
+
+          cache          = new StatementCache(writer);
+          statementCache = cache;
+        }
+      }
+    }
+
+    return cache;
   }
 
   @Override
@@ -1623,6 +1715,24 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     return getWritableDatabase().getSqlCipherDatabase();
   }
 
+  /**
+   * Copies everything in the write-ahead log back into the database and truncates the log, so it
+   * doesn't grow without bound while there are always readers around. Does nothing outside of WAL mode.
+   */
+  public void checkpoint() {
+    if (readerPool == null) {
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+
+    try (Cursor cursor = getWritableDatabase(databaseSecret.asString()).rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        Log.i(TAG, "Checkpointed the WAL. Busy: " + cursor.getInt(0) + ", Frames: " + cursor.getInt(1) + ", Took: " + (System.currentTimeMillis() - startTime) + " ms");
+      }
+    }
+  }
+
   public void markCurrent(SQLiteDatabase db) {
     db.setVersion(DATABASE_VERSION);
   }
@@ -1635,6 +1745,16 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     return context.getDatabasePath(DATABASE_NAME);
   }
 
+  private static @NonNull String getJournalMode(@NonNull SQLiteDatabase db) {
+    try (Cursor cursor = db.rawQuery("PRAGMA journal_mode", null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getString(0);
+      }
+    }
+
+    return "";
+  }
+
   private void executeStatements(SQLiteDatabase db, String[] statements) {
     for (String statement : statements)
       db.execSQL(statement);
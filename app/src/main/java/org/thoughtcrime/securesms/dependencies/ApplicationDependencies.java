@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.megaphone.MegaphoneRepository;
 import org.thoughtcrime.securesms.messages.BackgroundMessageRetriever;
+import org.thoughtcrime.securesms.messages.DeliveryReceiptCoalescer;
 import org.thoughtcrime.securesms.messages.IncomingMessageObserver;
 import org.thoughtcrime.securesms.messages.IncomingMessageProcessor;
 import org.thoughtcrime.securesms.net.ContentProxySelector;
@@ -90,6 +91,7 @@ public class ApplicationDependencies {
   private static volatile ShakeToReport                shakeToReport;
   private static volatile OkHttpClient                 okHttpClient;
   private static volatile PendingRetryReceiptManager   pendingRetryReceiptManager;
+  private static volatile DeliveryReceiptCoalescer     deliveryReceiptCoalescer;
 
   @MainThread
   public static void init(@NonNull Application application, @NonNull Provider provider) {
@@ -322,6 +324,18 @@ public class ApplicationDependencies {
     return earlyMessageCache;
   }
 
+  public static @NonNull DeliveryReceiptCoalescer getDeliveryReceiptCoalescer() {
+    if (deliveryReceiptCoalescer == null) {
+      synchronized (LOCK) {
+        if (deliveryReceiptCoalescer == null) {
+          deliveryReceiptCoalescer = provider.provideDeliveryReceiptCoalescer(getJobManager());
+        }
+      }
+    }
+
+    return deliveryReceiptCoalescer;
+  }
+
   public static @NonNull MessageNotifier getMessageNotifier() {
     return messageNotifier;
   }
@@ -508,5 +522,6 @@ public class ApplicationDependencies {
     @NonNull AppForegroundObserver provideAppForegroundObserver();
     @NonNull SignalCallManager provideSignalCallManager();
     @NonNull PendingRetryReceiptManager providePendingRetryReceiptManager();
+    @NonNull DeliveryReceiptCoalescer provideDeliveryReceiptCoalescer(@NonNull JobManager jobManager);
   }
 }
@@ -0,0 +1,291 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.util.Map;
+
+/**
+ * A {@link Data.Serializer} that writes a compact, length-prefixed, typed format instead of JSON.
+ *
+ * The job tables store serialized data as TEXT, so the format is a string as well: every entry is
+ * a one-character type tag, a length-prefixed key, and a value. Strings (which is where large
+ * payloads like envelopes live) are copied verbatim rather than escaped or re-encoded, and empty
+ * sections take up no space at all.
+ *
+ * Rows written by {@link JsonDataSerializer} are still readable. They're recognized by their
+ * leading brace and will be rewritten in the compact format the next time the job is updated.
+ */
+public final class CompactDataSerializer implements Data.Serializer {
+
+  private static final String PREFIX = "!1";
+
+  private static final char STRING        = 's';
+  private static final char STRING_ARRAY  = 'S';
+  private static final char INTEGER       = 'i';
+  private static final char INTEGER_ARRAY = 'I';
+  private static final char LONG          = 'l';
+  private static final char LONG_ARRAY    = 'L';
+  private static final char FLOAT         = 'f';
+  private static final char FLOAT_ARRAY   = 'F';
+  private static final char DOUBLE        = 'd';
+  private static final char DOUBLE_ARRAY  = 'D';
+  private static final char BOOLEAN       = 'b';
+  private static final char BOOLEAN_ARRAY = 'B';
+
+  private static final char LENGTH_END = ':';
+  private static final char NUMBER_END = ';';
+
+  private final Data.Serializer legacySerializer;
+
+  public CompactDataSerializer() {
+    this.legacySerializer = new JsonDataSerializer();
+  }
+
+  @Override
+  public @NonNull String serialize(@NonNull Data data) {
+    StringBuilder out = new StringBuilder(PREFIX);
+
+    for (Map.Entry<String, String> entry : data.strings.entrySet()) {
+      writeKey(out, STRING, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+
+    for (Map.Entry<String, String[]> entry : data.stringArrays.entrySet()) {
+      writeKey(out, STRING_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (String value : entry.getValue()) {
+        writeString(out, value);
+      }
+    }
+
+    for (Map.Entry<String, Integer> entry : data.integers.entrySet()) {
+      writeKey(out, INTEGER, entry.getKey());
+      out.append(entry.getValue().intValue()).append(NUMBER_END);
+    }
+
+    for (Map.Entry<String, int[]> entry : data.integerArrays.entrySet()) {
+      writeKey(out, INTEGER_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (int value : entry.getValue()) {
+        out.append(value).append(NUMBER_END);
+      }
+    }
+
+    for (Map.Entry<String, Long> entry : data.longs.entrySet()) {
+      writeKey(out, LONG, entry.getKey());
+      out.append(entry.getValue().longValue()).append(NUMBER_END);
+    }
+
+    for (Map.Entry<String, long[]> entry : data.longArrays.entrySet()) {
+      writeKey(out, LONG_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (long value : entry.getValue()) {
+        out.append(value).append(NUMBER_END);
+      }
+    }
+
+    for (Map.Entry<String, Float> entry : data.floats.entrySet()) {
+      writeKey(out, FLOAT, entry.getKey());
+      out.append(entry.getValue().floatValue()).append(NUMBER_END);
+    }
+
+    for (Map.Entry<String, float[]> entry : data.floatArrays.entrySet()) {
+      writeKey(out, FLOAT_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (float value : entry.getValue()) {
+        out.append(value).append(NUMBER_END);
+      }
+    }
+
+    for (Map.Entry<String, Double> entry : data.doubles.entrySet()) {
+      writeKey(out, DOUBLE, entry.getKey());
+      out.append(entry.getValue().doubleValue()).append(NUMBER_END);
+    }
+
+    for (Map.Entry<String, double[]> entry : data.doubleArrays.entrySet()) {
+      writeKey(out, DOUBLE_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (double value : entry.getValue()) {
+        out.append(value).append(NUMBER_END);
+      }
+    }
+
+    for (Map.Entry<String, Boolean> entry : data.booleans.entrySet()) {
+      writeKey(out, BOOLEAN, entry.getKey());
+      out.append(entry.getValue() ? '1' : '0');
+    }
+
+    for (Map.Entry<String, boolean[]> entry : data.booleanArrays.entrySet()) {
+      writeKey(out, BOOLEAN_ARRAY, entry.getKey());
+      writeLength(out, entry.getValue().length);
+      for (boolean value : entry.getValue()) {
+        out.append(value ? '1' : '0');
+      }
+    }
+
+    return out.toString();
+  }
+
+  @Override
+  public @NonNull Data deserialize(@NonNull String serialized) {
+    if (!serialized.startsWith(PREFIX)) {
+      return legacySerializer.deserialize(serialized);
+    }
+
+    Reader       in      = new Reader(serialized, PREFIX.length());
+    Data.Builder builder = new Data.Builder();
+
+    while (in.hasMore()) {
+      char   type = in.readChar();
+      String key  = in.readString();
+
+      switch (type) {
+        case STRING:
+          builder.putString(key, in.readString());
+          break;
+        case STRING_ARRAY: {
+          String[] values = new String[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = in.readString();
+          }
+          builder.putStringArray(key, values);
+          break;
+        }
+        case INTEGER:
+          builder.putInt(key, Integer.parseInt(in.readNumber()));
+          break;
+        case INTEGER_ARRAY: {
+          int[] values = new int[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = Integer.parseInt(in.readNumber());
+          }
+          builder.putIntArray(key, values);
+          break;
+        }
+        case LONG:
+          builder.putLong(key, Long.parseLong(in.readNumber()));
+          break;
+        case LONG_ARRAY: {
+          long[] values = new long[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = Long.parseLong(in.readNumber());
+          }
+          builder.putLongArray(key, values);
+          break;
+        }
+        case FLOAT:
+          builder.putFloat(key, Float.parseFloat(in.readNumber()));
+          break;
+        case FLOAT_ARRAY: {
+          float[] values = new float[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = Float.parseFloat(in.readNumber());
+          }
+          builder.putFloatArray(key, values);
+          break;
+        }
+        case DOUBLE:
+          builder.putDouble(key, Double.parseDouble(in.readNumber()));
+          break;
+        case DOUBLE_ARRAY: {
+          double[] values = new double[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = Double.parseDouble(in.readNumber());
+          }
+          builder.putDoubleArray(key, values);
+          break;
+        }
+        case BOOLEAN:
+          builder.putBoolean(key, in.readChar() == '1');
+          break;
+        case BOOLEAN_ARRAY: {
+          boolean[] values = new boolean[in.readLength()];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = in.readChar() == '1';
+          }
+          builder.putBooleanArray(key, values);
+          break;
+        }
+        default:
+          throw new AssertionError("Unknown type '" + type + "' at position " + (in.position - 1));
+      }
+    }
+
+    return builder.build();
+  }
+
+  private static void writeKey(@NonNull StringBuilder out, char type, @NonNull String key) {
+    out.append(type);
+    writeString(out, key);
+  }
+
+  private static void writeString(@NonNull StringBuilder out, @Nullable String value) {
+    if (value == null) {
+      writeLength(out, -1);
+    } else {
+      writeLength(out, value.length());
+      out.append(value);
+    }
+  }
+
+  private static void writeLength(@NonNull StringBuilder out, int length) {
+    out.append(length).append(LENGTH_END);
+  }
+
+  private static final class Reader {
+    private final String source;
+    private       int    position;
+
+    private Reader(@NonNull String source, int position) {
+      this.source   = source;
+      this.position = position;
+    }
+
+    boolean hasMore() {
+      return position < source.length();
+    }
+
+    char readChar() {
+      return source.charAt(position++);
+    }
+
+    int readLength() {
+      int end    = indexOfOrThrow(LENGTH_END);
+      int length = Integer.parseInt(source.substring(position, end));
+
+      position = end + 1;
+      return length;
+    }
+
+    @Nullable String readString() {
+      int length = readLength();
+
+      if (length < 0) {
+        return null;
+      }
+
+      String value = source.substring(position, position + length);
+      position += length;
+      return value;
+    }
+
+    @NonNull String readNumber() {
+      int    end   = indexOfOrThrow(NUMBER_END);
+      String value = source.substring(position, end);
+
+      position = end + 1;
+      return value;
+    }
+
+    private int indexOfOrThrow(char c) {
+      int index = source.indexOf(c, position);
+      if (index < 0) {
+        throw new AssertionError("Unexpected end of data at position " + position);
+      }
+      return index;
+    }
+  }
+}
@@ -219,11 +219,13 @@ public final class AttachmentCompressionJob extends BaseJob {
           options = new TranscoderOptions(transformProperties.getVideoTrimStartTimeUs(), transformProperties.getVideoTrimEndTimeUs());
         }
 
-        if (FeatureFlags.useStreamingVideoMuxer() || !MemoryFileDescriptor.supported()) {
-          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, constraints.getCompressedVideoMaxSize(context));
+        boolean fragmented = FeatureFlags.useFragmentedVideoMuxer();
+
+        if (fragmented || FeatureFlags.useStreamingVideoMuxer() || !MemoryFileDescriptor.supported()) {
+          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, constraints.getCompressedVideoMaxSize(context), fragmented);
 
           if (transcoder.isTranscodeRequired()) {
-            Log.i(TAG, "Compressing with streaming muxer");
+            Log.i(TAG, "Compressing with streaming muxer" + (fragmented ? " (fragmented)" : ""));
             AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
 
             File file = DatabaseFactory.getAttachmentDatabase(context)
@@ -3,7 +3,6 @@ package org.thoughtcrime.securesms.jobs;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import org.signal.core.util.logging.Log;
@@ -18,32 +17,62 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory cache of the {@link JobDatabase} that keeps a set of indexes so the questions the
+ * {@link org.thoughtcrime.securesms.jobmanager.JobController} asks on every wake-up can be answered
+ * without walking (and sorting) every job:
+ *
+ * - Jobs are grouped by queue, each group ordered by creation.
+ * - The heads of each queue that are runnable (not running, no dependencies) are kept in a single
+ *   creation-ordered set.
+ * - Dependencies are indexed in both directions, so resolving a finished job only touches the jobs
+ *   that actually depended on it.
+ */
 public class FastJobStorage implements JobStorage {
 
   private static final String TAG = Log.tag(FastJobStorage.class);
 
   private final JobDatabase jobDatabase;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, JobSpec>              jobsById;
+  private final Map<String, Long>                 insertOrderById;
+  private final Map<String, TreeSet<JobSpec>>     jobsByQueue;
+  private final TreeSet<JobSpec>                  eligibleJobs;
+  private final Map<String, JobSpec>              eligibleJobByQueue;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private final Map<String, Set<String>>          dependentsByJobId;
+  private final Comparator<JobSpec>               createdOrder;
+
+  private long insertCount;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
     this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
+    this.jobsById            = new LinkedHashMap<>();
+    this.insertOrderById     = new HashMap<>();
+    this.jobsByQueue         = new HashMap<>();
     this.constraintsByJobId  = new HashMap<>();
     this.dependenciesByJobId = new HashMap<>();
+    this.dependentsByJobId   = new HashMap<>();
+    this.createdOrder        = (j1, j2) -> {
+      int result = Long.compare(j1.getCreateTime(), j2.getCreateTime());
+      return result != 0 ? result : Long.compare(insertOrderById.get(j1.getId()), insertOrderById.get(j2.getId()));
+    };
+    this.eligibleJobs        = new TreeSet<>(createdOrder);
+    this.eligibleJobByQueue  = new HashMap<>();
   }
 
   @Override
@@ -52,8 +81,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -61,9 +88,11 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
     }
   }
 
@@ -75,25 +104,24 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
       constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      addJob(fullSpec.getJobSpec());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobsById.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobsById.values());
   }
 
   @Override
@@ -105,70 +133,56 @@ public class FastJobStorage implements JobStorage {
     } else if (migrationJob.isPresent()) {
       return Collections.emptyList();
     } else {
-      return Stream.of(jobs)
-                   .groupBy(jobSpec -> {
-                     String queueKey = jobSpec.getQueueKey();
-                     if (queueKey != null) {
-                       return queueKey;
-                     } else {
-                       return jobSpec.getId();
-                     }
-                   })
-                   .map(byQueueKey ->
-                     Stream.of(byQueueKey.getValue()).sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                           .findFirst()
-                           .orElse(null)
-                   )
-                   .withoutNulls()
-                   .filter(j -> {
-                     List<DependencySpec> dependencies = dependenciesByJobId.get(j.getId());
-                     return dependencies == null || dependencies.isEmpty();
-                   })
-                   .filterNot(JobSpec::isRunning)
-                   .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                   .toList();
+      List<JobSpec> pending = new LinkedList<>();
+
+      for (JobSpec job : eligibleJobs) {
+        if (job.getNextRunAttemptTime() <= currentTime) {
+          pending.add(job);
+        }
+      }
+
+      return pending;
     }
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue) {
+    TreeSet<JobSpec> jobs = jobsByQueue.get(queue);
+
+    if (jobs == null) {
+      return Collections.emptyList();
+    }
+
     return Stream.of(jobs)
                  .filter(j -> queue.equals(j.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
                  .toList();
   }
 
   private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
-  }
+    TreeSet<JobSpec> migrationQueue = jobsByQueue.get(Job.Parameters.MIGRATION_QUEUE_KEY);
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+    if (migrationQueue == null || migrationQueue.isEmpty()) {
+      return Optional.absent();
     }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    return Optional.of(migrationQueue.first());
   }
 
   @Override
   public synchronized int getJobCountForFactory(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
+    return (int) Stream.of(jobsById.values())
                        .filter(j -> j.getFactoryKey().equals(factoryKey))
                        .count();
   }
 
   @Override
   public synchronized int getJobCountForFactoryAndQueue(@NonNull String factoryKey, @NonNull String queueKey) {
+    TreeSet<JobSpec> jobs = jobsByQueue.get(queueKey);
+
+    if (jobs == null) {
+      return 0;
+    }
+
     return (int) Stream.of(jobs)
                        .filter(j -> factoryKey.equals(j.getFactoryKey()) &&
                                     queueKey.equals(j.getQueueKey()))
@@ -176,66 +190,61 @@ public class FastJobStorage implements JobStorage {
   }
 
   @Override
-  public boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
-    return Stream.of(jobs)
-                 .noneMatch(j -> j.getQueueKey() != null && queueKeys.contains(j.getQueueKey()));
+  public synchronized boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
+    for (String queueKey : queueKeys) {
+      TreeSet<JobSpec> jobs = jobsByQueue.get(queueKey);
+
+      if (jobs != null && !jobs.isEmpty() && queueKey.equals(jobs.first().getQueueKey())) {
+        return false;
+      }
+    }
+
+    return true;
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
-    JobSpec job = getJobById(id);
-    if (job == null || !job.isMemoryOnly()) {
+    JobSpec existing = getJobById(id);
+    if (existing == null || !existing.isMemoryOnly()) {
       jobDatabase.updateJobRunningState(id, isRunning);
     }
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      existing.getSerializedData(),
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
-      }
+    if (existing != null) {
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             existing.getNextRunAttemptTime(),
+                             existing.getRunAttempt(),
+                             existing.getMaxAttempts(),
+                             existing.getLifespan(),
+                             existing.getSerializedData(),
+                             existing.getSerializedInputData(),
+                             isRunning,
+                             existing.isMemoryOnly()));
     }
   }
 
   @Override
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
-    JobSpec job = getJobById(id);
-    if (job == null || !job.isMemoryOnly()) {
+    JobSpec existing = getJobById(id);
+    if (existing == null || !existing.isMemoryOnly()) {
       jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
     }
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      serializedData,
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
-      }
+    if (existing != null) {
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             nextRunAttemptTime,
+                             runAttempt,
+                             existing.getMaxAttempts(),
+                             existing.getLifespan(),
+                             serializedData,
+                             existing.getSerializedInputData(),
+                             isRunning,
+                             existing.isMemoryOnly()));
     }
   }
 
@@ -243,28 +252,24 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending();
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getLifespan(),
-                                     existing.getSerializedData(),
-                                     existing.getSerializedInputData(),
-                                     false,
-                                     existing.isMemoryOnly());
-      iter.set(updated);
+    for (JobSpec existing : new ArrayList<>(jobsById.values())) {
+      replaceJob(new JobSpec(existing.getId(),
+                             existing.getFactoryKey(),
+                             existing.getQueueKey(),
+                             existing.getCreateTime(),
+                             existing.getNextRunAttemptTime(),
+                             existing.getRunAttempt(),
+                             existing.getMaxAttempts(),
+                             existing.getLifespan(),
+                             existing.getSerializedData(),
+                             existing.getSerializedInputData(),
+                             false,
+                             existing.isMemoryOnly()));
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
     List<JobSpec> durable = new ArrayList<>(jobSpecs.size());
     for (JobSpec update : jobSpecs) {
       JobSpec found = getJobById(update.getId());
@@ -277,15 +282,9 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.updateJobs(durable);
     }
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
-
-      if (update != null) {
-        iter.set(update);
+    for (JobSpec update : jobSpecs) {
+      if (jobsById.containsKey(update.getId())) {
+        replaceJob(update);
       }
     }
   }
@@ -309,29 +308,65 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.deleteJobs(durableIds);
     }
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    Set<String> affectedQueues = new HashSet<>();
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+    for (String jobId : jobIds) {
+      JobSpec job = jobsById.remove(jobId);
+
+      if (job != null) {
+        String           queueKey = getEffectiveQueueKey(job);
+        TreeSet<JobSpec> queue    = jobsByQueue.get(queueKey);
+
+        if (queue != null) {
+          queue.remove(job);
+          if (queue.isEmpty()) {
+            jobsByQueue.remove(queueKey);
+          }
+        }
+
+        updateEligibility(queueKey);
+
+        insertOrderById.remove(jobId);
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          Set<String> dependents = dependentsByJobId.get(dependency.getDependsOnJobId());
+          if (dependents != null) {
+            dependents.remove(jobId);
+          }
+        }
+      }
+
+      Set<String> dependents = dependentsByJobId.remove(jobId);
+      if (dependents != null) {
+        for (String dependentId : dependents) {
+          List<DependencySpec> dependentDependencies = dependenciesByJobId.get(dependentId);
+          if (dependentDependencies == null) {
+            continue;
+          }
+
+          Iterator<DependencySpec> dependencyIter = dependentDependencies.iterator();
+          while (dependencyIter.hasNext()) {
+            if (dependencyIter.next().getDependsOnJobId().equals(jobId)) {
+              dependencyIter.remove();
+            }
+          }
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
+          JobSpec dependent = jobsById.get(dependentId);
+          if (dependent != null) {
+            affectedQueues.add(getEffectiveQueueKey(dependent));
           }
         }
       }
     }
+
+    for (String queueKey : affectedQueues) {
+      updateEligibility(queueKey);
+    }
   }
 
   @Override
@@ -355,7 +390,10 @@ public class FastJobStorage implements JobStorage {
     Set<String> activeJobIds;
 
     do {
-      activeJobIds = Stream.of(layer).map(DependencySpec::getJobId).collect(Collectors.toSet());
+      activeJobIds = new LinkedHashSet<>();
+      for (DependencySpec dependencySpec : layer) {
+        activeJobIds.add(dependencySpec.getJobId());
+      }
       layer.clear();
 
       for (String activeJobId : activeJobIds) {
@@ -369,28 +407,119 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    Set<String> dependents = dependentsByJobId.get(jobSpecId);
+
+    if (dependents == null) {
+      return new LinkedList<>();
+    }
+
+    List<DependencySpec> layer = new LinkedList<>();
+
+    for (String dependentId : dependents) {
+      for (DependencySpec dependencySpec : Util.getOrDefault(dependenciesByJobId, dependentId, Collections.emptyList())) {
+        if (dependencySpec.getDependsOnJobId().equals(jobSpecId)) {
+          layer.add(dependencySpec);
+        }
+      }
+    }
+
+    return layer;
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
                  .toList();
   }
 
-  private JobSpec getJobById(@NonNull String id) {
-    for (JobSpec job : jobs) {
-      if (job.getId().equals(id)) {
-        return job;
+  private void addJob(@NonNull JobSpec job) {
+    String           queueKey = getEffectiveQueueKey(job);
+    TreeSet<JobSpec> queue    = Util.getOrDefault(jobsByQueue, queueKey, new TreeSet<>(createdOrder));
+
+    insertOrderById.put(job.getId(), insertCount++);
+    jobsById.put(job.getId(), job);
+
+    queue.add(job);
+    jobsByQueue.put(queueKey, queue);
+
+    updateEligibility(queueKey);
+  }
+
+  /**
+   * Swaps in a new version of an existing job. The create time and id can't change, so the job keeps
+   * its position in every ordered index. The queue key can change (job migrations rewrite them), in
+   * which case the job moves to its new queue and both queues' heads are re-evaluated.
+   */
+  private void replaceJob(@NonNull JobSpec job) {
+    JobSpec previous         = jobsById.put(job.getId(), job);
+    String  queueKey         = getEffectiveQueueKey(job);
+    String  previousQueueKey = previous != null ? getEffectiveQueueKey(previous) : queueKey;
+
+    TreeSet<JobSpec> previousQueue = jobsByQueue.get(previousQueueKey);
+    if (previousQueue != null) {
+      previousQueue.remove(previous != null ? previous : job);
+      if (previousQueue.isEmpty()) {
+        jobsByQueue.remove(previousQueueKey);
       }
     }
-    Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
-    return null;
+
+    TreeSet<JobSpec> queue = Util.getOrDefault(jobsByQueue, queueKey, new TreeSet<>(createdOrder));
+    queue.add(job);
+    jobsByQueue.put(queueKey, queue);
+
+    if (!previousQueueKey.equals(queueKey)) {
+      updateEligibility(previousQueueKey);
+    }
+
+    updateEligibility(queueKey);
+  }
+
+  private void addDependency(@NonNull DependencySpec dependencySpec) {
+    List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
+    jobDependencies.add(dependencySpec);
+    dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+
+    Set<String> dependents = Util.getOrDefault(dependentsByJobId, dependencySpec.getDependsOnJobId(), new LinkedHashSet<>());
+    dependents.add(dependencySpec.getJobId());
+    dependentsByJobId.put(dependencySpec.getDependsOnJobId(), dependents);
+  }
+
+  /**
+   * Only the first job in a queue can ever run. This makes sure that job is in {@link #eligibleJobs}
+   * if (and only if) it's runnable, and that no other job from the queue is.
+   */
+  private void updateEligibility(@NonNull String queueKey) {
+    JobSpec previous = eligibleJobByQueue.remove(queueKey);
+    if (previous != null) {
+      eligibleJobs.remove(previous);
+    }
+
+    TreeSet<JobSpec> queue = jobsByQueue.get(queueKey);
+
+    if (queue == null || queue.isEmpty()) {
+      return;
+    }
+
+    JobSpec              head         = queue.first();
+    List<DependencySpec> dependencies = dependenciesByJobId.get(head.getId());
+
+    if (!head.isRunning() && (dependencies == null || dependencies.isEmpty())) {
+      eligibleJobs.add(head);
+      eligibleJobByQueue.put(queueKey, head);
+    }
+  }
+
+  private static @NonNull String getEffectiveQueueKey(@NonNull JobSpec job) {
+    return job.getQueueKey() != null ? job.getQueueKey() : job.getId();
+  }
+
+  private JobSpec getJobById(@NonNull String id) {
+    JobSpec job = jobsById.get(id);
+    if (job == null) {
+      Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
+    }
+    return job;
   }
 }
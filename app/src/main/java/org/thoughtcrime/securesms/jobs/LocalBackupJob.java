@@ -2,22 +2,31 @@ package org.thoughtcrime.securesms.jobs;
 
 
 import android.Manifest;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import net.sqlcipher.database.SQLiteDatabase;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
+import org.thoughtcrime.securesms.backup.BackupIncrement;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.backup.FullBackupExporter;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.NoExternalStorageException;
+import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.ChargingConstraint;
+import org.thoughtcrime.securesms.keyvalue.BackupValues;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.service.GenericForegroundService;
@@ -42,6 +51,13 @@ public final class LocalBackupJob extends BaseJob {
   public static final String TEMP_BACKUP_FILE_PREFIX = ".backup";
   public static final String TEMP_BACKUP_FILE_SUFFIX = ".tmp";
 
+  /**
+   * How many deltas can be added to a chain before we write a new base. This bounds both the
+   * amount of work to restore, and how much space is taken up by blobs that are no longer needed.
+   */
+  @VisibleForTesting
+  static final int MAX_DELTAS_PER_CHAIN = 6;
+
   public static void enqueue(boolean force) {
     JobManager         jobManager = ApplicationDependencies.getJobManager();
     Parameters.Builder parameters = new Parameters.Builder()
@@ -92,11 +108,13 @@ public final class LocalBackupJob extends BaseJob {
     {
       notification.setIndeterminateProgress();
 
-      String backupPassword  = BackupPassphrase.get(context);
-      File   backupDirectory = StorageUtil.getOrCreateBackupDirectory();
-      String timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
-      String fileName        = String.format("signal-%s.backup", timestamp);
-      File   backupFile      = new File(backupDirectory, fileName);
+      String          backupPassword  = BackupPassphrase.get(context);
+      File            backupDirectory = StorageUtil.getOrCreateBackupDirectory();
+      String          timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+      BackupIncrement increment       = getNextIncrement(SignalStore.backup(), backupDirectory, timestamp);
+      String          fileName        = increment.isBase() ? BackupUtil.getBackupFileName(timestamp)
+                                                           : BackupUtil.getDeltaFileName(increment.getChainId(), increment.getSequence());
+      File            backupFile      = new File(backupDirectory, fileName);
 
       deleteOldTemporaryBackups(backupDirectory);
 
@@ -108,20 +126,29 @@ public final class LocalBackupJob extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
-      File tempFile = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
+      File           tempFile            = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
+      SQLiteDatabase database            = DatabaseFactory.getBackupDatabase(context);
+      long           backupTime          = System.currentTimeMillis();
+      long           attachmentWatermark = getHighestRowId(database, AttachmentDatabase.TABLE_NAME, AttachmentDatabase.ROW_ID);
+      long           stickerWatermark    = getHighestRowId(database, StickerDatabase.TABLE_NAME, StickerDatabase._ID);
+
+      Log.i(TAG, increment.isBase() ? "Writing a new base backup." : "Writing delta " + increment.getSequence() + " of " + increment.getChainId());
 
       try {
         FullBackupExporter.export(context,
                                   AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                  DatabaseFactory.getBackupDatabase(context),
+                                  database,
                                   tempFile,
                                   backupPassword,
+                                  increment,
                                   this::isCanceled);
 
         if (!tempFile.renameTo(backupFile)) {
           Log.w(TAG, "Failed to rename temp file");
           throw new IOException("Renaming temporary backup file failed!");
         }
+
+        SignalStore.backup().onChainExtended(increment.getChainId(), increment.getSequence() + 1, attachmentWatermark, stickerWatermark, backupTime);
       } catch (FullBackupExporter.BackupCanceledException e) {
         Log.w(TAG, "Backup cancelled");
         throw e;
@@ -142,6 +169,43 @@ public final class LocalBackupJob extends BaseJob {
     }
   }
 
+  /**
+   * Continues the current chain if every file in it is still around, otherwise starts a new one.
+   */
+  @VisibleForTesting
+  static @NonNull BackupIncrement getNextIncrement(@NonNull BackupValues values, @NonNull File backupDirectory, @NonNull String timestamp) {
+    String chainId = values.getChainId();
+    int    length  = values.getChainLength();
+
+    if (chainId == null || length == 0 || length > MAX_DELTAS_PER_CHAIN) {
+      return BackupIncrement.base(timestamp);
+    }
+
+    if (!new File(backupDirectory, BackupUtil.getBackupFileName(chainId)).exists()) {
+      Log.w(TAG, "Base of the current chain is missing. Starting a new chain.");
+      return BackupIncrement.base(timestamp);
+    }
+
+    for (int sequence = 1; sequence < length; sequence++) {
+      if (!new File(backupDirectory, BackupUtil.getDeltaFileName(chainId, sequence)).exists()) {
+        Log.w(TAG, "Delta " + sequence + " of the current chain is missing. Starting a new chain.");
+        return BackupIncrement.base(timestamp);
+      }
+    }
+
+    return BackupIncrement.delta(chainId, length, values.getAttachmentWatermark(), values.getStickerWatermark(), values.getLastBackupTime());
+  }
+
+  private static long getHighestRowId(@NonNull SQLiteDatabase database, @NonNull String table, @NonNull String column) {
+    try (Cursor cursor = database.rawQuery("SELECT MAX(" + column + ") FROM " + table, null)) {
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return -1;
+  }
+
   private static void deleteOldTemporaryBackups(@NonNull File backupDirectory) {
     for (File file : backupDirectory.listFiles()) {
       if (file.isFile()) {
@@ -4,13 +4,18 @@ import android.app.PendingIntent;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.MainActivity;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
+import org.thoughtcrime.securesms.crypto.ReentrantSessionLock;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -19,15 +24,23 @@ import org.thoughtcrime.securesms.messages.MessageDecryptionUtil;
 import org.thoughtcrime.securesms.messages.MessageDecryptionUtil.DecryptionResult;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Decrypts an envelope. Enqueues a separate job, {@link PushProcessMessageJob}, to actually insert
- * the result into our database.
+ * Decrypts an envelope, or a batch of envelopes. Enqueues a separate job, {@link PushProcessMessageJob},
+ * to actually insert the result into our database.
+ *
+ * When given a batch, all envelopes are decrypted under a single acquisition of the session lock
+ * and inside a single database transaction, and all of the resulting jobs are enqueued together.
+ * This keeps the per-envelope overhead low when draining a large backlog of messages.
  */
 public final class PushDecryptMessageJob extends BaseJob {
 
@@ -36,33 +49,62 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   public static final String TAG = Log.tag(PushDecryptMessageJob.class);
 
+  /** The maximum number of envelopes that will be put in a single job. */
+  public static final int MAX_BATCH_SIZE = 50;
+
   private static final String KEY_SMS_MESSAGE_ID = "sms_message_id";
   private static final String KEY_ENVELOPE       = "envelope";
+  private static final String KEY_ENVELOPES      = "envelopes";
 
-  private final long                  smsMessageId;
-  private final SignalServiceEnvelope envelope;
+  private final long                        smsMessageId;
+  private final List<SignalServiceEnvelope> envelopes;
 
   public PushDecryptMessageJob(Context context, @NonNull SignalServiceEnvelope envelope) {
     this(context, envelope, -1);
   }
 
   public PushDecryptMessageJob(Context context, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
+    this(context, Collections.singletonList(envelope), smsMessageId);
+  }
+
+  /**
+   * Creates a single job that will decrypt all of the provided envelopes in order. The batch must
+   * contain no more than {@link #MAX_BATCH_SIZE} envelopes.
+   */
+  public PushDecryptMessageJob(Context context, @NonNull List<SignalServiceEnvelope> envelopes) {
+    this(context, envelopes, -1);
+  }
+
+  private PushDecryptMessageJob(Context context, @NonNull List<SignalServiceEnvelope> envelopes, long smsMessageId) {
     this(new Parameters.Builder()
                            .setQueue(QUEUE)
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
-         envelope,
+         envelopes,
          smsMessageId);
     setContext(context);
   }
 
-  private PushDecryptMessageJob(@NonNull Parameters parameters, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
+  private PushDecryptMessageJob(@NonNull Parameters parameters, @NonNull List<SignalServiceEnvelope> envelopes, long smsMessageId) {
     super(parameters);
 
-    this.envelope     = envelope;
+    if (envelopes.isEmpty() || envelopes.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("Invalid batch size: " + envelopes.size());
+    }
+
+    if (envelopes.size() > 1 && smsMessageId != -1) {
+      throw new IllegalArgumentException("An smsMessageId can only be associated with a single envelope!");
+    }
+
+    this.envelopes    = new ArrayList<>(envelopes);
     this.smsMessageId = smsMessageId;
   }
 
+  @VisibleForTesting
+  public @NonNull List<SignalServiceEnvelope> getEnvelopes() {
+    return Collections.unmodifiableList(envelopes);
+  }
+
   @Override
   protected boolean shouldTrace() {
     return true;
@@ -70,9 +112,21 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   @Override
   public @NonNull Data serialize() {
-    return new Data.Builder().putBlobAsString(KEY_ENVELOPE, envelope.serialize())
-                             .putLong(KEY_SMS_MESSAGE_ID, smsMessageId)
-                             .build();
+    Data.Builder builder = new Data.Builder().putLong(KEY_SMS_MESSAGE_ID, smsMessageId);
+
+    if (envelopes.size() == 1) {
+      builder.putBlobAsString(KEY_ENVELOPE, envelopes.get(0).serialize());
+    } else {
+      String[] serialized = new String[envelopes.size()];
+
+      for (int i = 0; i < serialized.length; i++) {
+        serialized[i] = Base64.encodeBytes(envelopes.get(i).serialize());
+      }
+
+      builder.putStringArray(KEY_ENVELOPES, serialized);
+    }
+
+    return builder.build();
   }
 
   @Override
@@ -88,19 +142,36 @@ public final class PushDecryptMessageJob extends BaseJob {
       throw new RetryLaterException();
     }
 
-    List<Job>        jobs = new LinkedList<>();
-    DecryptionResult result = MessageDecryptionUtil.decrypt(context, envelope);
+    List<Job>      jobs = new LinkedList<>();
+    SQLiteDatabase db   = DatabaseFactory.getInstance(context).getRawDatabase();
+
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+      db.beginTransaction();
+      try {
+        for (SignalServiceEnvelope envelope : envelopes) {
+          DecryptionResult result = MessageDecryptionUtil.decrypt(context, envelope);
 
-    if (result.getContent() != null) {
-      jobs.add(new PushProcessMessageJob(result.getContent(), smsMessageId, envelope.getTimestamp()));
-    } else if (result.getException() != null && result.getState() != MessageState.NOOP) {
-      jobs.add(new PushProcessMessageJob(result.getState(), result.getException(), smsMessageId, envelope.getTimestamp()));
+          if (result.getContent() != null) {
+            jobs.add(new PushProcessMessageJob(result.getContent(), smsMessageId, envelope.getTimestamp()));
+          } else if (result.getException() != null && result.getState() != MessageState.NOOP) {
+            jobs.add(new PushProcessMessageJob(result.getState(), result.getException(), smsMessageId, envelope.getTimestamp()));
+          }
+
+          jobs.addAll(result.getJobs());
+        }
+
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
     }
 
-    jobs.addAll(result.getJobs());
+    if (envelopes.size() > 1) {
+      Log.d(TAG, "Decrypted a batch of " + envelopes.size() + " envelopes, producing " + jobs.size() + " job(s).");
+    }
 
-    for (Job job: jobs) {
-      ApplicationDependencies.getJobManager().add(job);
+    if (!jobs.isEmpty()) {
+      ApplicationDependencies.getJobManager().startChain(jobs).enqueue();
     }
   }
 
@@ -134,9 +205,17 @@ public final class PushDecryptMessageJob extends BaseJob {
   public static final class Factory implements Job.Factory<PushDecryptMessageJob> {
     @Override
     public @NonNull PushDecryptMessageJob create(@NonNull Parameters parameters, @NonNull Data data) {
-      return new PushDecryptMessageJob(parameters,
-                                       SignalServiceEnvelope.deserialize(data.getStringAsBlob(KEY_ENVELOPE)),
-                                       data.getLong(KEY_SMS_MESSAGE_ID));
+      List<SignalServiceEnvelope> envelopes = new ArrayList<>();
+
+      if (data.hasStringArray(KEY_ENVELOPES)) {
+        for (String serialized : data.getStringArray(KEY_ENVELOPES)) {
+          envelopes.add(SignalServiceEnvelope.deserialize(Base64.decodeOrThrow(serialized)));
+        }
+      } else {
+        envelopes.add(SignalServiceEnvelope.deserialize(data.getStringAsBlob(KEY_ENVELOPE)));
+      }
+
+      return new PushDecryptMessageJob(parameters, envelopes, data.getLong(KEY_SMS_MESSAGE_ID));
     }
   }
 }
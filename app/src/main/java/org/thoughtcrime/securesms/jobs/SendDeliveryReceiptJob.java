@@ -22,24 +22,31 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.push.exceptions.ServerRejectedException;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class SendDeliveryReceiptJob extends BaseJob {
 
   public static final String KEY = "SendDeliveryReceiptJob";
 
-  private static final String KEY_RECIPIENT  = "recipient";
-  private static final String KEY_MESSAGE_ID = "message_id";
-  private static final String KEY_TIMESTAMP  = "timestamp";
+  private static final String KEY_RECIPIENT   = "recipient";
+  private static final String KEY_MESSAGE_ID  = "message_id";
+  private static final String KEY_MESSAGE_IDS = "message_ids";
+  private static final String KEY_TIMESTAMP   = "timestamp";
 
-  private static final String TAG = Log.tag(SendReadReceiptJob.class);
+  private static final String TAG = Log.tag(SendDeliveryReceiptJob.class);
 
-  private RecipientId recipientId;
-  private long        messageId;
-  private long        timestamp;
+  /**
+   * The most message ids one receipt can carry, same as for read receipts.
+   */
+  public static final int MAX_MESSAGE_IDS = SendReadReceiptJob.MAX_TIMESTAMPS;
 
-  public SendDeliveryReceiptJob(@NonNull RecipientId recipientId, long messageId) {
+  private final RecipientId recipientId;
+  private final List<Long>  messageIds;
+  private final long        timestamp;
+
+  public SendDeliveryReceiptJob(@NonNull RecipientId recipientId, @NonNull List<Long> messageIds) {
     this(new Job.Parameters.Builder()
                            .addConstraint(NetworkConstraint.KEY)
                            .setLifespan(TimeUnit.DAYS.toMillis(1))
@@ -47,26 +54,31 @@ public class SendDeliveryReceiptJob extends BaseJob {
                            .setQueue(recipientId.toQueueKey())
                            .build(),
          recipientId,
-         messageId,
+         SendReadReceiptJob.ensureSize(messageIds, MAX_MESSAGE_IDS),
          System.currentTimeMillis());
   }
 
   private SendDeliveryReceiptJob(@NonNull Job.Parameters parameters,
                                  @NonNull RecipientId recipientId,
-                                 long messageId,
+                                 @NonNull List<Long> messageIds,
                                  long timestamp)
   {
     super(parameters);
 
     this.recipientId = recipientId;
-    this.messageId   = messageId;
+    this.messageIds  = messageIds;
     this.timestamp   = timestamp;
   }
 
   @Override
   public @NonNull Data serialize() {
+    long[] ids = new long[messageIds.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = messageIds.get(i);
+    }
+
     return new Data.Builder().putString(KEY_RECIPIENT, recipientId.serialize())
-                             .putLong(KEY_MESSAGE_ID, messageId)
+                             .putLongArray(KEY_MESSAGE_IDS, ids)
                              .putLong(KEY_TIMESTAMP, timestamp)
                              .build();
   }
@@ -86,7 +98,7 @@ public class SendDeliveryReceiptJob extends BaseJob {
     Recipient                   recipient      = Recipient.resolved(recipientId);
     SignalServiceAddress        remoteAddress  = RecipientUtil.toSignalServiceAddress(context, recipient);
     SignalServiceReceiptMessage receiptMessage = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.DELIVERY,
-                                                                                 Collections.singletonList(messageId),
+                                                                                 messageIds,
                                                                                  timestamp);
 
     messageSender.sendReceipt(remoteAddress,
@@ -103,15 +115,25 @@ public class SendDeliveryReceiptJob extends BaseJob {
 
   @Override
   public void onFailure() {
-    Log.w(TAG, "Failed to send delivery receipt to: " + recipientId);
+    Log.w(TAG, "Failed to send " + messageIds.size() + " delivery receipt(s) to: " + recipientId);
   }
 
   public static final class Factory implements Job.Factory<SendDeliveryReceiptJob> {
     @Override
     public @NonNull SendDeliveryReceiptJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      List<Long> messageIds = new ArrayList<>();
+
+      if (data.hasLongArray(KEY_MESSAGE_IDS)) {
+        for (long id : data.getLongArray(KEY_MESSAGE_IDS)) {
+          messageIds.add(id);
+        }
+      } else {
+        messageIds.add(data.getLong(KEY_MESSAGE_ID));
+      }
+
       return new SendDeliveryReceiptJob(parameters,
                                         RecipientId.from(data.getString(KEY_RECIPIENT)),
-                                        data.getLong(KEY_MESSAGE_ID),
+                                        messageIds,
                                         data.getLong(KEY_TIMESTAMP));
     }
   }
@@ -0,0 +1,93 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the state of the current chain of incremental local backups -- which base file the chain
+ * started from, how many files are in it, and what the last file in the chain already contained.
+ */
+public final class BackupValues extends SignalStoreValues {
+
+  private static final String KEY_CHAIN_ID             = "backup.chain_id";
+  private static final String KEY_CHAIN_LENGTH         = "backup.chain_length";
+  private static final String KEY_ATTACHMENT_WATERMARK = "backup.attachment_watermark";
+  private static final String KEY_STICKER_WATERMARK    = "backup.sticker_watermark";
+  private static final String KEY_LAST_BACKUP_TIME     = "backup.last_backup_time";
+
+  BackupValues(@NonNull KeyValueStore store) {
+    super(store);
+  }
+
+  @Override
+  void onFirstEverAppLaunch() {
+  }
+
+  @Override
+  @NonNull List<String> getKeysToIncludeInBackup() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return The id of the chain the next incremental backup should be added to, or null if the
+   *         next backup needs to be a new base.
+   */
+  public @Nullable String getChainId() {
+    return getString(KEY_CHAIN_ID, null);
+  }
+
+  /**
+   * @return The number of files in the current chain, including the base.
+   */
+  public int getChainLength() {
+    return getInteger(KEY_CHAIN_LENGTH, 0);
+  }
+
+  /**
+   * @return The highest attachment row id included in the chain so far.
+   */
+  public long getAttachmentWatermark() {
+    return getLong(KEY_ATTACHMENT_WATERMARK, -1);
+  }
+
+  /**
+   * @return The highest sticker row id included in the chain so far.
+   */
+  public long getStickerWatermark() {
+    return getLong(KEY_STICKER_WATERMARK, -1);
+  }
+
+  /**
+   * @return The time the last file in the chain was started. Any blob modified after this needs to
+   *         be included in the next file.
+   */
+  public long getLastBackupTime() {
+    return getLong(KEY_LAST_BACKUP_TIME, 0);
+  }
+
+  public void onChainExtended(@NonNull String chainId, int chainLength, long attachmentWatermark, long stickerWatermark, long backupTime) {
+    getStore().beginWrite()
+              .putString(KEY_CHAIN_ID, chainId)
+              .putInteger(KEY_CHAIN_LENGTH, chainLength)
+              .putLong(KEY_ATTACHMENT_WATERMARK, attachmentWatermark)
+              .putLong(KEY_STICKER_WATERMARK, stickerWatermark)
+              .putLong(KEY_LAST_BACKUP_TIME, backupTime)
+              .apply();
+  }
+
+  /**
+   * Forces the next backup to be a new base.
+   */
+  public void clearChain() {
+    getStore().beginWrite()
+              .remove(KEY_CHAIN_ID)
+              .remove(KEY_CHAIN_LENGTH)
+              .remove(KEY_ATTACHMENT_WATERMARK)
+              .remove(KEY_STICKER_WATERMARK)
+              .remove(KEY_LAST_BACKUP_TIME)
+              .apply();
+  }
+}
@@ -0,0 +1,13 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+
+/**
+ * Where a {@link KeyValueStore} loads its data from and writes its changes back to.
+ */
+public interface KeyValuePersistentStorage {
+  void writeDataSet(@NonNull KeyValueDataSet dataSet, @NonNull Collection<String> removes);
+  @NonNull KeyValueDataSet getDataSet();
+}
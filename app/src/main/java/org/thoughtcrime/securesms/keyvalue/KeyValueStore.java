@@ -26,8 +26,11 @@ import java.util.concurrent.ExecutorService;
  * encrypted database.
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
+ * Reads never lock. They go to an immutable snapshot of the data, which is replaced whenever a
+ * write is applied.
  *
- * Writes are enqueued on a separate executor, but writes are finished up in
+ * Writes are enqueued on a separate executor, where any that arrive within a short window are
+ * combined into a single transaction. Writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
  * or the system killing us unexpectedly (i.e. a force-stop).
  */
@@ -35,63 +38,70 @@ public final class KeyValueStore implements KeyValueReader {
 
   private static final String TAG = Log.tag(KeyValueStore.class);
 
-  private final ExecutorService  executor;
-  private final KeyValueDatabase database;
+  /** How long to wait for more writes to arrive before writing to disk. */
+  private static final long WRITE_COALESCE_WINDOW = 50;
 
-  private KeyValueDataSet dataSet;
+  private final ExecutorService           executor;
+  private final KeyValuePersistentStorage storage;
+  private final Object                    writeLock = new Object();
+
+  private volatile KeyValueDataSet dataSet;
+
+  private KeyValueDataSet pendingWrites  = new KeyValueDataSet();
+  private Set<String>     pendingRemoves = new HashSet<>();
+  private boolean         flushScheduled;
+  private boolean         flushRequested;
 
   public KeyValueStore(@NonNull Application application) {
+    this(KeyValueDatabase.getInstance(application));
+  }
+
+  @VisibleForTesting
+  KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
     this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore");
-    this.database = KeyValueDatabase.getInstance(application);
+    this.storage  = storage;
   }
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getSnapshot().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getSnapshot().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getSnapshot().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getSnapshot().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getSnapshot().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getSnapshot().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return getSnapshot().containsKey(key);
   }
 
   /**
@@ -105,24 +115,25 @@ public final class KeyValueStore implements KeyValueReader {
 
   /**
    * @return A reader that lets you read from an immutable snapshot of the store, ensuring that data
-   *         is consistent between reads. If you're only reading a single value, it is more
-   *         efficient to use the various get* methods instead.
+   *         is consistent between reads.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getSnapshot();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
+    synchronized (writeLock) {
+      if (flushScheduled) {
+        flushRequested = true;
+        writeLock.notifyAll();
+      }
+    }
+
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -139,23 +150,94 @@ public final class KeyValueStore implements KeyValueReader {
    * Should only be used for testing!
    */
   @VisibleForTesting
-  synchronized void resetCache() {
-    dataSet = null;
-    initializeIfNecessary();
+  void resetCache() {
+    blockUntilAllWritesFinished();
+
+    synchronized (writeLock) {
+      dataSet = storage.getDataSet();
+    }
+  }
+
+  /**
+   * Every write replaces the snapshot with a full copy of the data. The copy is made outside of
+   * {@link #writeLock}, so a large store doesn't hold up other writers or the flush. If another
+   * write lands in the meantime, the copy is thrown away and made again from the newer snapshot.
+   */
+  private void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
+    while (true) {
+      KeyValueDataSet base    = getSnapshot();
+      KeyValueDataSet updated = new KeyValueDataSet();
+
+      updated.putAll(base);
+      updated.putAll(newDataSet);
+      updated.removeAll(removes);
+
+      synchronized (writeLock) {
+        if (dataSet != base) {
+          continue;
+        }
+
+        dataSet = updated;
+
+        pendingWrites.putAll(newDataSet);
+        pendingWrites.removeAll(removes);
+        pendingRemoves.removeAll(newDataSet.getValues().keySet());
+        pendingRemoves.addAll(removes);
+
+        if (!flushScheduled) {
+          flushScheduled = true;
+          executor.execute(this::flushPendingWrites);
+        }
+
+        return;
+      }
+    }
   }
 
-  private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
-    initializeIfNecessary();
+  /**
+   * Waits out the coalescing window, unless someone is blocking on the writes, and then writes
+   * everything that was applied in the meantime in one transaction.
+   */
+  private void flushPendingWrites() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
+
+    synchronized (writeLock) {
+      long deadline = System.currentTimeMillis() + WRITE_COALESCE_WINDOW;
+      long remaining;
+
+      while (!flushRequested && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          writeLock.wait(remaining);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+      writes         = pendingWrites;
+      removes        = pendingRemoves;
+      pendingWrites  = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+      flushScheduled = false;
+      flushRequested = false;
+    }
 
-    executor.execute(() -> database.writeDataSet(newDataSet, removes));
+    storage.writeDataSet(writes, removes);
   }
 
-  private void initializeIfNecessary() {
-    if (dataSet != null) return;
-    this.dataSet = database.getDataSet();
+  private @NonNull KeyValueDataSet getSnapshot() {
+    KeyValueDataSet snapshot = dataSet;
+
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    synchronized (writeLock) {
+      if (dataSet == null) {
+        dataSet = storage.getDataSet();
+      }
+      return dataSet;
+    }
   }
 
   class Writer {
@@ -44,6 +44,7 @@ public final class PaymentsValues extends SignalStoreValues {
   private static final String PAYMENTS_ENTROPY          = "payments_entropy";
   private static final String MOB_PAYMENTS_ENABLED      = "mob_payments_enabled";
   private static final String MOB_LEDGER                = "mob_ledger";
+  private static final String MOB_LEDGER_CHECKPOINT     = "mob_ledger_checkpoint";
   private static final String PAYMENTS_CURRENT_CURRENCY = "payments_current_currency";
   private static final String DEFAULT_CURRENCY_CODE     = "GBP";
   private static final String USER_CONFIRMED_MNEMONIC   = "mob_payments_user_confirmed_mnemonic";
@@ -298,6 +299,20 @@ public final class PaymentsValues extends SignalStoreValues {
     }
   }
 
+  /**
+   * What {@link org.thoughtcrime.securesms.payments.reconciliation.LedgerReconcile} has reconciled
+   * of the ledger so far. Derived from the ledger and local payments, so not backed up.
+   */
+  public @Nullable byte[] getLedgerCheckpoint() {
+    return getStore().getBlob(MOB_LEDGER_CHECKPOINT, null);
+  }
+
+  public void setLedgerCheckpoint(@NonNull byte[] checkpoint) {
+    getStore().beginWrite()
+              .putBlob(MOB_LEDGER_CHECKPOINT, checkpoint)
+              .apply();
+  }
+
   private @NonNull Currency determineCurrency() {
     String localE164 = TextSecurePreferences.getLocalNumber(ApplicationDependencies.getApplication());
     if (localE164 == null) {
@@ -344,6 +359,7 @@ public final class PaymentsValues extends SignalStoreValues {
               .putBlob(PAYMENTS_ENTROPY, entropyFromMnemonic)
               .putBoolean(MOB_PAYMENTS_ENABLED, true)
               .remove(MOB_LEDGER)
+              .remove(MOB_LEDGER_CHECKPOINT)
               .putBoolean(USER_CONFIRMED_MNEMONIC, true)
               .commit();
 
@@ -37,6 +37,7 @@ public final class SignalStore {
   private final ProxyValues              proxyValues;
   private final RateLimitValues          rateLimitValues;
   private final ChatColorsValues         chatColorsValues;
+  private final BackupValues             backupValues;
 
   private SignalStore() {
     this.store                    = new KeyValueStore(ApplicationDependencies.getApplication());
@@ -59,6 +60,7 @@ public final class SignalStore {
     this.proxyValues              = new ProxyValues(store);
     this.rateLimitValues          = new RateLimitValues(store);
     this.chatColorsValues         = new ChatColorsValues(store);
+    this.backupValues             = new BackupValues(store);
   }
 
   public static void onFirstEverAppLaunch() {
@@ -81,6 +83,7 @@ public final class SignalStore {
     proxy().onFirstEverAppLaunch();
     rateLimit().onFirstEverAppLaunch();
     chatColorsValues().onFirstEverAppLaunch();
+    backup().onFirstEverAppLaunch();
   }
 
   public static List<String> getKeysToIncludeInBackup() {
@@ -104,6 +107,7 @@ public final class SignalStore {
     keys.addAll(proxy().getKeysToIncludeInBackup());
     keys.addAll(rateLimit().getKeysToIncludeInBackup());
     keys.addAll(chatColorsValues().getKeysToIncludeInBackup());
+    keys.addAll(backup().getKeysToIncludeInBackup());
     return keys;
   }
 
@@ -192,6 +196,10 @@ public final class SignalStore {
     return INSTANCE.chatColorsValues;
   }
 
+  public static @NonNull BackupValues backup() {
+    return INSTANCE.backupValues;
+  }
+
   public static @NonNull GroupsV2AuthorizationSignalStoreCache groupsV2AuthorizationCache() {
     return new GroupsV2AuthorizationSignalStoreCache(getStore());
   }
@@ -0,0 +1,20 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.QueryMonitor;
+
+public class LogSectionDatabase implements LogSection {
+
+  @Override
+  public @NonNull String getTitle() {
+    return "DATABASE";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    return QueryMonitor.getInstance().getDebugInfo();
+  }
+}
@@ -54,6 +54,7 @@ public class SubmitDebugLogRepository {
   private static final List<LogSection> SECTIONS = new ArrayList<LogSection>() {{
     add(new LogSectionSystemInfo());
     add(new LogSectionJobs());
+    add(new LogSectionDatabase());
     add(new LogSectionConstraints());
     if (Build.VERSION.SDK_INT >= 28) {
       add(new LogSectionPower());
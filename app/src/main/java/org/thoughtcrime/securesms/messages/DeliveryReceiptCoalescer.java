@@ -0,0 +1,144 @@
+package org.thoughtcrime.securesms.messages;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.jobs.SendDeliveryReceiptJob;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces the delivery receipts we owe each recipient, so a burst of messages from one sender
+ * ends up as a handful of multi-timestamp receipts rather than one job and one send per message.
+ *
+ * The first receipt for a recipient is sent straight away and opens a window of {@link #BATCH_WINDOW}
+ * ms. Any more receipts for that recipient in the window are held back and sent together when it
+ * closes, or as soon as {@link SendDeliveryReceiptJob#MAX_MESSAGE_IDS} of them have built up.
+ *
+ * Held-back receipts only live in memory, so if we're killed inside a window the rest of that burst
+ * goes without a delivery receipt. A message that arrives on its own is never held back, and its
+ * receipt job is persisted as soon as it's processed, same as before.
+ */
+public final class DeliveryReceiptCoalescer {
+
+  @VisibleForTesting
+  static final long BATCH_WINDOW = 500;
+
+  private final Sender                   sender;
+  private final Scheduler                scheduler;
+  private final int                      maxBatchSize;
+  private final Map<RecipientId, Window> windows = new HashMap<>();
+
+  public DeliveryReceiptCoalescer(@NonNull JobManager jobManager) {
+    this((recipientId, messageIds) -> jobManager.add(new SendDeliveryReceiptJob(recipientId, messageIds)),
+         new HandlerScheduler(new Handler(SignalExecutors.getAndStartHandlerThread("signal-DeliveryReceipts").getLooper())),
+         SendDeliveryReceiptJob.MAX_MESSAGE_IDS);
+  }
+
+  @VisibleForTesting
+  DeliveryReceiptCoalescer(@NonNull Sender sender, @NonNull Scheduler scheduler, int maxBatchSize) {
+    this.sender       = sender;
+    this.scheduler    = scheduler;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Sends a delivery receipt for the message, now or once the recipient's window closes.
+   */
+  public void enqueue(@NonNull RecipientId recipientId, long messageId) {
+    List<Long> toSend;
+
+    synchronized (windows) {
+      Window window = windows.get(recipientId);
+
+      if (window == null) {
+        window = new Window(recipientId);
+        windows.put(recipientId, window);
+        scheduler.schedule(window, BATCH_WINDOW);
+
+        toSend = new ArrayList<>(1);
+        toSend.add(messageId);
+      } else {
+        window.messageIds.add(messageId);
+
+        if (window.messageIds.size() < maxBatchSize) {
+          return;
+        }
+
+        windows.remove(recipientId);
+        scheduler.cancel(window);
+
+        toSend = window.messageIds;
+      }
+    }
+
+    sender.send(recipientId, toSend);
+  }
+
+  private void onWindowClosed(@NonNull Window window) {
+    synchronized (windows) {
+      if (windows.get(window.recipientId) != window) {
+        return;
+      }
+
+      windows.remove(window.recipientId);
+    }
+
+    if (!window.messageIds.isEmpty()) {
+      sender.send(window.recipientId, window.messageIds);
+    }
+  }
+
+  private final class Window implements Runnable {
+
+    private final RecipientId recipientId;
+    private final List<Long>  messageIds = new ArrayList<>();
+
+    private Window(@NonNull RecipientId recipientId) {
+      this.recipientId = recipientId;
+    }
+
+    @Override
+    public void run() {
+      onWindowClosed(this);
+    }
+  }
+
+  @VisibleForTesting
+  interface Sender {
+    void send(@NonNull RecipientId recipientId, @NonNull List<Long> messageIds);
+  }
+
+  @VisibleForTesting
+  interface Scheduler {
+    void schedule(@NonNull Runnable runnable, long delay);
+    void cancel(@NonNull Runnable runnable);
+  }
+
+  private static final class HandlerScheduler implements Scheduler {
+
+    private final Handler handler;
+
+    private HandlerScheduler(@NonNull Handler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void schedule(@NonNull Runnable runnable, long delay) {
+      handler.postDelayed(runnable, delay);
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable runnable) {
+      handler.removeCallbacks(runnable);
+    }
+  }
+}
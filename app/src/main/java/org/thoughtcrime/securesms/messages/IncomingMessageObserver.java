@@ -20,6 +20,7 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.jobs.PushDecryptDrainedJob;
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.messages.IncomingMessageProcessor.Processor;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
@@ -239,10 +240,10 @@ public class IncomingMessageObserver {
           while (isConnectionNecessary()) {
             try {
               Log.d(TAG, "Reading message...");
-              Optional<SignalServiceEnvelope> result = localPipe.readOrEmpty(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES, envelope -> {
-                Log.i(TAG, "Retrieved envelope! " + envelope.getTimestamp());
+              Optional<List<SignalServiceEnvelope>> result = localPipe.readBatchOrEmpty(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES, PushDecryptMessageJob.MAX_BATCH_SIZE, envelopes -> {
+                Log.i(TAG, "Retrieved " + envelopes.size() + " envelope(s)! First: " + envelopes.get(0).getTimestamp());
                 try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-                  processor.processEnvelope(envelope);
+                  processor.processEnvelopes(envelopes);
                 }
               });
 
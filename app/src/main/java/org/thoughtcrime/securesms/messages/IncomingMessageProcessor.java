@@ -11,6 +11,7 @@ import org.thoughtcrime.securesms.crypto.ReentrantSessionLock;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
+import org.thoughtcrime.securesms.database.MessageSendLogDatabase;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -28,12 +29,18 @@ import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 import org.whispersystems.signalservice.api.messages.SignalServiceGroupContext;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -87,7 +94,7 @@ public class IncomingMessageProcessor {
       }
 
       if (envelope.isReceipt()) {
-        processReceipt(envelope);
+        processReceipts(Collections.singletonList(envelope));
         return null;
       } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender() || envelope.isPlaintextContent()) {
         return processMessage(envelope);
@@ -97,6 +104,59 @@ public class IncomingMessageProcessor {
       }
     }
 
+    /**
+     * Processes a batch of envelopes, preserving their order. Message envelopes are grouped into
+     * {@link PushDecryptMessageJob}s of up to {@link PushDecryptMessageJob#MAX_BATCH_SIZE} envelopes
+     * each, and all of those jobs are persisted in a single write.
+     *
+     * @return The ids of the {@link PushDecryptMessageJob}s that were scheduled to process the messages.
+     */
+    public @NonNull List<String> processEnvelopes(@NonNull List<SignalServiceEnvelope> envelopes) {
+      List<Job>                   jobs     = new ArrayList<>(envelopes.size() / PushDecryptMessageJob.MAX_BATCH_SIZE + 1);
+      List<SignalServiceEnvelope> pending  = new ArrayList<>(PushDecryptMessageJob.MAX_BATCH_SIZE);
+      List<SignalServiceEnvelope> receipts = new ArrayList<>();
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        if (envelope.hasSource()) {
+          Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+        }
+
+        if (envelope.isReceipt()) {
+          receipts.add(envelope);
+        } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender() || envelope.isPlaintextContent()) {
+          pending.add(envelope);
+
+          if (pending.size() >= PushDecryptMessageJob.MAX_BATCH_SIZE) {
+            jobs.add(new PushDecryptMessageJob(context, pending));
+            pending.clear();
+          }
+        } else {
+          Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
+        }
+      }
+
+      if (!pending.isEmpty()) {
+        jobs.add(new PushDecryptMessageJob(context, pending));
+      }
+
+      if (!receipts.isEmpty()) {
+        processReceipts(receipts);
+      }
+
+      if (jobs.isEmpty()) {
+        return Collections.emptyList();
+      }
+
+      jobManager.startChain(jobs).enqueue();
+
+      List<String> ids = new ArrayList<>(jobs.size());
+      for (Job job : jobs) {
+        ids.add(job.getId());
+      }
+
+      return ids;
+    }
+
     private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope) {
       return processMessageDeferred(envelope);
     }
@@ -158,12 +218,38 @@ public class IncomingMessageProcessor {
       return null;
     }
 
-    private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
-      Log.i(TAG, "Received server receipt for " + envelope.getTimestamp());
-      Recipient sender = Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+    /**
+     * Applies server delivery receipts in bulk. Sending to a large group results in a receipt from
+     * every member in quick succession, so doing them one at a time would mean a transaction, a
+     * thread update and a notification per receipt.
+     */
+    private void processReceipts(@NonNull List<SignalServiceEnvelope> envelopes) {
+      List<SyncMessageId>                         messageIds = new ArrayList<>(envelopes.size());
+      Map<Pair<RecipientId, Integer>, List<Long>> logEntries = new HashMap<>();
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        Recipient                  sender = Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+        Pair<RecipientId, Integer> device = new Pair<>(sender.getId(), envelope.getSourceDevice());
 
-      mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(sender.getId(), envelope.getTimestamp()), System.currentTimeMillis());
-      DatabaseFactory.getMessageLogDatabase(context).deleteEntryForRecipient(envelope.getTimestamp(), sender.getId(), envelope.getSourceDevice());
+        messageIds.add(new SyncMessageId(sender.getId(), envelope.getTimestamp()));
+
+        List<Long> timestamps = logEntries.get(device);
+        if (timestamps == null) {
+          timestamps = new ArrayList<>();
+          logEntries.put(device, timestamps);
+        }
+        timestamps.add(envelope.getTimestamp());
+      }
+
+      Log.i(TAG, "Received " + envelopes.size() + " server receipt(s) from " + logEntries.size() + " device(s).");
+
+      MessageSendLogDatabase messageLogDatabase = DatabaseFactory.getMessageLogDatabase(context);
+
+      mmsSmsDatabase.incrementDeliveryReceiptCounts(messageIds, System.currentTimeMillis(), () -> {
+        for (Map.Entry<Pair<RecipientId, Integer>, List<Long>> entry : logEntries.entrySet()) {
+          messageLogDatabase.deleteEntriesForRecipient(entry.getValue(), entry.getKey().first(), entry.getKey().second());
+        }
+      });
     }
 
     private boolean needsToEnqueueDecryption() {
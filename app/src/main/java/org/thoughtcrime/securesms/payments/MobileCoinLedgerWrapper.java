@@ -40,6 +40,17 @@ public final class MobileCoinLedgerWrapper {
     return txoList;
   }
 
+  /**
+   * The TXOs received or spent after the given block. TXOs received and spent in that block or
+   * before are only tallied, not wrapped.
+   */
+  public @NonNull TxosAfterBlock getTxosAfter(long blockIndex) {
+    TxosAfterBlock txosAfterBlock = new TxosAfterBlock();
+    txosAfterBlock.addAll(blockIndex, ledger.getSpentTxosList());
+    txosAfterBlock.addAll(blockIndex, ledger.getUnspentTxosList());
+    return txosAfterBlock;
+  }
+
   private static void addAllMapped(@NonNull List<OwnedTxo> output, @NonNull List<MobileCoinLedger.OwnedTXO> txosList) {
     for (MobileCoinLedger.OwnedTXO ownedTxo : txosList) {
       output.add(new OwnedTxo(ownedTxo));
@@ -89,4 +100,87 @@ public final class MobileCoinLedgerWrapper {
       return value == 0 ? null : value;
     }
   }
+
+  public static final class TxosAfterBlock {
+    private final List<OwnedTxo> txos = new ArrayList<>();
+
+    private long olderReceivedCount;
+    private long olderReceivedAmount;
+    private long olderSpentCount;
+    private long receivedCount;
+    private long receivedAmount;
+    private long spentCount;
+
+    private void addAll(long blockIndex, @NonNull List<MobileCoinLedger.OwnedTXO> txosList) {
+      for (MobileCoinLedger.OwnedTXO ownedTxo : txosList) {
+        long    receivedInBlock = ownedTxo.getReceivedInBlock().getBlockNumber();
+        long    spentInBlock    = ownedTxo.getSpentInBlock().getBlockNumber();
+        boolean newer           = false;
+
+        receivedCount++;
+        receivedAmount += ownedTxo.getAmount();
+
+        if (receivedInBlock <= blockIndex) {
+          olderReceivedCount++;
+          olderReceivedAmount += ownedTxo.getAmount();
+        } else {
+          newer = true;
+        }
+
+        if (spentInBlock != 0) {
+          spentCount++;
+
+          if (spentInBlock <= blockIndex) {
+            olderSpentCount++;
+          } else {
+            newer = true;
+          }
+        }
+
+        if (newer) {
+          txos.add(new OwnedTxo(ownedTxo));
+        }
+      }
+    }
+
+    /**
+     * TXOs received, spent, or both, after the block.
+     */
+    public @NonNull List<OwnedTxo> getTxos() {
+      return txos;
+    }
+
+    /**
+     * Number of TXOs received in the block or before.
+     */
+    public long getOlderReceivedCount() {
+      return olderReceivedCount;
+    }
+
+    /**
+     * Sum of the picoMob received in the block or before, wrapping at 64 bits.
+     */
+    public long getOlderReceivedAmount() {
+      return olderReceivedAmount;
+    }
+
+    /**
+     * Number of TXOs spent in the block or before.
+     */
+    public long getOlderSpentCount() {
+      return olderSpentCount;
+    }
+
+    public long getReceivedCount() {
+      return receivedCount;
+    }
+
+    public long getReceivedAmount() {
+      return receivedAmount;
+    }
+
+    public long getSpentCount() {
+      return spentCount;
+    }
+  }
 }
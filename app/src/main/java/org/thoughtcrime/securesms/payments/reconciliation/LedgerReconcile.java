@@ -1,21 +1,27 @@
 package org.thoughtcrime.securesms.payments.reconciliation;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Collectors;
 import com.annimon.stream.ComparatorCompat;
 import com.annimon.stream.Stream;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 import org.signal.core.util.MapUtil;
 import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+import org.thoughtcrime.securesms.payments.Direction;
 import org.thoughtcrime.securesms.payments.MobileCoinLedgerWrapper;
 import org.thoughtcrime.securesms.payments.Payment;
 import org.thoughtcrime.securesms.payments.PaymentDecorator;
 import org.thoughtcrime.securesms.payments.ReconstructedPayment;
 import org.thoughtcrime.securesms.payments.State;
 import org.thoughtcrime.securesms.payments.history.TransactionReconstruction;
+import org.thoughtcrime.securesms.payments.proto.LedgerCheckpoint;
+import org.thoughtcrime.securesms.payments.proto.MobileCoinLedger;
 import org.thoughtcrime.securesms.payments.proto.PaymentMetaData;
 import org.whispersystems.signalservice.api.payments.Money;
 
@@ -29,6 +35,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.annotation.Nullable;
 
@@ -36,113 +43,491 @@ public final class LedgerReconcile {
 
   private static final String TAG = Log.tag(LedgerReconcile.class);
 
+  private static final Object LOCK = new Object();
+
+  private static Checkpoint storedCheckpoint;
+
+  /**
+   * Reconciles from the checkpoint kept in {@link SignalStore#paymentsValues()}, and stores it again
+   * if anything was reconciled.
+   */
   @WorkerThread
   public static @NonNull List<Payment> reconcile(@NonNull Collection<? extends Payment> localPaymentTransactions,
                                                  @NonNull MobileCoinLedgerWrapper ledgerWrapper)
   {
-    long start = System.currentTimeMillis();
+    synchronized (LOCK) {
+      if (storedCheckpoint == null) {
+        storedCheckpoint = Checkpoint.deserialize(SignalStore.paymentsValues().getLedgerCheckpoint());
+      }
+
+      List<Payment> payments = reconcile(localPaymentTransactions, ledgerWrapper, storedCheckpoint);
+
+      if (storedCheckpoint.changed) {
+        SignalStore.paymentsValues().setLedgerCheckpoint(storedCheckpoint.serialize());
+        storedCheckpoint.changed = false;
+      }
+
+      return payments;
+    }
+  }
+
+  /**
+   * Reconciles against the given checkpoint, picking up from the last block it has reconciled. Falls
+   * back to a full rebuild when the ledger or the local payments no longer agree with what the
+   * checkpoint has seen.
+   */
+  @VisibleForTesting
+  @WorkerThread
+  static @NonNull List<Payment> reconcile(@NonNull Collection<? extends Payment> localPaymentTransactions,
+                                          @NonNull MobileCoinLedgerWrapper ledgerWrapper,
+                                          @NonNull Checkpoint checkpoint)
+  {
+    long                                   start     = System.currentTimeMillis();
+    long                                   fromBlock = checkpoint.blockIndex;
+    MobileCoinLedgerWrapper.TxosAfterBlock newTxos   = ledgerWrapper.getTxosAfter(fromBlock);
+    boolean                                full      = false;
+
     try {
-      return reconcile(localPaymentTransactions, ledgerWrapper.getAllTxos());
+      if (!checkpoint.isConsistentWith(localPaymentTransactions, newTxos)) {
+        checkpoint.reset();
+        newTxos = ledgerWrapper.getTxosAfter(checkpoint.blockIndex);
+        full    = true;
+      }
+
+      checkpoint.advance(localPaymentTransactions, newTxos);
+
+      return reconcile(localPaymentTransactions, checkpoint);
     } finally {
-      Log.d(TAG, String.format(Locale.US, "Took %d ms - Ledger %d, Local %d", System.currentTimeMillis() - start, ledgerWrapper.getAllTxos().size(), localPaymentTransactions.size()));
+      Log.d(TAG, String.format(Locale.US, "Took %d ms (%s) - Ledger %d, New %d, Local %d, Reconciled to block %d",
+                               System.currentTimeMillis() - start,
+                               full ? "full rebuild" : "from block " + fromBlock,
+                               newTxos.getReceivedCount(),
+                               newTxos.getTxos().size(),
+                               localPaymentTransactions.size(),
+                               checkpoint.blockIndex));
     }
   }
 
-  @WorkerThread
   private static @NonNull List<Payment> reconcile(@NonNull Collection<? extends Payment> allLocalPaymentTransactions,
-                                                  @NonNull List<MobileCoinLedgerWrapper.OwnedTxo> allTxOuts)
+                                                  @NonNull Checkpoint checkpoint)
   {
-    List<? extends Payment> nonFailedLocalPayments = Stream.of(allLocalPaymentTransactions).filter(i -> i.getState() != State.FAILED).toList();
-    Set<ByteString> allKnownPublicKeys = new HashSet<>(nonFailedLocalPayments.size());
-    Set<ByteString> allKnownKeyImages  = new HashSet<>(nonFailedLocalPayments.size());
+    if (!checkpoint.hasUnknownActivity) {
+      return Stream.of(allLocalPaymentTransactions).map(t -> (Payment) t).toList();
+    }
 
-    for (Payment paymentTransaction : nonFailedLocalPayments) {
-      PaymentMetaData.MobileCoinTxoIdentification txoIdentification = paymentTransaction.getPaymentMetaData().getMobileCoinTxoIdentification();
+    List<Payment> blockDecoratedLocalPayments = decoratePaymentsWithBlockIndexes(allLocalPaymentTransactions, checkpoint);
 
-      allKnownPublicKeys.addAll(txoIdentification.getPublicKeyList());
-      allKnownKeyImages.addAll(txoIdentification.getKeyImagesList());
-    }
+    return ZipList.zipList(blockDecoratedLocalPayments, checkpoint.reconstructedPayments, Payment.DESCENDING_BLOCK_INDEX_UNKNOWN_FIRST);
+  }
 
-    Set<MobileCoinLedgerWrapper.OwnedTxo> knownTxosByKeyImage = Stream.of(allTxOuts)
-                                                                      .filter(t -> allKnownKeyImages.contains(t.getKeyImage()))
-                                                                      .collect(Collectors.toSet());
+  private static List<Payment> decoratePaymentsWithBlockIndexes(@NonNull Collection<? extends Payment> localPaymentTransactions,
+                                                                @NonNull Checkpoint checkpoint)
+  {
+    List<Payment> result = new ArrayList<>(localPaymentTransactions.size());
 
-    Set<MobileCoinLedgerWrapper.OwnedTxo> knownTxosByPublicKeys = Stream.of(allTxOuts)
-                                                                        .filter(t -> allKnownPublicKeys.contains(t.getPublicKey()))
-                                                                        .collect(Collectors.toSet());
+    for (Payment local : localPaymentTransactions) {
+      LocalPayment tracked = checkpoint.localPayments.get(local.getUuid());
 
-    // any TXO that we can't pair up the pub key for, we don't have detail for how it got into the account
-    Set<MobileCoinLedgerWrapper.OwnedTxo> unknownTxOutsReceived = new HashSet<>(allTxOuts);
-    unknownTxOutsReceived.removeAll(knownTxosByPublicKeys);
+      if (tracked != null && tracked.blockIndex >= 0) {
+        result.add(BlockOverridePayment.override(local, tracked.blockIndex, tracked.blockTimestamp));
+      } else {
+        result.add(local);
+      }
+    }
+    return result;
+  }
 
-    // any TXO that we can't pair up the keyimage for, we don't have detail for how it got spent
-    Set<MobileCoinLedgerWrapper.OwnedTxo> unknownTxOutsSpent = Stream.of(allTxOuts).filter(MobileCoinLedgerWrapper.OwnedTxo::isSpent).collect(Collectors.toSet());
-    unknownTxOutsSpent.removeAll(knownTxosByKeyImage);
+  /**
+   * Everything reconciled so far. Every TXO received or spent in {@link #blockIndex} or earlier has
+   * been matched against the local payments, and whatever couldn't be matched has been turned into
+   * {@link #reconstructedPayments}. Later ledgers only add TXOs, and spends of existing TXOs, in
+   * newer blocks, so only those need looking at.
+   * <p>
+   * There's no index of the older TXOs. The ledger is checked against a tally of them instead, and a
+   * TXO showing up in, going missing from or changing its amount in an already reconciled block
+   * means a full rebuild. So does a local payment that goes away, fails or changes, or a new local
+   * payment that claims a key already reconciled or claimed by another payment.
+   * <p>
+   * Local payments are kept with the block they were found in, so they can be decorated without the
+   * older TXOs. The whole checkpoint is small next to the ledger, as it grows with the local payments
+   * and unknown activity rather than with the TXOs, and is persisted so a cold start picks up where
+   * the last reconcile left off.
+   */
+  static final class Checkpoint {
+
+    private final Map<UUID, LocalPayment>             localPayments               = new HashMap<>();
+    private final Map<ByteString, List<LocalPayment>> receivedPaymentsByPublicKey = new HashMap<>();
+    private final Map<ByteString, List<LocalPayment>> sentPaymentsByKeyImage      = new HashMap<>();
+    private final Set<ByteString>                     knownPublicKeys             = new HashSet<>();
+    private final Set<ByteString>                     knownKeyImages              = new HashSet<>();
+    private final Set<ByteString>                     unknownPublicKeys           = new HashSet<>();
+    private final Set<ByteString>                     unknownKeyImages            = new HashSet<>();
+    private final List<Payment>                       reconstructedPayments       = new ArrayList<>();
+
+    private long    blockIndex = -1;
+    private long    receivedTxos;
+    private long    receivedAmount;
+    private long    spentTxos;
+    private boolean hasUnknownActivity;
+    private boolean changed;
+    private int     fullRebuilds;
+
+    long getBlockIndex() {
+      return blockIndex;
+    }
 
-    if (unknownTxOutsReceived.isEmpty() && unknownTxOutsSpent.isEmpty()) {
-      return Stream.of(allLocalPaymentTransactions).map(t -> (Payment) t).toList();
+    int getFullRebuilds() {
+      return fullRebuilds;
     }
 
-    List<DetailedTransaction> detailedTransactions = reconstructAllTransactions(unknownTxOutsReceived, unknownTxOutsSpent);
+    private boolean isConsistentWith(@NonNull Collection<? extends Payment> localPaymentTransactions,
+                                     @NonNull MobileCoinLedgerWrapper.TxosAfterBlock newTxos)
+    {
+      if (blockIndex < 0) {
+        return false;
+      }
+
+      if (newTxos.getOlderReceivedCount() != receivedTxos || newTxos.getOlderReceivedAmount() != receivedAmount) {
+        Log.i(TAG, "TXOs received in already reconciled blocks changed");
+        return false;
+      }
+
+      if (newTxos.getOlderSpentCount() != spentTxos) {
+        Log.i(TAG, "TXOs spent in already reconciled blocks changed");
+        return false;
+      }
 
-    List<Payment> reconstructedPayments = new ArrayList<>(detailedTransactions.size());
+      int stillPresent = 0;
 
-    List<Payment> blockDecoratedLocalPayments = decoratePaymentsWithBlockIndexes(allLocalPaymentTransactions, allTxOuts);
+      for (Payment payment : localPaymentTransactions) {
+        LocalPayment previous = localPayments.get(payment.getUuid());
 
-    for (DetailedTransaction detailedTransaction : detailedTransactions) {
-      reconstructedPayments.add(new ReconstructedPayment(detailedTransaction.blockDetail.getBlockIndex(),
-                                                         detailedTransaction.blockDetail.getBlockTimestampOrZero(),
-                                                         detailedTransaction.transaction.getDirection(),
-                                                         detailedTransaction.transaction.getValue()));
+        if (previous != null) {
+          if (!previous.isSamePayment(payment)) {
+            Log.i(TAG, "Local payment failed or changed its TXO identification");
+            return false;
+          }
+          stillPresent++;
+        } else if (claimsReconciledKey(payment.getPaymentMetaData().getMobileCoinTxoIdentification())) {
+          Log.i(TAG, "New local payment for an already reconciled or claimed TXO");
+          return false;
+        }
+      }
+
+      if (stillPresent != localPayments.size()) {
+        Log.i(TAG, "Local payments removed");
+        return false;
+      }
+
+      return true;
     }
 
-    Collections.sort(reconstructedPayments, Payment.DESCENDING_BLOCK_INDEX);
+    /**
+     * Every public key and key image in a reconciled block either belongs to a local payment, or
+     * went into the reconstructed payments.
+     */
+    private boolean claimsReconciledKey(@NonNull PaymentMetaData.MobileCoinTxoIdentification txoIdentification) {
+      for (ByteString publicKey : txoIdentification.getPublicKeyList()) {
+        if (knownPublicKeys.contains(publicKey) || unknownPublicKeys.contains(publicKey)) {
+          return true;
+        }
+      }
 
-    return ZipList.zipList(blockDecoratedLocalPayments, reconstructedPayments, Payment.DESCENDING_BLOCK_INDEX_UNKNOWN_FIRST);
-  }
+      for (ByteString keyImage : txoIdentification.getKeyImagesList()) {
+        if (knownKeyImages.contains(keyImage) || unknownKeyImages.contains(keyImage)) {
+          return true;
+        }
+      }
 
-  private static List<Payment> decoratePaymentsWithBlockIndexes(@NonNull Collection<? extends Payment> localPaymentTransactions,
-                                                                @NonNull List<MobileCoinLedgerWrapper.OwnedTxo> allTxOuts)
-  {
-    List<Payment>                                     result         = new ArrayList<>(localPaymentTransactions.size());
-    Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> blockDetailMap = new HashMap<>(allTxOuts.size() * 2);
+      return false;
+    }
 
-    for (MobileCoinLedgerWrapper.OwnedTxo txo : allTxOuts) {
-      blockDetailMap.put(txo.getPublicKey(), txo);
-      blockDetailMap.put(txo.getKeyImage(), txo);
+    private void reset() {
+      localPayments.clear();
+      receivedPaymentsByPublicKey.clear();
+      sentPaymentsByKeyImage.clear();
+      knownPublicKeys.clear();
+      knownKeyImages.clear();
+      unknownPublicKeys.clear();
+      unknownKeyImages.clear();
+      reconstructedPayments.clear();
+
+      blockIndex         = -1;
+      receivedTxos       = 0;
+      receivedAmount     = 0;
+      spentTxos          = 0;
+      hasUnknownActivity = false;
+      changed            = true;
+      fullRebuilds++;
     }
 
-    for (Payment local : localPaymentTransactions) {
-      result.add(findBlock(local, blockDetailMap));
+    /**
+     * Takes in the local payments that haven't been seen yet and the TXOs received or spent after
+     * {@link #blockIndex}. Local payments waiting on one of those TXOs get its block, and payments
+     * are reconstructed for any of those TXOs the local payments don't account for.
+     */
+    private void advance(@NonNull Collection<? extends Payment> localPaymentTransactions,
+                         @NonNull MobileCoinLedgerWrapper.TxosAfterBlock newTxos)
+    {
+      for (Payment payment : localPaymentTransactions) {
+        if (!localPayments.containsKey(payment.getUuid())) {
+          addLocalPayment(new LocalPayment(payment.getUuid(),
+                                           payment.getPaymentMetaData().getMobileCoinTxoIdentification(),
+                                           payment.getDirection().isReceived(),
+                                           payment.getState() == State.FAILED));
+          changed = true;
+        }
+      }
+
+      long                                   highestBlock          = blockIndex;
+      List<MobileCoinLedgerWrapper.OwnedTxo> unknownTxOutsReceived = new ArrayList<>();
+      List<MobileCoinLedgerWrapper.OwnedTxo> unknownTxOutsSpent    = new ArrayList<>();
+
+      for (MobileCoinLedgerWrapper.OwnedTxo txo : newTxos.getTxos()) {
+        long receivedInBlock = txo.getReceivedInBlock();
+
+        if (receivedInBlock > blockIndex) {
+          long timestamp = txo.getReceivedInBlockTimestamp() != null ? txo.getReceivedInBlockTimestamp() : 0L;
+
+          matchLocalPayments(receivedPaymentsByPublicKey.get(txo.getPublicKey()), txo.getPublicKey(), receivedInBlock, timestamp);
+          highestBlock = Math.max(highestBlock, receivedInBlock);
+
+          // any TXO that we can't pair up the pub key for, we don't have detail for how it got into the account
+          if (!knownPublicKeys.contains(txo.getPublicKey())) {
+            unknownTxOutsReceived.add(txo);
+            unknownPublicKeys.add(txo.getPublicKey());
+          }
+        }
+
+        Long spentInBlock = txo.getSpentInBlock();
+
+        if (spentInBlock != null && spentInBlock > blockIndex) {
+          long timestamp = txo.getSpentInBlockTimestamp() != null ? txo.getSpentInBlockTimestamp() : 0L;
+
+          matchLocalPayments(sentPaymentsByKeyImage.get(txo.getKeyImage()), txo.getKeyImage(), spentInBlock, timestamp);
+          highestBlock = Math.max(highestBlock, spentInBlock);
+
+          // any TXO that we can't pair up the keyimage for, we don't have detail for how it got spent
+          if (!knownKeyImages.contains(txo.getKeyImage())) {
+            unknownTxOutsSpent.add(txo);
+            unknownKeyImages.add(txo.getKeyImage());
+          }
+        }
+      }
+
+      if (!unknownTxOutsReceived.isEmpty() || !unknownTxOutsSpent.isEmpty()) {
+        List<DetailedTransaction> detailedTransactions = reconstructAllTransactions(unknownTxOutsReceived, unknownTxOutsSpent);
+        List<Payment>             newPayments          = new ArrayList<>(detailedTransactions.size());
+
+        for (DetailedTransaction detailedTransaction : detailedTransactions) {
+          newPayments.add(new ReconstructedPayment(detailedTransaction.blockDetail.getBlockIndex(),
+                                                   detailedTransaction.blockDetail.getBlockTimestampOrZero(),
+                                                   detailedTransaction.transaction.getDirection(),
+                                                   detailedTransaction.transaction.getValue()));
+        }
+
+        Collections.sort(newPayments, Payment.DESCENDING_BLOCK_INDEX);
+
+        // all in newer blocks than anything reconstructed before, so they go in front
+        reconstructedPayments.addAll(0, newPayments);
+        hasUnknownActivity = true;
+      }
+
+      if (!newTxos.getTxos().isEmpty()) {
+        changed = true;
+      }
+
+      // every TXO on this ledger is now in a reconciled block
+      blockIndex     = Math.max(highestBlock, 0);
+      receivedTxos   = newTxos.getReceivedCount();
+      receivedAmount = newTxos.getReceivedAmount();
+      spentTxos      = newTxos.getSpentCount();
     }
-    return result;
-  }
 
-  private static @NonNull Payment findBlock(@NonNull Payment local, @NonNull Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> allTxOuts) {
-    if (local.getDirection().isReceived()) {
-      for (ByteString publicKey : local.getPaymentMetaData().getMobileCoinTxoIdentification().getPublicKeyList()) {
-        MobileCoinLedgerWrapper.OwnedTxo ownedTxo = allTxOuts.get(publicKey);
+    private void addLocalPayment(@NonNull LocalPayment localPayment) {
+      localPayments.put(localPayment.uuid, localPayment);
 
-        if (ownedTxo != null) {
-          long receivedInBlock          = ownedTxo.getReceivedInBlock();
-          long receivedInBlockTimestamp = ownedTxo.getReceivedInBlockTimestamp() != null ? ownedTxo.getReceivedInBlockTimestamp() : 0L;
+      if (!localPayment.failed) {
+        knownPublicKeys.addAll(localPayment.txoIdentification.getPublicKeyList());
+        knownKeyImages.addAll(localPayment.txoIdentification.getKeyImagesList());
+      }
 
-          return BlockOverridePayment.override(local, receivedInBlock, receivedInBlockTimestamp);
+      List<ByteString>                    keys  = localPayment.getBlockKeys();
+      Map<ByteString, List<LocalPayment>> index = localPayment.received ? receivedPaymentsByPublicKey : sentPaymentsByKeyImage;
+
+      for (ByteString key : keys) {
+        List<LocalPayment> payments = index.get(key);
+
+        if (payments == null) {
+          payments = new ArrayList<>(1);
+          index.put(key, payments);
+        }
+
+        if (!payments.contains(localPayment)) {
+          payments.add(localPayment);
         }
       }
-    } else {
-      for (ByteString keyImage : local.getPaymentMetaData().getMobileCoinTxoIdentification().getKeyImagesList()) {
-        MobileCoinLedgerWrapper.OwnedTxo ownedTxo = allTxOuts.get(keyImage);
+    }
 
-        if (ownedTxo != null && ownedTxo.getSpentInBlock() != null) {
-          long spentInBlock          = ownedTxo.getSpentInBlock();
-          long spentInBlockTimestamp = ownedTxo.getSpentInBlockTimestamp() != null ? ownedTxo.getSpentInBlockTimestamp() : 0L;
+    private static void matchLocalPayments(@Nullable List<LocalPayment> payments, @NonNull ByteString key, long blockIndex, long blockTimestamp) {
+      if (payments != null) {
+        for (LocalPayment payment : payments) {
+          payment.match(key, blockIndex, blockTimestamp);
+        }
+      }
+    }
 
-          return BlockOverridePayment.override(local, spentInBlock, spentInBlockTimestamp);
+    @NonNull byte[] serialize() {
+      LedgerCheckpoint.Builder builder = LedgerCheckpoint.newBuilder()
+                                                         .setBlockIndex(blockIndex)
+                                                         .setReceivedTxos(receivedTxos)
+                                                         .setReceivedAmount(receivedAmount)
+                                                         .setSpentTxos(spentTxos)
+                                                         .setHasUnknownActivity(hasUnknownActivity)
+                                                         .addAllUnknownPublicKeys(unknownPublicKeys)
+                                                         .addAllUnknownKeyImages(unknownKeyImages);
+
+      for (LocalPayment localPayment : localPayments.values()) {
+        builder.addLocalPayments(localPayment.serialize());
+      }
+
+      for (Payment payment : reconstructedPayments) {
+        builder.addReconstructedPayments(LedgerCheckpoint.ReconstructedPayment.newBuilder()
+                                                                              .setBlock(block(payment.getBlockIndex(), payment.getBlockTimestamp()))
+                                                                              .setReceived(payment.getDirection().isReceived())
+                                                                              .setAmount(payment.getAmount().serialize()));
+      }
+
+      return builder.build().toByteArray();
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #serialize()}. Anything unreadable gives an empty
+     * checkpoint, and so a full rebuild.
+     */
+    static @NonNull Checkpoint deserialize(@Nullable byte[] serialized) {
+      if (serialized == null) {
+        return new Checkpoint();
+      }
+
+      try {
+        LedgerCheckpoint proto      = LedgerCheckpoint.parseFrom(serialized);
+        Checkpoint       checkpoint = new Checkpoint();
+
+        for (LedgerCheckpoint.LocalPayment localPayment : proto.getLocalPaymentsList()) {
+          checkpoint.addLocalPayment(LocalPayment.deserialize(localPayment));
+        }
+
+        for (LedgerCheckpoint.ReconstructedPayment payment : proto.getReconstructedPaymentsList()) {
+          checkpoint.reconstructedPayments.add(new ReconstructedPayment(payment.getBlock().getBlockNumber(),
+                                                                        payment.getBlock().getTimestamp(),
+                                                                        payment.getReceived() ? Direction.RECEIVED : Direction.SENT,
+                                                                        Money.parse(payment.getAmount())));
         }
+
+        checkpoint.unknownPublicKeys.addAll(proto.getUnknownPublicKeysList());
+        checkpoint.unknownKeyImages.addAll(proto.getUnknownKeyImagesList());
+
+        checkpoint.blockIndex         = proto.getBlockIndex();
+        checkpoint.receivedTxos       = proto.getReceivedTxos();
+        checkpoint.receivedAmount     = proto.getReceivedAmount();
+        checkpoint.spentTxos          = proto.getSpentTxos();
+        checkpoint.hasUnknownActivity = proto.getHasUnknownActivity();
+
+        return checkpoint;
+      } catch (InvalidProtocolBufferException | Money.ParseException | IllegalArgumentException e) {
+        Log.w(TAG, "Bad ledger checkpoint, starting over", e);
+        return new Checkpoint();
+      }
+    }
+  }
+
+  /**
+   * A local payment, and the block of its TXO once that's on the ledger. Like the full rebuild, a
+   * payment with more than one key takes its block from the first key in its TXO identification
+   * that has been received or spent.
+   */
+  private static final class LocalPayment {
+    private final UUID                                        uuid;
+    private final PaymentMetaData.MobileCoinTxoIdentification txoIdentification;
+    private final boolean                                     received;
+    private final boolean                                     failed;
+
+    private long blockIndex = -1;
+    private long blockTimestamp;
+    private int  keyPosition;
+
+    private LocalPayment(@NonNull UUID uuid,
+                         @NonNull PaymentMetaData.MobileCoinTxoIdentification txoIdentification,
+                         boolean received,
+                         boolean failed)
+    {
+      this.uuid              = uuid;
+      this.txoIdentification = txoIdentification;
+      this.received          = received;
+      this.failed            = failed;
+    }
+
+    /**
+     * Received payments are found by the public keys of the TXOs they received, sent ones by the key
+     * images of the TXOs they spent.
+     */
+    private @NonNull List<ByteString> getBlockKeys() {
+      return received ? txoIdentification.getPublicKeyList() : txoIdentification.getKeyImagesList();
+    }
+
+    private boolean isSamePayment(@NonNull Payment payment) {
+      return received == payment.getDirection().isReceived()   &&
+             failed   == (payment.getState() == State.FAILED) &&
+             txoIdentification.equals(payment.getPaymentMetaData().getMobileCoinTxoIdentification());
+    }
+
+    private void match(@NonNull ByteString key, long blockIndex, long blockTimestamp) {
+      int position = getBlockKeys().indexOf(key);
+
+      if (this.blockIndex < 0 || position < keyPosition) {
+        this.blockIndex     = blockIndex;
+        this.blockTimestamp = blockTimestamp;
+        this.keyPosition    = position;
+      }
+    }
+
+    private @NonNull LedgerCheckpoint.LocalPayment serialize() {
+      LedgerCheckpoint.LocalPayment.Builder builder = LedgerCheckpoint.LocalPayment.newBuilder()
+                                                                                   .setUuid(uuid.toString())
+                                                                                   .setTxoIdentification(txoIdentification)
+                                                                                   .setReceived(received)
+                                                                                   .setFailed(failed);
+
+      if (blockIndex >= 0) {
+        builder.setBlock(block(blockIndex, blockTimestamp))
+               .setKeyPosition(keyPosition);
       }
+
+      return builder.build();
     }
-    return local;
+
+    private static @NonNull LocalPayment deserialize(@NonNull LedgerCheckpoint.LocalPayment proto) {
+      LocalPayment localPayment = new LocalPayment(UUID.fromString(proto.getUuid()),
+                                                   proto.getTxoIdentification(),
+                                                   proto.getReceived(),
+                                                   proto.getFailed());
+
+      if (proto.hasBlock()) {
+        localPayment.blockIndex     = proto.getBlock().getBlockNumber();
+        localPayment.blockTimestamp = proto.getBlock().getTimestamp();
+        localPayment.keyPosition    = proto.getKeyPosition();
+      }
+
+      return localPayment;
+    }
+  }
+
+  private static @NonNull MobileCoinLedger.Block block(long blockIndex, long blockTimestamp) {
+    return MobileCoinLedger.Block.newBuilder()
+                                 .setBlockNumber(blockIndex)
+                                 .setTimestamp(blockTimestamp)
+                                 .build();
   }
 
   public static class BlockDetail {
@@ -184,7 +569,7 @@ public final class LedgerReconcile {
 
   }
 
-  private static @NonNull List<DetailedTransaction> reconstructAllTransactions(@NonNull Set<MobileCoinLedgerWrapper.OwnedTxo> unknownReceived, @NonNull Set<MobileCoinLedgerWrapper.OwnedTxo> unknownSpent) {
+  private static @NonNull List<DetailedTransaction> reconstructAllTransactions(@NonNull Collection<MobileCoinLedgerWrapper.OwnedTxo> unknownReceived, @NonNull Collection<MobileCoinLedgerWrapper.OwnedTxo> unknownSpent) {
     Set<Long> allBlocksWithActivity = Stream.of(unknownReceived)
                                             .map(MobileCoinLedgerWrapper.OwnedTxo::getReceivedInBlock)
                                             .collect(Collectors.toSet());
@@ -245,11 +245,12 @@ public final class RestoreBackupFragment extends BaseRegistrationFragment {
           SQLiteDatabase database = DatabaseFactory.getBackupDatabase(context);
 
           BackupPassphrase.set(context, passphrase);
-          FullBackupImporter.importFile(context,
-                                        AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                        database,
-                                        backup.getUri(),
-                                        passphrase);
+          FullBackupImporter.importChain(context,
+                                         AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                         database,
+                                         backup.getUri(),
+                                         BackupUtil.getDeltasForBackup(backup),
+                                         passphrase);
 
           DatabaseFactory.upgradeRestored(context, database);
           NotificationChannels.restoreContactNotificationChannels(context);
@@ -2,14 +2,18 @@ package org.thoughtcrime.securesms.service;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase;
-import org.thoughtcrime.securesms.database.MmsDatabase;
-import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.MessageDatabase.ExpirationInfo;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -18,6 +22,21 @@ public class ExpiringMessageManager {
 
   private static final String TAG = Log.tag(ExpiringMessageManager.class);
 
+  /**
+   * The number of pending expirations that are read from each table at a time. Anything that
+   * expires later is left in the database until the in-memory schedule catches up to it.
+   */
+  private static final int  LOAD_LIMIT      = 500;
+
+  /**
+   * Messages that are due within this long of each other are deleted together, so that a burst of
+   * expirations turns into a single transaction rather than one per message. The batch waits for
+   * the last of them to be due, so a message can be deleted up to this late, but never early.
+   */
+  @VisibleForTesting static final long BATCH_WINDOW_MS = 250;
+
+  @VisibleForTesting static final int  MAX_BATCH_SIZE  = 500;
+
   private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
   private final Executor                          executor                  = Executors.newSingleThreadExecutor();
 
@@ -25,12 +44,17 @@ public class ExpiringMessageManager {
   private final MessageDatabase mmsDatabase;
   private final Context         context;
 
+  /**
+   * Every message in the database that expires at or before this time has been loaded into
+   * {@link #expiringMessageReferences} (or already deleted). Guarded by that set's lock.
+   */
+  private long loadedUntil = -1;
+
   public ExpiringMessageManager(Context context) {
     this.context     = context.getApplicationContext();
     this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
     this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
@@ -53,70 +77,143 @@ public class ExpiringMessageManager {
     }
   }
 
-  private class LoadTask implements Runnable {
-    public void run() {
-      SmsDatabase.Reader smsReader = SmsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = MmsDatabase.readerFor(mmsDatabase.getExpirationStartedMessages());
-
-      MessageRecord messageRecord;
+  /**
+   * Loads the next window of pending expirations, starting from where the last one left off.
+   */
+  private void loadNextWindow() {
+    long                 from = Math.max(0, loadedUntil);
+    List<ExpirationInfo> sms  = smsDatabase.getExpirationStartedMessages(from, LOAD_LIMIT);
+    List<ExpirationInfo> mms  = mmsDatabase.getExpirationStartedMessages(from, LOAD_LIMIT);
 
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+    synchronized (expiringMessageReferences) {
+      for (ExpirationInfo info : sms) {
+        expiringMessageReferences.add(new ExpiringMessageReference(info.getId(), false, info.getExpireStarted() + info.getExpiresIn()));
       }
 
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+      for (ExpirationInfo info : mms) {
+        expiringMessageReferences.add(new ExpiringMessageReference(info.getId(), true, info.getExpireStarted() + info.getExpiresIn()));
       }
 
-      smsReader.close();
-      mmsReader.close();
+      loadedUntil = Math.min(getWindowEnd(sms), getWindowEnd(mms));
+    }
+
+    Log.d(TAG, "Loaded " + sms.size() + " sms and " + mms.size() + " mms expirations.");
+  }
+
+  private static long getWindowEnd(@NonNull List<ExpirationInfo> loaded) {
+    if (loaded.size() < LOAD_LIMIT) {
+      return Long.MAX_VALUE;
     }
+
+    ExpirationInfo last = loaded.get(loaded.size() - 1);
+    return last.getExpireStarted() + last.getExpiresIn();
+  }
+
+  private void deleteMessages(@NonNull List<ExpiringMessageReference> expiredMessages) {
+    List<Long> smsIds = new ArrayList<>(expiredMessages.size());
+    List<Long> mmsIds = new ArrayList<>(expiredMessages.size());
+
+    for (ExpiringMessageReference expiredMessage : expiredMessages) {
+      if (expiredMessage.mms) mmsIds.add(expiredMessage.id);
+      else                    smsIds.add(expiredMessage.id);
+    }
+
+    DatabaseFactory.getMmsSmsDatabase(context).deleteMessages(smsIds, mmsIds);
   }
 
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        List<ExpiringMessageReference> expiredMessages = null;
+        boolean                        needsLoad       = false;
 
         synchronized (expiringMessageReferences) {
           try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
+            if (loadedUntil != Long.MAX_VALUE &&
+                (expiringMessageReferences.isEmpty() || expiringMessageReferences.first().expiresAtMillis > loadedUntil))
+            {
+              needsLoad = true;
+            } else {
+              while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
 
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+              long now      = System.currentTimeMillis();
+              long waitTime = getBatchDueTime(expiringMessageReferences, loadedUntil) - now;
 
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+              if (waitTime > 0) {
+                ExpirationListener.setAlarm(context, waitTime);
+                expiringMessageReferences.wait(waitTime);
+              } else {
+                expiredMessages = removeExpiredReferences(expiringMessageReferences, Math.min(now, loadedUntil));
+              }
             }
-
           } catch (InterruptedException e) {
             Log.w(TAG, e);
           }
         }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+        if (needsLoad) {
+          loadNextWindow();
+        } else if (expiredMessages != null) {
+          deleteMessages(expiredMessages);
         }
       }
     }
   }
 
-  private static class ExpiringMessageReference {
-    private final long    id;
-    private final boolean mms;
-    private final long    expiresAtMillis;
+  /**
+   * The time at which the next batch can be deleted: when the last message that is due within
+   * {@link #BATCH_WINDOW_MS} of the first one has expired. Only loaded messages, and no more than
+   * {@link #MAX_BATCH_SIZE} of them, are counted.
+   */
+  @VisibleForTesting
+  static long getBatchDueTime(@NonNull TreeSet<ExpiringMessageReference> references, long loadedUntil) {
+    long windowEnd = Math.min(references.first().expiresAtMillis + BATCH_WINDOW_MS, loadedUntil);
+    long dueTime   = references.first().expiresAtMillis;
+    int  count     = 0;
+
+    for (ExpiringMessageReference reference : references) {
+      if (reference.expiresAtMillis > windowEnd || count >= MAX_BATCH_SIZE) {
+        break;
+      }
+
+      dueTime = reference.expiresAtMillis;
+      count++;
+    }
+
+    return dueTime;
+  }
+
+  /**
+   * Removes and returns up to {@link #MAX_BATCH_SIZE} references that expire at or before the
+   * cutoff, which must not be later than now.
+   */
+  @VisibleForTesting
+  static @NonNull List<ExpiringMessageReference> removeExpiredReferences(@NonNull TreeSet<ExpiringMessageReference> references, long cutoff) {
+    List<ExpiringMessageReference>     expired  = new ArrayList<>();
+    Iterator<ExpiringMessageReference> iterator = references.iterator();
+
+    while (iterator.hasNext() && expired.size() < MAX_BATCH_SIZE) {
+      ExpiringMessageReference reference = iterator.next();
+
+      if (reference.expiresAtMillis > cutoff) {
+        break;
+      }
+
+      expired.add(reference);
+      iterator.remove();
+    }
+
+    return expired;
+  }
+
+  @VisibleForTesting
+  static class ExpiringMessageReference {
+    final long    id;
+    final boolean mms;
+    final long    expiresAtMillis;
 
-    private ExpiringMessageReference(long id, boolean mms, long expiresAtMillis) {
+    ExpiringMessageReference(long id, boolean mms, long expiresAtMillis) {
       this.id = id;
       this.mms = mms;
       this.expiresAtMillis = expiresAtMillis;
@@ -137,7 +234,8 @@ public class ExpiringMessageManager {
     }
   }
 
-  private static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
+  @VisibleForTesting
+  static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
     @Override
     public int compare(ExpiringMessageReference lhs, ExpiringMessageReference rhs) {
       if      (lhs.expiresAtMillis < rhs.expiresAtMillis) return -1;
@@ -12,6 +12,7 @@ import org.signal.core.util.logging.Log;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Manages our app startup flow.
@@ -28,10 +29,10 @@ public final class AppStartup {
 
   private static final AppStartup INSTANCE = new AppStartup();
 
-  private final List<Task> blocking;
-  private final List<Task> nonBlocking;
-  private final List<Task> postRender;
-  private final Handler    postRenderHandler;
+  private final StartupTaskGraph blocking;
+  private final List<Task>       nonBlocking;
+  private final List<Task>       postRender;
+  private final Handler          postRenderHandler;
 
   private int outstandingCriticalRenderEvents;
 
@@ -44,7 +45,7 @@ public final class AppStartup {
   }
 
   private AppStartup() {
-    this.blocking          = new LinkedList<>();
+    this.blocking          = new StartupTaskGraph();
     this.nonBlocking       = new LinkedList<>();
     this.postRender        = new LinkedList<>();
     this.postRenderHandler = new Handler(Looper.getMainLooper());
@@ -55,11 +56,33 @@ public final class AppStartup {
   }
 
   /**
-   * Schedules a task that must happen during app startup in a blocking fashion.
+   * Schedules a task that must happen during app startup in a blocking fashion. It will run on the
+   * main thread after every blocking task that was added before it.
    */
   @MainThread
   public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull Runnable task) {
-    blocking.add(new Task(name, task));
+    blocking.add(name, true, blocking.getNames(), task);
+    return this;
+  }
+
+  /**
+   * Schedules a blocking task that must run on the main thread, but only has to wait for the named
+   * tasks to finish. Other blocking tasks may be running in the background at the same time.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull List<String> dependencies, @NonNull Runnable task) {
+    blocking.add(name, true, dependencies, task);
+    return this;
+  }
+
+  /**
+   * Schedules a blocking task that can run on a background thread as soon as the named tasks have
+   * finished. Startup still waits for it to finish before moving on to the non-blocking tasks, so it
+   * will always have completed before the first render.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlockingInBackground(@NonNull String name, @NonNull List<String> dependencies, @NonNull Runnable task) {
+    blocking.add(name, false, dependencies, task);
     return this;
   }
 
@@ -138,11 +161,17 @@ public final class AppStartup {
   public void execute() {
     Stopwatch stopwatch = new Stopwatch("init");
 
-    for (Task task : blocking) {
-      task.getRunnable().run();
-      stopwatch.split(task.getName());
+    ExecutorService startupExecutor = SignalExecutors.newCachedBoundedExecutor("signal-startup", 0, SignalExecutors.getIdealThreadCount());
+
+    try {
+      blocking.execute(startupExecutor);
+    } finally {
+      startupExecutor.shutdown();
     }
+
+    blocking.logTimings(TAG);
     blocking.clear();
+    stopwatch.split("blocking");
 
     for (Task task : nonBlocking) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
@@ -11,6 +11,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 import androidx.documentfile.provider.DocumentFile;
 
 import org.signal.core.util.logging.Log;
@@ -27,9 +28,11 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 public class BackupUtil {
 
@@ -37,12 +40,16 @@ public class BackupUtil {
 
   public static final int PASSPHRASE_LENGTH = 30;
 
+  private static final String BACKUP_FILE_PREFIX = "signal-";
+  private static final String BACKUP_EXTENSION   = ".backup";
+  private static final String DELTA_EXTENSION    = ".delta";
+
   public static @NonNull String getLastBackupTime(@NonNull Context context, @NonNull Locale locale) {
     try {
       BackupInfo backup = getLatestBackup();
 
       if (backup == null) return context.getString(R.string.BackupUtil_never);
-      else                return DateUtils.getExtendedRelativeTimeSpanString(context, locale, backup.getTimestamp());
+      else                return DateUtils.getExtendedRelativeTimeSpanString(context, locale, getLastModified(backup));
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
       return context.getString(R.string.BackupUtil_unknown);
@@ -76,12 +83,16 @@ public class BackupUtil {
   public static void deleteAllBackups() {
     Log.i(TAG, "Deleting all backups");
 
+    SignalStore.backup().clearChain();
+
     try {
       List<BackupInfo> backups = getAllBackupsNewestFirst();
 
       for (BackupInfo backup : backups) {
         backup.delete();
       }
+
+      deleteDeltasExcept(Collections.emptySet());
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
     }
@@ -91,16 +102,136 @@ public class BackupUtil {
     Log.i(TAG, "Deleting older backups");
 
     try {
-      List<BackupInfo> backups = getAllBackupsNewestFirst();
+      List<BackupInfo> backups    = getAllBackupsNewestFirst();
+      Set<String>      keptChains = new HashSet<>();
 
-      for (int i = 2; i < backups.size(); i++) {
-        backups.get(i).delete();
+      for (int i = 0; i < backups.size(); i++) {
+        if (i < 2) {
+          keptChains.add(getChainId(backups.get(i)));
+        } else {
+          backups.get(i).delete();
+        }
       }
+
+      deleteDeltasExcept(keptChains);
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
     }
   }
 
+  public static @NonNull String getBackupFileName(@NonNull String timestamp) {
+    return BACKUP_FILE_PREFIX + timestamp + BACKUP_EXTENSION;
+  }
+
+  /**
+   * Deltas are named after the base of their chain, so they can be found from it. They also use a
+   * different extension than full backups, so nothing will mistake one for something that can be
+   * restored on its own.
+   *
+   * @param chainId  The timestamp in the file name of the base.
+   * @param sequence The position of the delta in the chain. The first delta is 1.
+   */
+  public static @NonNull String getDeltaFileName(@NonNull String chainId, int sequence) {
+    return BACKUP_FILE_PREFIX + chainId + "-" + sequence + DELTA_EXTENSION;
+  }
+
+  /**
+   * @return The deltas that need to be restored on top of the provided backup, in order. Only
+   *         backups in the legacy backup directory can have deltas.
+   */
+  public static @NonNull List<Uri> getDeltasForBackup(@NonNull BackupInfo backup) {
+    Uri uri = backup.getUri();
+
+    String chainId = getChainId(backup);
+
+    if (!"file".equals(uri.getScheme()) || uri.getPath() == null || chainId == null) {
+      return Collections.emptyList();
+    }
+
+    List<Uri> deltas = new ArrayList<>();
+
+    for (File delta : getDeltaFiles(new File(uri.getPath()).getParentFile(), chainId)) {
+      deltas.add(Uri.fromFile(delta));
+    }
+
+    return deltas;
+  }
+
+  /**
+   * @return The deltas of the chain in the directory, in order, up to the first one that's missing.
+   */
+  @VisibleForTesting
+  static @NonNull List<File> getDeltaFiles(@NonNull File backupDirectory, @NonNull String chainId) {
+    List<File> deltas = new ArrayList<>();
+
+    for (int sequence = 1; ; sequence++) {
+      File delta = new File(backupDirectory, getDeltaFileName(chainId, sequence));
+
+      if (!delta.exists()) {
+        break;
+      }
+
+      deltas.add(delta);
+    }
+
+    return deltas;
+  }
+
+  private static long getLastModified(@NonNull BackupInfo backup) {
+    List<Uri> deltas = getDeltasForBackup(backup);
+
+    if (deltas.isEmpty()) {
+      return backup.getTimestamp();
+    } else {
+      return Math.max(backup.getTimestamp(), new File(deltas.get(deltas.size() - 1).getPath()).lastModified());
+    }
+  }
+
+  private static @Nullable String getChainId(@NonNull BackupInfo backup) {
+    return getChainId(backup.getUri().getLastPathSegment());
+  }
+
+  /**
+   * @return The chain id of a base backup file name, or null if it isn't one.
+   */
+  @VisibleForTesting
+  static @Nullable String getChainId(@Nullable String name) {
+    if (name == null || !name.startsWith(BACKUP_FILE_PREFIX) || !name.endsWith(BACKUP_EXTENSION)) {
+      return null;
+    }
+
+    return name.substring(BACKUP_FILE_PREFIX.length(), name.length() - BACKUP_EXTENSION.length());
+  }
+
+  private static void deleteDeltasExcept(@NonNull Set<String> keptChains) throws NoExternalStorageException {
+    if (isUserSelectionRequired(ApplicationDependencies.getApplication())) {
+      return;
+    }
+
+    deleteDeltasExcept(StorageUtil.getOrCreateBackupDirectory(), keptChains);
+  }
+
+  @VisibleForTesting
+  static void deleteDeltasExcept(@NonNull File backupDirectory, @NonNull Set<String> keptChains) {
+    File[] files = backupDirectory.listFiles();
+
+    if (files == null) {
+      return;
+    }
+
+    for (File file : files) {
+      String name = file.getName();
+
+      if (file.isFile() && name.startsWith(BACKUP_FILE_PREFIX) && name.endsWith(DELTA_EXTENSION) && name.lastIndexOf('-') > BACKUP_FILE_PREFIX.length()) {
+        String chainId = name.substring(BACKUP_FILE_PREFIX.length(), name.lastIndexOf('-'));
+
+        if (!keptChains.contains(chainId) && !file.delete()) {
+          Log.w(TAG, "Failed to delete old delta.");
+        }
+      }
+    }
+  }
+
   public static void disableBackups(@NonNull Context context) {
     BackupPassphrase.set(context, null);
     SignalStore.settings().setBackupEnabled(false);
@@ -63,6 +63,7 @@ public final class FeatureFlags {
   private static final String CLIENT_EXPIRATION                 = "android.clientExpiration";
   public  static final String DONATE_MEGAPHONE                  = "android.donate";
   private static final String CUSTOM_VIDEO_MUXER                = "android.customVideoMuxer";
+  private static final String FRAGMENTED_VIDEO_MUXER            = "android.fragmentedVideoMuxer";
   private static final String CDS_REFRESH_INTERVAL              = "cds.syncInterval.seconds";
   private static final String AUTOMATIC_SESSION_RESET           = "android.automaticSessionReset.2";
   private static final String AUTOMATIC_SESSION_INTERVAL        = "android.automaticSessionResetInterval";
@@ -80,6 +81,8 @@ public final class FeatureFlags {
   private static final String RETRY_RESPOND_MAX_AGE             = "android.retryRespondMaxAge";
   private static final String SENDER_KEY                        = "android.senderKey.2";
   private static final String SUGGEST_SMS_BLACKLIST             = "android.suggestSmsBlacklist";
+  private static final String DATABASE_WAL                      = "android.database.wal";
+  private static final String SLOW_QUERY_THRESHOLD              = "android.database.slowQueryThresholdMs";
 
   /**
    * We will only store remote values for flags in this set. If you want a flag to be controllable
@@ -96,6 +99,7 @@ public final class FeatureFlags {
       CLIENT_EXPIRATION,
       DONATE_MEGAPHONE,
       CUSTOM_VIDEO_MUXER,
+      FRAGMENTED_VIDEO_MUXER,
       CDS_REFRESH_INTERVAL,
       GROUP_NAME_MAX_LENGTH,
       AUTOMATIC_SESSION_RESET,
@@ -113,7 +117,9 @@ public final class FeatureFlags {
       RETRY_RECEIPT_LIFESPAN,
       RETRY_RESPOND_MAX_AGE,
       SENDER_KEY,
-      SUGGEST_SMS_BLACKLIST
+      SUGGEST_SMS_BLACKLIST,
+      DATABASE_WAL,
+      SLOW_QUERY_THRESHOLD
   );
 
   @VisibleForTesting
@@ -144,6 +150,7 @@ public final class FeatureFlags {
       VERIFY_V2,
       CLIENT_EXPIRATION,
       CUSTOM_VIDEO_MUXER,
+      FRAGMENTED_VIDEO_MUXER,
       CDS_REFRESH_INTERVAL,
       GROUP_NAME_MAX_LENGTH,
       AUTOMATIC_SESSION_RESET,
@@ -160,7 +167,8 @@ public final class FeatureFlags {
       MEDIA_QUALITY_LEVELS,
       RETRY_RECEIPT_LIFESPAN,
       RETRY_RESPOND_MAX_AGE,
-      SUGGEST_SMS_BLACKLIST
+      SUGGEST_SMS_BLACKLIST,
+      SLOW_QUERY_THRESHOLD
   );
 
   /**
@@ -185,6 +193,7 @@ public final class FeatureFlags {
   private static final Map<String, OnFlagChange> FLAG_CHANGE_LISTENERS = new HashMap<String, OnFlagChange>() {{
     put(MESSAGE_PROCESSOR_ALARM_INTERVAL, change -> MessageProcessReceiver.startOrUpdateAlarm(ApplicationDependencies.getApplication()));
     put(SENDER_KEY, change -> ApplicationDependencies.getJobManager().add(new RefreshAttributesJob()));
+    put(DATABASE_WAL, change -> TextSecurePreferences.setDatabaseWalEnabled(ApplicationDependencies.getApplication(), databaseWriteAheadLogging()));
   }};
 
   private static final Map<String, Object> REMOTE_VALUES = new TreeMap<>();
@@ -289,6 +298,11 @@ public final class FeatureFlags {
     return getBoolean(CUSTOM_VIDEO_MUXER, false);
   }
 
+  /** Whether the streaming muxer should write fragmented MP4s, which need far less memory for long videos. */
+  public static boolean useFragmentedVideoMuxer() {
+    return getBoolean(FRAGMENTED_VIDEO_MUXER, false);
+  }
+
   /** The time in between routine CDS refreshes, in seconds. */
   public static int cdsRefreshIntervalSeconds() {
     return getInteger(CDS_REFRESH_INTERVAL, (int) TimeUnit.HOURS.toSeconds(48));
@@ -362,6 +376,19 @@ public final class FeatureFlags {
     return getBoolean(SENDER_KEY, false);
   }
 
+  /**
+   * Whether the message database should use write-ahead logging with a pool of reader connections.
+   * Only takes effect the next time the database is opened.
+   */
+  public static boolean databaseWriteAheadLogging() {
+    return getBoolean(DATABASE_WAL, false);
+  }
+
+  /** Database statements that take at least this long have their query plan captured for the debug log. */
+  public static int slowQueryThresholdMs() {
+    return getInteger(SLOW_QUERY_THRESHOLD, 100);
+  }
+
   /** A comma-delimited list of country codes that should not be told about SMS during onboarding. */
   public static @NonNull String suggestSmsBlacklist() {
     return getString(SUGGEST_SMS_BLACKLIST, "");
@@ -164,6 +164,15 @@ public final class SqlUtil {
     return output;
   }
 
+  public static String[] appendArgs(@NonNull String[] args, @NonNull String[] additions) {
+    String[] output = new String[args.length + additions.length];
+
+    System.arraycopy(args, 0, output, 0, args.length);
+    System.arraycopy(additions, 0, output, args.length, additions.length);
+
+    return output;
+  }
+
   public static class Query {
     private final String   where;
     private final String[] whereArgs;
@@ -0,0 +1,306 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A set of startup tasks where each task names the tasks it depends on. Tasks that have to run on
+ * the calling thread are run there, everything else is handed to a background executor as soon as
+ * its dependencies have finished. Dependencies have to be added before the tasks that need them,
+ * so the graph can't have cycles.
+ */
+final class StartupTaskGraph {
+
+  private final Object            lock                 = new Object();
+  private final Map<String, Node> nodes                = new LinkedHashMap<>();
+  private final ArrayDeque<Node>  readyOnCallingThread = new ArrayDeque<>();
+
+  private int       completed;
+  private Throwable failure;
+  private long      executeStartTime;
+  private long      executeEndTime;
+
+  /**
+   * @param onCallingThread Whether the task has to run on the thread that calls {@link #execute(Executor)}.
+   * @param dependencies    Names of tasks that have to finish before this one starts.
+   */
+  void add(@NonNull String name, boolean onCallingThread, @NonNull Collection<String> dependencies, @NonNull Runnable runnable) {
+    if (nodes.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate startup task: " + name);
+    }
+
+    List<Node> dependencyNodes = new ArrayList<>(dependencies.size());
+
+    for (String dependency : dependencies) {
+      Node node = nodes.get(dependency);
+
+      if (node == null) {
+        throw new IllegalArgumentException("Startup task " + name + " depends on " + dependency + ", which hasn't been added.");
+      }
+
+      dependencyNodes.add(node);
+    }
+
+    Node node = new Node(name, onCallingThread, dependencyNodes, runnable);
+
+    for (Node dependency : dependencyNodes) {
+      dependency.dependents.add(node);
+    }
+
+    nodes.put(name, node);
+  }
+
+  @NonNull Collection<String> getNames() {
+    return Collections.unmodifiableCollection(new ArrayList<>(nodes.keySet()));
+  }
+
+  void clear() {
+    synchronized (lock) {
+      nodes.clear();
+      readyOnCallingThread.clear();
+      completed = 0;
+      failure   = null;
+    }
+  }
+
+  /**
+   * Runs every task and returns once they have all finished. If a task throws, nothing new is
+   * started and the failure is rethrown here.
+   */
+  void execute(@NonNull Executor background) {
+    boolean interrupted = false;
+
+    executeStartTime = System.nanoTime();
+
+    for (Node node : nodes.values()) {
+      if (node.dependencies.isEmpty()) {
+        dispatch(node, background);
+      }
+    }
+
+    while (true) {
+      Node next;
+
+      synchronized (lock) {
+        while (readyOnCallingThread.isEmpty() && completed < nodes.size() && failure == null) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+
+        if (failure != null) {
+          executeEndTime = System.nanoTime();
+          rethrow(failure);
+        }
+
+        if (completed == nodes.size()) {
+          break;
+        }
+
+        next = readyOnCallingThread.removeFirst();
+      }
+
+      run(next, background);
+    }
+
+    executeEndTime = System.nanoTime();
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Logs how long each task took and where it ran, and the timings of the whole graph.
+   */
+  void logTimings(@NonNull String tag) {
+    StringBuilder tasks = new StringBuilder("[init] ");
+
+    for (Node node : nodes.values()) {
+      tasks.append(node.name).append(": ").append(toMillis(node.getDuration()));
+
+      if (!node.onCallingThread) {
+        tasks.append(" (").append(node.threadName).append(", waited ").append(toMillis(node.startTime - node.readyTime)).append(")");
+      }
+
+      tasks.append("  ");
+    }
+
+    Log.d(tag, tasks.toString());
+    Log.i(tag, "[init] Wall time: " + getWallTimeMs() + " ms, " +
+               "Critical path: " + getCriticalPathMs() + " ms (" + Util.join(getCriticalPath(), " > ") + "), " +
+               "Serial time: " + getSerialTimeMs() + " ms");
+  }
+
+  /**
+   * How long {@link #execute(Executor)} blocked the calling thread.
+   */
+  long getWallTimeMs() {
+    return toMillis(executeEndTime - executeStartTime);
+  }
+
+  /**
+   * What the tasks would have taken run one after another.
+   */
+  long getSerialTimeMs() {
+    long total = 0;
+
+    for (Node node : nodes.values()) {
+      total += node.getDuration();
+    }
+
+    return toMillis(total);
+  }
+
+  /**
+   * The time taken by the longest chain of dependent tasks, which is as fast as the graph can run.
+   */
+  long getCriticalPathMs() {
+    Node last = computeCriticalPath();
+    return last != null ? toMillis(last.pathDuration) : 0;
+  }
+
+  @NonNull List<String> getCriticalPath() {
+    LinkedList<String> path = new LinkedList<>();
+
+    for (Node node = computeCriticalPath(); node != null; node = node.pathPredecessor) {
+      path.addFirst(node.name);
+    }
+
+    return path;
+  }
+
+  private @Nullable Node computeCriticalPath() {
+    Node last = null;
+
+    for (Node node : nodes.values()) {
+      node.pathPredecessor = null;
+
+      for (Node dependency : node.dependencies) {
+        if (node.pathPredecessor == null || dependency.pathDuration > node.pathPredecessor.pathDuration) {
+          node.pathPredecessor = dependency;
+        }
+      }
+
+      node.pathDuration = node.getDuration() + (node.pathPredecessor != null ? node.pathPredecessor.pathDuration : 0);
+
+      if (last == null || node.pathDuration > last.pathDuration) {
+        last = node;
+      }
+    }
+
+    return last;
+  }
+
+  private void dispatch(@NonNull Node node, @NonNull Executor background) {
+    node.readyTime = System.nanoTime();
+
+    if (node.onCallingThread) {
+      synchronized (lock) {
+        readyOnCallingThread.add(node);
+        lock.notifyAll();
+      }
+    } else {
+      background.execute(() -> run(node, background));
+    }
+  }
+
+  private void run(@NonNull Node node, @NonNull Executor background) {
+    node.threadName = Thread.currentThread().getName();
+    node.startTime  = System.nanoTime();
+
+    try {
+      node.runnable.run();
+    } catch (Throwable t) {
+      synchronized (lock) {
+        if (failure == null) {
+          failure = t;
+        }
+        lock.notifyAll();
+      }
+      return;
+    } finally {
+      node.endTime = System.nanoTime();
+    }
+
+    List<Node> ready = new ArrayList<>(node.dependents.size());
+
+    synchronized (lock) {
+      completed++;
+
+      if (failure == null) {
+        for (Node dependent : node.dependents) {
+          if (--dependent.remainingDependencies == 0) {
+            ready.add(dependent);
+          }
+        }
+      }
+
+      lock.notifyAll();
+    }
+
+    for (Node dependent : ready) {
+      dispatch(dependent, background);
+    }
+  }
+
+  private static void rethrow(@NonNull Throwable t) {
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static final class Node {
+    private final String     name;
+    private final boolean    onCallingThread;
+    private final List<Node> dependencies;
+    private final List<Node> dependents;
+    private final Runnable   runnable;
+
+    private int remainingDependencies;
+
+    private volatile String threadName;
+    private volatile long   readyTime;
+    private volatile long   startTime;
+    private volatile long   endTime;
+
+    private Node pathPredecessor;
+    private long pathDuration;
+
+    private Node(@NonNull String name, boolean onCallingThread, @NonNull List<Node> dependencies, @NonNull Runnable runnable) {
+      this.name                  = name;
+      this.onCallingThread       = onCallingThread;
+      this.dependencies          = dependencies;
+      this.dependents            = new ArrayList<>();
+      this.runnable              = runnable;
+      this.remainingDependencies = dependencies.size();
+    }
+
+    long getDuration() {
+      return endTime - startTime;
+    }
+  }
+}
@@ -216,6 +216,8 @@ public class TextSecurePreferences {
 
   private static final String ARGON2_TESTED = "argon2_tested";
 
+  private static final String DATABASE_WAL_ENABLED = "pref_database_wal_enabled";
+
   private static final String[] booleanPreferencesToBackup = {SCREEN_SECURITY_PREF,
                                                               INCOGNITO_KEYBORAD_PREF,
                                                               ALWAYS_RELAY_CALLS_PREF,
@@ -1241,6 +1243,18 @@ public class TextSecurePreferences {
     setBooleanPreference(context, ARGON2_TESTED, tested);
   }
 
+  /**
+   * Read when the database is opened, which is before remote config is available, so this mirrors
+   * {@link FeatureFlags#databaseWriteAheadLogging()} as of the last app start.
+   */
+  public static boolean isDatabaseWalEnabled(Context context) {
+    return getBooleanPreference(context, DATABASE_WAL_ENABLED, false);
+  }
+
+  public static void setDatabaseWalEnabled(Context context, boolean enabled) {
+    setBooleanPreference(context, DATABASE_WAL_ENABLED, enabled);
+  }
+
   public static void setBooleanPreference(Context context, String key, boolean value) {
     PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
   }
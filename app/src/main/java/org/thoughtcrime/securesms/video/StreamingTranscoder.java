@@ -33,6 +33,7 @@ public final class StreamingTranscoder {
   private final           boolean                        transcodeRequired;
   private final           long                           fileSizeEstimate;
   private final @Nullable TranscoderOptions              options;
+  private final           boolean                        fragmented;
 
   /**
    * @param upperSizeLimit A upper size to transcode to. The actual output size can be up to 10% smaller.
@@ -41,9 +42,23 @@ public final class StreamingTranscoder {
                              @Nullable TranscoderOptions options,
                              long upperSizeLimit)
       throws IOException, VideoSourceException
+  {
+    this(dataSource, options, upperSizeLimit, false);
+  }
+
+  /**
+   * @param upperSizeLimit A upper size to transcode to. The actual output size can be up to 10% smaller.
+   * @param fragmented     Write a fragmented MP4, so memory use doesn't grow with the length of the video.
+   */
+  public StreamingTranscoder(@NonNull MediaDataSource dataSource,
+                             @Nullable TranscoderOptions options,
+                             long upperSizeLimit,
+                             boolean fragmented)
+      throws IOException, VideoSourceException
   {
     this.dataSource = dataSource;
     this.options    = options;
+    this.fragmented = fragmented;
 
     final MediaMetadataRetriever mediaMetadataRetriever = new MediaMetadataRetriever();
     try {
@@ -106,7 +121,7 @@ public final class StreamingTranscoder {
     final LimitedSizeOutputStream limitedSizeOutputStream = new LimitedSizeOutputStream(stream, upperSizeLimit);
 
     converter.setInput(new MediaInput.MediaDataSourceMediaInput(dataSource));
-    converter.setOutput(limitedSizeOutputStream);
+    converter.setOutput(limitedSizeOutputStream, fragmented);
     converter.setVideoResolution(targetQuality.getOutputResolution());
     converter.setVideoBitrate(targetQuality.getTargetVideoBitRate());
     converter.setAudioBitrate(targetQuality.getTargetAudioBitRate());
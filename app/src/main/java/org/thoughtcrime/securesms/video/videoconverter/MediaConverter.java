@@ -88,7 +88,15 @@ public final class MediaConverter {
     }
 
     public void setOutput(final @NonNull OutputStream stream) {
-        mOutput = new StreamOutput(stream);
+        setOutput(stream, false);
+    }
+
+    /**
+     * @param fragmented Write a fragmented MP4. Memory use stays bounded by the fragment size however
+     *                   long the video is, but the duration is left out of the header.
+     */
+    public void setOutput(final @NonNull OutputStream stream, boolean fragmented) {
+        mOutput = new StreamOutput(stream, fragmented);
     }
 
     @SuppressWarnings("unused")
@@ -342,14 +350,16 @@ public final class MediaConverter {
      private static class StreamOutput implements Output {
 
         final OutputStream outputStream;
+        final boolean      fragmented;
 
-        StreamOutput(final @NonNull OutputStream outputStream) {
+        StreamOutput(final @NonNull OutputStream outputStream, boolean fragmented) {
             this.outputStream = outputStream;
+            this.fragmented   = fragmented;
         }
 
         @Override
         public @NonNull Muxer createMuxer() {
-            return new StreamingMuxer(outputStream);
+            return new StreamingMuxer(outputStream, fragmented);
         }
     }
 }
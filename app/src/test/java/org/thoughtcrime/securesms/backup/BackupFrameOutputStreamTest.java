@@ -0,0 +1,205 @@
+package org.thoughtcrime.securesms.backup;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream;
+import org.thoughtcrime.securesms.backup.FullBackupImporter.BackupRecordInputStream;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream.CHUNK_SIZE;
+import static org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream.MAX_BUFFERED_BYTES;
+import static org.thoughtcrime.securesms.backup.FullBackupExporter.BackupFrameOutputStream.MAX_SEGMENT_CHUNKS;
+import static org.thoughtcrime.securesms.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
+
+public final class BackupFrameOutputStreamTest {
+
+  private static final String PASSPHRASE = "123451234512345123451234512345";
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(new EmptyLogger());
+  }
+
+  @Before
+  public void ensureNativeSupported() {
+    assumeLibSignalSupportedOnOS();
+  }
+
+  @Test
+  public void writeEnd_framesAndBlobsReadBackInOrder() throws IOException {
+    byte[]                  attachment = Util.getSecretBytes(5 * CHUNK_SIZE + 123);
+    byte[]                  sticker    = Util.getSecretBytes(100);
+    byte[]                  avatar     = Util.getSecretBytes(CHUNK_SIZE);
+    ByteArrayOutputStream   output     = new ByteArrayOutputStream();
+    BackupFrameOutputStream stream     = new BackupFrameOutputStream(output, PASSPHRASE);
+
+    try {
+      stream.writeDatabaseVersion(97);
+      stream.write(statement("INSERT 1"));
+      stream.write(new AttachmentId(1, 2), new ByteArrayInputStream(attachment), attachment.length);
+      stream.write(statement("INSERT 2"));
+      stream.writeSticker(3, new ByteArrayInputStream(sticker), sticker.length);
+      stream.write("avatar", new ByteArrayInputStream(avatar), avatar.length);
+      stream.writeEnd();
+    } finally {
+      stream.stop();
+    }
+
+    BackupRecordInputStream  input = new BackupRecordInputStream(new ByteArrayInputStream(output.toByteArray()), PASSPHRASE);
+    BackupProtos.BackupFrame frame;
+
+    assertEquals(97, input.readFrame().getVersion().getVersion());
+    assertEquals("INSERT 1", input.readFrame().getStatement().getStatement());
+
+    frame = input.readFrame();
+    assertEquals(1, frame.getAttachment().getRowId());
+    assertEquals(2, frame.getAttachment().getAttachmentId());
+    assertArrayEquals(attachment, readBlob(input, frame.getAttachment().getLength()));
+
+    assertEquals("INSERT 2", input.readFrame().getStatement().getStatement());
+
+    frame = input.readFrame();
+    assertEquals(3, frame.getSticker().getRowId());
+    assertArrayEquals(sticker, readBlob(input, frame.getSticker().getLength()));
+
+    frame = input.readFrame();
+    assertEquals("avatar", frame.getAvatar().getRecipientId());
+    assertArrayEquals(avatar, readBlob(input, frame.getAvatar().getLength()));
+
+    assertTrue(input.readFrame().getEnd());
+  }
+
+  @Test
+  public void write_slowOutput_bufferedBytesStayWithinBudget() throws IOException {
+    int                     blobSize = (MAX_SEGMENT_CHUNKS - 2) * CHUNK_SIZE + 100;
+    byte[]                  blob     = Util.getSecretBytes(blobSize);
+    SlowOutputStream        output   = new SlowOutputStream();
+    BackupFrameOutputStream stream   = new BackupFrameOutputStream(output, PASSPHRASE);
+
+    try {
+      for (int i = 0; i < 48; i++) {
+        stream.write(new AttachmentId(i, i), new ByteArrayInputStream(blob), blobSize);
+        stream.write(statement("INSERT " + i));
+      }
+      stream.writeEnd();
+    } finally {
+      stream.stop();
+    }
+
+    long peak = stream.getPeakBufferedBytes();
+
+    assertTrue("Peak " + peak, peak > MAX_SEGMENT_CHUNKS * CHUNK_SIZE);
+    assertTrue("Peak " + peak, peak <= MAX_BUFFERED_BYTES + (MAX_SEGMENT_CHUNKS + 2) * (CHUNK_SIZE + 10));
+  }
+
+  @Test
+  public void writeEnd_blobReadFails_throws() throws IOException {
+    BackupFrameOutputStream stream = new BackupFrameOutputStream(new ByteArrayOutputStream(), PASSPHRASE);
+
+    try {
+      stream.write(new AttachmentId(1, 1), new FailingInputStream(3 * CHUNK_SIZE), 4 * CHUNK_SIZE);
+      stream.writeEnd();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Read failed", e.getMessage());
+    } finally {
+      stream.stop();
+    }
+  }
+
+  @Test
+  public void writeEnd_blobShorterThanSize_throws() throws IOException {
+    BackupFrameOutputStream stream = new BackupFrameOutputStream(new ByteArrayOutputStream(), PASSPHRASE);
+
+    try {
+      stream.write(new AttachmentId(1, 1), new ByteArrayInputStream(new byte[100]), 200);
+      stream.writeEnd();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Size mismatch!", e.getMessage());
+    } finally {
+      stream.stop();
+    }
+  }
+
+  @Test
+  public void write_afterWriterFails_throws() throws Exception {
+    BackupFrameOutputStream stream = new BackupFrameOutputStream(new ByteArrayOutputStream(), PASSPHRASE);
+
+    try {
+      stream.write(new AttachmentId(1, 1), new FailingInputStream(0), 100);
+
+      for (int i = 0; i < 500; i++) {
+        stream.write(statement("INSERT " + i));
+        Thread.sleep(10);
+      }
+
+      fail();
+    } catch (IOException e) {
+      assertEquals("Read failed", e.getMessage());
+    } finally {
+      stream.stop();
+    }
+  }
+
+  private static @NonNull BackupProtos.SqlStatement statement(@NonNull String sql) {
+    return BackupProtos.SqlStatement.newBuilder().setStatement(sql).build();
+  }
+
+  private static @NonNull byte[] readBlob(@NonNull BackupRecordInputStream input, int length) throws IOException {
+    ByteArrayOutputStream blob = new ByteArrayOutputStream();
+    input.readAttachmentTo(blob, length);
+    return blob.toByteArray();
+  }
+
+  /**
+   * Takes a millisecond for every write, so the encryptors get ahead of the writer.
+   */
+  private static final class SlowOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static final class FailingInputStream extends InputStream {
+
+    private int remaining;
+
+    private FailingInputStream(int failAfter) {
+      this.remaining = failAfter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining-- <= 0) {
+        throw new IOException("Read failed");
+      }
+      return 0;
+    }
+  }
+}
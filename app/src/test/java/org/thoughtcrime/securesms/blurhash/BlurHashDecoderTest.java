@@ -0,0 +1,101 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
+
+public final class BlurHashDecoderTest {
+
+  private static final String[] HASHES = {
+      "LEHV6nWB2yk8pyo0adR*.7kCMdnj",
+      "LGF5]+Yk^6#M@-5c,1J5@[or[Q6.",
+      "L6PZfSi_.AyE_3t7t7R**0o#DgR4",
+      "LKO2?U%2Tw=w]~RBVZRi};RPxuwH"
+  };
+
+  @Test
+  public void decodePixels_matchesPerPixelEvaluation() {
+    for (String hash : HASHES) {
+      for (int[] size : new int[][] { { 20, 15 }, { 15, 20 }, { 32, 32 }, { 1, 1 } }) {
+        int[] expected = referenceDecode(hash, size[0], size[1], 1);
+        int[] actual   = BlurHashDecoder.decodePixels(hash, size[0], size[1], 1);
+
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+
+        for (int p = 0; p < expected.length; p++) {
+          assertEquals(0xff000000, actual[p] & 0xff000000);
+          assertTrue(Math.abs(((expected[p] >> 16) & 0xff) - ((actual[p] >> 16) & 0xff)) <= 1);
+          assertTrue(Math.abs(((expected[p] >> 8) & 0xff) - ((actual[p] >> 8) & 0xff)) <= 1);
+          assertTrue(Math.abs((expected[p] & 0xff) - (actual[p] & 0xff)) <= 1);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void decodePixels_invalidHash() {
+    assertNull(BlurHashDecoder.decodePixels(null, 20, 20, 1));
+    assertNull(BlurHashDecoder.decodePixels("LEHV6", 20, 20, 1));
+    assertNull(BlurHashDecoder.decodePixels("LEHV6nWB2yk8pyo0adR*.7kCMdn", 20, 20, 1));
+  }
+
+  /**
+   * The decoder as it was before the cosine tables, with the bitmap replaced by an array.
+   */
+  private static int[] referenceDecode(String blurHash, int width, int height, double punch) {
+    int numCompEnc = Base83.decode(blurHash, 0, 1);
+    int numCompX   = (numCompEnc % 9) + 1;
+    int numCompY   = (numCompEnc / 9) + 1;
+
+    int        maxAcEnc = Base83.decode(blurHash, 1, 2);
+    double     maxAc    = (maxAcEnc + 1) / 166f;
+    double[][] colors   = new double[numCompX * numCompY][];
+
+    for (int i = 0; i < colors.length; i++) {
+      if (i == 0) {
+        int colorEnc = Base83.decode(blurHash, 2, 6);
+        colors[i] = new double[] { sRGBToLinear(colorEnc >> 16), sRGBToLinear((colorEnc >> 8) & 255), sRGBToLinear(colorEnc & 255) };
+      } else {
+        int from     = 4 + i * 2;
+        int colorEnc = Base83.decode(blurHash, from, from + 2);
+        int r        = colorEnc / (19 * 19);
+        int g        = (colorEnc / 19) % 19;
+        int b        = colorEnc % 19;
+        colors[i] = new double[] { signPow((r - 9) / 9.0f, 2f) * maxAc * punch,
+                                   signPow((g - 9) / 9.0f, 2f) * maxAc * punch,
+                                   signPow((b - 9) / 9.0f, 2f) * maxAc * punch };
+      }
+    }
+
+    int[] pixels = new int[width * height];
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double r = 0f;
+        double g = 0f;
+        double b = 0f;
+
+        for (int j = 0; j < numCompY; j++) {
+          for (int i = 0; i < numCompX; i++) {
+            double   basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+            double[] color = colors[j * numCompX + i];
+            r += color[0] * basis;
+            g += color[1] * basis;
+            b += color[2] * basis;
+          }
+        }
+
+        pixels[y * width + x] = 0xff000000 | ((int) linearTosRGB(r) << 16) | ((int) linearTosRGB(g) << 8) | (int) linearTosRGB(b);
+      }
+    }
+
+    return pixels;
+  }
+}
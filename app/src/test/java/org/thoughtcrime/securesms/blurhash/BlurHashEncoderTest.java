@@ -0,0 +1,121 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.linearTosRGB;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.max;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.sRGBToLinear;
+import static org.thoughtcrime.securesms.blurhash.BlurHashUtil.signPow;
+
+public final class BlurHashEncoderTest {
+
+  @Test
+  public void encode_matchesPerPixelEvaluation() {
+    Random random = new Random(42);
+
+    for (int n = 0; n < 20; n++) {
+      int   width  = 8 + random.nextInt(120);
+      int   height = 8 + random.nextInt(120);
+      int[] pixels = gradientImage(random, width, height);
+
+      assertEquals(referenceEncode(pixels, width, height, 4, 3), BlurHashEncoder.encode(pixels, width, height, 4, 3));
+    }
+  }
+
+  @Test
+  public void encode_flatImage_averageColorIsExact() {
+    int[] pixels = new int[16 * 16];
+    java.util.Arrays.fill(pixels, 0xff336699);
+
+    String hash = BlurHashEncoder.encode(pixels, 16, 16, 4, 3);
+
+    assertEquals(0x336699, Base83.decode(hash, 2, 6));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void encode_tooManyComponents() {
+    BlurHashEncoder.encode(new int[4], 2, 2, 10, 3);
+  }
+
+  /**
+   * Smooth gradients with some noise, which is what a downsampled photo looks like.
+   */
+  private static int[] gradientImage(Random random, int width, int height) {
+    int[] pixels = new int[width * height];
+    int   r0     = random.nextInt(256);
+    int   g0     = random.nextInt(256);
+    int   b0     = random.nextInt(256);
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int r = clamp(r0 + (x * 128 / width) - (y * 64 / height) + random.nextInt(16));
+        int g = clamp(g0 - (x * 64 / width) + (y * 128 / height) + random.nextInt(16));
+        int b = clamp(b0 + ((x + y) * 96 / (width + height)) + random.nextInt(16));
+
+        pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+      }
+    }
+
+    return pixels;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  /**
+   * The encoder as it was before the cosine tables.
+   */
+  private static String referenceEncode(int[] pixels, int width, int height, int componentX, int componentY) {
+    double[][] factors = new double[componentX * componentY][3];
+
+    for (int j = 0; j < componentY; j++) {
+      for (int i = 0; i < componentX; i++) {
+        double normalisation = i == 0 && j == 0 ? 1 : 2;
+        double r = 0, g = 0, b = 0;
+
+        for (int x = 0; x < width; x++) {
+          for (int y = 0; y < height; y++) {
+            double basis = normalisation
+                         * Math.cos((Math.PI * i * x) / width)
+                         * Math.cos((Math.PI * j * y) / height);
+            int pixel = pixels[y * width + x];
+            r += basis * sRGBToLinear((pixel >> 16) & 0xff);
+            g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
+            b += basis * sRGBToLinear( pixel        & 0xff);
+          }
+        }
+
+        double scale = 1.0 / (width * height);
+        factors[j * componentX + i][0] = r * scale;
+        factors[j * componentX + i][1] = g * scale;
+        factors[j * componentX + i][2] = b * scale;
+      }
+    }
+
+    char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)];
+
+    Base83.encode(componentX - 1 + (componentY - 1) * 9, 1, hash, 0);
+
+    double actualMaximumValue    = max(factors, 1, factors.length);
+    double quantisedMaximumValue = Math.floor(Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5))));
+    double maximumValue          = (quantisedMaximumValue + 1) / 166;
+    Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1);
+
+    double[] dc = factors[0];
+    Base83.encode((linearTosRGB(dc[0]) << 16) + (linearTosRGB(dc[1]) << 8) + linearTosRGB(dc[2]), 4, hash, 2);
+
+    for (int i = 1; i < factors.length; i++) {
+      double[] value  = factors[i];
+      double   quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[0] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[1] / maximumValue, 0.5) * 9 + 9.5))));
+      double   quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[2] / maximumValue, 0.5) * 9 + 9.5))));
+      Base83.encode(Math.round(quantR * 19 * 19 + quantG * 19 + quantB), 2, hash, 6 + 2 * (i - 1));
+    }
+
+    return new String(hash);
+  }
+}
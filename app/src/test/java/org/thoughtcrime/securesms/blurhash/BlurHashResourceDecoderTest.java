@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.blurhash;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.engine.Resource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class BlurHashResourceDecoderTest {
+
+  private static final String HASH       = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+  private static final String OTHER_HASH = "LGF5]+Yk^6#M@-5c,1J5@[or[Q6.";
+
+  @Test
+  public void getPixels_sameHashAndSize_hit() {
+    BlurHashResourceDecoder decoder = new BlurHashResourceDecoder();
+
+    int[] first  = decoder.getPixels(HASH, 20, 15);
+    int[] second = decoder.getPixels(HASH, 20, 15);
+
+    assertNotNull(first);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void getPixels_differentSizeOrHash_miss() {
+    BlurHashResourceDecoder decoder = new BlurHashResourceDecoder();
+
+    int[] pixels = decoder.getPixels(HASH, 20, 15);
+
+    assertNotSame(pixels, decoder.getPixels(HASH, 15, 20));
+    assertNotSame(pixels, decoder.getPixels(OTHER_HASH, 20, 15));
+    assertSame(pixels, decoder.getPixels(HASH, 20, 15));
+  }
+
+  @Test
+  public void getPixels_pastCapacity_leastRecentlyUsedEvicted() {
+    BlurHashResourceDecoder decoder = new BlurHashResourceDecoder(2);
+
+    int[] first  = decoder.getPixels(HASH, 20, 15);
+    int[] second = decoder.getPixels(OTHER_HASH, 20, 15);
+
+    assertSame(first, decoder.getPixels(HASH, 20, 15));
+
+    decoder.getPixels(HASH, 10, 10);
+
+    assertSame(first, decoder.getPixels(HASH, 20, 15));
+    assertNotSame(second, decoder.getPixels(OTHER_HASH, 20, 15));
+  }
+
+  @Test
+  public void getPixels_evicted_decodesSamePixelsAgain() {
+    BlurHashResourceDecoder decoder = new BlurHashResourceDecoder(1);
+
+    int[] first = decoder.getPixels(HASH, 20, 15);
+    decoder.getPixels(OTHER_HASH, 20, 15);
+    int[] again = decoder.getPixels(HASH, 20, 15);
+
+    assertNotSame(first, again);
+    assertArrayEquals(first, again);
+  }
+
+  @Test
+  public void decode_cachedHash_separateBitmapPerCaller() throws IOException {
+    BlurHashResourceDecoder decoder = new BlurHashResourceDecoder();
+    BlurHash                hash    = BlurHash.parseOrNull(HASH);
+
+    Resource<Bitmap> first  = decoder.decode(hash, 200, 150, new Options());
+    Resource<Bitmap> second = decoder.decode(hash, 200, 150, new Options());
+
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNotSame(first.get(), second.get());
+    assertEquals(20, second.get().getWidth());
+    assertEquals(15, second.get().getHeight());
+
+    int[] expected = decoder.getPixels(HASH, 20, 15);
+
+    first.get().recycle();
+
+    assertTrue(first.get().isRecycled());
+    assertFalse(second.get().isRecycled());
+    assertEquals(expected[0], second.get().getPixel(0, 0));
+    assertEquals(expected[expected.length - 1], second.get().getPixel(19, 14));
+
+    Resource<Bitmap> third = decoder.decode(hash, 200, 150, new Options());
+
+    assertNotNull(third);
+    assertFalse(third.get().isRecycled());
+    assertEquals(expected[0], third.get().getPixel(0, 0));
+  }
+}
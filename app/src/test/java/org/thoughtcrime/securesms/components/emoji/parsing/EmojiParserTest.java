@@ -0,0 +1,152 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.emoji.EmojiPage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public final class EmojiParserTest {
+
+  private static final String GRINNING       = "\uD83D\uDE00";
+  private static final String THUMBS_UP      = "\uD83D\uDC4D";
+  private static final String DARK_SKIN_TONE = "\uD83C\uDFFF";
+  private static final String HEART          = "\u2764\uFE0F";
+  private static final String MAN            = "\uD83D\uDC68";
+  private static final String WOMAN          = "\uD83D\uDC69";
+  private static final String COUPLE         = MAN + "\u200D" + WOMAN;
+
+  private EmojiTree     tree;
+  private EmojiDrawInfo grinning;
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo man;
+  private EmojiDrawInfo couple;
+
+  @Before
+  public void setUp() {
+    EmojiPage page = new EmojiPage.Disk(mock(Uri.class));
+
+    tree     = new EmojiTree();
+    grinning = new EmojiDrawInfo(page, 0);
+    thumbsUp = new EmojiDrawInfo(page, 1);
+    heart    = new EmojiDrawInfo(page, 2);
+    man      = new EmojiDrawInfo(page, 3);
+    couple   = new EmojiDrawInfo(page, 4);
+
+    tree.add(GRINNING, grinning);
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(HEART, heart);
+    tree.add(MAN, man);
+    tree.add(COUPLE, couple);
+  }
+
+  @Test
+  public void findCandidates_null() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(null);
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_plainText() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates("Just some text");
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_emojiInText() {
+    String                    text       = "Hi " + GRINNING + " there " + THUMBS_UP;
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(text);
+
+    assertEquals(2, candidates.size());
+    assertFalse(candidates.allEmojis);
+    assertCandidate(candidates.list.get(0), 3, 5, grinning);
+    assertCandidate(candidates.list.get(1), 12, 14, thumbsUp);
+  }
+
+  @Test
+  public void findCandidates_onlyEmojiAndSpaces() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(GRINNING + " " + THUMBS_UP);
+
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_prefersLongestMatch() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(COUPLE + MAN);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, COUPLE.length(), couple);
+    assertCandidate(candidates.list.get(1), COUPLE.length(), COUPLE.length() + MAN.length(), man);
+  }
+
+  @Test
+  public void findCandidates_fallsBackToShorterMatch() {
+    String                    text       = MAN + "\u200D" + GRINNING;
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(text);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, man);
+    assertCandidate(candidates.list.get(1), 3, 5, grinning);
+  }
+
+  @Test
+  public void findCandidates_missingVariationSelector() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates("\u2764 love");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 1, heart);
+  }
+
+  @Test
+  public void findCandidates_withVariationSelector() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(HEART + " love");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, heart);
+  }
+
+  @Test
+  public void findCandidates_includesFitzpatrickModifier() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(THUMBS_UP + DARK_SKIN_TONE + "!");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 4, thumbsUp);
+  }
+
+  @Test
+  public void getEmoji_matchesIsEmoji() {
+    assertSame(couple, tree.getEmoji(COUPLE, 0, COUPLE.length()));
+    assertSame(heart, tree.getEmoji("\u2764", 0, 1));
+    assertNull(tree.getEmoji(MAN + "\u200D", 0, 3));
+
+    assertEquals(EmojiTree.Matches.EXACTLY, tree.isEmoji(COUPLE, 0, COUPLE.length()));
+    assertEquals(EmojiTree.Matches.POSSIBLY, tree.isEmoji(MAN + "\u200D", 0, 3));
+    assertEquals(EmojiTree.Matches.IMPOSSIBLE, tree.isEmoji("a", 0, 1));
+  }
+
+  @Test
+  public void fitzpatrickFromUnicode() {
+    assertEquals(Fitzpatrick.TYPE_6, Fitzpatrick.fitzpatrickFromUnicode(DARK_SKIN_TONE, 0));
+    assertEquals(Fitzpatrick.TYPE_1_2, Fitzpatrick.fitzpatrickFromUnicode(Fitzpatrick.TYPE_1_2.unicode, 0));
+    assertNull(Fitzpatrick.fitzpatrickFromUnicode(GRINNING, 0));
+  }
+
+  private static void assertCandidate(EmojiParser.Candidate candidate, int start, int end, EmojiDrawInfo drawInfo) {
+    assertEquals(start, candidate.getStartIndex());
+    assertEquals(end, candidate.getEndIndex());
+    assertSame(drawInfo, candidate.getDrawInfo());
+  }
+}
@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Conversations are ordered by (date_received, transport, _id), and "sms" sorts after "mms". So
+ * going down the list (older messages), an sms anchor is followed by mms rows with the same date,
+ * and an mms anchor is followed by sms rows with an older date only.
+ */
+public final class MmsSmsDatabaseSeekTest {
+
+  private static final long DATE = 1_600_000_000_000L;
+  private static final long ID   = 42;
+
+  @Test
+  public void buildConversationOrder_breaksTiesOnTransportThenId() {
+    assertEquals("date_received DESC, transport_type DESC, _id DESC", MmsSmsDatabase.buildConversationOrder("DESC"));
+    assertEquals("date_received ASC, transport_type ASC, _id ASC", MmsSmsDatabase.buildConversationOrder("ASC"));
+  }
+
+  @Test
+  public void buildSeekClause_after_sameTransport_tieBrokenOnId() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date", MmsSmsDatabase.SMS_TRANSPORT, DATE, MmsSmsDatabase.SMS_TRANSPORT, ID, true, args);
+
+    assertEquals("(date < ? OR (date = ? AND _id < ?))", clause);
+    assertEquals(Arrays.asList(DATE, DATE, ID), args);
+  }
+
+  @Test
+  public void buildSeekClause_before_sameTransport_tieBrokenOnId() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date_received", MmsSmsDatabase.MMS_TRANSPORT, DATE, MmsSmsDatabase.MMS_TRANSPORT, ID, false, args);
+
+    assertEquals("(date_received > ? OR (date_received = ? AND _id > ?))", clause);
+    assertEquals(Arrays.asList(DATE, DATE, ID), args);
+  }
+
+  @Test
+  public void buildSeekClause_after_smsAnchor_mmsWithSameDateIncluded() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date_received", MmsSmsDatabase.MMS_TRANSPORT, DATE, MmsSmsDatabase.SMS_TRANSPORT, ID, true, args);
+
+    assertEquals("date_received <= ?", clause);
+    assertEquals(Collections.singletonList(DATE), args);
+  }
+
+  @Test
+  public void buildSeekClause_before_smsAnchor_mmsWithSameDateExcluded() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date_received", MmsSmsDatabase.MMS_TRANSPORT, DATE, MmsSmsDatabase.SMS_TRANSPORT, ID, false, args);
+
+    assertEquals("date_received > ?", clause);
+    assertEquals(Collections.singletonList(DATE), args);
+  }
+
+  @Test
+  public void buildSeekClause_after_mmsAnchor_smsWithSameDateExcluded() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date", MmsSmsDatabase.SMS_TRANSPORT, DATE, MmsSmsDatabase.MMS_TRANSPORT, ID, true, args);
+
+    assertEquals("date < ?", clause);
+    assertEquals(Collections.singletonList(DATE), args);
+  }
+
+  @Test
+  public void buildSeekClause_before_mmsAnchor_smsWithSameDateIncluded() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date", MmsSmsDatabase.SMS_TRANSPORT, DATE, MmsSmsDatabase.MMS_TRANSPORT, ID, false, args);
+
+    assertEquals("date >= ?", clause);
+    assertEquals(Collections.singletonList(DATE), args);
+  }
+
+  @Test
+  public void buildSeekClause_anchorValuesBound_notInlined() {
+    List<Object> args   = new ArrayList<>();
+    String       clause = MmsSmsDatabase.buildSeekClause("date", MmsSmsDatabase.SMS_TRANSPORT, DATE, MmsSmsDatabase.SMS_TRANSPORT, ID, true, args);
+
+    assertEquals(-1, clause.indexOf(String.valueOf(DATE)));
+    assertEquals(-1, clause.indexOf(String.valueOf(ID)));
+  }
+}
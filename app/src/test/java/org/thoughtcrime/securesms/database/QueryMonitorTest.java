@@ -0,0 +1,123 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class QueryMonitorTest {
+
+  @Test
+  public void normalize_numberLiterals() {
+    assertEquals("SELECT * FROM sms WHERE thread_id = ? LIMIT ?, ?", QueryMonitor.normalize("SELECT * FROM sms WHERE thread_id = 12 LIMIT 0, 50"));
+  }
+
+  @Test
+  public void normalize_digitsInIdentifiers_kept() {
+    assertEquals("SELECT col1, _2 FROM table3 WHERE x = ?", QueryMonitor.normalize("SELECT col1, _2 FROM table3 WHERE x = 4"));
+  }
+
+  @Test
+  public void normalize_stringLiterals() {
+    assertEquals("SELECT ? AS transport WHERE body = ? AND x = ?", QueryMonitor.normalize("SELECT 'sms' AS transport WHERE body = 'it''s (1, 2)' AND x = ''"));
+  }
+
+  @Test
+  public void normalize_unterminatedStringLiteral() {
+    assertEquals("SELECT ?", QueryMonitor.normalize("SELECT 'abc"));
+  }
+
+  @Test
+  public void normalize_argumentLists_collapsed() {
+    assertEquals("DELETE FROM sms WHERE _id IN (?...)", QueryMonitor.normalize("DELETE FROM sms WHERE _id IN (?, ?,?)"));
+    assertEquals("DELETE FROM sms WHERE _id IN (?...)", QueryMonitor.normalize("DELETE FROM sms WHERE _id IN ( 1 , 2, 'three' )"));
+    assertEquals("DELETE FROM sms WHERE _id IN (?...) AND x = ?", QueryMonitor.normalize("DELETE FROM sms WHERE _id IN (?, ?) AND x = 5"));
+  }
+
+  @Test
+  public void normalize_notArgumentLists_kept() {
+    assertEquals("SELECT COUNT(*) FROM sms WHERE (a = ?) AND b IN (?)", QueryMonitor.normalize("SELECT COUNT(*) FROM sms WHERE (a = 1) AND b IN (?)"));
+    assertEquals("SELECT MAX(a, ?) FROM sms", QueryMonitor.normalize("SELECT MAX(a, 2) FROM sms"));
+    assertEquals("INSERT INTO sms (a, b) VALUES (?...)", QueryMonitor.normalize("INSERT INTO sms (a, b) VALUES (?, ?)"));
+  }
+
+  @Test
+  public void normalize_whitespaceCollapsed() {
+    assertEquals("SELECT * FROM sms WHERE a = ?", QueryMonitor.normalize("  SELECT *\n  FROM sms\n\tWHERE a = ?  \n"));
+  }
+
+  @Test
+  public void normalize_sameShapeSameKey() {
+    assertEquals(QueryMonitor.normalize("SELECT * FROM sms WHERE thread_id = 1 AND date < 1600000000000"),
+                 QueryMonitor.normalize("SELECT * FROM sms WHERE thread_id = 987 AND date < 1"));
+  }
+
+  @Test
+  public void normalize_longStatement_truncated() {
+    StringBuilder sql = new StringBuilder("SELECT * FROM sms WHERE thread_id = 1");
+    for (int i = 0; i < 1000; i++) {
+      sql.append(" OR thread_id = ").append(i);
+    }
+
+    String key = QueryMonitor.normalize(sql.toString());
+
+    assertTrue(key.startsWith("SELECT * FROM sms WHERE thread_id = ? OR thread_id = ? OR"));
+    assertTrue(key.endsWith("..."));
+    assertTrue(key.length() <= 300 + "thread_id...".length());
+  }
+
+  @Test
+  public void normalize_shortStatement_notTruncated() {
+    assertEquals("SELECT ?", QueryMonitor.normalize("SELECT 1"));
+  }
+
+  @Test
+  public void percentile_singleSample() {
+    QueryMonitor.StatementStats stats = new QueryMonitor.StatementStats("test");
+    stats.record(TimeUnit.MICROSECONDS.toNanos(100), 1);
+
+    assertEquals(128, stats.getPercentileMicros(0.5));
+    assertEquals(128, stats.getPercentileMicros(0.99));
+  }
+
+  @Test
+  public void percentile_bucketBoundaries() {
+    QueryMonitor.StatementStats stats = new QueryMonitor.StatementStats("test");
+
+    stats.record(0, 0);
+    assertEquals(1, stats.getPercentileMicros(1));
+
+    stats = new QueryMonitor.StatementStats("test");
+    stats.record(TimeUnit.MICROSECONDS.toNanos(63), 0);
+    assertEquals(64, stats.getPercentileMicros(1));
+
+    stats = new QueryMonitor.StatementStats("test");
+    stats.record(TimeUnit.MICROSECONDS.toNanos(64), 0);
+    assertEquals(128, stats.getPercentileMicros(1));
+  }
+
+  @Test
+  public void percentile_p50AndP99() {
+    QueryMonitor.StatementStats stats = new QueryMonitor.StatementStats("test");
+
+    for (int i = 0; i < 98; i++) {
+      stats.record(TimeUnit.MICROSECONDS.toNanos(10), 0);
+    }
+    stats.record(TimeUnit.MILLISECONDS.toNanos(5), 0);
+    stats.record(TimeUnit.MILLISECONDS.toNanos(50), 0);
+
+    assertEquals(16, stats.getPercentileMicros(0.5));
+    assertEquals(8192, stats.getPercentileMicros(0.99));
+    assertEquals(65536, stats.getPercentileMicros(1));
+  }
+
+  @Test
+  public void percentile_slowestBucketIsCapped() {
+    QueryMonitor.StatementStats stats = new QueryMonitor.StatementStats("test");
+    stats.record(TimeUnit.HOURS.toNanos(1), 0);
+
+    assertEquals(1L << 23, stats.getPercentileMicros(1));
+  }
+}
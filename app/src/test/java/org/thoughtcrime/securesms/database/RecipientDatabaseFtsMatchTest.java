@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class RecipientDatabaseFtsMatchTest {
+
+  @Test
+  public void buildFtsMatchExpression_nothingToMatch() {
+    assertNull(RecipientDatabase.buildFtsMatchExpression("", "system_name"));
+    assertNull(RecipientDatabase.buildFtsMatchExpression("   ", "system_name"));
+    assertNull(RecipientDatabase.buildFtsMatchExpression("@ -- .", "system_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_oneWord() {
+    assertEquals("{system_name profile_name} : \"jo\"*", RecipientDatabase.buildFtsMatchExpression("jo", "system_name", "profile_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_everyWordMustMatch() {
+    assertEquals("{system_name profile_name} : \"jo\"* AND {system_name profile_name} : \"smi\"*",
+                 RecipientDatabase.buildFtsMatchExpression("  jo   smi ", "system_name", "profile_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_skipsWordsWithoutLettersOrDigits() {
+    assertEquals("{system_name} : \"jo\"*", RecipientDatabase.buildFtsMatchExpression("jo -", "system_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_quotesAreEscaped() {
+    assertEquals("{system_name} : \"\"\"jo\"\"\"* AND {system_name} : \"OR\"*", RecipientDatabase.buildFtsMatchExpression("\"jo\" OR", "system_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_nonLatin() {
+    assertEquals("{system_name} : \"Zoë\"*", RecipientDatabase.buildFtsMatchExpression("Zoë", "system_name"));
+    assertEquals("{system_name} : \"健\"*", RecipientDatabase.buildFtsMatchExpression("健", "system_name"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_formattedPhoneNumber_alsoMatchesDigits() {
+    assertEquals("({system_name phone} : \"(555)\"* AND {system_name phone} : \"123-4567\"*) OR phone : \"5551234567\"*",
+                 RecipientDatabase.buildFtsMatchExpression("(555) 123-4567", "system_name", "phone"));
+    assertEquals("({phone} : \"+1555\"*) OR phone : \"1555\"*",
+                 RecipientDatabase.buildFtsMatchExpression("+1555", "phone"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_plainDigits_noAlternative() {
+    assertEquals("{phone} : \"5551234\"*", RecipientDatabase.buildFtsMatchExpression("5551234", "phone"));
+  }
+
+  @Test
+  public void buildFtsMatchExpression_formattedPhoneNumber_withoutPhoneColumn() {
+    assertEquals("{system_name} : \"555-1234\"*", RecipientDatabase.buildFtsMatchExpression("555-1234", "system_name"));
+  }
+
+  @Test
+  public void canSearchWithFtsIndex_spacedWords() {
+    assertTrue(RecipientDatabase.canSearchWithFtsIndex("jo smi"));
+    assertTrue(RecipientDatabase.canSearchWithFtsIndex("Zoë"));
+    assertTrue(RecipientDatabase.canSearchWithFtsIndex("Ольга"));
+    assertTrue(RecipientDatabase.canSearchWithFtsIndex("alice.1"));
+  }
+
+  @Test
+  public void canSearchWithFtsIndex_unspacedScripts() {
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("健"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("王健"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("さくら"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("민수"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("สมชาย"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("jo 健"));
+  }
+
+  @Test
+  public void canSearchWithFtsIndex_digitsOnly() {
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("4567"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("+1555"));
+    assertFalse(RecipientDatabase.canSearchWithFtsIndex("(555) 123-4567"));
+    assertTrue(RecipientDatabase.canSearchWithFtsIndex("555a"));
+  }
+}
@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import org.junit.Test;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class CompactDataSerializerTest {
+
+  private static final float FloatDelta = 0.00001f;
+
+  @Test
+  public void serialize_roundTrip() {
+    Data data = new Data.Builder().putString("s1", "value with : and ; in it")
+                                  .putString("null", null)
+                                  .putStringArray("s_array_1", new String[]{ "a", null, "" })
+                                  .putInt("i1", Integer.MIN_VALUE)
+                                  .putIntArray("i_array_1", new int[]{ 1, -2, Integer.MAX_VALUE })
+                                  .putLong("l1", Long.MAX_VALUE)
+                                  .putLongArray("l_array_1", new long[0])
+                                  .putFloat("f1", 1.2f)
+                                  .putFloatArray("f_array_1", new float[]{ 5.6f, Float.NaN })
+                                  .putDouble("d1", -10.2)
+                                  .putDoubleArray("d_array_1", new double[]{ 50.6, 1e300 })
+                                  .putBoolean("b1", true)
+                                  .putBooleanArray("b_array_1", new boolean[]{ false, true })
+                                  .build();
+
+    CompactDataSerializer serializer = new CompactDataSerializer();
+    Data                  result     = serializer.deserialize(serializer.serialize(data));
+
+    assertEquals("value with : and ; in it", result.getString("s1"));
+    assertTrue(result.hasString("null"));
+    assertNull(result.getString("null"));
+    assertArrayEquals(new String[]{ "a", null, "" }, result.getStringArray("s_array_1"));
+    assertEquals(Integer.MIN_VALUE, result.getInt("i1"));
+    assertArrayEquals(new int[]{ 1, -2, Integer.MAX_VALUE }, result.getIntegerArray("i_array_1"));
+    assertEquals(Long.MAX_VALUE, result.getLong("l1"));
+    assertArrayEquals(new long[0], result.getLongArray("l_array_1"));
+    assertEquals(1.2f, result.getFloat("f1"), FloatDelta);
+    assertArrayEquals(new float[]{ 5.6f, Float.NaN }, result.getFloatArray("f_array_1"), FloatDelta);
+    assertEquals(-10.2, result.getDouble("d1"), FloatDelta);
+    assertArrayEquals(new double[]{ 50.6, 1e300 }, result.getDoubleArray("d_array_1"), FloatDelta);
+    assertTrue(result.getBoolean("b1"));
+    assertArrayEquals(new boolean[]{ false, true }, result.getBooleanArray("b_array_1"));
+  }
+
+  @Test
+  public void serialize_smallerThanJson() {
+    Data data = new Data.Builder().putBlobAsString("envelope", new byte[512])
+                                  .putLong("sms_message_id", -1)
+                                  .build();
+
+    String compact = new CompactDataSerializer().serialize(data);
+    String json    = new JsonDataSerializer().serialize(data);
+
+    assertTrue(compact.length() < json.length());
+  }
+
+  @Test
+  public void deserialize_legacyJson() throws IOException {
+    Data data = new CompactDataSerializer().deserialize(StreamUtil.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+
+    assertEquals("s1 value", data.getString("s1"));
+    assertArrayEquals(new String[]{ "a", "b", "c" }, data.getStringArray("s_array_1"));
+    assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+    assertEquals(Long.MIN_VALUE, data.getLong("min"));
+    assertTrue(data.getBoolean("b1"));
+    assertFalse(data.getBoolean("b2"));
+  }
+}
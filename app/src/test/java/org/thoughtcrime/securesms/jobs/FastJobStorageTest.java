@@ -478,6 +478,102 @@ public class FastJobStorageTest {
     assertEquals(1, dependencies.size());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_sameCreateTimeKeepsInsertOrder() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("b", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("a", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2));
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(2, jobs.size());
+    assertEquals("b", jobs.get(0).getId());
+    assertEquals("a", jobs.get(1).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueAfterDelete() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    subject.updateJobRunningState("1", true);
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_queueKeyChangedByUpdate() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q1", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q1", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", "q2", 2, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3)));
+    subject.init();
+
+    assertEquals(Arrays.asList("1", "3"), Stream.of(subject.getPendingJobsWithNoDependenciesInCreatedOrder(10)).map(JobSpec::getId).toList());
+
+    subject.updateJobs(Collections.singletonList(new JobSpec("1", "f1", "q2", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false)));
+
+    assertEquals(Arrays.asList("1", "2"), Stream.of(subject.getPendingJobsWithNoDependenciesInCreatedOrder(10)).map(JobSpec::getId).toList());
+    assertEquals(Collections.singletonList("2"), Stream.of(subject.getJobsInQueue("q1")).map(JobSpec::getId).toList());
+    assertEquals(Arrays.asList("1", "3"), Stream.of(subject.getJobsInQueue("q2")).map(JobSpec::getId).toList());
+
+    subject.deleteJob("2");
+
+    assertTrue(subject.areQueuesEmpty(setOf("q1")));
+    assertEquals(Collections.singletonList("1"), Stream.of(subject.getPendingJobsWithNoDependenciesInCreatedOrder(10)).map(JobSpec::getId).toList());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterDependencyDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q1", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q2", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1", false)));
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("1", jobs.get(0).getId());
+
+    subject.deleteJob("1");
+
+    jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
   @Test
   public void getDependencySpecsThatDependOnJob_startOfChain() {
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
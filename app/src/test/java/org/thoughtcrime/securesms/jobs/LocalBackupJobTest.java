@@ -0,0 +1,136 @@
+package org.thoughtcrime.securesms.jobs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.backup.BackupIncrement;
+import org.thoughtcrime.securesms.keyvalue.BackupValues;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+import org.thoughtcrime.securesms.util.BackupUtil;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(BackupValues.class)
+public final class LocalBackupJobTest {
+
+  private static final String CHAIN     = "2021-03-01-02-30-00";
+  private static final String TIMESTAMP = "2021-03-02-02-30-00";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private BackupValues values;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new EmptyLogger());
+    values = mock(BackupValues.class);
+  }
+
+  @Test
+  public void getNextIncrement_noChain_base() {
+    BackupIncrement increment = LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP);
+
+    assertTrue(increment.isBase());
+    assertEquals(TIMESTAMP, increment.getChainId());
+  }
+
+  @Test
+  public void getNextIncrement_emptyChain_base() throws IOException {
+    givenChain(0);
+    createBase();
+
+    assertTrue(LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP).isBase());
+  }
+
+  @Test
+  public void getNextIncrement_intactChain_nextDelta() throws IOException {
+    givenChain(3);
+    createBase();
+    createDeltas(2);
+
+    BackupIncrement increment = LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP);
+
+    assertFalse(increment.isBase());
+    assertEquals(CHAIN, increment.getChainId());
+    assertEquals(3, increment.getSequence());
+  }
+
+  @Test
+  public void getNextIncrement_onlyBase_firstDelta() throws IOException {
+    givenChain(1);
+    createBase();
+
+    BackupIncrement increment = LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP);
+
+    assertFalse(increment.isBase());
+    assertEquals(CHAIN, increment.getChainId());
+    assertEquals(1, increment.getSequence());
+  }
+
+  @Test
+  public void getNextIncrement_lastAllowedDelta() throws IOException {
+    givenChain(LocalBackupJob.MAX_DELTAS_PER_CHAIN);
+    createBase();
+    createDeltas(LocalBackupJob.MAX_DELTAS_PER_CHAIN - 1);
+
+    assertEquals(LocalBackupJob.MAX_DELTAS_PER_CHAIN, LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP).getSequence());
+  }
+
+  @Test
+  public void getNextIncrement_chainFull_base() throws IOException {
+    givenChain(LocalBackupJob.MAX_DELTAS_PER_CHAIN + 1);
+    createBase();
+    createDeltas(LocalBackupJob.MAX_DELTAS_PER_CHAIN);
+
+    BackupIncrement increment = LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP);
+
+    assertTrue(increment.isBase());
+    assertEquals(TIMESTAMP, increment.getChainId());
+  }
+
+  @Test
+  public void getNextIncrement_baseMissing_base() throws IOException {
+    givenChain(3);
+    createDeltas(2);
+
+    assertTrue(LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP).isBase());
+  }
+
+  @Test
+  public void getNextIncrement_deltaMissing_base() throws IOException {
+    givenChain(4);
+    createBase();
+    folder.newFile(BackupUtil.getDeltaFileName(CHAIN, 1));
+    folder.newFile(BackupUtil.getDeltaFileName(CHAIN, 3));
+
+    assertTrue(LocalBackupJob.getNextIncrement(values, folder.getRoot(), TIMESTAMP).isBase());
+  }
+
+  private void givenChain(int length) {
+    when(values.getChainId()).thenReturn(CHAIN);
+    when(values.getChainLength()).thenReturn(length);
+  }
+
+  private void createBase() throws IOException {
+    folder.newFile(BackupUtil.getBackupFileName(CHAIN));
+  }
+
+  private void createDeltas(int count) throws IOException {
+    for (int sequence = 1; sequence <= count; sequence++) {
+      folder.newFile(BackupUtil.getDeltaFileName(CHAIN, sequence));
+    }
+  }
+}
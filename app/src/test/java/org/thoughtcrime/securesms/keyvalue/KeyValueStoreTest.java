@@ -0,0 +1,160 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.testutil.LogRecorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class KeyValueStoreTest {
+
+  private InMemoryStorage storage;
+  private KeyValueStore   store;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new LogRecorder());
+
+    storage = new InMemoryStorage();
+    store   = new KeyValueStore(storage);
+  }
+
+  @Test
+  public void apply_visibleImmediately() {
+    store.beginWrite().putString("a", "apple").putLong("b", 7).apply();
+
+    assertEquals("apple", store.getString("a", null));
+    assertEquals(7, store.getLong("b", 0));
+  }
+
+  @Test
+  public void apply_coalescesWritesIntoOneTransaction() {
+    for (int i = 0; i < 100; i++) {
+      store.beginWrite().putInteger("key" + i, i).apply();
+    }
+
+    store.blockUntilAllWritesFinished();
+
+    assertTrue("Transactions: " + storage.getTransactionCount(), storage.getTransactionCount() < 100);
+
+    KeyValueDataSet persisted = storage.getDataSet();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, persisted.getInteger("key" + i, -1));
+    }
+  }
+
+  @Test
+  public void apply_removeAfterPut_removedFromStorage() {
+    store.beginWrite().putString("a", "apple").apply();
+    store.beginWrite().remove("a").apply();
+    store.blockUntilAllWritesFinished();
+
+    assertFalse(store.containsKey("a"));
+    assertFalse(storage.getDataSet().containsKey("a"));
+  }
+
+  @Test
+  public void apply_putAfterRemove_keptInStorage() {
+    store.beginWrite().putString("a", "apple").commit();
+    store.beginWrite().remove("a").apply();
+    store.beginWrite().putString("a", "avocado").apply();
+    store.blockUntilAllWritesFinished();
+
+    assertEquals("avocado", store.getString("a", null));
+    assertEquals("avocado", storage.getDataSet().getString("a", null));
+  }
+
+  @Test
+  public void commit_writesToStorage() {
+    store.beginWrite().putBoolean("a", true).commit();
+
+    assertTrue(storage.getDataSet().getBoolean("a", false));
+  }
+
+  @Test
+  public void beginRead_unaffectedByLaterWrites() {
+    store.beginWrite().putInteger("a", 1).apply();
+
+    KeyValueReader reader = store.beginRead();
+
+    store.beginWrite().putInteger("a", 2).remove("b").apply();
+
+    assertEquals(1, reader.getInteger("a", 0));
+    assertEquals(2, store.getInteger("a", 0));
+  }
+
+  @Test
+  public void resetCache_reloadsWrittenValues() {
+    store.beginWrite().putString("a", "apple").apply();
+    store.resetCache();
+
+    assertEquals("apple", store.getString("a", null));
+  }
+
+  @Test
+  public void apply_concurrentWriters_noneLost() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+
+    for (int t = 0; t < 8; t++) {
+      int writer = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 250; i++) {
+          store.beginWrite().putInteger("key" + writer + "-" + i, i).apply();
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    store.blockUntilAllWritesFinished();
+
+    KeyValueDataSet persisted = storage.getDataSet();
+
+    for (int t = 0; t < 8; t++) {
+      for (int i = 0; i < 250; i++) {
+        assertEquals(i, store.getInteger("key" + t + "-" + i, -1));
+        assertEquals(i, persisted.getInteger("key" + t + "-" + i, -1));
+      }
+    }
+  }
+
+  private static final class InMemoryStorage implements KeyValuePersistentStorage {
+
+    private final KeyValueDataSet dataSet = new KeyValueDataSet();
+
+    private int transactionCount;
+
+    @Override
+    public synchronized void writeDataSet(@NonNull KeyValueDataSet dataSet, @NonNull Collection<String> removes) {
+      this.dataSet.putAll(dataSet);
+      this.dataSet.removeAll(removes);
+      transactionCount++;
+    }
+
+    @Override
+    public synchronized @NonNull KeyValueDataSet getDataSet() {
+      KeyValueDataSet copy = new KeyValueDataSet();
+      copy.putAll(dataSet);
+      return copy;
+    }
+
+    synchronized int getTransactionCount() {
+      return transactionCount;
+    }
+  }
+}
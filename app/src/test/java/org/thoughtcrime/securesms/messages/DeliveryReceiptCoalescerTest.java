@@ -0,0 +1,179 @@
+package org.thoughtcrime.securesms.messages;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class DeliveryReceiptCoalescerTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+
+  private List<Sent>               sent;
+  private FakeScheduler            scheduler;
+  private DeliveryReceiptCoalescer coalescer;
+
+  @Before
+  public void setUp() {
+    sent      = new ArrayList<>();
+    scheduler = new FakeScheduler();
+    coalescer = new DeliveryReceiptCoalescer((recipientId, messageIds) -> sent.add(new Sent(recipientId, messageIds)), scheduler, 3);
+  }
+
+  @Test
+  public void enqueue_firstReceiptIsSentImmediately() {
+    coalescer.enqueue(ALICE, 100);
+
+    assertEquals(Collections.singletonList(new Sent(ALICE, Collections.singletonList(100L))), sent);
+    assertEquals(1, scheduler.scheduled.size());
+    assertEquals(DeliveryReceiptCoalescer.BATCH_WINDOW, scheduler.delays.get(0).longValue());
+  }
+
+  @Test
+  public void enqueue_laterReceiptsAreSentTogetherWhenWindowCloses() {
+    coalescer.enqueue(ALICE, 100);
+    coalescer.enqueue(ALICE, 101);
+    coalescer.enqueue(ALICE, 102);
+
+    assertEquals(1, sent.size());
+
+    scheduler.runAll();
+
+    assertEquals(Arrays.asList(new Sent(ALICE, Collections.singletonList(100L)),
+                               new Sent(ALICE, Arrays.asList(101L, 102L))),
+                 sent);
+  }
+
+  @Test
+  public void enqueue_windowClosesWithNothingHeldBack_sendsNothingMore() {
+    coalescer.enqueue(ALICE, 100);
+    scheduler.runAll();
+
+    assertEquals(1, sent.size());
+  }
+
+  @Test
+  public void enqueue_recipientsAreCoalescedSeparately() {
+    coalescer.enqueue(ALICE, 100);
+    coalescer.enqueue(BOB, 200);
+    coalescer.enqueue(ALICE, 101);
+    coalescer.enqueue(BOB, 201);
+    scheduler.runAll();
+
+    assertEquals(Arrays.asList(new Sent(ALICE, Collections.singletonList(100L)),
+                               new Sent(BOB, Collections.singletonList(200L)),
+                               new Sent(ALICE, Collections.singletonList(101L)),
+                               new Sent(BOB, Collections.singletonList(201L))),
+                 sent);
+  }
+
+  @Test
+  public void enqueue_fullBatch_sentImmediatelyAndWindowCancelled() {
+    coalescer.enqueue(ALICE, 100);
+    coalescer.enqueue(ALICE, 101);
+    coalescer.enqueue(ALICE, 102);
+    coalescer.enqueue(ALICE, 103);
+
+    assertEquals(Arrays.asList(new Sent(ALICE, Collections.singletonList(100L)),
+                               new Sent(ALICE, Arrays.asList(101L, 102L, 103L))),
+                 sent);
+    assertTrue(scheduler.scheduled.isEmpty());
+  }
+
+  @Test
+  public void enqueue_afterFullBatch_opensNewWindow() {
+    coalescer.enqueue(ALICE, 100);
+    coalescer.enqueue(ALICE, 101);
+    coalescer.enqueue(ALICE, 102);
+    coalescer.enqueue(ALICE, 103);
+
+    coalescer.enqueue(ALICE, 104);
+    coalescer.enqueue(ALICE, 105);
+
+    assertEquals(3, sent.size());
+    assertEquals(new Sent(ALICE, Collections.singletonList(104L)), sent.get(2));
+    assertEquals(1, scheduler.scheduled.size());
+
+    scheduler.runAll();
+
+    assertEquals(new Sent(ALICE, Collections.singletonList(105L)), sent.get(3));
+  }
+
+  @Test
+  public void enqueue_afterWindowCloses_opensNewWindow() {
+    coalescer.enqueue(ALICE, 100);
+    coalescer.enqueue(ALICE, 101);
+    scheduler.runAll();
+
+    coalescer.enqueue(ALICE, 102);
+
+    assertEquals(3, sent.size());
+    assertEquals(new Sent(ALICE, Collections.singletonList(102L)), sent.get(2));
+    assertEquals(1, scheduler.scheduled.size());
+  }
+
+  private static final class FakeScheduler implements DeliveryReceiptCoalescer.Scheduler {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<Long>     delays    = new ArrayList<>();
+
+    @Override
+    public void schedule(@NonNull Runnable runnable, long delay) {
+      scheduled.add(runnable);
+      delays.add(delay);
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable runnable) {
+      scheduled.remove(runnable);
+    }
+
+    void runAll() {
+      List<Runnable> toRun = new ArrayList<>(scheduled);
+      scheduled.clear();
+
+      for (Runnable runnable : toRun) {
+        runnable.run();
+      }
+    }
+  }
+
+  private static final class Sent {
+
+    private final RecipientId recipientId;
+    private final List<Long>  messageIds;
+
+    private Sent(@NonNull RecipientId recipientId, @NonNull List<Long> messageIds) {
+      this.recipientId = recipientId;
+      this.messageIds  = new ArrayList<>(messageIds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Sent other = (Sent) o;
+      return recipientId.equals(other.recipientId) && messageIds.equals(other.messageIds);
+    }
+
+    @Override
+    public int hashCode() {
+      return recipientId.hashCode() * 31 + messageIds.hashCode();
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return recipientId + " " + messageIds;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package org.thoughtcrime.securesms.messages;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
+import org.thoughtcrime.securesms.messages.IncomingMessageProcessor.Processor;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.thoughtcrime.securesms.jobs.PushDecryptMessageJob.MAX_BATCH_SIZE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*" })
+@PrepareForTest({ ApplicationDependencies.class, DatabaseFactory.class, Recipient.class })
+public final class IncomingMessageProcessorTest {
+
+  public @Rule PowerMockRule rule = new PowerMockRule();
+
+  private static final SignalServiceAddress SENDER = new SignalServiceAddress(UUID.randomUUID(), "+15555550101");
+
+  private JobManager       jobManager;
+  private JobManager.Chain chain;
+  private MmsSmsDatabase   mmsSmsDatabase;
+  private Processor        processor;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new EmptyLogger());
+
+    Application application = ApplicationProvider.getApplicationContext();
+    Recipient   recipient   = mock(Recipient.class);
+
+    jobManager     = mock(JobManager.class);
+    chain          = mock(JobManager.Chain.class);
+    mmsSmsDatabase = mock(MmsSmsDatabase.class);
+
+    when(recipient.getId()).thenReturn(RecipientId.from(1));
+    when(jobManager.startChain(anyList())).thenReturn(chain);
+
+    PowerMockito.mockStatic(ApplicationDependencies.class);
+    when(ApplicationDependencies.getJobManager()).thenReturn(jobManager);
+    PowerMockito.mockStatic(DatabaseFactory.class);
+    when(DatabaseFactory.getMmsSmsDatabase(any())).thenReturn(mmsSmsDatabase);
+    PowerMockito.mockStatic(Recipient.class);
+    when(Recipient.externalHighTrustPush(any(), any())).thenReturn(recipient);
+
+    processor = new IncomingMessageProcessor(application).acquire();
+  }
+
+  @Test
+  public void processEnvelopes_underBatchSize_singleJob() {
+    List<String> ids = processor.processEnvelopes(messages(1, 10));
+
+    List<PushDecryptMessageJob> jobs = captureChain();
+
+    assertEquals(1, jobs.size());
+    assertEquals(range(1, 10), timestamps(jobs.get(0)));
+    assertEquals(Collections.singletonList(jobs.get(0).getId()), ids);
+  }
+
+  @Test
+  public void processEnvelopes_exactlyBatchSize_singleJob() {
+    processor.processEnvelopes(messages(1, MAX_BATCH_SIZE));
+
+    List<PushDecryptMessageJob> jobs = captureChain();
+
+    assertEquals(1, jobs.size());
+    assertEquals(range(1, MAX_BATCH_SIZE), timestamps(jobs.get(0)));
+  }
+
+  @Test
+  public void processEnvelopes_overBatchSize_splitInOrder() {
+    List<String> ids = processor.processEnvelopes(messages(1, 2 * MAX_BATCH_SIZE + 1));
+
+    List<PushDecryptMessageJob> jobs = captureChain();
+
+    assertEquals(3, jobs.size());
+    assertEquals(range(1, MAX_BATCH_SIZE), timestamps(jobs.get(0)));
+    assertEquals(range(MAX_BATCH_SIZE + 1, 2 * MAX_BATCH_SIZE), timestamps(jobs.get(1)));
+    assertEquals(Collections.singletonList(2L * MAX_BATCH_SIZE + 1), timestamps(jobs.get(2)));
+    assertEquals(Arrays.asList(jobs.get(0).getId(), jobs.get(1).getId(), jobs.get(2).getId()), ids);
+  }
+
+  @Test
+  public void processEnvelopes_persistedAsOneChain() {
+    processor.processEnvelopes(messages(1, 5 * MAX_BATCH_SIZE));
+
+    verify(jobManager, times(1)).startChain(anyList());
+    verify(jobManager, never()).add(any(Job.class));
+    verify(chain, times(1)).enqueue();
+    verify(chain, never()).then(anyList());
+  }
+
+  @Test
+  public void processEnvelopes_receiptsAndMessages_orderKept() {
+    List<SignalServiceEnvelope> envelopes = new ArrayList<>();
+
+    for (long timestamp = 1; timestamp <= 2 * MAX_BATCH_SIZE; timestamp++) {
+      envelopes.add(timestamp % 2 == 0 ? receipt(timestamp) : message(timestamp));
+    }
+
+    processor.processEnvelopes(envelopes);
+
+    List<PushDecryptMessageJob> jobs = captureChain();
+
+    assertEquals(1, jobs.size());
+    assertEquals(oddRange(1, 2 * MAX_BATCH_SIZE), timestamps(jobs.get(0)));
+    assertEquals(evenRange(1, 2 * MAX_BATCH_SIZE), captureReceipts());
+  }
+
+  @Test
+  public void processEnvelopes_onlyReceipts_noJobs() {
+    List<String> ids = processor.processEnvelopes(Arrays.asList(receipt(1), receipt(2), receipt(3)));
+
+    assertTrue(ids.isEmpty());
+    assertEquals(range(1, 3), captureReceipts());
+    verify(jobManager, never()).startChain(anyList());
+  }
+
+  @Test
+  public void processEnvelopes_unknownType_skipped() {
+    processor.processEnvelopes(Arrays.asList(message(1), envelope(Envelope.Type.UNKNOWN_VALUE, 2), message(3)));
+
+    List<PushDecryptMessageJob> jobs = captureChain();
+
+    assertEquals(1, jobs.size());
+    assertEquals(Arrays.asList(1L, 3L), timestamps(jobs.get(0)));
+    verify(mmsSmsDatabase, never()).incrementDeliveryReceiptCounts(anyList(), anyLong(), any(Runnable.class));
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull List<PushDecryptMessageJob> captureChain() {
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(jobManager, times(1)).startChain(captor.capture());
+    return (List<PushDecryptMessageJob>) captor.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull List<Long> captureReceipts() {
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(mmsSmsDatabase, times(1)).incrementDeliveryReceiptCounts(captor.capture(), anyLong(), any(Runnable.class));
+
+    List<Long> timestamps = new ArrayList<>();
+    for (SyncMessageId id : (List<SyncMessageId>) captor.getValue()) {
+      timestamps.add(id.getTimetamp());
+    }
+    return timestamps;
+  }
+
+  private static @NonNull List<Long> timestamps(@NonNull PushDecryptMessageJob job) {
+    List<Long> timestamps = new ArrayList<>();
+    for (SignalServiceEnvelope envelope : job.getEnvelopes()) {
+      timestamps.add(envelope.getTimestamp());
+    }
+    return timestamps;
+  }
+
+  private static @NonNull List<SignalServiceEnvelope> messages(long first, long last) {
+    List<SignalServiceEnvelope> envelopes = new ArrayList<>();
+    for (long timestamp = first; timestamp <= last; timestamp++) {
+      envelopes.add(message(timestamp));
+    }
+    return envelopes;
+  }
+
+  private static @NonNull SignalServiceEnvelope message(long timestamp) {
+    return envelope(Envelope.Type.CIPHERTEXT_VALUE, timestamp);
+  }
+
+  private static @NonNull SignalServiceEnvelope receipt(long timestamp) {
+    return envelope(Envelope.Type.RECEIPT_VALUE, timestamp);
+  }
+
+  private static @NonNull SignalServiceEnvelope envelope(int type, long timestamp) {
+    return new SignalServiceEnvelope(type, Optional.of(SENDER), 1, timestamp, null, new byte[0], timestamp, timestamp, null);
+  }
+
+  private static @NonNull List<Long> range(long first, long last) {
+    List<Long> range = new ArrayList<>();
+    for (long i = first; i <= last; i++) {
+      range.add(i);
+    }
+    return range;
+  }
+
+  private static @NonNull List<Long> oddRange(long first, long last) {
+    List<Long> range = new ArrayList<>();
+    for (long i = first; i <= last; i++) {
+      if (i % 2 != 0) range.add(i);
+    }
+    return range;
+  }
+
+  private static @NonNull List<Long> evenRange(long first, long last) {
+    List<Long> range = new ArrayList<>();
+    for (long i = first; i <= last; i++) {
+      if (i % 2 == 0) range.add(i);
+    }
+    return range;
+  }
+}
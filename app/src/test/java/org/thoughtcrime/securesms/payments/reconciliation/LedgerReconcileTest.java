@@ -27,15 +27,18 @@ import org.whispersystems.signalservice.api.util.Uint64Util;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public final class LedgerReconcileTest {
 
@@ -226,10 +229,180 @@ public final class LedgerReconcileTest {
     assertEquals(Arrays.asList(mob(-2.5), mob(10), mob(20), mob(2.5)), Stream.of(payments).map(Payment::getAmountWithDirection).toList());
   }
 
+  @Test
+  public void incremental_reconcile_matches_full_rebuild_as_ledger_grows() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(1), 12_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+
+    for (long block = 1; block <= history.lastBlock + 97; block += 97) {
+      List<Payment>           local  = history.localPayments(block);
+      MobileCoinLedgerWrapper ledger = history.ledger(block);
+
+      assertEquals(describe(LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint())),
+                   describe(LedgerReconcile.reconcile(local, ledger, checkpoint)));
+    }
+
+    assertEquals(history.lastBlock, checkpoint.getBlockIndex());
+    assertEquals(1, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void incremental_reconcile_of_unchanged_inputs_does_not_rebuild() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(2), 1_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    List<Payment>              local      = history.localPayments(history.lastBlock);
+    MobileCoinLedgerWrapper    ledger     = history.ledger(history.lastBlock);
+
+    List<String> first  = describe(LedgerReconcile.reconcile(local, ledger, checkpoint));
+    List<String> second = describe(LedgerReconcile.reconcile(local, ledger, checkpoint));
+
+    assertEquals(first, second);
+    assertEquals(1, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void txo_appearing_in_reconciled_block_causes_full_rebuild() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(3), 1_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    List<Payment>              local      = history.localPayments(history.lastBlock);
+
+    LedgerReconcile.reconcile(local, history.ledger(history.lastBlock), checkpoint);
+
+    MobileCoinLedger        rewritten = history.ledgerProto(history.lastBlock)
+                                               .toBuilder()
+                                               .addUnspentTxos(unspentTxo(mob(7), keyImage(1_000_000), publicKey(1_000_000), block(10)))
+                                               .build();
+    MobileCoinLedgerWrapper ledger    = new MobileCoinLedgerWrapper(rewritten);
+
+    assertEquals(describe(LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint())),
+                 describe(LedgerReconcile.reconcile(local, ledger, checkpoint)));
+    assertEquals(2, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void ledger_going_backwards_causes_full_rebuild() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(4), 1_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    List<Payment>              local      = history.localPayments(history.lastBlock);
+
+    LedgerReconcile.reconcile(local, history.ledger(history.lastBlock), checkpoint);
+
+    MobileCoinLedgerWrapper ledger = history.ledger(history.lastBlock / 2);
+
+    assertEquals(describe(LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint())),
+                 describe(LedgerReconcile.reconcile(local, ledger, checkpoint)));
+    assertEquals(2, checkpoint.getFullRebuilds());
+    assertEquals(history.lastBlock / 2, checkpoint.getBlockIndex());
+  }
+
+  @Test
+  public void removed_local_payment_causes_full_rebuild() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(5), 1_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    List<Payment>              local      = history.localPayments(history.lastBlock);
+    MobileCoinLedgerWrapper    ledger     = history.ledger(history.lastBlock);
+
+    LedgerReconcile.reconcile(local, ledger, checkpoint);
+
+    List<Payment> remaining = local.subList(1, local.size());
+
+    assertEquals(describe(LedgerReconcile.reconcile(remaining, ledger, new LedgerReconcile.Checkpoint())),
+                 describe(LedgerReconcile.reconcile(remaining, ledger, checkpoint)));
+    assertEquals(2, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void local_payment_for_reconciled_txo_replaces_reconstructed_payment() {
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    MobileCoinLedgerWrapper    ledger     = new MobileCoinLedgerWrapper(ledger(unspentTxo(mob(2.5), keyImage(1), publicKey(2), block(1))));
+
+    List<Payment> before = LedgerReconcile.reconcile(Collections.emptyList(), ledger, checkpoint);
+
+    assertEquals(1, before.size());
+    assertEquals("", before.get(0).getNote());
+
+    List<Payment> after = LedgerReconcile.reconcile(Collections.singletonList(payment("late", mob(2.5), keyImages(), publicKeys(2))), ledger, checkpoint);
+
+    assertEquals(1, after.size());
+    assertEquals("late", after.get(0).getNote());
+    assertEquals(2, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void txo_amount_changed_in_reconciled_block_causes_full_rebuild() {
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+
+    LedgerReconcile.reconcile(Collections.emptyList(), new MobileCoinLedgerWrapper(ledger(unspentTxo(mob(2.5), keyImage(1), publicKey(2), block(1)))), checkpoint);
+
+    MobileCoinLedgerWrapper ledger = new MobileCoinLedgerWrapper(ledger(unspentTxo(mob(3), keyImage(1), publicKey(2), block(1))));
+
+    assertEquals(describe(LedgerReconcile.reconcile(Collections.emptyList(), ledger, new LedgerReconcile.Checkpoint())),
+                 describe(LedgerReconcile.reconcile(Collections.emptyList(), ledger, checkpoint)));
+    assertEquals(2, checkpoint.getFullRebuilds());
+  }
+
+  @Test
+  public void incremental_reconcile_only_takes_txos_after_checkpoint() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(7), 12_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+
+    LedgerReconcile.reconcile(history.localPayments(history.lastBlock - 10), history.ledger(history.lastBlock - 10), checkpoint);
+
+    MobileCoinLedgerWrapper ledger = history.ledger(history.lastBlock);
+    List<Payment>           local  = history.localPayments(history.lastBlock);
+    int                     newer  = ledger.getTxosAfter(checkpoint.getBlockIndex()).getTxos().size();
+
+    assertTrue(newer > 0);
+    assertTrue(newer < 200);
+
+    assertEquals(describe(LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint())),
+                 describe(LedgerReconcile.reconcile(local, ledger, checkpoint)));
+    assertEquals(1, checkpoint.getFullRebuilds());
+    assertEquals(0, ledger.getTxosAfter(checkpoint.getBlockIndex()).getTxos().size());
+  }
+
+  @Test
+  public void checkpoint_read_back_continues_without_rebuild() {
+    SyntheticHistory           history    = new SyntheticHistory(new Random(8), 5_000);
+    LedgerReconcile.Checkpoint checkpoint = new LedgerReconcile.Checkpoint();
+    long                       middle     = history.lastBlock / 2;
+
+    LedgerReconcile.reconcile(history.localPayments(middle), history.ledger(middle), checkpoint);
+
+    LedgerReconcile.Checkpoint restored = LedgerReconcile.Checkpoint.deserialize(checkpoint.serialize());
+
+    assertEquals(checkpoint.getBlockIndex(), restored.getBlockIndex());
+    assertEquals(describe(LedgerReconcile.reconcile(history.localPayments(middle), history.ledger(middle), checkpoint)),
+                 describe(LedgerReconcile.reconcile(history.localPayments(middle), history.ledger(middle), restored)));
+
+    for (long block = middle + 1; block <= history.lastBlock + 13; block += 13) {
+      List<Payment>           local  = history.localPayments(block);
+      MobileCoinLedgerWrapper ledger = history.ledger(block);
+
+      assertEquals(describe(LedgerReconcile.reconcile(local, ledger, new LedgerReconcile.Checkpoint())),
+                   describe(LedgerReconcile.reconcile(local, ledger, restored)));
+
+      restored = LedgerReconcile.Checkpoint.deserialize(restored.serialize());
+    }
+
+    assertEquals(history.lastBlock, restored.getBlockIndex());
+    assertEquals(0, restored.getFullRebuilds());
+  }
+
+  @Test
+  public void unreadable_checkpoint_starts_over() {
+    LedgerReconcile.Checkpoint checkpoint = LedgerReconcile.Checkpoint.deserialize(new byte[] { 1, 2, 3 });
+    MobileCoinLedgerWrapper    ledger     = new MobileCoinLedgerWrapper(ledger(unspentTxo(mob(2.5), keyImage(1), publicKey(2), block(1))));
+
+    assertEquals(-1, checkpoint.getBlockIndex());
+    assertEquals(1, LedgerReconcile.reconcile(Collections.emptyList(), ledger, checkpoint).size());
+    assertEquals(1, checkpoint.getFullRebuilds());
+  }
+
   private static @NonNull List<Payment> reconcile(@NonNull Collection<Payment> localPaymentTransactions,
                                                   @NonNull MobileCoinLedgerWrapper ledger)
   {
-    return LedgerReconcile.reconcile(localPaymentTransactions, ledger);
+    return LedgerReconcile.reconcile(localPaymentTransactions, ledger, new LedgerReconcile.Checkpoint());
   }
 
   private MobileCoinLedger.Block block(long blockIndex) {
@@ -350,6 +523,110 @@ public final class LedgerReconcileTest {
     };
   }
 
+  private static @NonNull List<String> describe(@NonNull List<Payment> payments) {
+    List<String> descriptions = new ArrayList<>(payments.size());
+
+    for (Payment payment : payments) {
+      descriptions.add(payment.getUuid() + " " + payment.getAmountWithDirection().serialize() + " " + payment.getBlockIndex() + " " + payment.getBlockTimestamp() + " " + payment.getNote());
+    }
+
+    return descriptions;
+  }
+
+  /**
+   * A made up account history. Three TXOs are received a block and most are spent within the next
+   * fifty blocks. About half of the receipts and spends have a local payment, which shows up a few
+   * blocks before the ledger has the TXO, like it does for payments this device made or was told
+   * about.
+   */
+  private final class SyntheticHistory {
+    private final long[]        amounts;
+    private final long[]        receivedInBlock;
+    private final long[]        spentInBlock;
+    private final List<Payment> payments      = new ArrayList<>();
+    private final List<Long>    paymentBlocks = new ArrayList<>();
+    private final long          lastBlock;
+
+    private SyntheticHistory(@NonNull Random random, int txoCount) {
+      amounts         = new long[txoCount];
+      receivedInBlock = new long[txoCount];
+      spentInBlock    = new long[txoCount];
+
+      long last = 0;
+
+      for (int i = 0; i < txoCount; i++) {
+        amounts[i]         = 1 + random.nextInt(10_000);
+        receivedInBlock[i] = 1 + i / 3;
+        spentInBlock[i]    = random.nextInt(10) < 7 ? receivedInBlock[i] + 1 + random.nextInt(50) : 0;
+        last               = Math.max(last, Math.max(receivedInBlock[i], spentInBlock[i]));
+
+        if (random.nextBoolean()) {
+          addPayment(payment("received " + i, mob(amounts[i] / 100.0), keyImages(), publicKeys(i)), receivedInBlock[i]);
+        }
+
+        if (spentInBlock[i] != 0 && random.nextBoolean()) {
+          addPayment(payment("sent " + i, mob(-amounts[i] / 100.0), keyImages(i), publicKeys()), spentInBlock[i]);
+        }
+      }
+
+      lastBlock = last;
+    }
+
+    private void addPayment(@NonNull Payment payment, long block) {
+      payments.add(payment);
+      paymentBlocks.add(block);
+    }
+
+    /**
+     * Local payments as of the given block, newest first.
+     */
+    @NonNull List<Payment> localPayments(long block) {
+      List<Payment> local = new ArrayList<>();
+
+      for (int i = payments.size() - 1; i >= 0; i--) {
+        if (paymentBlocks.get(i) <= block + 5) {
+          local.add(payments.get(i));
+        }
+      }
+
+      return local;
+    }
+
+    @NonNull MobileCoinLedgerWrapper ledger(long block) {
+      return new MobileCoinLedgerWrapper(ledgerProto(block));
+    }
+
+    @NonNull MobileCoinLedger ledgerProto(long block) {
+      MobileCoinLedger.Builder builder = MobileCoinLedger.newBuilder();
+      long                     highest = 0;
+
+      for (int i = 0; i < amounts.length; i++) {
+        if (receivedInBlock[i] > block) {
+          continue;
+        }
+
+        MobileCoinLedger.OwnedTXO.Builder txo = txo(mob(amounts[i] / 100.0), keyImage(i), publicKey(i), timestampedBlock(receivedInBlock[i]));
+        highest = Math.max(highest, receivedInBlock[i]);
+
+        if (spentInBlock[i] != 0 && spentInBlock[i] <= block) {
+          builder.addSpentTxos(txo.setSpentInBlock(timestampedBlock(spentInBlock[i])));
+          highest = Math.max(highest, spentInBlock[i]);
+        } else {
+          builder.addUnspentTxos(txo);
+        }
+      }
+
+      return builder.setHighestBlock(timestampedBlock(highest)).build();
+    }
+
+    private @NonNull MobileCoinLedger.Block timestampedBlock(long blockIndex) {
+      return MobileCoinLedger.Block.newBuilder()
+                                   .setBlockNumber(blockIndex)
+                                   .setTimestamp(1_600_000_000_000L + blockIndex * 5_000)
+                                   .build();
+    }
+  }
+
   private static Set<ByteString> keyImages(long... ids) {
     Set<ByteString> idList = new HashSet<>(ids.length);
     for (long id : ids) {
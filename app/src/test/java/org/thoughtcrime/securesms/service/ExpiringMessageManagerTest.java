@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.service;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.service.ExpiringMessageManager.ExpiringMessageComparator;
+import org.thoughtcrime.securesms.service.ExpiringMessageManager.ExpiringMessageReference;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.thoughtcrime.securesms.service.ExpiringMessageManager.BATCH_WINDOW_MS;
+import static org.thoughtcrime.securesms.service.ExpiringMessageManager.MAX_BATCH_SIZE;
+
+public final class ExpiringMessageManagerTest {
+
+  private static final long NOW = 1_600_000_000_000L;
+
+  @Test
+  public void getBatchDueTime_singleMessage_isItsExpiry() {
+    TreeSet<ExpiringMessageReference> references = references(NOW);
+
+    assertEquals(NOW, ExpiringMessageManager.getBatchDueTime(references, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void getBatchDueTime_waitsForLastMessageInWindow() {
+    TreeSet<ExpiringMessageReference> references = references(NOW, NOW + 100, NOW + BATCH_WINDOW_MS, NOW + BATCH_WINDOW_MS + 1);
+
+    assertEquals(NOW + BATCH_WINDOW_MS, ExpiringMessageManager.getBatchDueTime(references, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void getBatchDueTime_stopsAtLoadedWindow() {
+    TreeSet<ExpiringMessageReference> references = references(NOW, NOW + 100, NOW + 200);
+
+    assertEquals(NOW + 100, ExpiringMessageManager.getBatchDueTime(references, NOW + 150));
+  }
+
+  @Test
+  public void getBatchDueTime_stopsAtMaxBatchSize() {
+    TreeSet<ExpiringMessageReference> references = new TreeSet<>(new ExpiringMessageComparator());
+
+    for (int i = 0; i < MAX_BATCH_SIZE + 10; i++) {
+      references.add(new ExpiringMessageReference(i, false, NOW + i / 10));
+    }
+
+    assertEquals(NOW + (MAX_BATCH_SIZE - 1) / 10, ExpiringMessageManager.getBatchDueTime(references, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void removeExpiredReferences_neverRemovesMessagesDueAfterCutoff() {
+    TreeSet<ExpiringMessageReference> references = references(NOW - 10, NOW, NOW + 1, NOW + 100);
+
+    List<ExpiringMessageReference> expired = ExpiringMessageManager.removeExpiredReferences(references, NOW);
+
+    assertEquals(2, expired.size());
+    for (ExpiringMessageReference reference : expired) {
+      assertTrue(reference.expiresAtMillis <= NOW);
+    }
+
+    assertEquals(2, references.size());
+    assertEquals(NOW + 1, references.first().expiresAtMillis);
+  }
+
+  @Test
+  public void removeExpiredReferences_atBatchDueTime_removesWholeBatch() {
+    TreeSet<ExpiringMessageReference> references = references(NOW, NOW + 50, NOW + 200, NOW + BATCH_WINDOW_MS + 50);
+    long                              dueTime    = ExpiringMessageManager.getBatchDueTime(references, Long.MAX_VALUE);
+
+    assertEquals(0, ExpiringMessageManager.removeExpiredReferences(references, NOW - 1).size());
+
+    List<ExpiringMessageReference> expired = ExpiringMessageManager.removeExpiredReferences(references, dueTime);
+
+    assertEquals(3, expired.size());
+    assertEquals(1, references.size());
+  }
+
+  @Test
+  public void removeExpiredReferences_stopsAtMaxBatchSize() {
+    TreeSet<ExpiringMessageReference> references = new TreeSet<>(new ExpiringMessageComparator());
+
+    for (int i = 0; i < MAX_BATCH_SIZE + 10; i++) {
+      references.add(new ExpiringMessageReference(i, i % 2 == 0, NOW));
+    }
+
+    assertEquals(MAX_BATCH_SIZE, ExpiringMessageManager.removeExpiredReferences(references, NOW).size());
+    assertEquals(10, references.size());
+  }
+
+  private static @NonNull TreeSet<ExpiringMessageReference> references(long... expiresAt) {
+    TreeSet<ExpiringMessageReference> references = new TreeSet<>(new ExpiringMessageComparator());
+
+    for (int i = 0; i < expiresAt.length; i++) {
+      references.add(new ExpiringMessageReference(i, i % 2 == 0, expiresAt[i]));
+    }
+
+    return references;
+  }
+}
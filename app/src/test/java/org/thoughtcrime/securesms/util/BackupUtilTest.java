@@ -0,0 +1,119 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class BackupUtilTest {
+
+  private static final String CHAIN       = "2021-03-01-02-30-00";
+  private static final String OTHER_CHAIN = "2021-03-08-02-30-00";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() {
+    Log.initialize(new EmptyLogger());
+  }
+
+  @Test
+  public void getChainId_baseFileName() {
+    assertEquals(CHAIN, BackupUtil.getChainId(BackupUtil.getBackupFileName(CHAIN)));
+  }
+
+  @Test
+  public void getChainId_notABase() {
+    assertNull(BackupUtil.getChainId(null));
+    assertNull(BackupUtil.getChainId(BackupUtil.getDeltaFileName(CHAIN, 1)));
+    assertNull(BackupUtil.getChainId("signal-" + CHAIN + ".tmp"));
+    assertNull(BackupUtil.getChainId("other-" + CHAIN + ".backup"));
+  }
+
+  @Test
+  public void getDeltaFileName_namedAfterBase() {
+    assertEquals("signal-" + CHAIN + ".backup", BackupUtil.getBackupFileName(CHAIN));
+    assertEquals("signal-" + CHAIN + "-1.delta", BackupUtil.getDeltaFileName(CHAIN, 1));
+    assertEquals("signal-" + CHAIN + "-12.delta", BackupUtil.getDeltaFileName(CHAIN, 12));
+  }
+
+  @Test
+  public void getDeltaFiles_inOrder() throws IOException {
+    File d3 = create(BackupUtil.getDeltaFileName(CHAIN, 3));
+    File d1 = create(BackupUtil.getDeltaFileName(CHAIN, 1));
+    File d2 = create(BackupUtil.getDeltaFileName(CHAIN, 2));
+
+    create(BackupUtil.getBackupFileName(CHAIN));
+    create(BackupUtil.getDeltaFileName(OTHER_CHAIN, 1));
+
+    assertEquals(Arrays.asList(d1, d2, d3), BackupUtil.getDeltaFiles(folder.getRoot(), CHAIN));
+  }
+
+  @Test
+  public void getDeltaFiles_stopsAtFirstMissingDelta() throws IOException {
+    File d1 = create(BackupUtil.getDeltaFileName(CHAIN, 1));
+
+    create(BackupUtil.getDeltaFileName(CHAIN, 3));
+
+    assertEquals(Collections.singletonList(d1), BackupUtil.getDeltaFiles(folder.getRoot(), CHAIN));
+  }
+
+  @Test
+  public void getDeltaFiles_noDeltas() throws IOException {
+    create(BackupUtil.getBackupFileName(CHAIN));
+
+    assertTrue(BackupUtil.getDeltaFiles(folder.getRoot(), CHAIN).isEmpty());
+  }
+
+  @Test
+  public void deleteDeltasExcept_keepsDeltasOfKeptChains() throws IOException {
+    File base       = create(BackupUtil.getBackupFileName(CHAIN));
+    File kept1      = create(BackupUtil.getDeltaFileName(CHAIN, 1));
+    File kept2      = create(BackupUtil.getDeltaFileName(CHAIN, 2));
+    File otherBase  = create(BackupUtil.getBackupFileName(OTHER_CHAIN));
+    File deleted1   = create(BackupUtil.getDeltaFileName(OTHER_CHAIN, 1));
+    File unrelated  = create("notes.delta");
+    File tempBackup = create(".backup123.tmp");
+
+    BackupUtil.deleteDeltasExcept(folder.getRoot(), new HashSet<>(Collections.singletonList(CHAIN)));
+
+    assertTrue(base.exists());
+    assertTrue(kept1.exists());
+    assertTrue(kept2.exists());
+    assertTrue(otherBase.exists());
+    assertFalse(deleted1.exists());
+    assertTrue(unrelated.exists());
+    assertTrue(tempBackup.exists());
+  }
+
+  @Test
+  public void deleteDeltasExcept_nothingKept_deletesEveryDelta() throws IOException {
+    File base  = create(BackupUtil.getBackupFileName(CHAIN));
+    File delta = create(BackupUtil.getDeltaFileName(CHAIN, 1));
+
+    BackupUtil.deleteDeltasExcept(folder.getRoot(), Collections.emptySet());
+
+    assertTrue(base.exists());
+    assertFalse(delta.exists());
+  }
+
+  private @NonNull File create(@NonNull String name) throws IOException {
+    return folder.newFile(name);
+  }
+}
@@ -0,0 +1,204 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.testutil.LogRecorder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class StartupTaskGraphTest {
+
+  private StartupTaskGraph graph;
+  private ExecutorService  executor;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new LogRecorder());
+
+    graph    = new StartupTaskGraph();
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void execute_runsDependenciesFirst() {
+    AtomicLong        clock    = new AtomicLong();
+    Map<String, Long> started  = new ConcurrentHashMap<>();
+    Map<String, Long> finished = new ConcurrentHashMap<>();
+
+    addRecording("a", false, Collections.emptyList(), clock, started, finished);
+    addRecording("b", true, Collections.singletonList("a"), clock, started, finished);
+    addRecording("c", false, Collections.singletonList("a"), clock, started, finished);
+    addRecording("d", false, Arrays.asList("b", "c"), clock, started, finished);
+    addRecording("e", true, Collections.singletonList("d"), clock, started, finished);
+
+    graph.execute(executor);
+
+    assertEquals(5, finished.size());
+    assertTrue(finished.get("a") < started.get("b"));
+    assertTrue(finished.get("a") < started.get("c"));
+    assertTrue(finished.get("b") < started.get("d"));
+    assertTrue(finished.get("c") < started.get("d"));
+    assertTrue(finished.get("d") < started.get("e"));
+  }
+
+  @Test
+  public void execute_runsCallingThreadTasksOnCallingThread() {
+    Thread              caller  = Thread.currentThread();
+    Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+    graph.add("background", false, Collections.emptyList(), () -> threads.put("background", Thread.currentThread()));
+    graph.add("main", true, Collections.singletonList("background"), () -> threads.put("main", Thread.currentThread()));
+
+    graph.execute(executor);
+
+    assertSame(caller, threads.get("main"));
+    assertNotEquals(caller, threads.get("background"));
+  }
+
+  @Test
+  public void execute_runsIndependentTasksConcurrently() {
+    CountDownLatch allRunning = new CountDownLatch(3);
+    AtomicBoolean  timedOut    = new AtomicBoolean();
+    Runnable       rendezvous  = () -> {
+      allRunning.countDown();
+      try {
+        if (!allRunning.await(5, TimeUnit.SECONDS)) {
+          timedOut.set(true);
+        }
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    };
+
+    graph.add("first", false, Collections.emptyList(), rendezvous);
+    graph.add("second", false, Collections.emptyList(), rendezvous);
+    graph.add("main", true, Collections.emptyList(), rendezvous);
+
+    graph.execute(executor);
+
+    assertFalse(timedOut.get());
+  }
+
+  @Test
+  public void execute_rethrowsBackgroundFailureWithoutStartingDependents() {
+    AtomicBoolean         dependentRan = new AtomicBoolean();
+    IllegalStateException failure      = new IllegalStateException();
+
+    graph.add("fails", false, Collections.emptyList(), () -> { throw failure; });
+    graph.add("dependent", true, Collections.singletonList("fails"), () -> dependentRan.set(true));
+
+    try {
+      graph.execute(executor);
+      fail();
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+
+    assertFalse(dependentRan.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_rejectsUnknownDependency() {
+    graph.add("a", true, Collections.singletonList("b"), () -> {});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_rejectsDuplicateName() {
+    graph.add("a", true, Collections.emptyList(), () -> {});
+    graph.add("a", false, Collections.emptyList(), () -> {});
+  }
+
+  @Test
+  public void getCriticalPath_followsLongestChain() {
+    graph.add("a", true, Collections.emptyList(), () -> sleep(20));
+    graph.add("b", false, Collections.singletonList("a"), () -> sleep(100));
+    graph.add("c", true, Collections.singletonList("a"), () -> sleep(10));
+    graph.add("d", true, Collections.singletonList("c"), () -> sleep(10));
+
+    graph.execute(executor);
+
+    assertEquals(Arrays.asList("a", "b"), graph.getCriticalPath());
+    assertTrue(graph.getCriticalPathMs() >= 120);
+    assertTrue(graph.getCriticalPathMs() <= graph.getWallTimeMs());
+    assertTrue(graph.getWallTimeMs() < graph.getSerialTimeMs());
+  }
+
+  /**
+   * Runs a graph shaped like the one in ApplicationContext with made up task costs. Everything
+   * after crash-handling waits on the database through first-launch, so that's where the critical
+   * path has to go, and it has to be shorter than running every task one after another.
+   */
+  @Test
+  public void execute_startupGraph_criticalPathShorterThanSerial() {
+    addStartupGraph(graph);
+    graph.execute(executor);
+
+    assertEquals(Arrays.asList("security-provider", "logging", "crash-handling", "eat-db", "first-launch", "feature-flags"), graph.getCriticalPath().subList(0, 6));
+    assertTrue(graph.getCriticalPathMs() <= graph.getWallTimeMs());
+    assertTrue(graph.getCriticalPathMs() < graph.getSerialTimeMs());
+  }
+
+  private void addRecording(String name, boolean onCallingThread, List<String> dependencies, AtomicLong clock, Map<String, Long> started, Map<String, Long> finished) {
+    graph.add(name, onCallingThread, dependencies, () -> {
+      started.put(name, clock.incrementAndGet());
+      sleep(10);
+      finished.put(name, clock.incrementAndGet());
+    });
+  }
+
+  private static void addStartupGraph(StartupTaskGraph graph) {
+    addStartupTask(graph, "security-provider", true, 3);
+    addStartupTask(graph, "logging", true, 5, "security-provider");
+    addStartupTask(graph, "crash-handling", true, 1, "logging");
+    addStartupTask(graph, "eat-db", false, 20, "crash-handling");
+    addStartupTask(graph, "ring-rtc", false, 8, "crash-handling");
+    addStartupTask(graph, "blob-provider", false, 1, "crash-handling");
+    addStartupTask(graph, "app-dependencies", true, 1, "crash-handling");
+    addStartupTask(graph, "vector-compat", true, 0, "crash-handling");
+    addStartupTask(graph, "lifecycle-observer", true, 1, "app-dependencies");
+    addStartupTask(graph, "first-launch", true, 1, "app-dependencies", "eat-db");
+    addStartupTask(graph, "feature-flags", true, 2, "first-launch");
+    addStartupTask(graph, "notification-channels", false, 4, "feature-flags");
+    addStartupTask(graph, "app-migrations", true, 2, "feature-flags");
+    addStartupTask(graph, "message-retriever", false, 3, "app-migrations", "lifecycle-observer");
+    addStartupTask(graph, "proxy-init", false, 4, "feature-flags");
+    addStartupTask(graph, "dynamic-theme", true, 1, "feature-flags");
+    addStartupTask(graph, "mark-registration", false, 5, "app-migrations");
+  }
+
+  private static void addStartupTask(StartupTaskGraph graph, String name, boolean onCallingThread, long cost, String... dependencies) {
+    graph.add(name, onCallingThread, Arrays.asList(dependencies), () -> sleep(cost));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -7,94 +7,198 @@ import org.signal.core.util.StreamUtil;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Log files are written as a short header followed by a series of blocks. Each block is a
+ * 12-byte nonce, a 4-byte length, and the AES-GCM ciphertext of one or more length-prefixed
+ * entries. Batching entries means we pay for a cipher init, nonce and flush once per block rather
+ * than once per line.
+ *
+ * Files without the header are in the legacy format, where every entry is its own 16-byte IV,
+ * 4-byte length, and AES-CBC ciphertext. Those can still be read, but are never appended to.
+ */
 class LogFile {
 
+  private static final byte[] BLOCK_FORMAT_HEADER = { 'S', 'L', 'O', 'G', 'B', 'L', 'K', 1 };
+
+  private static final int NONCE_LENGTH    = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+
+  /**
+   * A block is encrypted and written out once its plaintext grows past this size.
+   */
+  static final int MAX_BLOCK_SIZE = 32 * 1024;
+
+  /**
+   * @return True if the file is empty or already in the block format, meaning a {@link Writer}
+   *         can append to it.
+   */
+  static boolean canAppendTo(@NonNull File file) throws IOException {
+    if (file.length() == 0) {
+      return true;
+    }
+
+    try (InputStream inputStream = new FileInputStream(file)) {
+      return hasBlockFormatHeader(inputStream);
+    }
+  }
+
+  private static boolean hasBlockFormatHeader(@NonNull InputStream inputStream) throws IOException {
+    byte[] header = new byte[BLOCK_FORMAT_HEADER.length];
+
+    try {
+      StreamUtil.readFully(inputStream, header);
+    } catch (EOFException e) {
+      return false;
+    }
+
+    return Arrays.equals(header, BLOCK_FORMAT_HEADER);
+  }
+
   public static class Writer {
 
-    private final byte[]        ivBuffer         = new byte[16];
+    private final byte[]        nonceBuffer      = new byte[NONCE_LENGTH];
+    private final byte[]        intBuffer        = new byte[4];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
+    private final BlockBuffer   block            = new BlockBuffer();
+    private final SecureRandom  random           = new SecureRandom();
 
-    private final byte[]               secret;
+    private final SecretKeySpec        key;
     private final File                 file;
     private final Cipher               cipher;
     private final BufferedOutputStream outputStream;
 
     Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
+      boolean isNew = file.length() == 0;
+
+      this.key          = new SecretKeySpec(secret, "AES");
       this.file         = file;
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
       try {
-        this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
       } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
         throw new AssertionError(e);
       }
+
+      if (isNew) {
+        outputStream.write(BLOCK_FORMAT_HEADER);
+        outputStream.flush();
+      }
     }
 
+    /**
+     * Adds an entry to the current block. Nothing is written to disk until the block is full or
+     * {@link #flush()} is called.
+     */
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
-
       byte[] plaintext = entry.getBytes();
+
+      Conversions.intToByteArray(intBuffer, 0, plaintext.length);
+      block.write(intBuffer);
+      block.write(plaintext);
+
+      if (block.size() >= MAX_BLOCK_SIZE) {
+        flush();
+      }
+    }
+
+    boolean hasPendingEntries() {
+      return block.size() > 0;
+    }
+
+    /**
+     * Encrypts and writes out the current block, if there is one.
+     */
+    void flush() throws IOException {
+      if (block.size() == 0) {
+        return;
+      }
+
+      random.nextBytes(nonceBuffer);
+
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonceBuffer));
 
-        int    cipherLength = cipher.getOutputSize(plaintext.length);
+        int    cipherLength = cipher.getOutputSize(block.size());
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
-        cipherLength = cipher.doFinal(plaintext, 0, plaintext.length, ciphertext);
+        cipherLength = cipher.doFinal(block.getBuffer(), 0, block.size(), ciphertext);
+
+        Conversions.intToByteArray(intBuffer, 0, cipherLength);
 
-        outputStream.write(ivBuffer);
-        outputStream.write(Conversions.intToByteArray(cipherLength));
+        outputStream.write(nonceBuffer);
+        outputStream.write(intBuffer);
         outputStream.write(ciphertext, 0, cipherLength);
 
         outputStream.flush();
       } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
         throw new AssertionError(e);
+      } finally {
+        block.reset();
       }
     }
 
     long getLogSize() {
-      return file.length();
+      return file.length() + block.size();
     }
 
-    void close() {
-      StreamUtil.close(outputStream);
+    void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        StreamUtil.close(outputStream);
+      }
     }
   }
 
   static class Reader {
 
-    private final byte[]        ivBuffer         = new byte[16];
     private final byte[]        intBuffer        = new byte[4];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]              secret;
+    private final SecretKeySpec       key;
     private final Cipher              cipher;
     private final BufferedInputStream inputStream;
+    private final boolean             blockFormat;
+    private final byte[]              ivBuffer;
 
     Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret      = secret;
+      this.key         = new SecretKeySpec(secret, "AES");
       this.inputStream = new BufferedInputStream(new FileInputStream(file));
 
+      inputStream.mark(BLOCK_FORMAT_HEADER.length);
+      this.blockFormat = hasBlockFormatHeader(inputStream);
+
+      if (!blockFormat) {
+        inputStream.reset();
+      }
+
+      this.ivBuffer = new byte[blockFormat ? NONCE_LENGTH : 16];
+
       try {
-        this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        this.cipher = Cipher.getInstance(blockFormat ? "AES/GCM/NoPadding" : "AES/CBC/PKCS5Padding");
       } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
         throw new AssertionError(e);
       }
@@ -103,35 +207,91 @@ class LogFile {
     String readAll() throws IOException {
       StringBuilder builder = new StringBuilder();
 
-      String entry;
-      while ((entry = readEntry()) != null) {
-        builder.append(entry).append('\n');
+      try {
+        if (blockFormat) {
+          while (readBlock(builder)) { }
+        } else {
+          String entry;
+          while ((entry = readLegacyEntry()) != null) {
+            builder.append(entry).append('\n');
+          }
+        }
+      } finally {
+        StreamUtil.close(inputStream);
       }
 
       return builder.toString();
     }
 
-    private String readEntry() throws IOException {
+    private boolean readBlock(@NonNull StringBuilder builder) throws IOException {
+      byte[] plaintext;
+
       try {
-        StreamUtil.readFully(inputStream, ivBuffer);
-        StreamUtil.readFully(inputStream, intBuffer);
+        plaintext = readAndDecrypt();
+      } catch (EOFException e) {
+        return false;
+      } catch (BadPaddingException | IllegalBlockSizeException e) {
+        throw new IOException("Corrupt log block.", e);
+      }
 
-        int    length     = Conversions.byteArrayToInt(intBuffer);
-        byte[] ciphertext = ciphertextBuffer.get(length);
+      int offset = 0;
 
-        StreamUtil.readFully(inputStream, ciphertext, length);
+      while (offset < plaintext.length) {
+        int length = Conversions.byteArrayToInt(plaintext, offset);
+        offset += 4;
 
-        try {
-          cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
-          byte[] plaintext = cipher.doFinal(ciphertext, 0, length);
+        builder.append(new String(plaintext, offset, length)).append('\n');
+        offset += length;
+      }
 
-          return new String(plaintext);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-          throw new AssertionError(e);
-        }
+      return true;
+    }
+
+    private String readLegacyEntry() throws IOException {
+      try {
+        return new String(readAndDecrypt());
       } catch (EOFException e) {
         return null;
+      } catch (BadPaddingException | IllegalBlockSizeException e) {
+        throw new AssertionError(e);
       }
     }
+
+    /**
+     * Reads an IV, a length, and that much ciphertext, and decrypts it with the cipher for this
+     * file's format.
+     */
+    private byte[] readAndDecrypt() throws IOException, BadPaddingException, IllegalBlockSizeException {
+      StreamUtil.readFully(inputStream, ivBuffer);
+      StreamUtil.readFully(inputStream, intBuffer);
+
+      int    length     = Conversions.byteArrayToInt(intBuffer);
+      byte[] ciphertext = ciphertextBuffer.get(length);
+
+      StreamUtil.readFully(inputStream, ciphertext, length);
+
+      try {
+        AlgorithmParameterSpec params = blockFormat ? new GCMParameterSpec(TAG_LENGTH_BITS, ivBuffer)
+                                                    : new IvParameterSpec(ivBuffer);
+
+        cipher.init(Cipher.DECRYPT_MODE, key, params);
+        return cipher.doFinal(ciphertext, 0, length);
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /**
+   * Exposes the backing array so a block can be encrypted without copying it first.
+   */
+  private static class BlockBuffer extends ByteArrayOutputStream {
+    BlockBuffer() {
+      super(MAX_BLOCK_SIZE);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
   }
 }
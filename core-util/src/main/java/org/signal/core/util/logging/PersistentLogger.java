@@ -20,8 +20,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 @SuppressLint("LogNotSignal")
@@ -40,14 +41,21 @@ public final class PersistentLogger extends Log.Logger {
   private static final String           FILENAME_PREFIX = "log-";
   private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US);
 
-  private final Context  context;
-  private final Executor executor;
+  /**
+   * Entries are batched into blocks by {@link LogFile.Writer}. This bounds how long a partially
+   * filled block can sit in memory before it's written out.
+   */
+  private static final long FLUSH_INTERVAL_MS = 500;
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
   private final byte[]   secret;
   private final String   logTag;
   private final int      maxLogFiles;
   private final long     maxLogFileSize;
 
   private LogFile.Writer writer;
+  private boolean        flushScheduled;
 
   private final ThreadLocal<String> cachedThreadString;
 
@@ -58,7 +66,7 @@ public final class PersistentLogger extends Log.Logger {
     this.maxLogFiles        = maxLogFiles;
     this.maxLogFileSize     = maxLogFileSize;
     this.cachedThreadString = new ThreadLocal<>();
-    this.executor           = Executors.newSingleThreadExecutor(r -> {
+    this.executor           = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "signal-PersistentLogger");
       thread.setPriority(Thread.MIN_PRIORITY);
       return thread;
@@ -101,7 +109,10 @@ public final class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      flush();
+      latch.countDown();
+    });
 
     try {
       latch.await();
@@ -118,6 +129,8 @@ public final class PersistentLogger extends Log.Logger {
     executor.execute(() -> {
       StringBuilder builder = new StringBuilder();
 
+      flush();
+
       try {
         File[] logFiles = getSortedLogFiles();
         for (int i = logFiles.length - 1; i >= 0; i--) {
@@ -150,7 +163,13 @@ public final class PersistentLogger extends Log.Logger {
   @WorkerThread
   private void initializeWriter() {
     try {
-      writer = new LogFile.Writer(secret, getOrCreateActiveLogFile());
+      File activeLogFile = getOrCreateActiveLogFile();
+
+      if (!LogFile.canAppendTo(activeLogFile)) {
+        activeLogFile = createNewLogFile();
+      }
+
+      writer = new LogFile.Writer(secret, activeLogFile);
     } catch (IOException e) {
       android.util.Log.e(TAG, "Failed to initialize writer.", e);
     }
@@ -188,6 +207,7 @@ public final class PersistentLogger extends Log.Logger {
           writer.writeEntry(entry);
         }
 
+        scheduleFlush();
       } catch (IOException e) {
         android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
         deleteAllLogs();
@@ -196,6 +216,31 @@ public final class PersistentLogger extends Log.Logger {
     });
   }
 
+  @WorkerThread
+  private void scheduleFlush() {
+    if (flushScheduled || !writer.hasPendingEntries()) {
+      return;
+    }
+
+    flushScheduled = true;
+    executor.schedule(this::flush, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  @WorkerThread
+  private void flush() {
+    flushScheduled = false;
+
+    if (writer == null) {
+      return;
+    }
+
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to flush logs.", e);
+    }
+  }
+
   private void trimLogFilesOverMax() throws IOException {
     File[] logs = getSortedLogFiles();
     if (logs.length > maxLogFiles) {
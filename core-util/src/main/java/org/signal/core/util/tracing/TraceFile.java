@@ -0,0 +1,126 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.Conversions;
+import org.signal.core.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An encrypted file of serialized trace data. The file is a series of blocks, each of which is a
+ * 12-byte nonce, a 4-byte length, and the AES-GCM ciphertext of a serialized {@link TraceProtos.Trace}.
+ *
+ * Since a Trace is nothing more than a repeated field, the concatenated plaintext of all of the
+ * blocks is itself a valid Trace.
+ */
+final class TraceFile {
+
+  private static final int NONCE_LENGTH    = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+
+  private TraceFile() {}
+
+  static final class Writer {
+
+    private final byte[]       nonce     = new byte[NONCE_LENGTH];
+    private final byte[]       intBuffer = new byte[4];
+    private final SecureRandom random    = new SecureRandom();
+
+    private final SecretKeySpec key;
+    private final Cipher        cipher;
+    private final OutputStream  outputStream;
+
+    private long length;
+
+    Writer(@NonNull File file, @NonNull byte[] secret) throws IOException {
+      this.key          = new SecretKeySpec(secret, "AES");
+      this.outputStream = new FileOutputStream(file, false);
+
+      try {
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    void writeBlock(@NonNull byte[] plaintext) throws IOException {
+      random.nextBytes(nonce);
+
+      byte[] ciphertext;
+
+      try {
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+        ciphertext = cipher.doFinal(plaintext);
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+
+      Conversions.intToByteArray(intBuffer, 0, ciphertext.length);
+
+      outputStream.write(nonce);
+      outputStream.write(intBuffer);
+      outputStream.write(ciphertext);
+      outputStream.flush();
+
+      length += nonce.length + intBuffer.length + ciphertext.length;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    void close() {
+      StreamUtil.close(outputStream);
+    }
+  }
+
+  /**
+   * @return The decrypted contents of every complete block in the file.
+   */
+  static @NonNull byte[] readAll(@NonNull File file, @NonNull byte[] secret) throws IOException {
+    SecretKeySpec         key       = new SecretKeySpec(secret, "AES");
+    ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+    byte[]                nonce     = new byte[NONCE_LENGTH];
+    byte[]                intBuffer = new byte[4];
+
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+
+      while (true) {
+        byte[] ciphertext;
+
+        try {
+          StreamUtil.readFully(inputStream, nonce);
+          StreamUtil.readFully(inputStream, intBuffer);
+
+          ciphertext = new byte[Conversions.byteArrayToInt(intBuffer)];
+          StreamUtil.readFully(inputStream, ciphertext);
+        } catch (EOFException e) {
+          break;
+        }
+
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+        plaintext.write(cipher.doFinal(ciphertext));
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+
+    return plaintext.toByteArray();
+  }
+}
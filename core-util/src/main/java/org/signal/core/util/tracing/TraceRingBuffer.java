@@ -0,0 +1,112 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+/**
+ * A fixed-size, preallocated buffer of trace events recorded by a single thread.
+ *
+ * Only the owning thread writes to the buffer and only the drainer reads from it, so recording an
+ * event is a handful of array stores and a volatile write -- no locks and no allocation. The writer
+ * never waits on the drainer. If the drainer falls behind, the oldest events are overwritten and
+ * reported as dropped.
+ */
+final class TraceRingBuffer {
+
+  static final int CAPACITY = 2048;
+
+  private static final int MASK = CAPACITY - 1;
+
+  private final WeakReference<Thread> thread;
+  private final long                  threadId;
+  private final String                threadName;
+
+  private final int[]     nameIds    = new int[CAPACITY];
+  private final boolean[] begins     = new boolean[CAPACITY];
+  private final long[]    timestamps = new long[CAPACITY];
+  private final long[]    trackIds   = new long[CAPACITY];
+  private final Object[]  values     = new Object[CAPACITY];
+
+  /** Total number of events ever written. Only modified by the owning thread. */
+  private volatile long written;
+
+  /** Total number of events ever drained. Only accessed by the drainer. */
+  private long read;
+
+  TraceRingBuffer(@NonNull Thread thread) {
+    this.thread     = new WeakReference<>(thread);
+    this.threadId   = thread.getId();
+    this.threadName = thread.getName();
+  }
+
+  /**
+   * @return True if the owning thread has finished and every event it wrote has been drained,
+   *         meaning the buffer can be discarded.
+   */
+  boolean isFinished() {
+    Thread owner = thread.get();
+    return (owner == null || !owner.isAlive()) && read == written;
+  }
+
+  long getThreadId() {
+    return threadId;
+  }
+
+  @NonNull String getThreadName() {
+    return threadName;
+  }
+
+  void add(int nameId, boolean begin, long timestamp, long trackId, @Nullable Map<String, String> eventValues) {
+    long index = written;
+    int  slot  = (int) (index & MASK);
+
+    nameIds[slot]    = nameId;
+    begins[slot]     = begin;
+    timestamps[slot] = timestamp;
+    trackIds[slot]   = trackId;
+    values[slot]     = eventValues;
+
+    written = index + 1;
+  }
+
+  /**
+   * Passes every event written since the last drain to the consumer, oldest first.
+   *
+   * @return The number of events that were overwritten before they could be drained.
+   */
+  @SuppressWarnings("unchecked")
+  long drain(@NonNull Consumer consumer) {
+    long end     = written;
+    long start   = Math.max(read, end - CAPACITY);
+    long dropped = start - read;
+
+    for (long i = start; i < end; i++) {
+      int                 slot        = (int) (i & MASK);
+      int                 nameId      = nameIds[slot];
+      boolean             begin       = begins[slot];
+      long                timestamp   = timestamps[slot];
+      long                trackId     = trackIds[slot];
+      Map<String, String> eventValues = (Map<String, String>) values[slot];
+
+      // Once the writer has reached event i + CAPACITY it may be halfway through overwriting this
+      // slot, so the copy above can't be trusted even though written hasn't moved past it yet.
+      if (written - CAPACITY >= i) {
+        dropped++;
+        continue;
+      }
+
+      consumer.onEvent(nameId, begin, timestamp, trackId, eventValues);
+    }
+
+    read = end;
+
+    return dropped;
+  }
+
+  interface Consumer {
+    void onEvent(int nameId, boolean begin, long timestamp, long trackId, @Nullable Map<String, String> values);
+  }
+}
@@ -0,0 +1,241 @@
+package org.signal.core.util.tracing;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.tracing.TraceProtos.EventName;
+import org.signal.core.util.tracing.TraceProtos.InternedData;
+import org.signal.core.util.tracing.TraceProtos.Trace;
+import org.signal.core.util.tracing.TraceProtos.TracePacket;
+import org.signal.core.util.tracing.TraceProtos.TrackEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The low-overhead backend for {@link Tracer}. Each thread records events into its own
+ * {@link TraceRingBuffer}, and method names are interned to small integer ids the first time
+ * they're seen. A background drainer periodically converts everything recorded since the last
+ * drain into Perfetto packets and appends them to an encrypted {@link TraceFile}.
+ *
+ * Names are written to the trace as interned data, so every event after the first for a given
+ * method only carries an id.
+ */
+@SuppressLint("LogNotSignal")
+final class TraceStreamer {
+
+  private static final String TAG = TraceStreamer.class.getSimpleName();
+
+  private static final long DRAIN_INTERVAL_MS = 250;
+
+  private final Map<String, Integer>         nameIds      = new ConcurrentHashMap<>();
+  private final List<String>                 names        = new ArrayList<>();
+  private final List<TraceRingBuffer>        buffers      = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<TraceRingBuffer> threadBuffer = new ThreadLocal<>();
+  private final ScheduledExecutorService     executor;
+  private final File                         file;
+  private final byte[]                       secret;
+  private final TraceFile.Writer             writer;
+  private final long                         maxFileSize;
+
+  /** Everything below is only accessed on the drainer. */
+  private final Set<Long>         describedTracks = new HashSet<>();
+  private final List<TracePacket> pendingPackets  = new ArrayList<>();
+  private       int               emittedNames;
+  private       long              lastSyncTime;
+  private       long              droppedEvents;
+  private       boolean           full;
+
+  /**
+   * @param initialPackets Packets recorded before streaming started. They're written at the
+   *                       beginning of the file.
+   */
+  TraceStreamer(@NonNull File file, @NonNull byte[] secret, long maxFileSize, @NonNull Collection<TracePacket> initialPackets) throws IOException {
+    this.file        = file;
+    this.secret      = secret;
+    this.maxFileSize = maxFileSize;
+    this.writer      = new TraceFile.Writer(file, secret);
+    this.executor    = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "signal-TraceStreamer");
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+
+    pendingPackets.addAll(initialPackets);
+
+    executor.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  void add(@NonNull String name, boolean begin, long timestamp, long trackId, @Nullable Map<String, String> values) {
+    TraceRingBuffer buffer = threadBuffer.get();
+
+    if (buffer == null) {
+      buffer = new TraceRingBuffer(Thread.currentThread());
+      threadBuffer.set(buffer);
+      buffers.add(buffer);
+    }
+
+    buffer.add(intern(name), begin, timestamp, trackId, values);
+  }
+
+  /**
+   * Drains everything recorded so far to disk and returns the full contents of the trace file.
+   */
+  @NonNull byte[] serialize() throws IOException {
+    try {
+      executor.submit(this::drain).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    }
+
+    return TraceFile.readAll(file, secret);
+  }
+
+  private int intern(@NonNull String name) {
+    Integer id = nameIds.get(name);
+
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (names) {
+      id = nameIds.get(name);
+
+      if (id == null) {
+        names.add(name);
+        id = names.size();
+        nameIds.put(name, id);
+      }
+
+      return id;
+    }
+  }
+
+  @WorkerThread
+  private void drain() {
+    long now = Tracer.getInstance().getTimeNanos();
+
+    if (now - lastSyncTime > Tracer.SYNCHRONIZATION_INTERVAL) {
+      pendingPackets.add(Tracer.forSynchronization(now));
+      lastSyncTime = now;
+    }
+
+    for (TraceRingBuffer buffer : buffers) {
+      droppedEvents += buffer.drain((nameId, begin, timestamp, trackId, values) -> {
+        if (describedTracks.add(trackId)) {
+          pendingPackets.add(Tracer.forTrack(trackId, getTrackName(buffer, trackId)));
+        }
+
+        pendingPackets.add(forEvent(nameId, begin, timestamp, trackId, values));
+      });
+
+      if (buffer.isFinished()) {
+        buffers.remove(buffer);
+      }
+    }
+
+    if (pendingPackets.isEmpty()) {
+      return;
+    }
+
+    Trace.Builder trace = Trace.newBuilder();
+
+    TracePacket internedNames = forNewlyInternedNames();
+    if (internedNames != null) {
+      trace.addPacket(internedNames);
+    }
+
+    trace.addAllPacket(pendingPackets);
+    pendingPackets.clear();
+
+    if (full) {
+      return;
+    }
+
+    try {
+      writer.writeBlock(trace.build().toByteArray());
+
+      if (writer.getLength() >= maxFileSize) {
+        android.util.Log.w(TAG, "Trace file is full. No longer recording. Dropped events: " + droppedEvents);
+        full = true;
+        writer.close();
+      }
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write trace. No longer recording.", e);
+      full = true;
+      writer.close();
+    }
+  }
+
+  private @Nullable TracePacket forNewlyInternedNames() {
+    InternedData.Builder internedData = InternedData.newBuilder();
+
+    synchronized (names) {
+      for (int i = emittedNames; i < names.size(); i++) {
+        internedData.addEventNames(EventName.newBuilder()
+                                            .setIid(i + 1)
+                                            .setName(names.get(i)));
+      }
+    }
+
+    if (internedData.getEventNamesCount() == 0) {
+      return null;
+    }
+
+    int flags = emittedNames == 0 ? TracePacket.SequenceFlags.SEQ_INCREMENTAL_STATE_CLEARED_VALUE
+                                  : TracePacket.SequenceFlags.SEQ_NEEDS_INCREMENTAL_STATE_VALUE;
+
+    emittedNames += internedData.getEventNamesCount();
+
+    return TracePacket.newBuilder()
+                      .setTrustedPacketSequenceId(Tracer.TRUSTED_SEQUENCE_ID)
+                      .setSequenceFlags(flags)
+                      .setInternedData(internedData)
+                      .build();
+  }
+
+  private static @NonNull String getTrackName(@NonNull TraceRingBuffer buffer, long trackId) {
+    if (trackId == Tracer.TrackId.DB_LOCK) {
+      return Tracer.TrackId.DB_LOCK_NAME;
+    } else if (trackId == buffer.getThreadId()) {
+      return buffer.getThreadName();
+    } else {
+      return String.valueOf(trackId);
+    }
+  }
+
+  private static @NonNull TracePacket forEvent(int nameId, boolean begin, long timestamp, long trackId, @Nullable Map<String, String> values) {
+    TrackEvent.Builder event = TrackEvent.newBuilder()
+                                         .setTrackUuid(trackId)
+                                         .setNameIid(nameId)
+                                         .setType(begin ? TrackEvent.Type.TYPE_SLICE_BEGIN : TrackEvent.Type.TYPE_SLICE_END);
+
+    if (values != null) {
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        event.addDebugAnnotations(Tracer.debugAnnotation(entry.getKey(), entry.getValue()));
+      }
+    }
+
+    return TracePacket.newBuilder()
+                      .setTrustedPacketSequenceId(Tracer.TRUSTED_SEQUENCE_ID)
+                      .setSequenceFlags(TracePacket.SequenceFlags.SEQ_NEEDS_INCREMENTAL_STATE_VALUE)
+                      .setTimestamp(timestamp)
+                      .setTrackEvent(event)
+                      .build();
+  }
+}
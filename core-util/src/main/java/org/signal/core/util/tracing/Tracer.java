@@ -1,5 +1,6 @@
 package org.signal.core.util.tracing;
 
+import android.annotation.SuppressLint;
 import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
@@ -12,8 +13,12 @@ import org.signal.core.util.tracing.TraceProtos.TracePacket;
 import org.signal.core.util.tracing.TraceProtos.TrackDescriptor;
 import org.signal.core.util.tracing.TraceProtos.TrackEvent;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
@@ -23,8 +28,10 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A class to create Perfetto-compatible traces. Currently keeps the entire trace in memory to
- * avoid weirdness with synchronizing to disk.
+ * A class to create Perfetto-compatible traces. By default keeps the entire trace in memory to
+ * avoid weirdness with synchronizing to disk. Longer traces can be recorded to disk with
+ * {@link #startStreaming(File, byte[], long)}, in which case all of the work is handed off to a
+ * {@link TraceStreamer}.
  *
  * Some general info on how the Perfetto format works:
  * - The file format is just a Trace proto (see Trace.proto)
@@ -47,19 +54,23 @@ import java.util.concurrent.atomic.AtomicInteger;
  * cost of screwing up would be dropping a trace packet or something, which, while sad, won't affect
  * how the app functions.
  */
+@SuppressLint("LogNotSignal")
 public final class Tracer {
 
   public static final class TrackId {
     public static final long DB_LOCK        = -8675309;
 
-    private static final String DB_LOCK_NAME = "Database Lock";
+    static final String DB_LOCK_NAME = "Database Lock";
   }
 
+  private static final String TAG = Tracer.class.getSimpleName();
+
   private static final Tracer INSTANCE = new Tracer();
 
-  private static final int    TRUSTED_SEQUENCE_ID      = 1;
-  private static final byte[] SYNCHRONIZATION_MARKER   = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
-  private static final long   SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
+  static final int  TRUSTED_SEQUENCE_ID      = 1;
+  static final long SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
+
+  private static final byte[] SYNCHRONIZATION_MARKER = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
 
   private final Clock                  clock;
   private final Map<Long, TracePacket> threadPackets;
@@ -69,6 +80,8 @@ public final class Tracer {
   private long lastSyncTime;
   private long maxBufferSize;
 
+  private volatile TraceStreamer streamer;
+
   private Tracer() {
     this.clock         = SystemClock::elapsedRealtimeNanos;
     this.threadPackets = new ConcurrentHashMap<>();
@@ -85,6 +98,28 @@ public final class Tracer {
     this.maxBufferSize = maxBufferSize;
   }
 
+  /**
+   * Switches to a low-overhead streaming mode for the rest of the process' life. Instead of
+   * keeping a small in-memory buffer of packets, events are recorded into per-thread ring buffers
+   * and periodically drained to an encrypted file, so traces can cover minutes rather than
+   * seconds. Anything traced before this call is carried over to the file.
+   *
+   * @param maxFileSize Recording stops once the file reaches this size.
+   */
+  public synchronized void startStreaming(@NonNull File file, @NonNull byte[] secret, long maxFileSize) throws IOException {
+    if (streamer != null) {
+      return;
+    }
+
+    List<TracePacket> initialPackets = new ArrayList<>(threadPackets.values());
+    initialPackets.addAll(eventPackets);
+
+    streamer = new TraceStreamer(file, secret, maxFileSize, initialPackets);
+
+    eventPackets.clear();
+    eventCount.set(0);
+  }
+
   public void start(@NonNull String methodName) {
     start(methodName, Thread.currentThread().getId(), null);
   }
@@ -108,6 +143,12 @@ public final class Tracer {
   public void start(@NonNull String methodName, long trackId, @Nullable Map<String, String> values) {
     long time = clock.getTimeNanos();
 
+    TraceStreamer streamer = this.streamer;
+    if (streamer != null) {
+      streamer.add(methodName, true, time, trackId, values);
+      return;
+    }
+
     if (time - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
       addPacket(forSynchronization(time));
       lastSyncTime = time;
@@ -121,14 +162,32 @@ public final class Tracer {
   }
 
   public void end(@NonNull String methodName) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), Thread.currentThread().getId()));
+    end(methodName, Thread.currentThread().getId());
   }
 
   public void end(@NonNull String methodName, long trackId) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
+    long time = clock.getTimeNanos();
+
+    TraceStreamer streamer = this.streamer;
+    if (streamer != null) {
+      streamer.add(methodName, false, time, trackId, null);
+      return;
+    }
+
+    addPacket(forMethodEnd(methodName, time, trackId));
   }
 
   public @NonNull byte[] serialize() {
+    TraceStreamer streamer = this.streamer;
+    if (streamer != null) {
+      try {
+        return streamer.serialize();
+      } catch (IOException e) {
+        android.util.Log.w(TAG, "Failed to read streamed trace.", e);
+        return new byte[0];
+      }
+    }
+
     Trace.Builder trace = Trace.newBuilder();
 
     for (TracePacket thread : threadPackets.values()) {
@@ -173,7 +232,11 @@ public final class Tracer {
     }
   }
 
-  private static TracePacket forTrack(long id, String name) {
+  long getTimeNanos() {
+    return clock.getTimeNanos();
+  }
+
+  static TracePacket forTrack(long id, String name) {
     return TracePacket.newBuilder()
                       .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
                       .setTrackDescriptor(TrackDescriptor.newBuilder()
@@ -202,7 +265,7 @@ public final class Tracer {
                       .build();
   }
 
-  private static TraceProtos.DebugAnnotation debugAnnotation(@NonNull String key, @Nullable String value) {
+  static TraceProtos.DebugAnnotation debugAnnotation(@NonNull String key, @Nullable String value) {
     return TraceProtos.DebugAnnotation.newBuilder()
                                       .setName(key)
                                       .setStringValue(value != null ? value : "")
@@ -220,7 +283,7 @@ public final class Tracer {
                       .build();
   }
 
-  private static TracePacket forSynchronization(long time) {
+  static TracePacket forSynchronization(long time) {
     return TracePacket.newBuilder()
                       .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
                       .setTimestamp(time)
@@ -0,0 +1,117 @@
+package org.signal.core.util.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.signal.core.util.Conversions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class LogFileTest {
+
+  private static final byte[] SECRET = new byte[32];
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readAll_afterClose() throws IOException {
+    File file = folder.newFile();
+
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+    writer.writeEntry("one");
+    writer.writeEntry("two");
+    writer.close();
+
+    assertEquals("one\ntwo\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void writeEntry_notOnDiskUntilFlushed() throws IOException {
+    File file = folder.newFile();
+
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+    writer.writeEntry("one");
+
+    assertTrue(writer.hasPendingEntries());
+    assertEquals("", new LogFile.Reader(SECRET, file).readAll());
+
+    writer.flush();
+
+    assertFalse(writer.hasPendingEntries());
+    assertEquals("one\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void readAll_multipleBlocks() throws IOException {
+    File          file     = folder.newFile();
+    StringBuilder expected = new StringBuilder();
+
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+    for (int i = 0; i < 5000; i++) {
+      String entry = "entry number " + i;
+      writer.writeEntry(entry);
+      expected.append(entry).append('\n');
+    }
+    writer.close();
+
+    assertTrue(file.length() > LogFile.MAX_BLOCK_SIZE);
+    assertEquals(expected.toString(), new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void readAll_appendedByMultipleWriters() throws IOException {
+    File file = folder.newFile();
+
+    LogFile.Writer first = new LogFile.Writer(SECRET, file);
+    first.writeEntry("one");
+    first.close();
+
+    assertTrue(LogFile.canAppendTo(file));
+
+    LogFile.Writer second = new LogFile.Writer(SECRET, file);
+    second.writeEntry("two");
+    second.close();
+
+    assertEquals("one\ntwo\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void readAll_legacyFormat() throws Exception {
+    File file = folder.newFile();
+
+    writeLegacyEntries(file, "one", "two");
+
+    assertFalse(LogFile.canAppendTo(file));
+    assertEquals("one\ntwo\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  private static void writeLegacyEntries(File file, String... entries) throws Exception {
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      for (String entry : entries) {
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(SECRET, "AES"), new IvParameterSpec(iv));
+
+        byte[] ciphertext = cipher.doFinal(entry.getBytes());
+
+        outputStream.write(iv);
+        outputStream.write(Conversions.intToByteArray(ciphertext.length));
+        outputStream.write(ciphertext);
+      }
+    }
+  }
+}
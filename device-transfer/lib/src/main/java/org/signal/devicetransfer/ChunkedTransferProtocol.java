@@ -0,0 +1,182 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wire format shared by {@link ChunkedTransferSender} and {@link ChunkedTransferReceiver}.
+ * <p>
+ * The payload is cut into numbered chunks, each sent with the SHA-256 of its contents so the
+ * receiver can reject anything damaged in transit. Chunks are addressed by their index, not by
+ * their contents: the digest is only an integrity check, and two chunks with the same contents are
+ * both sent. Chunks can travel over any of several connections and arrive out of order. The
+ * receiver answers on every connection with the number of chunks it has handed to the reader so
+ * far, which is all a reconnecting sender needs to know to carry on from where it was.
+ * <p>
+ * Only the first connection goes through the user verified handshake. It is used to send a random
+ * session token, which every further connection has to present before it is used.
+ */
+final class ChunkedTransferProtocol {
+
+  /**
+   * Sent by both sides in place of the plain verification confirmation, to say they can speak this
+   * protocol. Older versions send {@link #LEGACY_VERIFIED} and get the single stream transfer.
+   */
+  static final int CHUNKED_VERIFIED = 0x4D;
+  static final int LEGACY_VERIFIED  = 0x43;
+
+  static final int CHUNK_SIZE  = 256 * 1024;
+  static final int WINDOW_SIZE = 32;
+  static final int CONNECTIONS = 4;
+
+  static final int TOKEN_LENGTH = 32;
+
+  /**
+   * How long a connection can go without hearing anything from the other side before it's treated
+   * as broken. While a connection is otherwise idle, the sender writes a keep-alive and the receiver
+   * repeats its last acknowledgement several times within this.
+   */
+  static final long STALL_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+  private static final int DIGEST_LENGTH = 32;
+  private static final int JOIN          = 0x4A;
+  private static final int END_OF_STREAM = -1;
+  private static final int KEEP_ALIVE    = -2;
+
+  private ChunkedTransferProtocol() {}
+
+  static @NonNull byte[] generateToken() {
+    byte[] token = new byte[TOKEN_LENGTH];
+    new SecureRandom().nextBytes(token);
+    return token;
+  }
+
+  static void writeJoin(@NonNull OutputStream outputStream, @NonNull byte[] token) throws IOException {
+    outputStream.write(JOIN);
+    outputStream.write(token);
+    outputStream.flush();
+  }
+
+  /**
+   * @return True if the connection presented the session token.
+   */
+  static boolean readJoin(@NonNull InputStream inputStream, @NonNull byte[] token) throws IOException {
+    DataInputStream in = new DataInputStream(inputStream);
+
+    if (in.read() != JOIN) {
+      return false;
+    }
+
+    byte[] presented = new byte[TOKEN_LENGTH];
+    in.readFully(presented);
+
+    return MessageDigest.isEqual(token, presented);
+  }
+
+  static void writeChunk(@NonNull DataOutputStream out, @NonNull Chunk chunk) throws IOException {
+    out.writeLong(chunk.index);
+    if (chunk.isKeepAlive()) {
+      out.writeInt(KEEP_ALIVE);
+    } else if (chunk.isEnd()) {
+      out.writeInt(END_OF_STREAM);
+    } else {
+      out.writeInt(chunk.data.length);
+      out.write(chunk.digest);
+      out.write(chunk.data);
+    }
+  }
+
+  /**
+   * @throws IOException If the chunk is malformed or its contents don't match its digest.
+   */
+  static @NonNull Chunk readChunk(@NonNull DataInputStream in) throws IOException {
+    long index  = in.readLong();
+    int  length = in.readInt();
+
+    if (length == KEEP_ALIVE) {
+      return Chunk.keepAlive();
+    }
+
+    if (length == END_OF_STREAM) {
+      return Chunk.end(index);
+    }
+
+    if (index < 0 || length < 0 || length > CHUNK_SIZE) {
+      throw new IOException("Invalid chunk header, index: " + index + " length: " + length);
+    }
+
+    byte[] digest = new byte[DIGEST_LENGTH];
+    byte[] data   = new byte[length];
+
+    in.readFully(digest);
+    in.readFully(data);
+
+    if (!MessageDigest.isEqual(digest, sha256(data))) {
+      throw new IOException("Digest mismatch for chunk " + index);
+    }
+
+    return new Chunk(index, data, digest);
+  }
+
+  static void writeAck(@NonNull DataOutputStream out, long chunksConsumed) throws IOException {
+    out.writeLong(chunksConsumed);
+    out.flush();
+  }
+
+  static long readAck(@NonNull DataInputStream in) throws IOException {
+    return in.readLong();
+  }
+
+  static @NonNull byte[] sha256(@NonNull byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static final class Chunk {
+    final           long   index;
+    final @Nullable byte[] data;
+    final @Nullable byte[] digest;
+
+    private Chunk(long index, @Nullable byte[] data, @Nullable byte[] digest) {
+      this.index  = index;
+      this.data   = data;
+      this.digest = digest;
+    }
+
+    static @NonNull Chunk data(long index, @NonNull byte[] data) {
+      return new Chunk(index, data, sha256(data));
+    }
+
+    static @NonNull Chunk end(long index) {
+      return new Chunk(index, null, null);
+    }
+
+    /**
+     * Carries nothing, it's only sent so an idle connection can be told apart from a dead one.
+     */
+    static @NonNull Chunk keepAlive() {
+      return new Chunk(-1, null, null);
+    }
+
+    boolean isEnd() {
+      return data == null && index >= 0;
+    }
+
+    boolean isKeepAlive() {
+      return index < 0;
+    }
+  }
+}
@@ -0,0 +1,319 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.logging.Log;
+import org.signal.devicetransfer.ChunkedTransferProtocol.Chunk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles the chunks sent by a {@link ChunkedTransferSender} into {@link #getInputStream()},
+ * whichever connection they arrive on and in whatever order.
+ * <p>
+ * A chunk is acknowledged once it has been read from the stream, so at most
+ * {@link ChunkedTransferProtocol#WINDOW_SIZE} chunks are ever held here. Reading blocks while the
+ * next chunk is missing, and fails if every connection has been gone for too long. A connection
+ * the sender has said nothing on for the stall timeout is dropped, and the sender reconnects.
+ */
+final class ChunkedTransferReceiver {
+
+  private static final String TAG = Log.tag(ChunkedTransferReceiver.class);
+
+  private static final long RECONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+  private static final long FINAL_ACK_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+  private static final long WAIT_INTERVAL     = TimeUnit.SECONDS.toMillis(1);
+  private static final int  BUFFER_SIZE       = 64 * 1024;
+
+  private final Object           lock     = new Object();
+  private final Map<Long, Chunk> received = new HashMap<>();
+  private final Set<Socket>      sockets  = new HashSet<>();
+  private final InputStream      inputStream;
+  private final long             stallTimeout;
+  private final long             keepAliveInterval;
+
+  private long    chunksConsumed;
+  private long    highestAckSent = -1;
+  private long    lastDisconnect = System.currentTimeMillis();
+  private boolean ended;
+  private boolean closed;
+
+  ChunkedTransferReceiver() {
+    this(ChunkedTransferProtocol.STALL_TIMEOUT);
+  }
+
+  @VisibleForTesting
+  ChunkedTransferReceiver(long stallTimeout) {
+    this.inputStream       = new ChunkInputStream();
+    this.stallTimeout      = stallTimeout;
+    this.keepAliveInterval = stallTimeout / 4;
+  }
+
+  /**
+   * Starts receiving chunks on an authenticated connection. The receiver owns the socket from here on.
+   */
+  void addConnection(@NonNull Socket socket) {
+    synchronized (lock) {
+      if (closed) {
+        StreamUtil.close(socket);
+        return;
+      }
+
+      sockets.add(socket);
+      Log.i(TAG, "Connection added, " + sockets.size() + " open");
+    }
+
+    new ChunkReader(socket).start();
+    new AcknowledgementWriter(socket).start();
+  }
+
+  @NonNull InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /**
+   * Reads whatever the consumer left unread, then gives the acknowledgement of the end of the
+   * transfer a moment to reach the sender before closing every connection.
+   */
+  void finish() throws IOException {
+    byte[] buffer = new byte[8192];
+
+    //noinspection StatementWithEmptyBody
+    while (inputStream.read(buffer) != -1) {
+    }
+
+    synchronized (lock) {
+      long deadline = System.currentTimeMillis() + FINAL_ACK_TIMEOUT;
+
+      while (highestAckSent < chunksConsumed && !sockets.isEmpty() && System.currentTimeMillis() < deadline) {
+        waitOnLock(deadline - System.currentTimeMillis());
+      }
+    }
+
+    shutdown();
+  }
+
+  void shutdown() {
+    List<Socket> toClose;
+
+    synchronized (lock) {
+      closed  = true;
+      toClose = new ArrayList<>(sockets);
+      sockets.clear();
+      received.clear();
+      lock.notifyAll();
+    }
+
+    for (Socket socket : toClose) {
+      StreamUtil.close(socket);
+    }
+  }
+
+  private void onChunk(@NonNull Chunk chunk) throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        throw new IOException("Receiver closed");
+      }
+
+      if (chunk.index < chunksConsumed || received.containsKey(chunk.index)) {
+        return;
+      }
+
+      if (chunk.index >= chunksConsumed + ChunkedTransferProtocol.WINDOW_SIZE) {
+        throw new IOException("Chunk " + chunk.index + " is outside the window starting at " + chunksConsumed);
+      }
+
+      received.put(chunk.index, chunk);
+      lock.notifyAll();
+    }
+  }
+
+  private void removeConnection(@NonNull Socket socket) {
+    synchronized (lock) {
+      if (sockets.remove(socket)) {
+        Log.i(TAG, "Connection lost, " + sockets.size() + " open");
+
+        if (sockets.isEmpty()) {
+          lastDisconnect = System.currentTimeMillis();
+        }
+      }
+
+      lock.notifyAll();
+    }
+
+    StreamUtil.close(socket);
+  }
+
+  private void waitOnLock(long timeout) throws IOException {
+    try {
+      lock.wait(Math.max(1, timeout));
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private final class ChunkReader extends Thread {
+
+    private final Socket socket;
+
+    ChunkReader(@NonNull Socket socket) {
+      super("ChunkedTransferReceiver-read");
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setSoTimeout((int) stallTimeout);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+
+        //noinspection InfiniteLoopStatement
+        while (true) {
+          Chunk chunk = ChunkedTransferProtocol.readChunk(in);
+
+          if (!chunk.isKeepAlive()) {
+            onChunk(chunk);
+          }
+        }
+      } catch (IOException e) {
+        Log.i(TAG, "Stopped reading from connection", e);
+      } finally {
+        removeConnection(socket);
+      }
+    }
+  }
+
+  private final class AcknowledgementWriter extends Thread {
+
+    private final Socket socket;
+
+    AcknowledgementWriter(@NonNull Socket socket) {
+      super("ChunkedTransferReceiver-ack");
+      this.socket = socket;
+    }
+
+    /**
+     * Sends the latest acknowledgement whenever it moves on, and repeats it if it hasn't for a while
+     * so the sender can tell this connection is still alive.
+     */
+    @Override
+    public void run() {
+      long lastSent    = -1;
+      long lastWritten = System.currentTimeMillis();
+
+      try {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+        while (true) {
+          long ack;
+
+          synchronized (lock) {
+            long keepAliveAt = lastWritten + keepAliveInterval;
+
+            while (chunksConsumed <= lastSent && sockets.contains(socket) && System.currentTimeMillis() < keepAliveAt) {
+              waitOnLock(Math.min(WAIT_INTERVAL, keepAliveAt - System.currentTimeMillis()));
+            }
+
+            if (!sockets.contains(socket)) {
+              return;
+            }
+
+            ack = chunksConsumed;
+          }
+
+          ChunkedTransferProtocol.writeAck(out, ack);
+          lastSent    = ack;
+          lastWritten = System.currentTimeMillis();
+
+          synchronized (lock) {
+            highestAckSent = Math.max(highestAckSent, ack);
+            lock.notifyAll();
+          }
+        }
+      } catch (IOException e) {
+        Log.i(TAG, "Stopped acknowledging on connection", e);
+        removeConnection(socket);
+      }
+    }
+  }
+
+  private final class ChunkInputStream extends InputStream {
+
+    private @Nullable Chunk current;
+    private           int   position;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int    read   = read(single, 0, 1);
+
+      return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      synchronized (lock) {
+        while (current == null) {
+          if (ended) {
+            return -1;
+          }
+
+          if (closed) {
+            throw new IOException("Receiver closed");
+          }
+
+          Chunk next = received.remove(chunksConsumed);
+
+          if (next == null) {
+            if (sockets.isEmpty() && System.currentTimeMillis() - lastDisconnect > RECONNECT_TIMEOUT) {
+              throw new IOException("Sender did not reconnect");
+            }
+            waitOnLock(WAIT_INTERVAL);
+          } else if (next.isEnd()) {
+            ended = true;
+            chunksConsumed++;
+            lock.notifyAll();
+            return -1;
+          } else {
+            current  = next;
+            position = 0;
+          }
+        }
+
+        //noinspection ConstantConditions
+        int count = Math.min(len, current.data.length - position);
+
+        System.arraycopy(current.data, position, b, off, count);
+        position += count;
+
+        if (position == current.data.length) {
+          current = null;
+          chunksConsumed++;
+          lock.notifyAll();
+        }
+
+        return count;
+      }
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package org.signal.devicetransfer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.logging.Log;
+import org.signal.devicetransfer.ChunkedTransferProtocol.Chunk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends everything written to {@link #getOutputStream()} to a {@link ChunkedTransferReceiver},
+ * spread over several connections.
+ * <p>
+ * Chunks are kept until the receiver acknowledges them, so when a connection drops its chunks are
+ * sent again over the others while it reconnects through the {@link Connector}. Writes block while
+ * {@link ChunkedTransferProtocol#WINDOW_SIZE} chunks are waiting on an acknowledgement. The
+ * transfer only fails once every connection has given up trying to reconnect.
+ * <p>
+ * A connection that hears nothing back from the receiver for the stall timeout is treated as dropped,
+ * so a connection that hangs without closing can't hold on to chunks the transfer is waiting for.
+ */
+final class ChunkedTransferSender {
+
+  private static final String TAG = Log.tag(ChunkedTransferSender.class);
+
+  private static final int  MAX_RECONNECT_ATTEMPTS = 5;
+  private static final long RECONNECT_DELAY        = TimeUnit.SECONDS.toMillis(1);
+  private static final int  BUFFER_SIZE            = 64 * 1024;
+
+  private final Object            lock    = new Object();
+  private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+  private final List<Connection>  connections;
+  private final Connector         connector;
+  private final ChunkOutputStream outputStream;
+  private final long              stallTimeout;
+  private final long              keepAliveInterval;
+
+  private long        nextIndex;
+  private long        acknowledged;
+  private long        endIndex = -1;
+  private long        chunksSent;
+  private int         liveConnections;
+  private boolean     finished;
+  private IOException failure;
+
+  /**
+   * @param primary         An established connection to start sending on straight away.
+   * @param connector       Opens further connections, and replaces any that drop.
+   * @param connectionCount How many connections to send over, including the primary.
+   */
+  ChunkedTransferSender(@NonNull Socket primary, @NonNull Connector connector, int connectionCount) {
+    this(primary, connector, connectionCount, ChunkedTransferProtocol.STALL_TIMEOUT);
+  }
+
+  @VisibleForTesting
+  ChunkedTransferSender(@NonNull Socket primary, @NonNull Connector connector, int connectionCount, long stallTimeout) {
+    this.connector         = connector;
+    this.outputStream      = new ChunkOutputStream();
+    this.connections       = new ArrayList<>(connectionCount);
+    this.stallTimeout      = stallTimeout;
+    this.keepAliveInterval = stallTimeout / 4;
+
+    for (int i = 0; i < connectionCount; i++) {
+      connections.add(new Connection(i, i == 0 ? primary : null));
+    }
+
+    liveConnections = connectionCount;
+
+    for (Connection connection : connections) {
+      connection.start();
+    }
+  }
+
+  /**
+   * Closing the stream sends the end of the transfer and blocks until the receiver has read
+   * everything. Don't close it if the payload is incomplete, call {@link #shutdown()} instead.
+   */
+  @NonNull OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  /**
+   * Stops the transfer and closes every connection. Safe to call at any point.
+   */
+  void shutdown() {
+    synchronized (lock) {
+      if (!finished && failure == null) {
+        failure = new IOException("Transfer shut down");
+      }
+      finished = true;
+      lock.notifyAll();
+    }
+
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  /**
+   * How many chunks have been put on the wire, including any sent again after a connection dropped.
+   */
+  long getChunksSent() {
+    synchronized (lock) {
+      return chunksSent;
+    }
+  }
+
+  private void submit(@NonNull byte[] data, boolean end) throws IOException {
+    synchronized (lock) {
+      while (nextIndex - acknowledged >= ChunkedTransferProtocol.WINDOW_SIZE && failure == null) {
+        waitOnLock();
+      }
+
+      if (failure != null) {
+        throw failure;
+      }
+
+      long index = nextIndex++;
+
+      if (end) {
+        endIndex = index;
+        pending.addLast(Chunk.end(index));
+      } else {
+        pending.addLast(Chunk.data(index, data));
+      }
+
+      lock.notifyAll();
+    }
+  }
+
+  private void awaitCompletion() throws IOException {
+    synchronized (lock) {
+      while (acknowledged <= endIndex && failure == null) {
+        waitOnLock();
+      }
+
+      if (failure != null) {
+        throw failure;
+      }
+
+      finished = true;
+      lock.notifyAll();
+    }
+
+    Log.i(TAG, "Transfer complete, " + (endIndex + 1) + " chunks, " + chunksSent + " sent");
+
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  private void onAcknowledged(long chunksConsumed) {
+    synchronized (lock) {
+      if (chunksConsumed <= acknowledged) {
+        return;
+      }
+
+      acknowledged = chunksConsumed;
+
+      for (Connection connection : connections) {
+        Iterator<Chunk> iterator = connection.inFlight.iterator();
+        while (iterator.hasNext()) {
+          if (iterator.next().index < acknowledged) {
+            iterator.remove();
+          }
+        }
+      }
+
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * @return The next chunk for the connection to send, a keep-alive if there's been nothing to send
+   *         for a while, or null once the transfer has finished.
+   */
+  private @Nullable Chunk takeChunk(@NonNull Connection connection) throws IOException {
+    synchronized (lock) {
+      long keepAliveAt = System.currentTimeMillis() + keepAliveInterval;
+
+      while (true) {
+        if (finished) {
+          return null;
+        }
+
+        if (connection.broken) {
+          throw new IOException("Connection " + connection.id + " lost");
+        }
+
+        Chunk chunk = pending.pollFirst();
+
+        if (chunk != null && chunk.index >= acknowledged) {
+          connection.inFlight.add(chunk);
+          chunksSent++;
+          return chunk;
+        } else if (chunk == null) {
+          long remaining = keepAliveAt - System.currentTimeMillis();
+
+          if (remaining <= 0) {
+            return Chunk.keepAlive();
+          }
+
+          waitOnLock(remaining);
+        }
+      }
+    }
+  }
+
+  /**
+   * Puts anything the connection didn't get acknowledged back at the front of the queue, in order.
+   */
+  private void requeue(@NonNull Connection connection) {
+    synchronized (lock) {
+      for (int i = connection.inFlight.size() - 1; i >= 0; i--) {
+        Chunk chunk = connection.inFlight.get(i);
+        if (chunk.index >= acknowledged) {
+          pending.addFirst(chunk);
+        }
+      }
+
+      connection.inFlight.clear();
+      lock.notifyAll();
+    }
+  }
+
+  private void onConnectionGaveUp(@NonNull Connection connection, @Nullable IOException cause) {
+    synchronized (lock) {
+      liveConnections--;
+
+      Log.w(TAG, "Connection " + connection.id + " gave up, " + liveConnections + " remaining");
+
+      if (liveConnections == 0 && !finished && failure == null) {
+        failure = new IOException("All connections lost", cause);
+      }
+
+      lock.notifyAll();
+    }
+  }
+
+  private boolean isFinished() {
+    synchronized (lock) {
+      return finished || failure != null;
+    }
+  }
+
+  private void waitOnLock() throws IOException {
+    waitOnLock(0);
+  }
+
+  private void waitOnLock(long timeout) throws IOException {
+    try {
+      lock.wait(timeout);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Opens a connection to the receiver that's been accepted as part of this transfer.
+   */
+  interface Connector {
+    @NonNull Socket connect() throws IOException;
+  }
+
+  /**
+   * Sends chunks on one connection, reconnecting if it drops, while a second thread reads the
+   * acknowledgements coming back.
+   */
+  private final class Connection extends Thread {
+
+    private final int         id;
+    private final List<Chunk> inFlight = new ArrayList<>();
+
+    private volatile @Nullable Socket  socket;
+    private          @Nullable Socket  initialSocket;
+    private                    boolean broken;
+
+    Connection(int id, @Nullable Socket initialSocket) {
+      super("ChunkedTransferSender-" + id);
+      this.id            = id;
+      this.initialSocket = initialSocket;
+    }
+
+    @Override
+    public void run() {
+      IOException lastFailure = null;
+      int         attempts    = 0;
+
+      while (!isFinished()) {
+        try {
+          Socket current = initialSocket != null ? initialSocket : connector.connect();
+          initialSocket = null;
+          attempts      = 0;
+
+          synchronized (lock) {
+            socket = current;
+            broken = false;
+          }
+
+          new AcknowledgementReader(this, current).start();
+          send(current);
+        } catch (IOException e) {
+          Log.w(TAG, "Connection " + id + " failed", e);
+          lastFailure = e;
+        } finally {
+          requeue(this);
+          close();
+        }
+
+        if (isFinished()) {
+          break;
+        }
+
+        if (++attempts > MAX_RECONNECT_ATTEMPTS) {
+          onConnectionGaveUp(this, lastFailure);
+          return;
+        }
+
+        ThreadUtil.interruptableSleep(RECONNECT_DELAY);
+      }
+    }
+
+    private void send(@NonNull Socket current) throws IOException {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(current.getOutputStream(), BUFFER_SIZE));
+      Chunk            chunk;
+
+      while ((chunk = takeChunk(this)) != null) {
+        ChunkedTransferProtocol.writeChunk(out, chunk);
+        out.flush();
+      }
+    }
+
+    private void onBroken(@NonNull Socket brokenSocket) {
+      synchronized (lock) {
+        if (socket == brokenSocket) {
+          broken = true;
+          lock.notifyAll();
+        }
+      }
+      StreamUtil.close(brokenSocket);
+    }
+
+    void close() {
+      StreamUtil.close(socket);
+    }
+  }
+
+  private final class AcknowledgementReader extends Thread {
+
+    private final Connection connection;
+    private final Socket     socket;
+
+    AcknowledgementReader(@NonNull Connection connection, @NonNull Socket socket) {
+      super("ChunkedTransferSender-ack-" + connection.id);
+      this.connection = connection;
+      this.socket     = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setSoTimeout((int) stallTimeout);
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        //noinspection InfiniteLoopStatement
+        while (true) {
+          onAcknowledged(ChunkedTransferProtocol.readAck(in));
+        }
+      } catch (SocketTimeoutException e) {
+        if (!isFinished()) {
+          Log.w(TAG, "Nothing from the receiver on connection " + connection.id + " for " + stallTimeout + " ms, dropping it");
+        }
+      } catch (IOException e) {
+        if (!isFinished()) {
+          Log.w(TAG, "Lost acknowledgements on connection " + connection.id, e);
+        }
+      } finally {
+        connection.onBroken(socket);
+      }
+    }
+  }
+
+  private final class ChunkOutputStream extends OutputStream {
+
+    private final byte[] buffer = new byte[ChunkedTransferProtocol.CHUNK_SIZE];
+
+    private int     position;
+    private boolean closed;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+
+      while (len > 0) {
+        int count = Math.min(len, buffer.length - position);
+
+        System.arraycopy(b, off, buffer, position, count);
+        position += count;
+        off      += count;
+        len      -= count;
+
+        if (position == buffer.length) {
+          submitBuffer();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+
+      if (position > 0) {
+        submitBuffer();
+      }
+
+      submit(new byte[0], true);
+      awaitCompletion();
+    }
+
+    private void submitBuffer() throws IOException {
+      byte[] data = new byte[position];
+      System.arraycopy(buffer, 0, data, 0, position);
+      position = 0;
+
+      submit(data, false);
+    }
+  }
+}
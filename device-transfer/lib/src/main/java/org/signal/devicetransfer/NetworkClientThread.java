@@ -14,6 +14,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.concurrent.TimeUnit;
 
@@ -34,9 +38,10 @@ final class NetworkClientThread extends Thread {
   public static final int NETWORK_CLIENT_SSL_ESTABLISHED = 1003;
   public static final int NETWORK_CLIENT_STOPPED         = 1004;
 
-  private volatile SSLSocket client;
-  private volatile boolean   isRunning;
-  private volatile Boolean   isVerified;
+  private volatile SSLSocket             client;
+  private volatile ChunkedTransferSender sender;
+  private volatile boolean               isRunning;
+  private volatile Boolean               isVerified;
 
   private final Context    context;
   private final ClientTask clientTask;
@@ -92,10 +97,11 @@ final class NetworkClientThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for server to tell us they also verified");
-          outputStream.write(0x43);
+          outputStream.write(ChunkedTransferProtocol.CHUNKED_VERIFIED);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for server to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("server disconnected while we waited");
@@ -106,15 +112,21 @@ final class NetworkClientThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          clientTask.run(context, outputStream);
-          outputStream.flush();
 
-          Log.d(TAG, "Waiting for server to tell us they got everything");
-          try {
-            //noinspection ResultOfMethodCallIgnored
-            inputStream.read();
-          } catch (IOException e) {
-            Log.w(TAG, "Something happened confirming with server, mostly like bad SSL shutdown state, assuming success", e);
+          if (result == ChunkedTransferProtocol.CHUNKED_VERIFIED) {
+            runChunkedTransfer(client, x509.getEncoded());
+          } else {
+            Log.i(TAG, "Server only supports a single stream");
+            clientTask.run(context, outputStream);
+            outputStream.flush();
+
+            Log.d(TAG, "Waiting for server to tell us they got everything");
+            try {
+              //noinspection ResultOfMethodCallIgnored
+              inputStream.read();
+            } catch (IOException e) {
+              Log.w(TAG, "Something happened confirming with server, mostly like bad SSL shutdown state, assuming success", e);
+            }
           }
           success   = true;
           isRunning = false;
@@ -143,6 +155,64 @@ final class NetworkClientThread extends Thread {
     handler.sendEmptyMessage(NETWORK_CLIENT_STOPPED);
   }
 
+  /**
+   * Reads the session token from the verified connection, then sends the task's output over it and
+   * several more connections that present the token. Returns once the server has read everything.
+   */
+  private void runChunkedTransfer(@NonNull SSLSocket primary, @NonNull byte[] serverCertificate) throws IOException {
+    byte[] token = new byte[ChunkedTransferProtocol.TOKEN_LENGTH];
+    StreamUtil.readFully(primary.getInputStream(), token);
+
+    ChunkedTransferSender chunkedSender = new ChunkedTransferSender(primary,
+                                                                    () -> connectAndJoin(serverCertificate, token),
+                                                                    ChunkedTransferProtocol.CONNECTIONS);
+    sender = chunkedSender;
+
+    try {
+      OutputStream outputStream = chunkedSender.getOutputStream();
+      clientTask.run(context, outputStream);
+      outputStream.close();
+    } finally {
+      chunkedSender.shutdown();
+      sender = null;
+    }
+  }
+
+  /**
+   * Opens another connection for a chunked transfer, making sure it reaches the same server that
+   * was verified on the first one.
+   */
+  private @NonNull Socket connectAndJoin(@NonNull byte[] serverCertificate, @NonNull byte[] token) throws IOException {
+    SelfSignedIdentity.ApprovingTrustManager trustManager = new SelfSignedIdentity.ApprovingTrustManager();
+    SSLSocket                                socket;
+
+    try {
+      socket = (SSLSocket) SelfSignedIdentity.getApprovingSocketFactory(trustManager).createSocket();
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+
+    try {
+      socket.bind(null);
+      socket.connect(new InetSocketAddress(serverHostAddress, port), 10000);
+      socket.startHandshake();
+
+      X509Certificate x509 = trustManager.getX509Certificate();
+      if (x509 == null || !MessageDigest.isEqual(serverCertificate, x509.getEncoded())) {
+        throw new SSLHandshakeException("Server certificate does not match the verified one");
+      }
+
+      ChunkedTransferProtocol.writeJoin(socket.getOutputStream(), token);
+      return socket;
+    } catch (IOException e) {
+      StreamUtil.close(socket);
+      throw e;
+    } catch (CertificateEncodingException e) {
+      StreamUtil.close(socket);
+      throw new IOException(e);
+    }
+  }
+
   private void awaitAuthenticationCodeVerification() throws DeviceTransferAuthentication.DeviceTransferAuthenticationException {
     synchronized (verificationLock) {
       try {
@@ -169,6 +239,12 @@ final class NetworkClientThread extends Thread {
   @AnyThread
   public void shutdown() {
     isRunning = false;
+
+    ChunkedTransferSender localSender = sender;
+    if (localSender != null) {
+      localSender.shutdown();
+    }
+
     StreamUtil.close(client);
     interrupt();
   }
@@ -14,7 +14,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Performs the networking setup/tear down for the server. This includes
@@ -31,10 +33,11 @@ final class NetworkServerThread extends Thread {
   public static final int NETWORK_CLIENT_DISCONNECTED    = 1004;
   public static final int NETWORK_CLIENT_SSL_ESTABLISHED = 1005;
 
-  private volatile ServerSocket serverSocket;
-  private volatile Socket       clientSocket;
-  private volatile boolean      isRunning;
-  private volatile Boolean      isVerified;
+  private volatile ServerSocket            serverSocket;
+  private volatile Socket                  clientSocket;
+  private volatile ChunkedTransferReceiver receiver;
+  private volatile boolean                 isRunning;
+  private volatile Boolean                 isVerified;
 
   private final Context                           context;
   private final ServerTask                        serverTask;
@@ -81,10 +84,11 @@ final class NetworkServerThread extends Thread {
           Log.i(TAG, "Waiting for user to verify sas");
           awaitAuthenticationCodeVerification();
           Log.d(TAG, "Waiting for client to tell us they also verified");
-          outputStream.write(0x43);
+          outputStream.write(ChunkedTransferProtocol.CHUNKED_VERIFIED);
           outputStream.flush();
+          int result;
           try {
-            int result = inputStream.read();
+            result = inputStream.read();
             if (result == -1) {
               Log.w(TAG, "Something happened waiting for client to verify");
               throw new DeviceTransferAuthentication.DeviceTransferAuthenticationException("client disconnected while we waited");
@@ -95,10 +99,16 @@ final class NetworkServerThread extends Thread {
           }
 
           handler.sendEmptyMessage(NETWORK_CLIENT_CONNECTED);
-          serverTask.run(context, inputStream);
 
-          outputStream.write(0x53);
-          outputStream.flush();
+          if (result == ChunkedTransferProtocol.CHUNKED_VERIFIED) {
+            runChunkedTransfer(clientSocket);
+          } else {
+            Log.i(TAG, "Client only supports a single stream");
+            serverTask.run(context, inputStream);
+
+            outputStream.write(0x53);
+            outputStream.flush();
+          }
         } catch (IOException e) {
           if (isRunning) {
             Log.i(TAG, "Error connecting with client or server socket closed.", e);
@@ -121,6 +131,33 @@ final class NetworkServerThread extends Thread {
     handler.sendEmptyMessage(NETWORK_SERVER_STOPPED);
   }
 
+  /**
+   * Hands the verified connection to a {@link ChunkedTransferReceiver} along with a session token,
+   * and accepts further connections from the client that present the token until the task is done.
+   */
+  private void runChunkedTransfer(@NonNull Socket primary) throws IOException {
+    byte[] token = ChunkedTransferProtocol.generateToken();
+
+    primary.getOutputStream().write(token);
+    primary.getOutputStream().flush();
+
+    ChunkedTransferReceiver chunkedReceiver = new ChunkedTransferReceiver();
+    JoinAcceptor            joinAcceptor    = new JoinAcceptor(serverSocket, token, chunkedReceiver);
+
+    receiver = chunkedReceiver;
+    chunkedReceiver.addConnection(primary);
+    joinAcceptor.start();
+
+    try {
+      serverTask.run(context, chunkedReceiver.getInputStream());
+      chunkedReceiver.finish();
+    } finally {
+      joinAcceptor.stopAccepting();
+      chunkedReceiver.shutdown();
+      receiver = null;
+    }
+  }
+
   private void awaitAuthenticationCodeVerification() throws DeviceTransferAuthentication.DeviceTransferAuthenticationException {
     synchronized (verificationLock) {
       try {
@@ -160,8 +197,82 @@ final class NetworkServerThread extends Thread {
   @AnyThread
   public void shutdown() {
     isRunning = false;
+
+    ChunkedTransferReceiver localReceiver = receiver;
+    if (localReceiver != null) {
+      localReceiver.shutdown();
+    }
+
     StreamUtil.close(clientSocket);
     StreamUtil.close(serverSocket);
     interrupt();
   }
+
+  /**
+   * Accepts the client's extra connections during a chunked transfer, handing the ones that
+   * present the session token to the receiver.
+   */
+  private static final class JoinAcceptor extends Thread {
+
+    private static final int ACCEPT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    private static final int JOIN_TIMEOUT   = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private final ServerSocket            serverSocket;
+    private final byte[]                  token;
+    private final ChunkedTransferReceiver receiver;
+
+    private volatile boolean isAccepting = true;
+
+    JoinAcceptor(@NonNull ServerSocket serverSocket, @NonNull byte[] token, @NonNull ChunkedTransferReceiver receiver) {
+      super("JoinAcceptor");
+      this.serverSocket = serverSocket;
+      this.token        = token;
+      this.receiver     = receiver;
+    }
+
+    @Override
+    public void run() {
+      try {
+        serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+
+        while (isAccepting && !serverSocket.isClosed()) {
+          Socket socket;
+          try {
+            socket = serverSocket.accept();
+          } catch (SocketTimeoutException e) {
+            continue;
+          }
+
+          try {
+            socket.setSoTimeout(JOIN_TIMEOUT);
+            if (isAccepting && ChunkedTransferProtocol.readJoin(socket.getInputStream(), token)) {
+              receiver.addConnection(socket);
+            } else {
+              Log.w(TAG, "Rejecting connection without the session token");
+              StreamUtil.close(socket);
+            }
+          } catch (IOException e) {
+            Log.w(TAG, "Failed to join connection", e);
+            StreamUtil.close(socket);
+          }
+        }
+      } catch (IOException e) {
+        if (isAccepting) {
+          Log.w(TAG, "Stopped accepting connections", e);
+        }
+      }
+    }
+
+    void stopAccepting() {
+      isAccepting = false;
+      try {
+        join();
+        if (!serverSocket.isClosed()) {
+          serverSocket.setSoTimeout(0);
+        }
+      } catch (InterruptedException | IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+  }
 }
@@ -0,0 +1,441 @@
+package org.signal.devicetransfer;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link ChunkedTransferSender} and {@link ChunkedTransferReceiver} against each other over
+ * loopback sockets. TLS and the user verification are left out, the harness only does what the
+ * network threads do once a client is verified.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class ChunkedTransferTest {
+
+  private static final String TAG = ChunkedTransferTest.class.getSimpleName();
+
+  private static final int MB = 1024 * 1024;
+
+  private LoopbackHarness harness;
+
+  @Before
+  public void setUp() throws IOException {
+    harness = new LoopbackHarness();
+  }
+
+  @After
+  public void tearDown() {
+    harness.close();
+  }
+
+  @Test
+  public void transfer_singleConnection() throws Exception {
+    TransferResult result = harness.transfer(8 * MB, 1, 0);
+
+    assertArrayEquals(result.sentDigest, result.receivedDigest);
+    assertEquals(8 * MB, result.receivedBytes);
+  }
+
+  @Test
+  public void transfer_multipleConnections() throws Exception {
+    TransferResult result = harness.transfer(32 * MB + 17, ChunkedTransferProtocol.CONNECTIONS, 0);
+
+    assertArrayEquals(result.sentDigest, result.receivedDigest);
+    assertEquals(32 * MB + 17, result.receivedBytes);
+  }
+
+  @Test
+  public void transfer_empty() throws Exception {
+    TransferResult result = harness.transfer(0, ChunkedTransferProtocol.CONNECTIONS, 0);
+
+    assertEquals(0, result.receivedBytes);
+  }
+
+  @Test
+  public void transfer_resumesAfterDroppedConnections() throws Exception {
+    int            drops  = 8;
+    TransferResult result = harness.transfer(32 * MB, ChunkedTransferProtocol.CONNECTIONS, drops);
+
+    assertArrayEquals(result.sentDigest, result.receivedDigest);
+    assertEquals(drops, result.drops);
+
+    long chunks = 32 * MB / ChunkedTransferProtocol.CHUNK_SIZE + 1;
+    assertTrue("Sent " + result.chunksSent + " chunks for " + chunks,
+               result.chunksSent - chunks <= (long) drops * ChunkedTransferProtocol.WINDOW_SIZE);
+  }
+
+  @Test(timeout = 30_000)
+  public void transfer_resumesAfterStalledConnection() throws Exception {
+    harness.stallTimeout = 500;
+    harness.stalledJoins = 1;
+
+    TransferResult result = harness.transfer(8 * MB, ChunkedTransferProtocol.CONNECTIONS, 0);
+
+    assertArrayEquals(result.sentDigest, result.receivedDigest);
+    assertEquals(8 * MB, result.receivedBytes);
+  }
+
+  @Test(timeout = 10_000)
+  public void receiver_dropsConnectionThatGoesQuiet() throws IOException {
+    ChunkedTransferReceiver receiver = new ChunkedTransferReceiver(400);
+
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+         Socket       client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort()))
+    {
+      receiver.addConnection(server.accept());
+
+      DataInputStream in = new DataInputStream(client.getInputStream());
+      assertEquals(0, ChunkedTransferProtocol.readAck(in));
+      assertEquals(0, ChunkedTransferProtocol.readAck(in));
+
+      try {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+          ChunkedTransferProtocol.readAck(in);
+        }
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      receiver.shutdown();
+    }
+  }
+
+  @Test
+  public void readChunk_keepAlive() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ChunkedTransferProtocol.writeChunk(new DataOutputStream(bytes), ChunkedTransferProtocol.Chunk.keepAlive());
+
+    ChunkedTransferProtocol.Chunk chunk = ChunkedTransferProtocol.readChunk(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertTrue(chunk.isKeepAlive());
+    assertFalse(chunk.isEnd());
+  }
+
+  @Test
+  public void transfer_failsWhenSenderCannotReconnect() throws Exception {
+    Socket                primary = harness.connectPrimary();
+    ChunkedTransferSender sender  = new ChunkedTransferSender(primary, () -> { throw new IOException("No route"); }, 1);
+
+    try {
+      OutputStream outputStream = sender.getOutputStream();
+      outputStream.write(new byte[ChunkedTransferProtocol.CHUNK_SIZE]);
+      primary.close();
+      outputStream.close();
+      fail();
+    } catch (IOException e) {
+      // expected
+    } finally {
+      sender.shutdown();
+    }
+  }
+
+  @Test
+  public void readChunk_rejectsCorruptedData() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ChunkedTransferProtocol.writeChunk(new DataOutputStream(bytes), ChunkedTransferProtocol.Chunk.data(3, new byte[] { 1, 2, 3, 4 }));
+
+    byte[] frame = bytes.toByteArray();
+
+    ChunkedTransferProtocol.Chunk chunk = ChunkedTransferProtocol.readChunk(new DataInputStream(new ByteArrayInputStream(frame)));
+    assertEquals(3, chunk.index);
+    assertArrayEquals(new byte[] { 1, 2, 3, 4 }, chunk.data);
+
+    frame[frame.length - 1] ^= 1;
+
+    try {
+      ChunkedTransferProtocol.readChunk(new DataInputStream(new ByteArrayInputStream(frame)));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void readJoin_rejectsWrongToken() throws IOException {
+    byte[]                token = ChunkedTransferProtocol.generateToken();
+    ByteArrayOutputStream join  = new ByteArrayOutputStream();
+
+    ChunkedTransferProtocol.writeJoin(join, token);
+    assertTrue(ChunkedTransferProtocol.readJoin(new ByteArrayInputStream(join.toByteArray()), token));
+    assertFalse(ChunkedTransferProtocol.readJoin(new ByteArrayInputStream(join.toByteArray()), ChunkedTransferProtocol.generateToken()));
+  }
+
+  /**
+   * Loopback doesn't have the per-stream limits of a Wi-Fi Direct link, so this only shows what the
+   * protocol itself costs, and what dropped connections add to it. Rates go to the log.
+   */
+  @Test
+  public void transfer_throughput() throws Exception {
+    for (int connections : new int[] { 1, ChunkedTransferProtocol.CONNECTIONS }) {
+      for (int drops : new int[] { 0, 4 }) {
+        TransferResult result = harness.transfer(32 * MB, connections, drops);
+
+        assertArrayEquals(result.sentDigest, result.receivedDigest);
+        assertEquals(drops, result.drops);
+
+        Log.i(TAG, String.format(Locale.US, "%d connection(s), %d drop(s): %.1f MB/s, %d chunks sent",
+                                            connections, drops, 32 / (result.millis / 1000.0), result.chunksSent));
+      }
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class TransferResult {
+    byte[] sentDigest;
+    byte[] receivedDigest;
+    long   receivedBytes;
+    long   chunksSent;
+    long   millis;
+    int    drops;
+  }
+
+  /**
+   * Plays the part of the server thread, accepting a primary connection and then any that present
+   * the session token, and of the client's connector. Client side sockets are tracked so they can be
+   * dropped part way through a transfer. The first {@link #stalledJoins} joins are accepted and then
+   * never read from or written to, like a connection that's gone half-open.
+   */
+  private static final class LoopbackHarness {
+
+    private final ServerSocket serverSocket;
+    private final byte[]       token         = ChunkedTransferProtocol.generateToken();
+    private final List<Socket> clientSockets = new ArrayList<>();
+    private final List<Socket> stalled       = new ArrayList<>();
+
+    private volatile ChunkedTransferReceiver receiver;
+
+    long stallTimeout = ChunkedTransferProtocol.STALL_TIMEOUT;
+    int  stalledJoins;
+
+    LoopbackHarness() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @NonNull Socket connectPrimary() throws IOException {
+      ChunkedTransferReceiver newReceiver = new ChunkedTransferReceiver(stallTimeout);
+      Socket                  client      = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+
+      newReceiver.addConnection(serverSocket.accept());
+      receiver = newReceiver;
+
+      track(client);
+      return client;
+    }
+
+    @NonNull TransferResult transfer(long size, int connections, int drops) throws Exception {
+      TransferResult result = new TransferResult();
+
+      Socket                  primary         = connectPrimary();
+      ChunkedTransferReceiver currentReceiver = receiver;
+      Thread                  acceptor        = startAcceptor(currentReceiver);
+      Thread                  consumer;
+
+      AtomicReference<Throwable> consumerFailure = new AtomicReference<>();
+
+      consumer = new Thread(() -> {
+        try {
+          MessageDigest digest = newDigest();
+          InputStream   in     = currentReceiver.getInputStream();
+          byte[]        buffer = new byte[16 * 1024];
+          int           read;
+
+          while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            result.receivedBytes += read;
+          }
+
+          currentReceiver.finish();
+          result.receivedDigest = digest.digest();
+        } catch (Throwable t) {
+          consumerFailure.set(t);
+        }
+      });
+      consumer.start();
+
+      ChunkedTransferSender sender    = new ChunkedTransferSender(primary, this::connectAndJoin, connections, stallTimeout);
+      MessageDigest         digest    = newDigest();
+      Random                random    = new Random(size);
+      byte[]                buffer    = new byte[8 * 1024];
+      long                  startTime = System.currentTimeMillis();
+      long                  dropEvery = drops > 0 ? size / (drops + 1) : Long.MAX_VALUE;
+      long                  written   = 0;
+
+      try {
+        OutputStream out = sender.getOutputStream();
+
+        while (written < size) {
+          int count = (int) Math.min(buffer.length, size - written);
+
+          random.nextBytes(buffer);
+          digest.update(buffer, 0, count);
+          out.write(buffer, 0, count);
+
+          long before = written;
+          written += count;
+
+          if (result.drops < drops && before / dropEvery != written / dropEvery) {
+            dropConnection(random);
+            result.drops++;
+          }
+        }
+
+        out.close();
+      } finally {
+        sender.shutdown();
+      }
+
+      consumer.join();
+      acceptor.interrupt();
+      acceptor.join();
+
+      if (consumerFailure.get() != null) {
+        throw new AssertionError(consumerFailure.get());
+      }
+
+      result.millis     = System.currentTimeMillis() - startTime;
+      result.chunksSent = sender.getChunksSent();
+      result.sentDigest = digest.digest();
+
+      assertNotNull(result.receivedDigest);
+      return result;
+    }
+
+    private @NonNull Thread startAcceptor(@NonNull ChunkedTransferReceiver currentReceiver) {
+      Thread acceptor = new Thread(() -> {
+        try {
+          serverSocket.setSoTimeout(100);
+          while (!Thread.currentThread().isInterrupted()) {
+            try {
+              Socket socket = serverSocket.accept();
+
+              if (!ChunkedTransferProtocol.readJoin(socket.getInputStream(), token)) {
+                socket.close();
+              } else if (stalledJoins > 0) {
+                stalledJoins--;
+                synchronized (stalled) {
+                  stalled.add(socket);
+                }
+              } else {
+                currentReceiver.addConnection(socket);
+              }
+            } catch (SocketTimeoutException e) {
+              // check for interruption
+            }
+          }
+        } catch (IOException e) {
+          // server closed
+        } finally {
+          try {
+            serverSocket.setSoTimeout(0);
+          } catch (IOException e) {
+            // server closed
+          }
+        }
+      });
+      acceptor.start();
+      return acceptor;
+    }
+
+    private @NonNull Socket connectAndJoin() throws IOException {
+      Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+      ChunkedTransferProtocol.writeJoin(socket.getOutputStream(), token);
+      track(socket);
+      return socket;
+    }
+
+    private void track(@NonNull Socket socket) {
+      synchronized (clientSockets) {
+        clientSockets.add(socket);
+      }
+    }
+
+    private void dropConnection(@NonNull Random random) throws IOException {
+      synchronized (clientSockets) {
+        List<Socket> open = new ArrayList<>();
+        for (Socket socket : clientSockets) {
+          if (!socket.isClosed()) {
+            open.add(socket);
+          }
+        }
+
+        if (!open.isEmpty()) {
+          open.get(random.nextInt(open.size())).close();
+        }
+      }
+    }
+
+    void close() {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        // ignored
+      }
+
+      if (receiver != null) {
+        receiver.shutdown();
+      }
+
+      synchronized (clientSockets) {
+        for (Socket socket : clientSockets) {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // ignored
+          }
+        }
+      }
+
+      synchronized (stalled) {
+        for (Socket socket : stalled) {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // ignored
+          }
+        }
+      }
+    }
+  }
+}
@@ -45,6 +45,7 @@ import org.whispersystems.util.Base64;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -72,6 +73,8 @@ public class SignalServiceMessagePipe {
   private final Optional<CredentialsProvider> credentialsProvider;
   private final ClientZkProfileOperations     clientZkProfile;
 
+  private boolean socketEmptyPending;
+
   SignalServiceMessagePipe(WebSocketConnection websocket,
                            Optional<CredentialsProvider> credentialsProvider,
                            ClientZkProfileOperations clientZkProfile)
@@ -153,18 +156,7 @@ public class SignalServiceMessagePipe {
       WebSocketResponseMessage response = createWebSocketResponse(request);
       try {
         if (isSignalServiceEnvelope(request)) {
-          Optional<String> timestampHeader = findHeader(request, SERVER_DELIVERED_TIMESTAMP_HEADER);
-          long             timestamp       = 0;
-
-          if (timestampHeader.isPresent()) {
-            try {
-              timestamp = Long.parseLong(timestampHeader.get());
-            } catch (NumberFormatException e) {
-              Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
-            }
-          }
-
-          SignalServiceEnvelope envelope = new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+          SignalServiceEnvelope envelope = toEnvelope(request);
 
           callback.onMessage(envelope);
           return Optional.of(envelope);
@@ -177,6 +169,69 @@ public class SignalServiceMessagePipe {
     }
   }
 
+  /**
+   * Similar to {@link #readOrEmpty(long, TimeUnit, MessagePipeCallback)}, except that after the
+   * first envelope arrives, any further envelopes that are already buffered on the socket (up to
+   * maxBatchSize) are handed to the callback together. None of the envelopes in the batch are
+   * acknowledged until the callback returns, so the callback can persist them in a single write.
+   *
+   * If the "queue empty" marker is hit while a batch is being assembled, the batch is returned as
+   * normal and the next call will return {@link Optional#absent()}.
+   */
+  public Optional<List<SignalServiceEnvelope>> readBatchOrEmpty(long timeout, TimeUnit unit, int maxBatchSize, MessagePipeBatchCallback callback)
+      throws TimeoutException, IOException
+  {
+    if (!credentialsProvider.isPresent()) {
+      throw new IllegalArgumentException("You can't read messages if you haven't specified credentials");
+    }
+
+    if (socketEmptyPending) {
+      socketEmptyPending = false;
+      return Optional.absent();
+    }
+
+    List<SignalServiceEnvelope>    envelopes = new ArrayList<>(maxBatchSize);
+    List<WebSocketResponseMessage> responses = new ArrayList<>(maxBatchSize);
+    WebSocketRequestMessage        request   = websocket.readRequest(unit.toMillis(timeout));
+
+    while (request != null) {
+      WebSocketResponseMessage response = createWebSocketResponse(request);
+
+      if (isSignalServiceEnvelope(request)) {
+        envelopes.add(toEnvelope(request));
+        responses.add(response);
+
+        if (envelopes.size() >= maxBatchSize) {
+          break;
+        }
+      } else {
+        websocket.sendResponse(response);
+
+        if (isSocketEmptyRequest(request)) {
+          if (envelopes.isEmpty()) {
+            return Optional.absent();
+          }
+
+          socketEmptyPending = true;
+          break;
+        }
+      }
+
+      request = envelopes.isEmpty() ? websocket.readRequest(unit.toMillis(timeout))
+                                    : websocket.readRequestIfAvailable();
+    }
+
+    try {
+      callback.onMessages(envelopes);
+    } finally {
+      for (WebSocketResponseMessage response : responses) {
+        websocket.sendResponse(response);
+      }
+    }
+
+    return Optional.of(envelopes);
+  }
+
   public Future<SendGroupMessageResponse> sendToGroup(byte[] body, byte[] joinedUnidentifiedAccess, long timestamp, boolean online) throws IOException {
     List<String> headers = new LinkedList<String>() {{
       add("content-type:application/vnd.signal-messenger.mrm");
@@ -352,6 +407,21 @@ public class SignalServiceMessagePipe {
     websocket.disconnect();
   }
 
+  private SignalServiceEnvelope toEnvelope(WebSocketRequestMessage request) throws IOException {
+    Optional<String> timestampHeader = findHeader(request, SERVER_DELIVERED_TIMESTAMP_HEADER);
+    long             timestamp       = 0;
+
+    if (timestampHeader.isPresent()) {
+      try {
+        timestamp = Long.parseLong(timestampHeader.get());
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
+      }
+    }
+
+    return new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+  }
+
   private boolean isSignalServiceEnvelope(WebSocketRequestMessage message) {
     return "PUT".equals(message.getVerb()) && "/api/v1/message".equals(message.getPath());
   }
@@ -401,6 +471,13 @@ public class SignalServiceMessagePipe {
     void onMessage(SignalServiceEnvelope envelope);
   }
 
+  /**
+   * For receiving a callback when a batch of messages has been received.
+   */
+  public interface MessagePipeBatchCallback {
+    void onMessages(List<SignalServiceEnvelope> envelopes);
+  }
+
   private static class NullMessagePipeCallback implements MessagePipeCallback {
     @Override
     public void onMessage(SignalServiceEnvelope envelope) {}
@@ -191,6 +191,24 @@ public class SignalServiceMessageReceiver {
     return AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
   }
 
+  /**
+   * Like {@link #retrieveAttachment(SignalServiceAttachmentPointer, File, long, ProgressListener)},
+   * but the MAC and digest are checked while the returned stream is read, rather than in a separate
+   * pass over the downloaded file beforehand.
+   *
+   * The stream must be read to the end. If verification fails, the last read throws an
+   * {@link IOException} and everything read from the stream up to that point must be discarded.
+   *
+   * @see AttachmentCipherInputStream#createStreamingForAttachment(File, long, byte[], byte[])
+   */
+  public InputStream retrieveAttachmentStreaming(SignalServiceAttachmentPointer pointer, File destination, long maxSizeBytes, ProgressListener listener)
+      throws IOException, InvalidMessageException, MissingConfigurationException {
+    if (!pointer.getDigest().isPresent()) throw new InvalidMessageException("No attachment digest!");
+
+    socket.retrieveAttachment(pointer.getCdnNumber(), pointer.getRemoteId(), destination, maxSizeBytes, listener);
+    return AttachmentCipherInputStream.createStreamingForAttachment(destination, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
+  }
+
   public InputStream retrieveSticker(byte[] packId, byte[] packKey, int stickerId)
       throws IOException, InvalidMessageException
   {
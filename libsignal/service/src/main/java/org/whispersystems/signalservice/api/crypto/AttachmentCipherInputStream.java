@@ -85,6 +85,42 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Like {@link #createForAttachment(File, long, byte[], byte[])}, but rather than reading the whole
+   * file once up front to check the MAC and digest, they're computed as the ciphertext is read and
+   * checked once the end of the file is reached. This saves a full pass over the file.
+   *
+   * The catch is that plaintext is handed out before it has been authenticated. If the MAC or
+   * digest don't match, the final read throws an {@link IOException} caused by an
+   * {@link InvalidMacException}, so callers must read to the end and must discard everything they
+   * read if that happens. The stream always reads to the end of the file, even when it stops
+   * returning plaintext early because of {@code plaintextLength}.
+   */
+  public static InputStream createStreamingForAttachment(File file, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest)
+      throws InvalidMessageException, IOException
+  {
+    try {
+      byte[][] parts = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+      Mac      mac   = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(parts[1], "HmacSHA256"));
+
+      if (file.length() <= BLOCK_SIZE + mac.getMacLength()) {
+        throw new InvalidMessageException("Message shorter than crypto overhead!");
+      }
+
+      if (digest == null) {
+        throw new InvalidMessageException(new InvalidMacException("Missing digest!"));
+      }
+
+      InputStream verifyingStream = new MacVerifyingInputStream(new FileInputStream(file), file.length(), mac, digest);
+      InputStream inputStream     = new AttachmentCipherInputStream(verifyingStream, parts[0], file.length() - BLOCK_SIZE - mac.getMacLength());
+
+      return new ReadToEndInputStream(inputStream, plaintextLength);
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   public static InputStream createForStickerData(byte[] data, byte[] packKey)
       throws InvalidMessageException, IOException
   {
@@ -149,10 +185,23 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
   @Override
   public long skip(long byteCount) throws IOException {
-    long skipped = 0L;
+    return skipByReading(this, byteCount);
+  }
+
+  /**
+   * Skips by reading through the stream rather than seeking past bytes in the one it wraps, so
+   * every byte still goes through the cipher, MAC and digest.
+   */
+  private static long skipByReading(InputStream stream, long byteCount) throws IOException {
+    byte[] buffer  = new byte[(int) Math.max(0, Math.min(4096, byteCount))];
+    long   skipped = 0L;
+
     while (skipped < byteCount) {
-      byte[] buf  = new byte[Math.min(4096, (int)(byteCount-skipped))];
-      int    read = read(buf);
+      int read = stream.read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+
+      if (read == -1) {
+        break;
+      }
 
       skipped += read;
     }
@@ -258,6 +307,155 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Passes ciphertext through unchanged, feeding it to the MAC and digest as it goes. As soon as
+   * the last byte before the MAC has been read, reads the MAC off the end of the stream and checks
+   * both -- before that final chunk of ciphertext is handed to the cipher.
+   */
+  private static final class MacVerifyingInputStream extends FilterInputStream {
+
+    private final Mac           mac;
+    private final MessageDigest digest;
+    private final byte[]        theirDigest;
+
+    private long    remainingData;
+    private boolean verified;
+
+    private MacVerifyingInputStream(InputStream inputStream, long length, Mac mac, byte[] theirDigest) {
+      super(inputStream);
+
+      try {
+        this.mac           = mac;
+        this.digest        = MessageDigest.getInstance("SHA256");
+        this.theirDigest   = theirDigest;
+        this.remainingData = length - mac.getMacLength();
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (remainingData == 0) {
+        verify();
+        return -1;
+      }
+
+      int read = super.read(buffer, offset, (int) Math.min(length, remainingData));
+
+      if (read == -1) {
+        throw new IOException(new InvalidMacException("Unexpected end of attachment!"));
+      }
+
+      mac.update(buffer, offset, read);
+      digest.update(buffer, offset, read);
+      remainingData -= read;
+
+      if (remainingData == 0) {
+        verify();
+      }
+
+      return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+      return skipByReading(this, byteCount);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void verify() throws IOException {
+      if (verified) {
+        return;
+      }
+
+      byte[] ourMac   = mac.doFinal();
+      byte[] theirMac = new byte[mac.getMacLength()];
+      Util.readFully(in, theirMac);
+
+      if (!MessageDigest.isEqual(ourMac, theirMac)) {
+        throw new IOException(new InvalidMacException("MAC doesn't match!"));
+      }
+
+      byte[] ourDigest = digest.digest(theirMac);
+
+      if (!MessageDigest.isEqual(ourDigest, theirDigest)) {
+        throw new IOException(new InvalidMacException("Digest doesn't match!"));
+      }
+
+      verified = true;
+    }
+  }
+
+  /**
+   * Stops returning data after {@code plaintextLength} bytes (i.e. at the start of the padding), but
+   * keeps reading the underlying stream until it ends, so that the MAC is always verified.
+   */
+  private static final class ReadToEndInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private ReadToEndInputStream(InputStream inputStream, long plaintextLength) {
+      super(inputStream);
+      this.remaining = plaintextLength != 0 ? plaintextLength : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (remaining == 0) {
+        drain();
+        return -1;
+      }
+
+      int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+
+      if (read == -1) {
+        remaining = 0;
+        return -1;
+      }
+
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+      return skipByReading(this, byteCount);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void drain() throws IOException {
+      byte[] buffer = new byte[4096];
+
+      //noinspection StatementWithEmptyBody
+      while (super.read(buffer, 0, buffer.length) != -1);
+    }
+  }
+
   private void readFully(byte[] buffer) throws IOException {
     int offset = 0;
 
@@ -0,0 +1,87 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.zkgroup.profiles.ProfileKey;
+import org.signal.zkgroup.util.UUIDUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers what UUID and profile key ciphertexts decrypted to, for the most recently used groups.
+ * <p>
+ * zkgroup encryption is deterministic for a given group, so a member has the same ciphertexts in
+ * every group state and every change that mentions them. Without this, fetching a large group and
+ * then replaying its history decrypts the same members over and over.
+ * <p>
+ * Only successful decryptions are stored. Thread safe.
+ */
+final class GroupCiphertextCache {
+
+  private static final int MAX_GROUPS            = 10;
+  private static final int MAX_ENTRIES_PER_GROUP = 2000;
+
+  private final Map<ByteString, ForGroup> groups = new LruMap<>(MAX_GROUPS);
+
+  ForGroup forGroup(ByteString groupId) {
+    synchronized (groups) {
+      ForGroup forGroup = groups.get(groupId);
+
+      if (forGroup == null) {
+        forGroup = new ForGroup();
+        groups.put(groupId, forGroup);
+      }
+
+      return forGroup;
+    }
+  }
+
+  static final class ForGroup {
+
+    private final Map<ByteString, UUID>       uuids       = new LruMap<>(MAX_ENTRIES_PER_GROUP);
+    private final Map<ByteString, ProfileKey> profileKeys = new LruMap<>(MAX_ENTRIES_PER_GROUP);
+
+    private ForGroup() {
+    }
+
+    synchronized UUID getUuid(ByteString uuidCiphertext) {
+      return uuids.get(uuidCiphertext);
+    }
+
+    synchronized void putUuid(ByteString uuidCiphertext, UUID uuid) {
+      uuids.put(uuidCiphertext, uuid);
+    }
+
+    /**
+     * The profile key is decrypted against a UUID, so that's part of the key too.
+     */
+    synchronized ProfileKey getProfileKey(ByteString profileKeyCiphertext, UUID uuid) {
+      return profileKeys.get(profileKeyKey(profileKeyCiphertext, uuid));
+    }
+
+    synchronized void putProfileKey(ByteString profileKeyCiphertext, UUID uuid, ProfileKey profileKey) {
+      profileKeys.put(profileKeyKey(profileKeyCiphertext, uuid), profileKey);
+    }
+
+    private static ByteString profileKeyKey(ByteString profileKeyCiphertext, UUID uuid) {
+      return profileKeyCiphertext.concat(ByteString.copyFrom(UUIDUtil.serialize(uuid)));
+    }
+  }
+
+  private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private final int maxSize;
+
+    LruMap(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
@@ -47,6 +47,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Contains operations to create, modify and validate groups and group changes.
@@ -61,16 +63,32 @@ public final class GroupsV2Operations {
   /** Highest change epoch this class knows now to decrypt */
   public static final int HIGHEST_KNOWN_EPOCH = 2;
 
+  /** Lists shorter than this are always decrypted on the calling thread */
+  private static final int MIN_PARALLEL_DECRYPT_SIZE = 32;
+
   private final ServerPublicParams        serverPublicParams;
   private final ClientZkProfileOperations clientZkProfileOperations;
   private final ClientZkAuthOperations    clientZkAuthOperations;
   private final SecureRandom              random;
+  private final Executor                  decryptExecutor;
+  private final GroupCiphertextCache      ciphertextCache;
 
   public GroupsV2Operations(ClientZkOperations clientZkOperations) {
+    this(clientZkOperations, null);
+  }
+
+  /**
+   * @param decryptExecutor If present, used to decrypt the members of large groups in parallel. The
+   *                        calling thread always takes part too, so a busy executor only means less
+   *                        parallelism, never a stall.
+   */
+  public GroupsV2Operations(ClientZkOperations clientZkOperations, Executor decryptExecutor) {
     this.serverPublicParams        = clientZkOperations.getServerPublicParams();
     this.clientZkProfileOperations = clientZkOperations.getProfileOperations();
     this.clientZkAuthOperations    = clientZkOperations.getAuthOperations();
     this.random                    = new SecureRandom();
+    this.decryptExecutor           = decryptExecutor;
+    this.ciphertextCache           = new GroupCiphertextCache();
   }
 
   /**
@@ -135,12 +153,14 @@ public final class GroupsV2Operations {
    */
   public final class GroupOperations {
 
-    private final GroupSecretParams   groupSecretParams;
-    private final ClientZkGroupCipher clientZkGroupCipher;
+    private final GroupSecretParams             groupSecretParams;
+    private final ClientZkGroupCipher           clientZkGroupCipher;
+    private final GroupCiphertextCache.ForGroup memberCache;
 
     private GroupOperations(GroupSecretParams groupSecretParams) {
       this.groupSecretParams   = groupSecretParams;
       this.clientZkGroupCipher = new ClientZkGroupCipher(groupSecretParams);
+      this.memberCache         = ciphertextCache.forGroup(ByteString.copyFrom(groupSecretParams.getPublicParams().getGroupIdentifier().serialize()));
     }
 
     public GroupChange.Actions.Builder createModifyGroupTitle(final String title) {
@@ -360,28 +380,16 @@ public final class GroupsV2Operations {
     public DecryptedGroup decryptGroup(Group group)
         throws VerificationFailedException, InvalidGroupStateException
     {
-      List<Member>                    membersList                = group.getMembersList();
-      List<PendingMember>             pendingMembersList         = group.getPendingMembersList();
-      List<RequestingMember>          requestingMembersList      = group.getRequestingMembersList();
-      List<DecryptedMember>           decryptedMembers           = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember>    decryptedPendingMembers    = new ArrayList<>(pendingMembersList.size());
-      List<DecryptedRequestingMember> decryptedRequestingMembers = new ArrayList<>(requestingMembersList.size());
-
-      for (Member member : membersList) {
+      List<DecryptedMember> decryptedMembers = decryptAll(group.getMembersList(), member -> {
         try {
-          decryptedMembers.add(decryptMember(member).build());
+          return decryptMember(member).build();
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-      }
-
-      for (PendingMember member : pendingMembersList) {
-        decryptedPendingMembers.add(decryptMember(member));
-      }
+      });
 
-      for (RequestingMember member : requestingMembersList) {
-        decryptedRequestingMembers.add(decryptRequestingMember(member));
-      }
+      List<DecryptedPendingMember>    decryptedPendingMembers    = decryptAll(group.getPendingMembersList(), this::decryptMember);
+      List<DecryptedRequestingMember> decryptedRequestingMembers = decryptAll(group.getRequestingMembersList(), this::decryptRequestingMember);
 
       return DecryptedGroup.newBuilder()
                            .setTitle(decryptTitle(group.getTitle()))
@@ -440,13 +448,13 @@ public final class GroupsV2Operations {
       builder.setRevision(actions.getRevision());
 
       // Field 3
-      for (GroupChange.Actions.AddMemberAction addMemberAction : actions.getAddMembersList()) {
+      builder.addAllNewMembers(decryptAll(actions.getAddMembersList(), addMemberAction -> {
         try {
-          builder.addNewMembers(decryptMember(addMemberAction.getAdded()).setJoinedAtRevision(actions.getRevision()));
+          return decryptMember(addMemberAction.getAdded()).setJoinedAtRevision(actions.getRevision()).build();
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-      }
+      }));
 
       // Field 4
       for (GroupChange.Actions.DeleteMemberAction deleteMemberAction : actions.getDeleteMembersList()) {
@@ -510,8 +518,8 @@ public final class GroupsV2Operations {
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey profileKey = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
         builder.addPromotePendingMembers(DecryptedMember.newBuilder()
                                                         .setJoinedAtRevision(-1)
                                                         .setRole(Member.Role.DEFAULT)
@@ -603,8 +611,8 @@ public final class GroupsV2Operations {
                               .setRole(member.getRole());
       } else {
         ProfileKeyCredentialPresentation profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(member.getPresentation().toByteArray());
-        UUID                             uuid                             = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey                       profileKey                       = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID                             uuid                             = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey                       profileKey                       = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedMember.newBuilder()
                               .setUuid(UuidUtil.toByteString(uuid))
@@ -655,8 +663,8 @@ public final class GroupsV2Operations {
           throw new InvalidGroupStateException(e);
         }
 
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey profileKey = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedRequestingMember.newBuilder()
                                         .setUuid(UuidUtil.toByteString(uuid))
@@ -666,14 +674,35 @@ public final class GroupsV2Operations {
     }
 
     private ProfileKey decryptProfileKey(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
+      ProfileKey cached = memberCache.getProfileKey(profileKey, uuid);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
         ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
-        return clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+        ProfileKey           decrypted            = clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+
+        memberCache.putProfileKey(profileKey, uuid, decrypted);
+        return decrypted;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
     }
 
+    private ProfileKey decryptProfileKey(ProfileKeyCiphertext profileKeyCiphertext, UUID uuid) throws VerificationFailedException {
+      ByteString serialized = ByteString.copyFrom(profileKeyCiphertext.serialize());
+      ProfileKey profileKey = memberCache.getProfileKey(serialized, uuid);
+
+      if (profileKey == null) {
+        profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+        memberCache.putProfileKey(serialized, uuid, profileKey);
+      }
+
+      return profileKey;
+    }
+
     private ByteString decryptProfileKeyToByteString(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
       return ByteString.copyFrom(decryptProfileKey(profileKey, uuid).serialize());
     }
@@ -687,24 +716,77 @@ public final class GroupsV2Operations {
     }
 
     private UUID decryptUuid(ByteString userId) throws InvalidGroupStateException, VerificationFailedException {
+      UUID cached = memberCache.getUuid(userId);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        UUID uuid = clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+
+        memberCache.putUuid(userId, uuid);
+        return uuid;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
     }
 
+    private UUID decryptUuid(UuidCiphertext uuidCiphertext) throws VerificationFailedException {
+      ByteString serialized = ByteString.copyFrom(uuidCiphertext.serialize());
+      UUID       uuid       = memberCache.getUuid(serialized);
+
+      if (uuid == null) {
+        uuid = clientZkGroupCipher.decryptUuid(uuidCiphertext);
+        memberCache.putUuid(serialized, uuid);
+      }
+
+      return uuid;
+    }
+
     /**
      * Attempts to decrypt a UUID, but will return {@link #UNKNOWN_UUID} if it cannot.
      */
     private UUID decryptUuidOrUnknown(ByteString userId) {
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException | VerificationFailedException e) {
+        return decryptUuid(userId);
+      } catch (InvalidGroupStateException | VerificationFailedException e) {
         return UNKNOWN_UUID;
       }
     }
 
+    /**
+     * Decrypts every item in the list, returning the results in the same order.
+     * <p>
+     * Large lists are shared out between the calling thread and the decrypt executor, if there is
+     * one. Items are claimed one at a time, so the calling thread just carries on with whatever the
+     * executor hasn't got to, and never waits on work that hasn't started.
+     */
+    private <I, O> List<O> decryptAll(List<I> items, Decryptor<I, O> decryptor)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      int     size    = items.size();
+      int     helpers = Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_PARALLEL_DECRYPT_SIZE) - 1;
+      List<O> results = new ArrayList<>(size);
+
+      if (decryptExecutor == null || helpers < 1) {
+        for (I item : items) {
+          results.add(decryptor.decrypt(item));
+        }
+        return results;
+      }
+
+      ParallelDecrypt<I, O> parallelDecrypt = new ParallelDecrypt<>(items, decryptor);
+
+      for (int i = 0; i < helpers; i++) {
+        decryptExecutor.execute(parallelDecrypt::run);
+      }
+
+      parallelDecrypt.run();
+
+      return parallelDecrypt.awaitResults();
+    }
+
     ByteString encryptTitle(String title) {
       try {
         GroupAttributeBlob blob = GroupAttributeBlob.newBuilder().setTitle(title).build();
@@ -810,6 +892,80 @@ public final class GroupsV2Operations {
     }
   }
 
+  private interface Decryptor<I, O> {
+    O decrypt(I item) throws VerificationFailedException, InvalidGroupStateException;
+  }
+
+  private static final class ParallelDecrypt<I, O> {
+
+    private final List<I>         items;
+    private final Decryptor<I, O> decryptor;
+    private final Object[]        results;
+    private final AtomicInteger   next;
+    private final AtomicInteger   completed;
+
+    private volatile Exception error;
+
+    private ParallelDecrypt(List<I> items, Decryptor<I, O> decryptor) {
+      this.items     = items;
+      this.decryptor = decryptor;
+      this.results   = new Object[items.size()];
+      this.next      = new AtomicInteger();
+      this.completed = new AtomicInteger();
+    }
+
+    void run() {
+      int i;
+
+      while ((i = next.getAndIncrement()) < results.length) {
+        try {
+          if (error == null) {
+            results[i] = decryptor.decrypt(items.get(i));
+          }
+        } catch (VerificationFailedException | InvalidGroupStateException | RuntimeException e) {
+          error = e;
+        } finally {
+          if (completed.incrementAndGet() == results.length) {
+            synchronized (this) {
+              notifyAll();
+            }
+          }
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<O> awaitResults() throws VerificationFailedException, InvalidGroupStateException {
+      boolean interrupted = false;
+
+      synchronized (this) {
+        while (completed.get() < results.length) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      Exception error = this.error;
+
+      if      (error instanceof VerificationFailedException) throw (VerificationFailedException) error;
+      else if (error instanceof InvalidGroupStateException)  throw (InvalidGroupStateException) error;
+      else if (error instanceof RuntimeException)            throw (RuntimeException) error;
+
+      List<O> list = new ArrayList<>(results.length);
+      for (Object result : results) {
+        list.add((O) result);
+      }
+      return list;
+    }
+  }
+
   public static class NewGroup {
     private final GroupSecretParams groupSecretParams;
     private final Group             newGroupMessage;
@@ -181,6 +181,18 @@ public class WebSocketConnection extends WebSocketListener {
     else                                                   return incomingRequests.removeFirst();
   }
 
+  /**
+   * Non-blocking variant of {@link #readRequest(long)}. Returns the next request that has already
+   * been received, or null if there is nothing buffered right now.
+   */
+  public synchronized WebSocketRequestMessage readRequestIfAvailable() throws IOException {
+    if (client == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    return incomingRequests.isEmpty() ? null : incomingRequests.removeFirst();
+  }
+
   public synchronized ListenableFuture<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
     if (client == null || !connected) throw new IOException("No connection!");
 
@@ -2,6 +2,7 @@ package org.whispersystems.signalservice.api.crypto;
 
 import org.conscrypt.Conscrypt;
 import org.junit.Test;
+import org.whispersystems.libsignal.InvalidMacException;
 import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.signalservice.internal.util.Util;
@@ -16,7 +17,9 @@ import java.security.Security;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.whispersystems.signalservice.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
 
 public final class AttachmentCipherTest {
@@ -154,6 +157,162 @@ public final class AttachmentCipherTest {
     assertTrue(hitCorrectException);
   }
 
+  @Test
+  public void attachment_streaming_encryptDecrypt() throws IOException, InvalidMessageException {
+    byte[]        key             = Util.getSecretBytes(64);
+    byte[]        plaintextInput  = Util.getSecretBytes(100_000);
+    EncryptResult encryptResult   = encryptData(plaintextInput, key);
+    File          cipherFile      = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream     = AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest);
+    byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+    assertArrayEquals(plaintextInput, plaintextOutput);
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_encryptDecryptEmpty() throws IOException, InvalidMessageException {
+    byte[]        key             = Util.getSecretBytes(64);
+    byte[]        plaintextInput  = "".getBytes();
+    EncryptResult encryptResult   = encryptData(plaintextInput, key);
+    File          cipherFile      = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream     = AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest);
+    byte[]        plaintextOutput = readInputStreamFully(inputStream);
+
+    assertArrayEquals(plaintextInput, plaintextOutput);
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_decryptFailOnBadKey() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = "Gwen Stacy".getBytes();
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+
+    assertStreamingReadFailsMac(AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, new byte[64], encryptResult.digest));
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_decryptFailOnBadDigest() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = "Mary Jane Watson".getBytes();
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+
+    assertStreamingReadFailsMac(AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, new byte[32]));
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_decryptFailOnBadMac() throws IOException, InvalidMessageException {
+    byte[]        key              = Util.getSecretBytes(64);
+    byte[]        plaintextInput   = Util.getSecretBytes(100_000);
+    EncryptResult encryptResult    = encryptData(plaintextInput, key);
+    byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+    badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+    File cipherFile = writeToFile(badMacCiphertext);
+
+    assertStreamingReadFailsMac(AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest));
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_skip() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = Util.getSecretBytes(100_000);
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream    = AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest);
+
+    assertEquals(10_000, inputStream.skip(10_000));
+    assertArrayEquals(Arrays.copyOfRange(plaintextInput, 10_000, plaintextInput.length), readInputStreamFully(inputStream));
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_skipPastEnd() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = Util.getSecretBytes(100_000);
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream    = AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest);
+
+    assertEquals(plaintextInput.length, inputStream.skip(Long.MAX_VALUE));
+    assertEquals(0, readInputStreamFully(inputStream).length);
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_skipFailsOnBadMac() throws IOException, InvalidMessageException {
+    byte[]        key              = Util.getSecretBytes(64);
+    byte[]        plaintextInput   = Util.getSecretBytes(100_000);
+    EncryptResult encryptResult    = encryptData(plaintextInput, key);
+    byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+    badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+    File        cipherFile  = writeToFile(badMacCiphertext);
+    InputStream inputStream = AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest);
+
+    try {
+      inputStream.skip(Long.MAX_VALUE);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof InvalidMacException);
+    }
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_skipPastEnd() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = Util.getSecretBytes(10_000);
+    EncryptResult encryptResult  = encryptData(plaintextInput, key);
+    File          cipherFile     = writeToFile(encryptResult.ciphertext);
+    InputStream   inputStream    = AttachmentCipherInputStream.createForAttachment(cipherFile, 0, key, encryptResult.digest);
+
+    assertEquals(plaintextInput.length, inputStream.skip(plaintextInput.length + 100));
+    assertEquals(0, readInputStreamFully(inputStream).length);
+
+    cipherFile.delete();
+  }
+
+  @Test
+  public void attachment_streaming_decryptFailOnNullDigest() throws IOException {
+    File    cipherFile          = null;
+    boolean hitCorrectException = false;
+
+    try {
+      byte[]        key            = Util.getSecretBytes(64);
+      byte[]        plaintextInput = "Aunt May".getBytes();
+      EncryptResult encryptResult  = encryptData(plaintextInput, key);
+
+      cipherFile = writeToFile(encryptResult.ciphertext);
+
+      AttachmentCipherInputStream.createStreamingForAttachment(cipherFile, plaintextInput.length, key, null);
+    } catch (InvalidMessageException e) {
+      hitCorrectException = true;
+    } finally {
+      if (cipherFile != null) {
+        cipherFile.delete();
+      }
+    }
+
+    assertTrue(hitCorrectException);
+  }
+
   @Test
   public void sticker_encryptDecrypt() throws IOException, InvalidMessageException {
     assumeLibSignalSupportedOnOS();
@@ -249,6 +408,15 @@ public final class AttachmentCipherTest {
     return outputStream.toByteArray();
   }
 
+  private static void assertStreamingReadFailsMac(InputStream inputStream) {
+    try {
+      readInputStreamFully(inputStream);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof InvalidMacException);
+    }
+  }
+
   private static byte[] expandPackKey(byte[] shortKey) {
     return new HKDFv3().deriveSecrets(shortKey, "Sticker Pack".getBytes(), 64);
   }
@@ -0,0 +1,181 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.storageservice.protos.groups.Group;
+import org.signal.storageservice.protos.groups.GroupChange;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.PendingMember;
+import org.signal.storageservice.protos.groups.RequestingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.zkgroup.InvalidInputException;
+import org.signal.zkgroup.VerificationFailedException;
+import org.signal.zkgroup.groups.ClientZkGroupCipher;
+import org.signal.zkgroup.groups.GroupMasterKey;
+import org.signal.zkgroup.groups.GroupSecretParams;
+import org.signal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+import org.whispersystems.signalservice.internal.util.Util;
+import org.whispersystems.signalservice.testutil.ZkGroupLibraryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decrypting large groups, both on the calling thread alone and shared with an executor, and with
+ * and without the per-group ciphertext cache warmed up.
+ */
+public final class GroupsV2Operations_decrypt_largeGroup_Test {
+
+  private static final int MEMBERS            = 1000;
+  private static final int PENDING_MEMBERS    = 100;
+  private static final int REQUESTING_MEMBERS = 50;
+
+  private ClientZkOperations clientZkOperations;
+  private GroupSecretParams  groupSecretParams;
+  private ExecutorService    executor;
+
+  @Before
+  public void setup() {
+    ZkGroupLibraryUtil.assumeZkGroupSupportedOnOS();
+
+    TestZkGroupServer server = new TestZkGroupServer();
+
+    clientZkOperations = new ClientZkOperations(server.getServerPublicParams());
+    groupSecretParams  = GroupSecretParams.deriveFromMasterKey(new GroupMasterKey(Util.getSecretBytes(32)));
+    executor           = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void parallel_decrypt_matches_serial_decrypt() throws VerificationFailedException, InvalidGroupStateException {
+    LargeGroup largeGroup = newLargeGroup();
+
+    DecryptedGroup serial   = new GroupsV2Operations(clientZkOperations).forGroup(groupSecretParams).decryptGroup(largeGroup.group);
+    DecryptedGroup parallel = new GroupsV2Operations(clientZkOperations, executor).forGroup(groupSecretParams).decryptGroup(largeGroup.group);
+
+    assertEquals(largeGroup.expectedMembers, serial.getMembersList());
+    assertEquals(serial, parallel);
+  }
+
+  @Test
+  public void cached_decrypt_matches_uncached_decrypt() throws VerificationFailedException, InvalidGroupStateException {
+    LargeGroup         largeGroup = newLargeGroup();
+    GroupsV2Operations operations = new GroupsV2Operations(clientZkOperations);
+
+    DecryptedGroup first  = operations.forGroup(groupSecretParams).decryptGroup(largeGroup.group);
+    DecryptedGroup second = operations.forGroup(groupSecretParams).decryptGroup(largeGroup.group);
+
+    assertEquals(first, second);
+  }
+
+  @Test
+  public void cached_members_decrypt_in_change() throws VerificationFailedException, InvalidGroupStateException {
+    LargeGroup                  largeGroup = newLargeGroup();
+    GroupsV2Operations          operations = new GroupsV2Operations(clientZkOperations, executor);
+    GroupChange.Actions.Builder change     = GroupChange.Actions.newBuilder().setRevision(10);
+
+    for (Member member : largeGroup.group.getMembersList()) {
+      change.addAddMembers(GroupChange.Actions.AddMemberAction.newBuilder().setAdded(member));
+    }
+
+    operations.forGroup(groupSecretParams).decryptGroup(largeGroup.group);
+
+    DecryptedGroupChange decryptedChange = operations.forGroup(groupSecretParams).decryptChange(change.build(), UUID.randomUUID());
+
+    assertEquals(MEMBERS, decryptedChange.getNewMembersCount());
+    for (int i = 0; i < MEMBERS; i++) {
+      assertEquals(largeGroup.expectedMembers.get(i).toBuilder().setJoinedAtRevision(10).build(), decryptedChange.getNewMembers(i));
+    }
+  }
+
+  @Test(expected = InvalidGroupStateException.class)
+  public void parallel_decrypt_fails_on_bad_member() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = newLargeGroup().group.toBuilder()
+                                       .addMembers(Member.newBuilder()
+                                                         .setUserId(ByteString.copyFrom(new byte[5]))
+                                                         .setProfileKey(ByteString.copyFrom(new byte[5])))
+                                       .build();
+
+    new GroupsV2Operations(clientZkOperations, executor).forGroup(groupSecretParams).decryptGroup(group);
+  }
+
+  private LargeGroup newLargeGroup() {
+    GroupsV2Operations.GroupOperations groupOperations = new GroupsV2Operations(clientZkOperations).forGroup(groupSecretParams);
+    ClientZkGroupCipher                cipher          = new ClientZkGroupCipher(groupSecretParams);
+    Group.Builder                      group           = Group.newBuilder();
+    List<DecryptedMember>              expected        = new ArrayList<>(MEMBERS);
+
+    for (int i = 0; i < MEMBERS; i++) {
+      UUID       uuid       = UUID.randomUUID();
+      ProfileKey profileKey = newProfileKey();
+
+      group.addMembers(Member.newBuilder()
+                             .setRole(Member.Role.DEFAULT)
+                             .setUserId(groupOperations.encryptUuid(uuid))
+                             .setJoinedAtRevision(i)
+                             .setProfileKey(ByteString.copyFrom(cipher.encryptProfileKey(profileKey, uuid).serialize())));
+
+      expected.add(DecryptedMember.newBuilder()
+                                  .setRole(Member.Role.DEFAULT)
+                                  .setUuid(UuidUtil.toByteString(uuid))
+                                  .setJoinedAtRevision(i)
+                                  .setProfileKey(ByteString.copyFrom(profileKey.serialize()))
+                                  .build());
+    }
+
+    for (int i = 0; i < PENDING_MEMBERS; i++) {
+      group.addPendingMembers(PendingMember.newBuilder()
+                                           .setAddedByUserId(group.getMembers(i).getUserId())
+                                           .setTimestamp(i)
+                                           .setMember(Member.newBuilder()
+                                                            .setRole(Member.Role.DEFAULT)
+                                                            .setUserId(groupOperations.encryptUuid(UUID.randomUUID()))));
+    }
+
+    for (int i = 0; i < REQUESTING_MEMBERS; i++) {
+      UUID uuid = UUID.randomUUID();
+
+      group.addRequestingMembers(RequestingMember.newBuilder()
+                                                 .setUserId(groupOperations.encryptUuid(uuid))
+                                                 .setProfileKey(ByteString.copyFrom(cipher.encryptProfileKey(newProfileKey(), uuid).serialize()))
+                                                 .setTimestamp(i));
+    }
+
+    return new LargeGroup(group.build(), expected);
+  }
+
+  private static ProfileKey newProfileKey() {
+    try {
+      return new ProfileKey(Util.getSecretBytes(32));
+    } catch (InvalidInputException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class LargeGroup {
+    private final Group                 group;
+    private final List<DecryptedMember> expectedMembers;
+
+    private LargeGroup(Group group, List<DecryptedMember> expectedMembers) {
+      this.group           = group;
+      this.expectedMembers = expectedMembers;
+    }
+  }
+}
@@ -3,41 +3,138 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A fixed-size list for efficiently storing data sets that are mostly empty space.
+ *
+ * Items are stored in fixed-size chunks, and a chunk is only allocated once something is set
+ * inside of it. Copying a {@link CompressedList} shares all of the chunks with the original, and
+ * a chunk is only duplicated the first time either list writes to it. That means updating a page
+ * of a copy costs time proportional to the page, not the size of the whole list.
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  static final int CHUNK_SIZE = 64;
+
+  private final int        size;
+  private final Chunk<E>[] chunks;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
-  }
+    this(source.size());
 
-  public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
+    if (source instanceof CompressedList) {
+      Chunk<E>[] sourceChunks = ((CompressedList<E>) source).chunks;
+
+      for (int i = 0; i < chunks.length; i++) {
+        Chunk<E> chunk = sourceChunks[i];
+
+        if (chunk != null) {
+          chunk.shared = true;
+          chunks[i]    = chunk;
+        }
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        E element = source.get(i);
 
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+        if (element != null) {
+          set(i, element);
+        }
+      }
     }
   }
 
+  @SuppressWarnings("unchecked")
+  public CompressedList(int totalSize) {
+    this.size   = totalSize;
+    this.chunks = new Chunk[(totalSize + CHUNK_SIZE - 1) / CHUNK_SIZE];
+  }
+
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
   @Override
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index);
+
+    Chunk<E> chunk = chunks[index / CHUNK_SIZE];
+
+    return chunk != null ? chunk.get(index % CHUNK_SIZE) : null;
   }
 
   @Override
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex);
+
+    int      chunkIndex = globalIndex / CHUNK_SIZE;
+    Chunk<E> chunk      = chunks[chunkIndex];
+
+    if (chunk == null) {
+      if (element == null) {
+        return null;
+      }
+
+      chunk = new Chunk<>();
+      chunks[chunkIndex] = chunk;
+    } else if (chunk.shared) {
+      chunk = new Chunk<>(chunk);
+      chunks[chunkIndex] = chunk;
+    }
+
+    return chunk.set(globalIndex % CHUNK_SIZE, element);
+  }
+
+  /**
+   * @return The number of chunks that are currently allocated. Exposed for testing.
+   */
+  int getAllocatedChunkCount() {
+    int count = 0;
+
+    for (Chunk<E> chunk : chunks) {
+      if (chunk != null) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private static final class Chunk<E> {
+    private final Object[] items;
+
+    /**
+     * Set once the chunk is referenced by more than one list. Shared chunks are never written to
+     * again -- whichever list writes first will make its own copy.
+     */
+    private boolean shared;
+
+    Chunk() {
+      this.items = new Object[CHUNK_SIZE];
+    }
+
+    Chunk(@NonNull Chunk<E> other) {
+      this.items = other.items.clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(int index) {
+      return (E) items[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    E set(int index, E element) {
+      E previous = (E) items[index];
+      items[index] = element;
+      return previous;
+    }
   }
 }
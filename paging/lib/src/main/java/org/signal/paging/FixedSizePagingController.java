@@ -1,6 +1,7 @@
 package org.signal.paging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.MutableLiveData;
 
 import org.signal.core.util.concurrent.SignalExecutors;
@@ -96,7 +97,7 @@ class FixedSizePagingController<E> implements PagingController {
         return;
       }
 
-      List<E> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated);
+      List<E> loaded = load(loadStart, loadEnd - loadStart);
 
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! Just after data was loaded."));
@@ -114,6 +115,43 @@ class FixedSizePagingController<E> implements PagingController {
     });
   }
 
+  /**
+   * Must be called on the fetch executor, since it reads the currently-loaded data. If the data
+   * source supports it and a neighbor of the requested range is already loaded, the page is loaded
+   * relative to that neighbor rather than by offset.
+   */
+  private @NonNull List<E> load(int start, int length) {
+    if (dataSource instanceof SeekablePagedDataSource) {
+      List<E> seeked = seek((SeekablePagedDataSource<?, E>) dataSource, start, length);
+      if (seeked != null) {
+        return seeked;
+      }
+    }
+
+    return dataSource.load(start, length, () -> invalidated);
+  }
+
+  private @Nullable <K> List<E> seek(@NonNull SeekablePagedDataSource<K, E> seekable, int start, int length) {
+    E previous    = start > 0 ? data.get(start - 1) : null;
+    K previousKey = previous != null ? seekable.getKey(previous) : null;
+
+    if (previousKey != null) {
+      if (DEBUG) Log.i(TAG, "Seeking after index " + (start - 1));
+      return seekable.loadAfter(previousKey, start, length, () -> invalidated);
+    }
+
+    int end     = start + length;
+    E   next    = end < data.size() ? data.get(end) : null;
+    K   nextKey = next != null ? seekable.getKey(next) : null;
+
+    if (nextKey != null) {
+      if (DEBUG) Log.i(TAG, "Seeking before index " + end);
+      return seekable.loadBefore(nextKey, start, length, () -> invalidated);
+    }
+
+    return null;
+  }
+
   @Override
   public void onDataInvalidated() {
     if (invalidated) {
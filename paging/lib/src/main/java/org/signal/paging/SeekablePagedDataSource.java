@@ -0,0 +1,51 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.List;
+
+/**
+ * A {@link PagedDataSource} that can also load a page relative to an item that has already been
+ * loaded, rather than by absolute position.
+ *
+ * Sources backed by a database can use this to seek directly to the requested rows with an indexed
+ * range query, instead of using an OFFSET that has to walk past every earlier row. The paging
+ * controller will prefer these methods whenever a neighbor of the requested range is already
+ * loaded, and fall back to {@link #load(int, int, CancellationSignal)} otherwise.
+ *
+ * @param <K> A key that uniquely identifies the position of an item in the data set.
+ */
+public interface SeekablePagedDataSource<K, T> extends PagedDataSource<T> {
+
+  /**
+   * @return The key for the provided item, or null if the item can't be used as an anchor (for
+   *         instance, if it doesn't come from the underlying store).
+   */
+  @Nullable K getKey(@NonNull T item);
+
+  /**
+   * @param key The key of the item immediately before {@code start}.
+   * @param start The index of the first item that should be included in your results. Provided
+   *              for bookkeeping only -- the position in the data set should come from the key.
+   * @param length The total number of items you should return.
+   *
+   * @return A list of up to {@code length} items that come immediately after the item identified
+   *         by {@code key}, in data set order.
+   */
+  @WorkerThread
+  @NonNull List<T> loadAfter(@NonNull K key, int start, int length, @NonNull CancellationSignal cancellationSignal);
+
+  /**
+   * @param key The key of the item immediately after the requested range, i.e. at {@code start + length}.
+   * @param start The index of the first item that should be included in your results. Provided
+   *              for bookkeeping only -- the position in the data set should come from the key.
+   * @param length The total number of items you should return.
+   *
+   * @return A list of up to {@code length} items that come immediately before the item identified
+   *         by {@code key}, in data set order.
+   */
+  @WorkerThread
+  @NonNull List<T> loadBefore(@NonNull K key, int start, int length, @NonNull CancellationSignal cancellationSignal);
+}
@@ -0,0 +1,78 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class CompressedListTest {
+
+  @Test
+  public void newList_allNull_noChunksAllocated() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    assertEquals(1000, list.size());
+    assertNull(list.get(0));
+    assertNull(list.get(999));
+    assertEquals(0, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void set_onlyAllocatesTouchedChunks() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    list.set(5, 5);
+    list.set(6, 6);
+    list.set(999, 999);
+
+    assertEquals(Integer.valueOf(5), list.get(5));
+    assertEquals(Integer.valueOf(6), list.get(6));
+    assertEquals(Integer.valueOf(999), list.get(999));
+    assertNull(list.get(7));
+    assertEquals(2, list.getAllocatedChunkCount());
+  }
+
+  @Test
+  public void copy_writesDoNotAffectOriginal() {
+    CompressedList<Integer> original = new CompressedList<>(1000);
+    original.set(10, 10);
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    copy.set(10, 11);
+    copy.set(11, 12);
+
+    assertEquals(Integer.valueOf(10), original.get(10));
+    assertNull(original.get(11));
+    assertEquals(Integer.valueOf(11), copy.get(10));
+    assertEquals(Integer.valueOf(12), copy.get(11));
+  }
+
+  @Test
+  public void copy_writesToOriginalDoNotAffectCopy() {
+    CompressedList<Integer> original = new CompressedList<>(1000);
+    original.set(10, 10);
+
+    CompressedList<Integer> copy = new CompressedList<>(original);
+    original.set(10, 20);
+
+    assertEquals(Integer.valueOf(20), original.get(10));
+    assertEquals(Integer.valueOf(10), copy.get(10));
+  }
+
+  @Test
+  public void copy_fromRegularList() {
+    CompressedList<Integer> list = new CompressedList<>(Arrays.asList(1, null, 3));
+
+    assertEquals(3, list.size());
+    assertEquals(Integer.valueOf(1), list.get(0));
+    assertNull(list.get(1));
+    assertEquals(Integer.valueOf(3), list.get(2));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void get_outOfBounds() {
+    new CompressedList<Integer>(CompressedList.CHUNK_SIZE + 1).get(CompressedList.CHUNK_SIZE + 1);
+  }
+}
@@ -0,0 +1,290 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mp4parser.IsoFile;
+import org.mp4parser.boxes.iso14496.part12.FileTypeBox;
+import org.mp4parser.boxes.iso14496.part12.MediaDataBox;
+import org.mp4parser.boxes.iso14496.part12.MovieBox;
+import org.mp4parser.boxes.iso14496.part12.MovieExtendsBox;
+import org.mp4parser.boxes.iso14496.part12.MovieFragmentBox;
+import org.mp4parser.boxes.iso14496.part12.SampleDescriptionBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentBaseMediaDecodeTimeBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentHeaderBox;
+import org.mp4parser.boxes.iso14496.part12.TrackRunBox;
+import org.mp4parser.boxes.sampleentry.VisualSampleEntry;
+import org.mp4parser.streaming.StreamingSample;
+import org.mp4parser.streaming.StreamingTrack;
+import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
+import org.mp4parser.streaming.input.AbstractStreamingTrack;
+import org.mp4parser.streaming.input.StreamingSampleImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Muxes synthetic AVC and AAC samples. The video samples aren't decodable, they only have the sizes,
+ * timing and sync sample pattern of a real encoder's output.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class FragmentedMp4WriterTest {
+
+  private static final String TAG = FragmentedMp4WriterTest.class.getSimpleName();
+
+  private static final int VIDEO_TIMESCALE       = 90000;
+  private static final int VIDEO_FRAME_DURATION  = VIDEO_TIMESCALE / 30;
+  private static final int VIDEO_KEYFRAME_PERIOD = 30;
+  private static final int VIDEO_KEYFRAME_SIZE   = 40_000;
+  private static final int VIDEO_FRAME_SIZE      = 8_000;
+
+  private static final int AUDIO_SAMPLE_RATE = 44100;
+  private static final int AUDIO_FRAME_SIZE  = 370;
+
+  @Test
+  public void fragmented_output_structure() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    MuxResult             result = mux(true, 10, Channels.newChannel(output));
+
+    IsoFile isoFile = new IsoFile(Channels.newChannel(new ByteArrayInputStream(output.toByteArray())));
+
+    assertEquals("iso6", isoFile.getBoxes(FileTypeBox.class).get(0).getMajorBrand());
+
+    MovieBox moov = isoFile.getBoxes(MovieBox.class).get(0);
+    assertEquals(2, moov.getTrackCount());
+    assertEquals(2, moov.getBoxes(MovieExtendsBox.class).get(0).getBoxes().size());
+
+    List<MovieFragmentBox> moofs = isoFile.getBoxes(MovieFragmentBox.class);
+    assertEquals(moofs.size(), isoFile.getBoxes(MediaDataBox.class).size());
+    assertTrue(moofs.size() >= 10);
+
+    Map<Long, Long> sampleCounts    = new HashMap<>();
+    Map<Long, Long> nextDecodeTimes = new HashMap<>();
+
+    for (MovieFragmentBox moof : moofs) {
+      TrackFragmentBox traf    = moof.getBoxes(TrackFragmentBox.class).get(0);
+      long             trackId = traf.getBoxes(TrackFragmentHeaderBox.class).get(0).getTrackId();
+      TrackRunBox      trun    = traf.getBoxes(TrackRunBox.class).get(0);
+      long             tfdt    = traf.getBoxes(TrackFragmentBaseMediaDecodeTimeBox.class).get(0).getBaseMediaDecodeTime();
+
+      assertEquals(moof.getSize() + 8, trun.getDataOffset());
+      assertEquals(getOrZero(nextDecodeTimes, trackId), tfdt);
+
+      long duration = 0;
+      for (TrackRunBox.Entry entry : trun.getEntries()) {
+        duration += entry.getSampleDuration();
+      }
+
+      sampleCounts.put(trackId, getOrZero(sampleCounts, trackId) + trun.getEntries().size());
+      nextDecodeTimes.put(trackId, tfdt + duration);
+    }
+
+    assertEquals(result.videoSamples, getOrZero(sampleCounts, 1L));
+    assertEquals(result.audioSamples, getOrZero(sampleCounts, 2L));
+  }
+
+  @Test
+  public void fragmented_video_fragments_start_on_keyframes() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    mux(true, 10, Channels.newChannel(output));
+
+    IsoFile isoFile = new IsoFile(Channels.newChannel(new ByteArrayInputStream(output.toByteArray())));
+
+    for (MovieFragmentBox moof : isoFile.getBoxes(MovieFragmentBox.class)) {
+      TrackFragmentBox traf = moof.getBoxes(TrackFragmentBox.class).get(0);
+
+      if (traf.getBoxes(TrackFragmentHeaderBox.class).get(0).getTrackId() == 1) {
+        assertFalse(traf.getBoxes(TrackRunBox.class).get(0).getEntries().get(0).getSampleFlags().isSampleIsDifferenceSample());
+      }
+    }
+  }
+
+  @Test
+  public void fragmented_buffering_is_bounded() throws IOException {
+    MuxResult result = mux(true, 10 * 60, new CountingChannel());
+
+    assertTrue("Buffered " + result.maxBufferedBytes, result.maxBufferedBytes <= 2 * FragmentedMp4Writer.MAX_FRAGMENT_BYTES);
+  }
+
+  /**
+   * Samples the heap while muxing ten minutes of media with each writer. Results are logged.
+   */
+  @Test
+  public void peak_heap() throws IOException {
+    MuxResult standard   = mux(false, 10 * 60, new CountingChannel());
+    MuxResult fragmented = mux(true, 10 * 60, new CountingChannel());
+
+    Log.i(TAG, "10 minutes: standard peak heap " + standard.peakHeapBytes / 1024 + " kB, max buffered " + standard.maxBufferedBytes / 1024 + " kB");
+    Log.i(TAG, "10 minutes: fragmented peak heap " + fragmented.peakHeapBytes / 1024 + " kB, max buffered " + fragmented.maxBufferedBytes / 1024 + " kB");
+  }
+
+  private static @NonNull MuxResult mux(boolean fragmented, int seconds, @NonNull WritableByteChannel channel) throws IOException {
+    SyntheticVideoTrack    video   = new SyntheticVideoTrack();
+    SyntheticAudioTrack    audio   = new SyntheticAudioTrack();
+    CountingChannel        counter = new CountingChannel(channel);
+    List<StreamingTrack>   tracks  = Arrays.asList(video, audio);
+    Closeable              writer  = fragmented ? new FragmentedMp4Writer(tracks, counter) : new Mp4Writer(tracks, counter);
+    MuxResult              result  = new MuxResult();
+
+    long videoSamples = (long) seconds * VIDEO_TIMESCALE / VIDEO_FRAME_DURATION;
+    long audioSamples = (long) seconds * AUDIO_SAMPLE_RATE / 1024;
+    long fedBytes     = 0;
+    long headerBytes  = counter.written;
+
+    System.gc();
+
+    while (result.videoSamples < videoSamples || result.audioSamples < audioSamples) {
+      boolean videoNext = result.audioSamples >= audioSamples ||
+                          (result.videoSamples < videoSamples && result.videoSamples * VIDEO_FRAME_DURATION * AUDIO_SAMPLE_RATE <= result.audioSamples * 1024 * VIDEO_TIMESCALE);
+
+      if (videoNext) {
+        fedBytes += video.writeFrame(result.videoSamples % VIDEO_KEYFRAME_PERIOD == 0);
+        result.videoSamples++;
+
+        if (result.videoSamples % 30 == 0) {
+          Runtime runtime = Runtime.getRuntime();
+          result.peakHeapBytes = Math.max(result.peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+        }
+      } else {
+        fedBytes += audio.writeFrame();
+        result.audioSamples++;
+      }
+
+      result.maxBufferedBytes = Math.max(result.maxBufferedBytes, fedBytes - (counter.written - headerBytes));
+    }
+
+    writer.close();
+
+    return result;
+  }
+
+  private static long getOrZero(@NonNull Map<Long, Long> map, long key) {
+    Long value = map.get(key);
+    return value != null ? value : 0;
+  }
+
+  private static final class MuxResult {
+    long videoSamples;
+    long audioSamples;
+    long maxBufferedBytes;
+    long peakHeapBytes;
+  }
+
+  private static final class SyntheticVideoTrack extends AbstractStreamingTrack {
+
+    private final SampleDescriptionBox stsd = new SampleDescriptionBox();
+
+    SyntheticVideoTrack() {
+      VisualSampleEntry visualSampleEntry = new VisualSampleEntry("avc1");
+      visualSampleEntry.setWidth(1280);
+      visualSampleEntry.setHeight(720);
+      stsd.addBox(visualSampleEntry);
+    }
+
+    int writeFrame(boolean keyFrame) throws IOException {
+      int             size   = keyFrame ? VIDEO_KEYFRAME_SIZE : VIDEO_FRAME_SIZE;
+      StreamingSample sample = new StreamingSampleImpl(ByteBuffer.allocate(size), VIDEO_FRAME_DURATION);
+
+      SampleFlagsSampleExtension sampleFlagsSampleExtension = new SampleFlagsSampleExtension();
+      sampleFlagsSampleExtension.setSampleDependsOn(keyFrame ? 2 : 1);
+      sampleFlagsSampleExtension.setSampleIsNonSyncSample(!keyFrame);
+      sample.addSampleExtension(sampleFlagsSampleExtension);
+
+      sampleSink.acceptSample(sample, this);
+      return size;
+    }
+
+    @Override
+    public long getTimescale() {
+      return VIDEO_TIMESCALE;
+    }
+
+    @Override
+    public String getHandler() {
+      return "vide";
+    }
+
+    @Override
+    public String getLanguage() {
+      return "eng";
+    }
+
+    @Override
+    public SampleDescriptionBox getSampleDescriptionBox() {
+      return stsd;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static final class SyntheticAudioTrack extends AacTrack {
+
+    SyntheticAudioTrack() {
+      super(128000, 128000, AUDIO_SAMPLE_RATE, 2, 2);
+    }
+
+    int writeFrame() throws IOException {
+      processSample(ByteBuffer.allocate(AUDIO_FRAME_SIZE));
+      return AUDIO_FRAME_SIZE;
+    }
+  }
+
+  private static final class CountingChannel implements WritableByteChannel {
+
+    private final WritableByteChannel inner;
+
+    private long written;
+
+    CountingChannel() {
+      this(null);
+    }
+
+    CountingChannel(WritableByteChannel inner) {
+      this.inner = inner;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int count;
+
+      if (inner != null) {
+        count = inner.write(src);
+      } else {
+        count = src.remaining();
+        src.position(src.limit());
+      }
+
+      written += count;
+      return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,323 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import org.mp4parser.Box;
+import org.mp4parser.boxes.iso14496.part12.FileTypeBox;
+import org.mp4parser.boxes.iso14496.part12.MediaHeaderBox;
+import org.mp4parser.boxes.iso14496.part12.MovieBox;
+import org.mp4parser.boxes.iso14496.part12.MovieExtendsBox;
+import org.mp4parser.boxes.iso14496.part12.MovieFragmentBox;
+import org.mp4parser.boxes.iso14496.part12.MovieFragmentHeaderBox;
+import org.mp4parser.boxes.iso14496.part12.MovieHeaderBox;
+import org.mp4parser.boxes.iso14496.part12.SampleFlags;
+import org.mp4parser.boxes.iso14496.part12.TrackBox;
+import org.mp4parser.boxes.iso14496.part12.TrackExtendsBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentBaseMediaDecodeTimeBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentBox;
+import org.mp4parser.boxes.iso14496.part12.TrackFragmentHeaderBox;
+import org.mp4parser.boxes.iso14496.part12.TrackRunBox;
+import org.mp4parser.streaming.StreamingSample;
+import org.mp4parser.streaming.StreamingTrack;
+import org.mp4parser.streaming.extensions.CompositionTimeSampleExtension;
+import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
+import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
+import org.mp4parser.streaming.extensions.TrackIdTrackExtension;
+import org.mp4parser.streaming.output.SampleSink;
+import org.mp4parser.streaming.output.mp4.DefaultBoxes;
+import org.mp4parser.tools.Mp4Arrays;
+import org.mp4parser.tools.Mp4Math;
+import org.signal.core.util.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.mp4parser.tools.CastUtils.l2i;
+
+/**
+ * Creates a fragmented MP4 file with ftyp, moov, (moof, mdat)+ order.
+ * <p>
+ * Like {@link Mp4Writer} it is written sequentially, but each track's samples are only held until
+ * their fragment fills up and is written, and no sample tables are built up for the end of the file.
+ * Memory use is bounded by the fragment size, however long the video is.
+ * <p>
+ * The catch is that the moov goes out before any samples are seen, so it can't carry the duration.
+ * Players work it out from the fragments instead, but can't seek until they have.
+ */
+final class FragmentedMp4Writer extends DefaultBoxes implements SampleSink, Closeable {
+
+  private static final String TAG = "FragmentedMp4Writer";
+
+  /**
+   * Once a track has buffered this much media, its fragment is cut at the next sync sample.
+   */
+  private static final long FRAGMENT_DURATION_SECONDS = 1;
+
+  /**
+   * A fragment is cut regardless of sync samples before it would grow past this size.
+   */
+  static final long MAX_FRAGMENT_BYTES = 1024 * 1024;
+
+  private final WritableByteChannel             sink;
+  private final List<StreamingTrack>            source;
+  private final Map<StreamingTrack, TrackState> trackStates  = new HashMap<>();
+  private final Date                            creationTime = new Date();
+
+  private long sequenceNumber = 1;
+
+  FragmentedMp4Writer(final @NonNull List<StreamingTrack> source, final @NonNull WritableByteChannel sink) throws IOException {
+    this.source = new ArrayList<>(source);
+    this.sink   = sink;
+
+    final HashSet<Long> trackIds = new HashSet<>();
+    for (StreamingTrack streamingTrack : source) {
+      streamingTrack.setSampleSink(this);
+      trackStates.put(streamingTrack, new TrackState());
+      if (streamingTrack.getTrackExtension(TrackIdTrackExtension.class) != null) {
+        final TrackIdTrackExtension trackIdTrackExtension = streamingTrack.getTrackExtension(TrackIdTrackExtension.class);
+        if (trackIds.contains(trackIdTrackExtension.getTrackId())) {
+          throw new MuxingException("There may not be two tracks with the same trackID within one file");
+        }
+        trackIds.add(trackIdTrackExtension.getTrackId());
+      }
+    }
+    for (StreamingTrack streamingTrack : source) {
+      if (streamingTrack.getTrackExtension(TrackIdTrackExtension.class) == null) {
+        long maxTrackId = 0;
+        for (Long trackId : trackIds) {
+          maxTrackId = Math.max(trackId, maxTrackId);
+        }
+        final TrackIdTrackExtension tiExt = new TrackIdTrackExtension(maxTrackId + 1);
+        trackIds.add(tiExt.getTrackId());
+        streamingTrack.addTrackExtension(tiExt);
+      }
+    }
+
+    final List<String> minorBrands = new LinkedList<>();
+    minorBrands.add("iso6");
+    minorBrands.add("isom");
+    minorBrands.add("mp42");
+    write(new FileTypeBox("iso6", 0, minorBrands), createMoov());
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (StreamingTrack streamingTrack : source) {
+      final TrackState trackState = Objects.requireNonNull(trackStates.get(streamingTrack));
+      if (!trackState.samples.isEmpty()) {
+        writeFragment(streamingTrack, trackState);
+      }
+      streamingTrack.close();
+    }
+  }
+
+  @Override
+  public void acceptSample(final @NonNull StreamingSample streamingSample,
+                           final @NonNull StreamingTrack streamingTrack)
+      throws IOException
+  {
+    final TrackState trackState = Objects.requireNonNull(trackStates.get(streamingTrack));
+
+    if (isFragmentReady(streamingTrack, trackState, streamingSample)) {
+      writeFragment(streamingTrack, trackState);
+    }
+
+    trackState.samples.add(streamingSample);
+    trackState.bufferedBytes       += streamingSample.getContent().limit();
+    trackState.nextSampleStartTime += streamingSample.getDuration();
+  }
+
+  /**
+   * Tests if the samples buffered for a track should be written out as a fragment before the next
+   * sample is added. Fragments start on sync samples where possible so that players can seek to them.
+   */
+  private static boolean isFragmentReady(final @NonNull StreamingTrack streamingTrack,
+                                         final @NonNull TrackState trackState,
+                                         final @NonNull StreamingSample next)
+  {
+    if (trackState.samples.isEmpty()) {
+      return false;
+    }
+
+    if (trackState.bufferedBytes + next.getContent().limit() > MAX_FRAGMENT_BYTES) {
+      return true;
+    }
+
+    final long bufferedDuration = trackState.nextSampleStartTime - trackState.fragmentStartTime;
+
+    return bufferedDuration >= FRAGMENT_DURATION_SECONDS * streamingTrack.getTimescale() && isSyncSample(next);
+  }
+
+  private void writeFragment(final @NonNull StreamingTrack streamingTrack, final @NonNull TrackState trackState) throws IOException {
+    final MovieFragmentBox moof = new MovieFragmentBox();
+
+    final MovieFragmentHeaderBox mfhd = new MovieFragmentHeaderBox();
+    mfhd.setSequenceNumber(sequenceNumber++);
+    moof.addBox(mfhd);
+
+    final TrackRunBox      trun = createTrun(streamingTrack, trackState.samples);
+    final TrackFragmentBox traf = new TrackFragmentBox();
+    traf.addBox(createTfhd(streamingTrack));
+    traf.addBox(createTfdt(trackState.fragmentStartTime));
+    traf.addBox(trun);
+    moof.addBox(traf);
+
+    // The data offset is relative to the start of the moof, and the mdat follows right after it
+    trun.setDataOffset(l2i(moof.getSize() + 8));
+
+    write(moof, new Mp4Writer.Mdat(trackState.samples));
+
+    Log.d(TAG, "fragment " + (sequenceNumber - 1) + " written for " + streamingTrack.getHandler() + ". " + trackState.samples.size() + " samples, " + trackState.bufferedBytes + " bytes, duration " + (double) (trackState.nextSampleStartTime - trackState.fragmentStartTime) / streamingTrack.getTimescale());
+
+    trackState.samples.clear();
+    trackState.bufferedBytes     = 0;
+    trackState.fragmentStartTime = trackState.nextSampleStartTime;
+  }
+
+  private @NonNull Box createMoov() {
+    final MovieBox movieBox = new MovieBox();
+    movieBox.addBox(createMvhd());
+
+    for (StreamingTrack streamingTrack : source) {
+      final TrackBox tb = new TrackBox();
+      tb.addBox(createTkhd(streamingTrack));
+      tb.addBox(createMdia(streamingTrack));
+      movieBox.addBox(tb);
+    }
+
+    final MovieExtendsBox mvex = new MovieExtendsBox();
+    for (StreamingTrack streamingTrack : source) {
+      mvex.addBox(createTrex(streamingTrack));
+    }
+    movieBox.addBox(mvex);
+
+    return movieBox;
+  }
+
+  @Override
+  protected MovieHeaderBox createMvhd() {
+    final MovieHeaderBox mvhd = new MovieHeaderBox();
+    mvhd.setVersion(1);
+    mvhd.setCreationTime(creationTime);
+    mvhd.setModificationTime(creationTime);
+
+    long[] timescales = new long[0];
+    long   maxTrackId = 0;
+    for (StreamingTrack streamingTrack : source) {
+      timescales = Mp4Arrays.copyOfAndAppend(timescales, streamingTrack.getTimescale());
+      maxTrackId = Math.max(streamingTrack.getTrackExtension(TrackIdTrackExtension.class).getTrackId(), maxTrackId);
+    }
+
+    mvhd.setTimescale(Mp4Math.lcm(timescales));
+    // duration is left at zero, it's only known once all fragments have been written
+    mvhd.setNextTrackId(maxTrackId + 1);
+    return mvhd;
+  }
+
+  protected @NonNull Box createMdhd(final @NonNull StreamingTrack streamingTrack) {
+    final MediaHeaderBox mdhd = new MediaHeaderBox();
+    mdhd.setCreationTime(creationTime);
+    mdhd.setModificationTime(creationTime);
+    mdhd.setTimescale(streamingTrack.getTimescale());
+    mdhd.setLanguage(streamingTrack.getLanguage());
+    return mdhd;
+  }
+
+  private static @NonNull Box createTrex(final @NonNull StreamingTrack streamingTrack) {
+    final TrackExtendsBox trex = new TrackExtendsBox();
+    trex.setTrackId(streamingTrack.getTrackExtension(TrackIdTrackExtension.class).getTrackId());
+    trex.setDefaultSampleDescriptionIndex(1);
+    trex.setDefaultSampleDuration(0);
+    trex.setDefaultSampleSize(0);
+    trex.setDefaultSampleFlags(new SampleFlags());
+    return trex;
+  }
+
+  private static @NonNull Box createTfhd(final @NonNull StreamingTrack streamingTrack) {
+    final TrackFragmentHeaderBox tfhd = new TrackFragmentHeaderBox();
+    tfhd.setTrackId(streamingTrack.getTrackExtension(TrackIdTrackExtension.class).getTrackId());
+    tfhd.setBaseDataOffset(-1);
+    tfhd.setDefaultBaseIsMoof(true);
+    return tfhd;
+  }
+
+  private static @NonNull Box createTfdt(final long baseMediaDecodeTime) {
+    final TrackFragmentBaseMediaDecodeTimeBox tfdt = new TrackFragmentBaseMediaDecodeTimeBox();
+    tfdt.setVersion(1);
+    tfdt.setBaseMediaDecodeTime(baseMediaDecodeTime);
+    return tfdt;
+  }
+
+  private static @NonNull TrackRunBox createTrun(final @NonNull StreamingTrack streamingTrack, final @NonNull List<StreamingSample> samples) {
+    final boolean                 hasCompositionTimes = streamingTrack.getTrackExtension(CompositionTimeTrackExtension.class) != null;
+    final List<TrackRunBox.Entry> entries             = new ArrayList<>(samples.size());
+
+    for (StreamingSample sample : samples) {
+      int compositionTimeOffset = 0;
+      if (hasCompositionTimes) {
+        final CompositionTimeSampleExtension compositionTimeSampleExtension = sample.getSampleExtension(CompositionTimeSampleExtension.class);
+        if (compositionTimeSampleExtension != null) {
+          compositionTimeOffset = l2i(compositionTimeSampleExtension.getCompositionTimeOffset());
+        }
+      }
+
+      entries.add(new TrackRunBox.Entry(sample.getDuration(), sample.getContent().limit(), createSampleFlags(sample), compositionTimeOffset));
+    }
+
+    final TrackRunBox trun = new TrackRunBox();
+    // version 1 allows negative composition time offsets
+    trun.setVersion(1);
+    trun.setSampleDurationPresent(true);
+    trun.setSampleSizePresent(true);
+    trun.setSampleFlagsPresent(true);
+    trun.setSampleCompositionTimeOffsetPresent(hasCompositionTimes);
+    trun.setEntries(entries);
+    // placeholder so the data offset is counted in the box size, the real value depends on that size
+    trun.setDataOffset(0);
+    return trun;
+  }
+
+  private static @NonNull SampleFlags createSampleFlags(final @NonNull StreamingSample sample) {
+    final SampleFlags                sampleFlags                = new SampleFlags();
+    final SampleFlagsSampleExtension sampleFlagsSampleExtension = sample.getSampleExtension(SampleFlagsSampleExtension.class);
+
+    if (sampleFlagsSampleExtension != null) {
+      sampleFlags.setSampleDependsOn(sampleFlagsSampleExtension.getSampleDependsOn());
+      sampleFlags.setSampleIsDependedOn(sampleFlagsSampleExtension.getSampleIsDependedOn());
+      sampleFlags.setSampleIsDifferenceSample(!sampleFlagsSampleExtension.isSyncSample());
+    } else {
+      // no flags means every sample stands on its own, as with audio
+      sampleFlags.setSampleDependsOn(2);
+    }
+
+    return sampleFlags;
+  }
+
+  private static boolean isSyncSample(final @NonNull StreamingSample sample) {
+    final SampleFlagsSampleExtension sampleFlagsSampleExtension = sample.getSampleExtension(SampleFlagsSampleExtension.class);
+    return sampleFlagsSampleExtension == null || sampleFlagsSampleExtension.isSyncSample();
+  }
+
+  private void write(final @NonNull Box... boxes) throws IOException {
+    for (Box box : boxes) {
+      box.getBox(sink);
+    }
+  }
+
+  private static final class TrackState {
+    final List<StreamingSample> samples = new ArrayList<>();
+
+    long bufferedBytes;
+    long fragmentStartTime;
+    long nextSampleStartTime;
+  }
+}
@@ -48,6 +48,7 @@ import org.mp4parser.tools.Mp4Math;
 import org.mp4parser.tools.Path;
 import org.signal.core.util.logging.Log;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -71,7 +72,7 @@ import static org.mp4parser.tools.CastUtils.l2i;
  * data while the <code>sink</code> receives it. (in contrast to typical implementations which need random
  * access to write length fields at the beginning of the file)
  */
-final class Mp4Writer extends DefaultBoxes implements SampleSink {
+final class Mp4Writer extends DefaultBoxes implements SampleSink, Closeable {
 
   private static final String TAG = "Mp4Writer";
 
@@ -378,7 +379,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     return mdhd;
   }
 
-  private class Mdat implements Box {
+  static class Mdat implements Box {
     final ArrayList<StreamingSample> samples;
     long size;
 
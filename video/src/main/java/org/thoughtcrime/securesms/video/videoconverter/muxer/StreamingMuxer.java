@@ -8,6 +8,7 @@ import androidx.annotation.NonNull;
 import org.mp4parser.streaming.StreamingTrack;
 import org.thoughtcrime.securesms.video.videoconverter.Muxer;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -18,11 +19,21 @@ import java.util.List;
 public final class StreamingMuxer implements Muxer {
 
   private final OutputStream          outputStream;
+  private final boolean               fragmented;
   private final List<MediaCodecTrack> tracks = new ArrayList<>();
-  private       Mp4Writer             mp4Writer;
+  private       Closeable             mp4Writer;
 
   public StreamingMuxer(OutputStream outputStream) {
+    this(outputStream, false);
+  }
+
+  /**
+   * @param fragmented Write a fragmented MP4, which keeps memory bounded by the fragment size rather
+   *                   than the length of the video, but leaves the duration out of the header.
+   */
+  public StreamingMuxer(OutputStream outputStream, boolean fragmented) {
     this.outputStream = outputStream;
+    this.fragmented   = fragmented;
   }
 
   @Override
@@ -31,7 +42,11 @@ public final class StreamingMuxer implements Muxer {
     for (MediaCodecTrack track : tracks) {
       source.add((StreamingTrack) track);
     }
-    mp4Writer = new Mp4Writer(source, Channels.newChannel(outputStream));
+    if (fragmented) {
+      mp4Writer = new FragmentedMp4Writer(source, Channels.newChannel(outputStream));
+    } else {
+      mp4Writer = new Mp4Writer(source, Channels.newChannel(outputStream));
+    }
   }
 
   @Override